@@ -13,13 +13,14 @@ import java.util.List;
 import java.util.concurrent.Callable;
 
 @Command(name = "obfuscator", mixinStandardHelpOptions = true, version = "1.0.0",
-        description = "Java Bytecode Obfuscator - Obfuscate Java JAR files with advanced keep rules")
+        description = "Java Bytecode Obfuscator - Obfuscate Java JAR files with advanced keep rules",
+        subcommands = {RetraceCommand.class})
 public class Main implements Callable<Integer>
 {
-    @Parameters(index = "0", description = "Input JAR file to obfuscate")
+    @Parameters(index = "0", arity = "0..1", description = "Input JAR file to obfuscate")
     private File inputJar;
 
-    @Parameters(index = "1", description = "Output JAR file")
+    @Parameters(index = "1", arity = "0..1", description = "Output JAR file")
     private File outputJar;
 
     @Option(names = {"-c", "--config"}, description = "Configuration file (JSON)")
@@ -63,12 +64,71 @@ public class Main implements Callable<Integer>
                          "  SEQUENTIAL_ALPHA - Sequential alphabetic (a, b, c... aa, ab, ac...)%n" +
                          "  RANDOM_SHORT - Random short names (abcd, xyzk, mnop...)%n" +
                          "  RANDOM_LONG - Random long names (highly obfuscated)%n" +
+                         "  RANDOM_PERMUTED - Random-looking short names from a keyed permutation, cheapest on huge jars%n" +
                          "  SINGLE_CHAR - Single character names (a, b, c...)")
     private NamingMode namingMode;
 
     @Option(names = {"--sequential-transformers"}, description = "Run transformers sequentially - each transformer processes all classes before the next starts (disabled by default)")
     private Boolean sequentialTransformers;
 
+    @Option(names = {"--rank-names-by-usage"}, description = "Give the shortest names to the most referenced classes and members, reusing names across unrelated owners")
+    private Boolean rankNamesByUsage;
+
+    @Option(names = {"--aggressive-overloading"}, description = "Give methods and fields with different descriptors the same names wherever the JVM can still tell them apart")
+    private Boolean aggressiveOverloading;
+
+    @Option(names = {"--shrink"}, description = "Remove classes, methods and fields that cannot be reached from entry points, keep rules or reflection hints")
+    private Boolean shrink;
+
+    @Option(names = {"--compact-constant-pools"}, description = "Rebuild the constant pool of every emitted class with only live entries, most loaded constants first")
+    private Boolean compactConstantPools;
+
+    @Option(names = {"--inline-simple-methods"}, description = "Replace calls to accessors, bridges and short private methods with their bodies, dropping methods left uncalled")
+    private Boolean inlineSimpleMethods;
+
+    @Option(names = {"--merge-classes"}, description = "Merge single-implementation interfaces, single-subclass abstract classes and small static helper classes into other classes")
+    private Boolean mergeClasses;
+
+    @Option(names = {"--obfuscate-control-flow"}, description = "Add opaque predicates to methods the JIT can afford them in, and flatten the branches of cold methods at HEAVY and MAXIMUM")
+    private Boolean obfuscateControlFlow;
+
+    @Option(names = {"--control-flow-profile"}, description = "File listing hot methods, one class.method or class.method(descriptor) per line, that control flow obfuscation leaves alone")
+    private File controlFlowProfile;
+
+    @Option(names = {"--strip-debug-info"}, description = "Remove local variable tables, parameter names and source file names from the output")
+    private Boolean stripDebugInfo;
+
+    @Option(names = {"--line-numbers"}, 
+            description = "What --strip-debug-info does with line numbers (default: STRIP):%n" +
+                         "  STRIP - Drop them with the rest of the debug information%n" +
+                         "  KEEP - Keep the original line numbers%n" +
+                         "  COMPACT - Renumber each class from line 1; retrace with the mapping restores the originals")
+    private LineNumberMode lineNumberMode;
+
+    @Option(names = {"--seed"}, description = "Seed for name generation; the same input and seed always produce the same names (default: random per run)")
+    private Long namingSeed;
+
+    @Option(names = {"--threads"}, description = "Maximum number of worker threads (default: available processors)")
+    private Integer maxThreads;
+
+    @Option(names = {"--compression-level"}, description = "Output JAR compression level from 0 to 9, where 0 stores entries uncompressed (default: -1, the deflate default)")
+    private Integer compressionLevel;
+
+    @Option(names = {"--incremental-cache"}, description = "Directory for the incremental build cache; unchanged classes reuse previous names and output")
+    private File incrementalCacheDir;
+
+    @Option(names = {"--apply-mapping"}, description = "Reuse names from an earlier mapping file (binary or text) for matching classes and members")
+    private File applyMappingFile;
+
+    @Option(names = {"--print-mapping"}, description = "Write the final mapping to a file (.txt, .map or .mapping for text, anything else for the binary format)")
+    private File mappingOutputFile;
+
+    @Option(names = {"--libraryjars"}, split = "${sys:path.separator}", description = "Library jars or directories of jars the input is compiled against (can be used multiple times); the JDK is always included")
+    private List<File> libraryJars;
+
+    @Option(names = {"--library-index"}, description = "Directory of precomputed library class indexes, built on first use and shared read-only by later and concurrent runs")
+    private File libraryIndexDir;
+
     @Option(names = {"--include-package"}, description = "Include specific package for obfuscation (can be used multiple times, e.g., com.example, org.myapp)")
     private List<String> includePackages;
 
@@ -278,6 +338,17 @@ public class Main implements Callable<Integer>
         System.out.println("Naming mode: " + config.getNamingMode().name() + " - " + config.getNamingMode().getDescription());
         System.out.println("Obfuscation level: " + config.getObfuscationLevel().name());
         System.out.println("Max threads: " + config.getMaxThreads());
+        System.out.println("Naming seed: " + config.getNamingSeed());
+        System.out.println("Rank names by usage: " + config.isRankNamesByUsage());
+        System.out.println("Aggressive overloading: " + config.isAggressiveOverloading());
+        System.out.println("Shrink: " + config.isShrink());
+        System.out.println("Compact constant pools: " + config.isCompactConstantPools());
+        System.out.println("Inline simple methods: " + config.isInlineSimpleMethods());
+        System.out.println("Merge classes: " + config.isMergeClasses());
+        System.out.println("Obfuscate control flow: " + config.isObfuscateControlFlow() + 
+                          (config.getControlFlowProfile() != null ? " (profile: " + config.getControlFlowProfile() + ")" : ""));
+        System.out.println("Strip debug info: " + config.isStripDebugInfo() + 
+                          (config.isStripDebugInfo() ? " (line numbers: " + config.getLineNumberMode().name() + ")" : ""));
         
         Runtime runtime = Runtime.getRuntime();
         System.out.println("Available memory: " + (runtime.maxMemory() / 1024 / 1024) + "MB");
@@ -379,6 +450,78 @@ public class Main implements Callable<Integer>
             builder.sequentialTransformers(sequentialTransformers);
         }
         
+        if (maxThreads != null) {
+            builder.maxThreads(maxThreads);
+        }
+        
+        if (namingSeed != null) {
+            builder.namingSeed(namingSeed);
+        }
+        
+        if (rankNamesByUsage != null) {
+            builder.rankNamesByUsage(rankNamesByUsage);
+        }
+        
+        if (aggressiveOverloading != null) {
+            builder.aggressiveOverloading(aggressiveOverloading);
+        }
+        
+        if (shrink != null) {
+            builder.shrink(shrink);
+        }
+        
+        if (compactConstantPools != null) {
+            builder.compactConstantPools(compactConstantPools);
+        }
+        
+        if (inlineSimpleMethods != null) {
+            builder.inlineSimpleMethods(inlineSimpleMethods);
+        }
+        if (mergeClasses != null) {
+            builder.mergeClasses(mergeClasses);
+        }
+        
+        if (obfuscateControlFlow != null) {
+            builder.obfuscateControlFlow(obfuscateControlFlow);
+        }
+        if (controlFlowProfile != null) {
+            builder.controlFlowProfile(controlFlowProfile.getPath());
+        }
+        
+        if (stripDebugInfo != null) {
+            builder.stripDebugInfo(stripDebugInfo);
+        }
+        
+        if (lineNumberMode != null) {
+            builder.lineNumberMode(lineNumberMode);
+        }
+        
+        if (compressionLevel != null) {
+            builder.compressionLevel(compressionLevel);
+        }
+        
+        if (incrementalCacheDir != null) {
+            builder.incrementalCacheDir(incrementalCacheDir.getPath());
+        }
+        
+        if (applyMappingFile != null) {
+            builder.applyMappingFile(applyMappingFile.getPath());
+        }
+        
+        if (mappingOutputFile != null) {
+            builder.mappingOutputFile(mappingOutputFile.getPath());
+        }
+        
+        if (libraryJars != null) {
+            for (File libraryJar : libraryJars) {
+                builder.libraryJar(libraryJar.getPath());
+            }
+        }
+        
+        if (libraryIndexDir != null) {
+            builder.libraryIndexDir(libraryIndexDir.getPath());
+        }
+        
         if (includePackages != null && !includePackages.isEmpty()) {
             for (String packageName : includePackages) {
                 String normalizedPackage = packageName.replace('.', '/');
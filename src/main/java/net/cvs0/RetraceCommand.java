@@ -0,0 +1,64 @@
+package net.cvs0;
+
+import net.cvs0.mapping.MappingFile;
+import net.cvs0.mapping.Retracer;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+@Command(name = "retrace", mixinStandardHelpOptions = true,
+        description = "Decode obfuscated stack traces in log files using a mapping written with --print-mapping")
+public class RetraceCommand implements Callable<Integer>
+{
+    @Parameters(index = "0", description = "Mapping file (binary or text)")
+    private File mappingFile;
+
+    @Parameters(index = "1..*", arity = "0..*", description = "Log files to decode (default: standard input)")
+    private List<File> logFiles;
+
+    @Option(names = {"-o", "--output"}, description = "Write the decoded log to a file instead of standard output")
+    private File outputFile;
+
+    @Option(names = {"-v", "--verbose"}, description = "Show method descriptors and print statistics to standard error")
+    private boolean verbose;
+
+    @Override
+    public Integer call() throws Exception
+    {
+        if (!mappingFile.exists()) {
+            throw new java.nio.file.NoSuchFileException("Mapping file does not exist: " + mappingFile.getAbsolutePath());
+        }
+
+        long startTime = System.currentTimeMillis();
+        Retracer retracer = new Retracer(MappingFile.load(mappingFile), verbose);
+        long loadTime = System.currentTimeMillis() - startTime;
+
+        long lineCount = 0;
+        long byteCount = 0;
+        OutputStream outputStream = outputFile != null ? new FileOutputStream(outputFile) : new FileOutputStream(FileDescriptor.out);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16)) {
+            if (logFiles == null || logFiles.isEmpty()) {
+                lineCount += retracer.retrace(new InputStreamReader(System.in, StandardCharsets.UTF_8), writer);
+            } else {
+                for (File logFile : logFiles) {
+                    try (Reader reader = new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8)) {
+                        lineCount += retracer.retrace(reader, writer);
+                    }
+                    byteCount += logFile.length();
+                }
+            }
+        }
+
+        if (verbose) {
+            long duration = Math.max(1, System.currentTimeMillis() - startTime - loadTime);
+            System.err.println("Loaded mapping in " + loadTime + "ms, decoded " + lineCount + " lines in " + duration + "ms" +
+                               (byteCount > 0 ? " (" + (byteCount * 1000 / duration / (1024 * 1024)) + " MB/s)" : ""));
+        }
+        return 0;
+    }
+}
@@ -81,6 +81,11 @@ public class CodeAttribute extends Attribute
         this.attributes.add(attribute);
     }
 
+    public boolean removeAttribute(Attribute attribute)
+    {
+        return this.attributes.remove(attribute);
+    }
+
     @Override
     public byte[] getData()
     {
@@ -0,0 +1,82 @@
+package net.cvs0.classfile;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public final class ConstantPoolScanner
+{
+    public static final int CONSTANT_UTF8 = 1;
+    public static final int CONSTANT_CLASS = 7;
+
+    private ConstantPoolScanner() {}
+
+    public static Set<String> collectClassReferences(byte[] classData)
+    {
+        ClassReader reader = new ClassReader(classData);
+        char[] charBuffer = new char[reader.getMaxStringLength()];
+        Set<String> references = new HashSet<>();
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            if (offset == 0) {
+                continue;
+            }
+
+            int tag = classData[offset - 1];
+            if (tag == CONSTANT_CLASS) {
+                String name = reader.readUTF8(offset, charBuffer);
+                if (name.startsWith("[")) {
+                    collectDescriptorReferences(name, references);
+                } else {
+                    references.add(name);
+                }
+            } else if (tag == CONSTANT_UTF8) {
+                collectDescriptorReferences(readUtf8(classData, offset, charBuffer), references);
+            }
+        }
+
+        references.remove(reader.getClassName());
+        return references;
+    }
+
+    public static void collectDescriptorReferences(String value, Set<String> references)
+    {
+        // Descriptors and signatures embed class names as L<name>; or L<name><...>
+        int start = value.indexOf('L');
+        while (start >= 0) {
+            int end = start + 1;
+            while (end < value.length() && value.charAt(end) != ';' && value.charAt(end) != '<') {
+                end++;
+            }
+            if (end < value.length() && end > start + 1) {
+                references.add(value.substring(start + 1, end));
+            }
+            start = value.indexOf('L', start + 1);
+        }
+    }
+
+    public static String readUtf8(byte[] classData, int offset, char[] charBuffer)
+    {
+        int length = ((classData[offset] & 0xFF) << 8) | (classData[offset + 1] & 0xFF);
+        int position = offset + 2;
+        int end = position + length;
+        int count = 0;
+
+        while (position < end) {
+            int current = classData[position++];
+            if ((current & 0x80) == 0) {
+                charBuffer[count++] = (char) (current & 0x7F);
+            } else if ((current & 0xE0) == 0xC0) {
+                charBuffer[count++] = (char) (((current & 0x1F) << 6) + (classData[position++] & 0x3F));
+            } else {
+                charBuffer[count++] = (char) (((current & 0xF) << 12)
+                        + ((classData[position++] & 0x3F) << 6)
+                        + (classData[position++] & 0x3F));
+            }
+        }
+
+        return new String(charBuffer, 0, count);
+    }
+}
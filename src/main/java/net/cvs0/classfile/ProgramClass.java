@@ -87,11 +87,26 @@ public class ProgramClass
         methods.add(method);
     }
     
+    public boolean removeField(ProgramField field)
+    {
+        return fields.remove(field);
+    }
+    
+    public boolean removeMethod(ProgramMethod method)
+    {
+        return methods.remove(method);
+    }
+    
     public void addAttribute(Attribute attribute)
     {
         attributes.add(attribute);
     }
     
+    public boolean removeAttribute(Attribute attribute)
+    {
+        return attributes.remove(attribute);
+    }
+    
     public ProgramField findField(String name, String descriptor)
     {
         for (ProgramField field : fields) {
@@ -18,8 +18,20 @@ public class ProgramMethod extends ProgramMember
     private final Map<String, Object> annotations;
     private final List<String> methodCalls;
     private final List<String> fieldAccesses;
+    private final List<String> typeReferences;
+    private final List<String> stringConstants;
+    private final List<String> methodHandles;
+    private final List<String> classLiterals;
+    private final List<String> lambdaTypes;
     private int instructionCount = 0;
     private boolean hasCodeFlag = false;
+    private int firstLine = 0;
+    private int lastLine = 0;
+    private int compactedFirstLine = 0;
+    private boolean inlinableBody = false;
+    private boolean accessorBody = false;
+    private int codeSize = 0;
+    private int loopDepth = 0;
     
     public ProgramMethod(int access, String name, String descriptor, String signature, String[] exceptions)
     {
@@ -31,6 +43,11 @@ public class ProgramMethod extends ProgramMember
         this.annotations = new HashMap<>();
         this.methodCalls = new ArrayList<>();
         this.fieldAccesses = new ArrayList<>();
+        this.typeReferences = new ArrayList<>();
+        this.stringConstants = new ArrayList<>();
+        this.methodHandles = new ArrayList<>();
+        this.classLiterals = new ArrayList<>();
+        this.lambdaTypes = new ArrayList<>();
     }
     
     public String[] getExceptions()
@@ -93,6 +110,11 @@ public class ProgramMethod extends ProgramMember
         attributes.add(attribute);
     }
     
+    public boolean removeAttribute(Attribute attribute)
+    {
+        return attributes.remove(attribute);
+    }
+    
     public int getMaxStack()
     {
         return maxStack;
@@ -208,6 +230,34 @@ public class ProgramMethod extends ProgramMember
         fieldAccesses.add(owner + "." + name + ":" + descriptor);
     }
     
+    public void addTypeReference(String internalName)
+    {
+        typeReferences.add(internalName);
+    }
+    
+    // Handles are recorded as calls too; this tells the ones that only name a method apart from real invocations
+    public void addMethodHandle(String owner, String name, String descriptor)
+    {
+        methodHandles.add(owner + "." + name + descriptor);
+    }
+    
+    // Classes the code holds as Class objects, so the class itself has to stay what it is
+    public void addClassLiteral(String internalName)
+    {
+        classLiterals.add(internalName);
+    }
+    
+    // Types an invokedynamic call site creates instances of, such as the interface a lambda implements
+    public void addLambdaType(String internalName)
+    {
+        lambdaTypes.add(internalName);
+    }
+    
+    public void addStringConstant(String value)
+    {
+        stringConstants.add(value);
+    }
+    
     public List<String> getMethodCalls()
     {
         return new ArrayList<>(methodCalls);
@@ -218,6 +268,69 @@ public class ProgramMethod extends ProgramMember
         return new ArrayList<>(fieldAccesses);
     }
     
+    public List<String> getTypeReferences()
+    {
+        return new ArrayList<>(typeReferences);
+    }
+    
+    public List<String> getStringConstants()
+    {
+        return new ArrayList<>(stringConstants);
+    }
+    
+    public List<String> getMethodHandles()
+    {
+        return new ArrayList<>(methodHandles);
+    }
+    
+    public List<String> getClassLiterals()
+    {
+        return new ArrayList<>(classLiterals);
+    }
+    
+    public List<String> getLambdaTypes()
+    {
+        return new ArrayList<>(lambdaTypes);
+    }
+    
+    public void recordLine(int line)
+    {
+        if (firstLine == 0 || line < firstLine) {
+            firstLine = line;
+        }
+        if (line > lastLine) {
+            lastLine = line;
+        }
+    }
+    
+    public int getFirstLine()
+    {
+        return firstLine;
+    }
+    
+    public int getLastLine()
+    {
+        return lastLine;
+    }
+    
+    public void clearLines()
+    {
+        firstLine = 0;
+        lastLine = 0;
+        compactedFirstLine = 0;
+    }
+    
+    // Where the method's first line ends up once line numbers are compacted, 0 while they are not
+    public void setCompactedFirstLine(int compactedFirstLine)
+    {
+        this.compactedFirstLine = compactedFirstLine;
+    }
+    
+    public int getCompactedFirstLine()
+    {
+        return compactedFirstLine;
+    }
+    
     public int getInstructionCount()
     {
         return instructionCount;
@@ -228,6 +341,50 @@ public class ProgramMethod extends ProgramMember
         this.instructionCount = instructionCount;
     }
     
+    // Straight-line body a call can be replaced with, its size in the instruction count
+    public void setInlinableBody(boolean inlinableBody)
+    {
+        this.inlinableBody = inlinableBody;
+    }
+    
+    public boolean isInlinableBody()
+    {
+        return inlinableBody;
+    }
+    
+    // Only moves its arguments into one field access or call, as getters, setters and bridges do
+    public void setAccessorBody(boolean accessorBody)
+    {
+        this.accessorBody = accessorBody;
+    }
+    
+    public boolean isAccessorBody()
+    {
+        return accessorBody;
+    }
+    
+    // Bytes of code at least, for weighing the method against the JIT's size limits
+    public void setCodeSize(int codeSize)
+    {
+        this.codeSize = codeSize;
+    }
+    
+    public int getCodeSize()
+    {
+        return codeSize;
+    }
+    
+    // How deeply its loops nest, 0 for code that runs through once per call
+    public void setLoopDepth(int loopDepth)
+    {
+        this.loopDepth = loopDepth;
+    }
+    
+    public int getLoopDepth()
+    {
+        return loopDepth;
+    }
+    
     public boolean hasAnnotation(String descriptor)
     {
         return annotations.containsKey(descriptor) || 
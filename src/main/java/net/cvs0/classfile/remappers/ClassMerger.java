@@ -0,0 +1,319 @@
+package net.cvs0.classfile.remappers;
+
+import net.cvs0.core.ClassMergePlan;
+import net.cvs0.core.ClassMergePlan.MergeKind;
+import net.cvs0.obfuscation.MappingContext;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Carries out a class merge plan on the remapped classes. The remapper gives each merged class an interim name of
+// its own, so it still comes out as a class file; this writes the members of that class file into the class it
+// merges into, and has every class that names it name that class instead. Calls to a merged interface become calls
+// on the class, and the constructors of the subclass a superclass merged into call the superclass it had
+public final class ClassMerger
+{
+    private static final String INTERIM_PACKAGE = "$merged$";
+
+    private final Map<String, String> interimNames = new HashMap<>();
+    private final Map<String, String> targetNames = new LinkedHashMap<>();
+    private final Map<String, MergeKind> kinds = new HashMap<>();
+    private final Map<String, Set<String>> movedMembers = new HashMap<>();
+    private final Remapper interimRemapper;
+    private final byte[] interimPrefix;
+
+    public ClassMerger(ClassMergePlan mergePlan, MappingContext mappingContext, Collection<String> outputClassNames)
+    {
+        // A package no class of the output is in, so a class refers to a merged one exactly when it mentions it
+        String interimPackage = INTERIM_PACKAGE;
+        while (hasPackagePrefix(outputClassNames, interimPackage + "/")) {
+            interimPackage += "$";
+        }
+        this.interimPrefix = (interimPackage + "/").getBytes(StandardCharsets.UTF_8);
+
+        Map<String, String> outputNames = new HashMap<>(mappingContext.getAllClassMappings());
+        for (String mergedClass : mergePlan.getMergedClasses()) {
+            outputNames.put(mergedClass, mappingContext.getObfuscatedClassName(mergePlan.getMerge(mergedClass).getTarget()));
+        }
+        Remapper outputRemapper = new SimpleRemapper(outputNames);
+
+        int index = 0;
+        for (String mergedClass : mergePlan.getMergedClasses()) {
+            ClassMergePlan.Merge merge = mergePlan.getMerge(mergedClass);
+            String interimName = interimPackage + "/" + index++;
+            interimNames.put(mergedClass, interimName);
+            targetNames.put(interimName, mappingContext.getObfuscatedClassName(merge.getTarget()));
+            kinds.put(interimName, merge.getKind());
+
+            // The members as they come out of the rewrite: named like the target's, in descriptors naming the target
+            Set<String> members = new HashSet<>();
+            for (String member : merge.getMembers()) {
+                int colonIndex = member.indexOf(':');
+                if (colonIndex >= 0) {
+                    String name = member.substring(0, colonIndex);
+                    String descriptor = member.substring(colonIndex + 1);
+                    members.add(mappingContext.getObfuscatedFieldName(merge.getTarget(), name, descriptor) + ":" +
+                               outputRemapper.mapDesc(descriptor));
+                } else {
+                    int parenIndex = member.indexOf('(');
+                    String name = member.substring(0, parenIndex);
+                    String descriptor = member.substring(parenIndex);
+                    members.add(mappingContext.getObfuscatedMethodName(merge.getTarget(), name, descriptor) +
+                               outputRemapper.mapMethodDesc(descriptor));
+                }
+            }
+            movedMembers.put(interimName, members);
+        }
+        this.interimRemapper = new SimpleRemapper(targetNames);
+    }
+
+    private static boolean hasPackagePrefix(Collection<String> classNames, String prefix)
+    {
+        for (String className : classNames) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The name the remapper gives a merged class until it is merged
+    public String getInterimName(String originalName)
+    {
+        return interimNames.get(originalName);
+    }
+
+    // Folds the merged classes into their targets and repoints every class referring to them. Returns the output
+    // names of the classes that changed
+    public Set<String> merge(Map<String, byte[]> remappedClasses)
+    {
+        Map<String, byte[]> mergedClasses = new HashMap<>();
+        Map<String, List<String>> mergedByTarget = new HashMap<>();
+        for (Map.Entry<String, String> entry : targetNames.entrySet()) {
+            byte[] classData = remappedClasses.remove(entry.getKey());
+            if (classData == null) {
+                throw new IllegalStateException("Merged class " + entry.getKey() + " is missing from the remapped classes");
+            }
+            mergedClasses.put(entry.getKey(), classData);
+            mergedByTarget.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        // Superclass constructor calls go past a merged superclass, to the superclass it had
+        Map<String, String> superNames = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : mergedClasses.entrySet()) {
+            if (kinds.get(entry.getKey()) == MergeKind.SUPERCLASS) {
+                superNames.put(entry.getKey(), new ClassReader(entry.getValue()).getSuperName());
+            }
+        }
+
+        Set<String> rewritten = new HashSet<>();
+        for (Map.Entry<String, byte[]> entry : remappedClasses.entrySet()) {
+            List<String> merged = mergedByTarget.getOrDefault(entry.getKey(), Collections.emptyList());
+            if (merged.isEmpty() && !mentionsInterimName(entry.getValue())) {
+                continue;
+            }
+
+            ClassReader classReader = new ClassReader(entry.getValue());
+            ClassWriter classWriter = new ClassWriter(0);
+            ClassVisitor classVisitor = merged.isEmpty() ? classWriter :
+                new MergingClassVisitor(classWriter, merged, mergedClasses, superNames);
+            classReader.accept(new ReferenceFixer(new ClassRemapper(classVisitor, interimRemapper), superNames), 0);
+            entry.setValue(classWriter.toByteArray());
+            rewritten.add(entry.getKey());
+        }
+        return rewritten;
+    }
+
+    private boolean mentionsInterimName(byte[] classData)
+    {
+        outer:
+        for (int i = 0; i <= classData.length - interimPrefix.length; i++) {
+            for (int j = 0; j < interimPrefix.length; j++) {
+                if (classData[i + j] != interimPrefix[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Sees the interim names before they are remapped, and turns what refers to a merged class in a way its target
+    // cannot be referred to into what refers to the target
+    private class ReferenceFixer extends ClassVisitor
+    {
+        private final Map<String, String> superNames;
+
+        ReferenceFixer(ClassVisitor classVisitor, Map<String, String> superNames)
+        {
+            super(Opcodes.ASM9, classVisitor);
+            this.superNames = superNames;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface)
+                {
+                    if (kinds.get(owner) == MergeKind.INTERFACE) {
+                        opcode = opcode == Opcodes.INVOKEINTERFACE ? Opcodes.INVOKEVIRTUAL : opcode;
+                        isInterface = false;
+                    } else if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>") && superNames.containsKey(owner)) {
+                        owner = superNames.get(owner);
+                    }
+                    super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                }
+
+                @Override
+                public void visitLdcInsn(Object value)
+                {
+                    super.visitLdcInsn(fixConstant(value));
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethod, Object... bootstrapArguments)
+                {
+                    Object[] arguments = new Object[bootstrapArguments.length];
+                    for (int i = 0; i < arguments.length; i++) {
+                        arguments[i] = fixConstant(bootstrapArguments[i]);
+                    }
+                    super.visitInvokeDynamicInsn(name, descriptor, (Handle) fixConstant(bootstrapMethod), arguments);
+                }
+            };
+        }
+
+        private Object fixConstant(Object value)
+        {
+            if (value instanceof Handle) {
+                Handle handle = (Handle) value;
+                if (kinds.get(handle.getOwner()) != MergeKind.INTERFACE) {
+                    return handle;
+                }
+                int tag = handle.getTag() == Opcodes.H_INVOKEINTERFACE ? Opcodes.H_INVOKEVIRTUAL : handle.getTag();
+                return new Handle(tag, handle.getOwner(), handle.getName(), handle.getDesc(), false);
+            }
+            if (value instanceof ConstantDynamic) {
+                ConstantDynamic constantDynamic = (ConstantDynamic) value;
+                Object[] arguments = new Object[constantDynamic.getBootstrapMethodArgumentCount()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = fixConstant(constantDynamic.getBootstrapMethodArgument(i));
+                }
+                return new ConstantDynamic(constantDynamic.getName(), constantDynamic.getDescriptor(),
+                                           (Handle) fixConstant(constantDynamic.getBootstrapMethod()), arguments);
+            }
+            return value;
+        }
+    }
+
+    // Sees a target after remapping, where a merged supertype already names the target itself. Takes over the
+    // supertypes of the classes merged into it, and appends their members once its own are written
+    private class MergingClassVisitor extends ClassVisitor
+    {
+        private final List<String> merged;
+        private final Map<String, byte[]> mergedClasses;
+        private final Map<String, String> superNames;
+        private final Set<String> declaredMembers = new HashSet<>();
+
+        MergingClassVisitor(ClassVisitor classVisitor, List<String> merged, Map<String, byte[]> mergedClasses,
+                            Map<String, String> superNames)
+        {
+            super(Opcodes.ASM9, classVisitor);
+            this.merged = merged;
+            this.mergedClasses = mergedClasses;
+            this.superNames = superNames;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            List<String> mergedInterfaces = new ArrayList<>(Arrays.asList(interfaces != null ? interfaces : new String[0]));
+            mergedInterfaces.remove(name);
+            for (String interimName : merged) {
+                if (superNames.containsKey(interimName)) {
+                    superName = interimRemapper.mapType(superNames.get(interimName));
+                }
+                for (String interfaceName : new ClassReader(mergedClasses.get(interimName)).getInterfaces()) {
+                    String mappedInterface = interimRemapper.mapType(interfaceName);
+                    if (!mappedInterface.equals(name) && !mergedInterfaces.contains(mappedInterface)) {
+                        mergedInterfaces.add(mappedInterface);
+                    }
+                }
+            }
+            super.visit(version, access, name, signature, superName, mergedInterfaces.toArray(new String[0]));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+        {
+            declaredMembers.add(name + ":" + descriptor);
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            declaredMembers.add(name + descriptor);
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            for (String interimName : merged) {
+                ClassVisitor memberCopier = new MemberCopier(cv, movedMembers.get(interimName), declaredMembers);
+                new ClassReader(mergedClasses.get(interimName)).accept(
+                    new ReferenceFixer(new ClassRemapper(memberCopier, interimRemapper), superNames), 0);
+            }
+            super.visitEnd();
+        }
+    }
+
+    // Passes on the members the plan moved, leaving the class itself, its constructors and any abstract method the
+    // target implements behind. Inner class entries go along, since the moved code may refer to those classes
+    private static class MemberCopier extends ClassVisitor
+    {
+        private final ClassVisitor target;
+        private final Set<String> movedMembers;
+        private final Set<String> declaredMembers;
+
+        MemberCopier(ClassVisitor target, Set<String> movedMembers, Set<String> declaredMembers)
+        {
+            super(Opcodes.ASM9);
+            this.target = target;
+            this.movedMembers = movedMembers;
+            this.declaredMembers = declaredMembers;
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            target.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+        {
+            String key = name + ":" + descriptor;
+            if (!movedMembers.contains(key) || !declaredMembers.add(key)) {
+                return null;
+            }
+            return target.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            String key = name + descriptor;
+            if (!movedMembers.contains(key) || !declaredMembers.add(key)) {
+                return null;
+            }
+            return target.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package net.cvs0.classfile.remappers;
+
+import net.cvs0.classfile.ConstantPoolScanner;
+import net.cvs0.obfuscation.MappingContext;
+import org.objectweb.asm.ClassReader;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class ClassPassthroughFilter
+{
+    private final Map<String, String> classMappings;
+    private final Set<String> mappedMemberNames;
+    private final boolean hasMappedInnerClasses;
+
+    public ClassPassthroughFilter(MappingContext mappingContext)
+    {
+        this.classMappings = mappingContext.getAllClassMappings();
+        this.mappedMemberNames = new HashSet<>();
+
+        mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) -> mappedMemberNames.add(name));
+        mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) -> mappedMemberNames.add(name));
+
+        boolean innerClasses = false;
+        for (Map.Entry<String, String> entry : classMappings.entrySet()) {
+            String originalName = entry.getKey();
+            int dollarIndex = originalName.lastIndexOf('$');
+            if (dollarIndex >= 0) {
+                // InnerClasses attributes carry the simple name separately from the binary name
+                mappedMemberNames.add(originalName.substring(dollarIndex + 1));
+                innerClasses = true;
+            }
+        }
+        this.hasMappedInnerClasses = innerClasses;
+    }
+
+    public boolean isEmpty()
+    {
+        return classMappings.isEmpty() && mappedMemberNames.isEmpty();
+    }
+
+    public boolean isUnchanged(byte[] classData)
+    {
+        if (isEmpty()) {
+            return true;
+        }
+
+        ClassReader reader;
+        try {
+            reader = new ClassReader(classData);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        char[] charBuffer = new char[reader.getMaxStringLength()];
+        int itemCount = reader.getItemCount();
+
+        for (int i = 1; i < itemCount; i++) {
+            int offset = reader.getItem(i);
+            if (offset == 0 || classData[offset - 1] != ConstantPoolScanner.CONSTANT_UTF8) {
+                continue;
+            }
+
+            String value = ConstantPoolScanner.readUtf8(classData, offset, charBuffer);
+            if (referencesMapping(value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean referencesMapping(String value)
+    {
+        if (classMappings.containsKey(value) || mappedMemberNames.contains(value)) {
+            return true;
+        }
+
+        // Descriptors and signatures embed class names as L<name>; or L<name><...>
+        int start = value.indexOf('L');
+        while (start >= 0) {
+            int end = start + 1;
+            while (end < value.length() && value.charAt(end) != ';' && value.charAt(end) != '<') {
+                end++;
+            }
+            if (end < value.length() && classMappings.containsKey(value.substring(start + 1, end))) {
+                return true;
+            }
+            start = value.indexOf('L', start + 1);
+        }
+
+        // Nested generic types are written as Outer<...>.Inner; and only name the inner part
+        return hasMappedInnerClasses && value.indexOf('<') >= 0 && value.indexOf('.') >= 0;
+    }
+}
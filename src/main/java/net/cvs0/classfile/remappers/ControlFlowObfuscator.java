@@ -0,0 +1,658 @@
+package net.cvs0.classfile.remappers;
+
+import net.cvs0.config.ObfuscationLevel;
+import net.cvs0.core.ControlFlowPlan;
+import net.cvs0.obfuscation.MappingContext;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+// Obfuscates the control flow of the methods a ControlFlowPlan picked, within what the JIT tolerates. Statements get
+// opaque predicates, conditions that never hold but would branch to dead code, and at the heavy levels their jumps to
+// blocks sharing a stack map frame go through a switch on a state variable instead. Methods that loop are left as they
+// are, and no method grows past the next of HotSpot's size limits above it or by more than its level allows. Sizes
+// are counted as the most the class writer can emit, so the limits hold for the written code
+public class ControlFlowObfuscator
+{
+    // HotSpot's defaults for MaxInlineSize, FreqInlineSize and HugeMethodLimit
+    public static final int MAX_INLINE_SIZE = 35;
+    public static final int FREQ_INLINE_SIZE = 325;
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    private static final int MAX_SLOTS = 0xFFFF;
+    private static final int PREDICATE_STACK = 3;
+    private static final Object[] EMPTY_STACK = new Object[0];
+
+    private final ControlFlowPlan controlFlowPlan;
+    private final MappingContext mappingContext;
+    private final Remapper descriptorRemapper;
+    private final long seed;
+    private final int growthPercent;
+    private final int predicatePercent;
+    private final boolean flatten;
+
+    public ControlFlowObfuscator(ControlFlowPlan controlFlowPlan, MappingContext mappingContext, ObfuscationLevel level, long seed)
+    {
+        this.controlFlowPlan = controlFlowPlan;
+        this.mappingContext = mappingContext;
+        this.descriptorRemapper = new SimpleRemapper(mappingContext.getAllClassMappings());
+        this.seed = seed;
+        this.growthPercent = level == ObfuscationLevel.MAXIMUM ? 100 : level == ObfuscationLevel.HEAVY ? 50 : 25;
+        this.predicatePercent = level == ObfuscationLevel.MAXIMUM ? 100 : level == ObfuscationLevel.HEAVY ? 50 : 33;
+        this.flatten = level == ObfuscationLevel.HEAVY || level == ObfuscationLevel.MAXIMUM;
+    }
+
+    public boolean hasMethods(String originalName)
+    {
+        return controlFlowPlan.hasMethods(originalName);
+    }
+
+    // The reader feeding it has to expand its frames
+    public ClassVisitor visitor(ClassVisitor classVisitor, String originalName)
+    {
+        Set<String> methods = new HashSet<>();
+        for (String key : controlFlowPlan.getMethods(originalName)) {
+            int parenIndex = key.indexOf('(');
+            String name = key.substring(0, parenIndex);
+            String descriptor = key.substring(parenIndex);
+            methods.add(mappingContext.getObfuscatedMethodName(originalName, name, descriptor) +
+                        descriptorRemapper.mapMethodDesc(descriptor));
+        }
+        return new ObfuscatingClassVisitor(classVisitor, methods);
+    }
+
+    // The most bytes a method of this size may have once obfuscated, or -1 when it has to stay as it is: small
+    // methods are inlined at any call and huge ones never compiled, and growing either changes how the JIT treats them
+    public static int sizeLimit(int minimumSize, int maximumSize, int growthPercent)
+    {
+        if (minimumSize <= MAX_INLINE_SIZE || maximumSize > HUGE_METHOD_LIMIT) {
+            return -1;
+        }
+        int threshold = minimumSize <= FREQ_INLINE_SIZE ? FREQ_INLINE_SIZE : HUGE_METHOD_LIMIT;
+        return Math.min(threshold, maximumSize + maximumSize * growthPercent / 100);
+    }
+
+    // Bytes the class writer emits for the instructions, at least or at most: ldc may need its wide form, and a
+    // switch up to three bytes of padding
+    public static int measureCodeSize(InsnList instructions, boolean upperBound)
+    {
+        int size = 0;
+        for (AbstractInsnNode insn : instructions) {
+            int opcode = insn.getOpcode();
+            if (opcode < 0) {
+                continue;
+            }
+            switch (insn.getType()) {
+                case AbstractInsnNode.INT_INSN:
+                    size += opcode == Opcodes.SIPUSH ? 3 : 2;
+                    break;
+                case AbstractInsnNode.VAR_INSN:
+                    int var = ((VarInsnNode) insn).var;
+                    size += var < 4 && opcode != Opcodes.RET ? 1 : var <= 0xFF ? 2 : 4;
+                    break;
+                case AbstractInsnNode.IINC_INSN:
+                    IincInsnNode iinc = (IincInsnNode) insn;
+                    size += iinc.var <= 0xFF && iinc.incr >= Byte.MIN_VALUE && iinc.incr <= Byte.MAX_VALUE ? 3 : 6;
+                    break;
+                case AbstractInsnNode.LDC_INSN:
+                    Object value = ((LdcInsnNode) insn).cst;
+                    size += upperBound || value instanceof Long || value instanceof Double ? 3 : 2;
+                    break;
+                case AbstractInsnNode.TYPE_INSN:
+                case AbstractInsnNode.FIELD_INSN:
+                case AbstractInsnNode.JUMP_INSN:
+                    size += 3;
+                    break;
+                case AbstractInsnNode.METHOD_INSN:
+                    size += opcode == Opcodes.INVOKEINTERFACE ? 5 : 3;
+                    break;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                    size += 5;
+                    break;
+                case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                    size += 4;
+                    break;
+                case AbstractInsnNode.TABLESWITCH_INSN:
+                    size += (upperBound ? 16 : 13) + 4 * ((TableSwitchInsnNode) insn).labels.size();
+                    break;
+                case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                    size += (upperBound ? 12 : 9) + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+                    break;
+                default:
+                    size += 1;
+            }
+        }
+        return size;
+    }
+
+    // How deeply the loops of the method nest. Each target of a backward jump heads a loop reaching to the last jump
+    // back to it
+    public static int measureLoopDepth(InsnList instructions)
+    {
+        List<int[]> loops = findLoops(instructions);
+        int depth = 0;
+        for (int[] loop : loops) {
+            int nesting = 0;
+            for (int[] other : loops) {
+                if (other[0] <= loop[0] && loop[1] <= other[1]) {
+                    nesting++;
+                }
+            }
+            depth = Math.max(depth, nesting);
+        }
+        return depth;
+    }
+
+    private static List<int[]> findLoops(InsnList instructions)
+    {
+        Map<Integer, Integer> loopEnds = new TreeMap<>();
+        int index = 0;
+        for (AbstractInsnNode insn : instructions) {
+            for (LabelNode target : jumpTargets(insn)) {
+                int targetIndex = instructions.indexOf(target);
+                if (targetIndex <= index) {
+                    loopEnds.merge(targetIndex, index, Math::max);
+                }
+            }
+            index++;
+        }
+
+        List<int[]> loops = new ArrayList<>();
+        loopEnds.forEach((start, end) -> loops.add(new int[] { start, end }));
+        return loops;
+    }
+
+    private static List<LabelNode> jumpTargets(AbstractInsnNode insn)
+    {
+        if (insn instanceof JumpInsnNode) {
+            return List.of(((JumpInsnNode) insn).label);
+        }
+        List<LabelNode> targets = new ArrayList<>();
+        if (insn instanceof TableSwitchInsnNode) {
+            targets.add(((TableSwitchInsnNode) insn).dflt);
+            targets.addAll(((TableSwitchInsnNode) insn).labels);
+        } else if (insn instanceof LookupSwitchInsnNode) {
+            targets.add(((LookupSwitchInsnNode) insn).dflt);
+            targets.addAll(((LookupSwitchInsnNode) insn).labels);
+        }
+        return targets;
+    }
+
+    private class ObfuscatingClassVisitor extends ClassVisitor
+    {
+        private final Set<String> methods;
+        private final Set<String> fieldNames = new HashSet<>();
+        private String className;
+        private boolean isInterface;
+        private boolean hasFrames;
+        private String predicateField;
+
+        ObfuscatingClassVisitor(ClassVisitor classVisitor, Set<String> methods)
+        {
+            super(Opcodes.ASM9, classVisitor);
+            this.methods = methods;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            className = name;
+            isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+            // Older class files verify by inference, which the added jumps are not worth falling back to
+            hasFrames = (version & 0xFFFF) >= Opcodes.V1_6;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+        {
+            fieldNames.add(name);
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            if (!hasFrames || !methods.contains(name + descriptor) || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+            return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd()
+                {
+                    obfuscate(this);
+                    accept(cv);
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            if (predicateField != null) {
+                FieldVisitor fieldVisitor = super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                                                             predicateField, "I", null, null);
+                if (fieldVisitor != null) {
+                    fieldVisitor.visitEnd();
+                }
+            }
+            super.visitEnd();
+        }
+
+        private void obfuscate(MethodNode method)
+        {
+            int maximumSize = measureCodeSize(method.instructions, true);
+            int limit = sizeLimit(measureCodeSize(method.instructions, false), maximumSize, growthPercent);
+            // Rewriting can bring loops into a method planned as cold, by inlining one that has them
+            if (limit <= maximumSize || method.maxLocals >= MAX_SLOTS || !findLoops(method.instructions).isEmpty()) {
+                return;
+            }
+
+            Map<AbstractInsnNode, Object[]> locals = new HashMap<>();
+            Map<AbstractInsnNode, Integer> stackHeights = new HashMap<>();
+            if (!analyze(method, locals, stackHeights)) {
+                return;
+            }
+
+            Random random = new Random(seed ^ (className + "." + method.name + method.desc).hashCode());
+            InsnList tail = new InsnList();
+            int budget = limit - maximumSize;
+            if (flatten) {
+                budget -= flatten(method, locals, stackHeights, random, budget);
+            }
+            insertPredicates(method, locals, stackHeights, tail, random, budget);
+            method.instructions.add(tail);
+        }
+
+        // Locals ahead of each instruction, in stack map frame form, wherever none of them is still uninitialized,
+        // and the stack height there. Fails on frames the class writer would have to compute
+        private boolean analyze(MethodNode method, Map<AbstractInsnNode, Object[]> locals, Map<AbstractInsnNode, Integer> stackHeights)
+        {
+            AnalyzerAdapter adapter = new AnalyzerAdapter(className, method.access, method.name, method.desc, null);
+            try {
+                for (AbstractInsnNode insn : method.instructions) {
+                    if (insn.getOpcode() >= 0 && adapter.locals != null) {
+                        Object[] frameLocals = toFrameLocals(adapter.locals);
+                        if (frameLocals != null) {
+                            locals.put(insn, frameLocals);
+                            stackHeights.put(insn, adapter.stack.size());
+                        }
+                    }
+                    insn.accept(adapter);
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return false;
+            }
+            return true;
+        }
+
+        // Replaces the jumps to blocks that share a frame with a jump to a switch, which the block's key in the state
+        // local sends on to it. Conditional jumps go through a stub storing the key. The stubs and the switch go right
+        // ahead of one of the blocks, so they only take the jumps from above it and send them on to blocks below it:
+        // every added jump runs forward, and the method stays free of back edges that would count as a loop to the
+        // JIT. Returns the bytes added
+        private int flatten(MethodNode method, Map<AbstractInsnNode, Object[]> locals, Map<AbstractInsnNode, Integer> stackHeights,
+                            Random random, int budget)
+        {
+            Map<List<Object>, Set<LabelNode>> groups = new LinkedHashMap<>();
+            List<JumpInsnNode> jumps = new ArrayList<>();
+            for (AbstractInsnNode insn : method.instructions) {
+                if (!(insn instanceof JumpInsnNode) || insn.getOpcode() == Opcodes.JSR) {
+                    continue;
+                }
+                JumpInsnNode jump = (JumpInsnNode) insn;
+                FrameNode frame = frameAt(jump.label);
+                if (frame != null && (frame.stack == null || frame.stack.isEmpty()) && isInitialized(frame.local)) {
+                    groups.computeIfAbsent(frame.local, k -> new LinkedHashSet<>()).add(jump.label);
+                    jumps.add(jump);
+                }
+            }
+
+            int stateLocal = method.maxLocals;
+            int used = 0;
+            Set<Integer> usedKeys = new HashSet<>();
+            for (Map.Entry<List<Object>, Set<LabelNode>> group : groups.entrySet()) {
+                if (group.getValue().size() < 2) {
+                    continue;
+                }
+
+                // The block to put a switch ahead of is the one that lets it take the most jumps, and the jumps it
+                // leaves go to further switches while there are enough of them
+                while (true) {
+                    LabelNode entry = null;
+                    List<JumpInsnNode> entryJumps = Collections.emptyList();
+                    for (LabelNode candidate : group.getValue()) {
+                        if (isInTryBlock(method, candidate)) {
+                            continue;
+                        }
+                        List<JumpInsnNode> candidateJumps = new ArrayList<>();
+                        Set<LabelNode> reached = new HashSet<>();
+                        int position = method.instructions.indexOf(candidate);
+                        for (JumpInsnNode jump : jumps) {
+                            if (group.getValue().contains(jump.label) && method.instructions.indexOf(jump) < position &&
+                                method.instructions.indexOf(jump.label) >= position && canRedirect(jump, stackHeights)) {
+                                candidateJumps.add(jump);
+                                reached.add(jump.label);
+                            }
+                        }
+                        if (reached.size() >= 2 && candidateJumps.size() > entryJumps.size()) {
+                            entry = candidate;
+                            entryJumps = candidateJumps;
+                        }
+                    }
+                    if (entry == null) {
+                        break;
+                    }
+
+                    Map<LabelNode, Integer> keys = new HashMap<>();
+                    for (JumpInsnNode jump : entryJumps) {
+                        if (!keys.containsKey(jump.label)) {
+                            int key;
+                            do {
+                                key = random.nextInt(1 << 16) + Short.MIN_VALUE;
+                            } while (!usedKeys.add(key));
+                            keys.put(jump.label, key);
+                        }
+                    }
+
+                    // Code above the entry block and jumps to labels sharing its offset get past the switch with a goto
+                    // of their own. Each redirected jump goes to the dispatcher, a goto after storing the key and a
+                    // condition through a stub holding its frame, which needs the condition to take nothing but its
+                    // operands off the stack
+                    LabelNode dispatcher = new LabelNode();
+                    InsnList dispatch = new InsnList();
+                    if (fallsThrough(entry)) {
+                        dispatch.add(newFrame(group.getKey().toArray()));
+                        dispatch.add(new JumpInsnNode(Opcodes.GOTO, entry));
+                    }
+                    Map<JumpInsnNode, LabelNode> redirects = new LinkedHashMap<>();
+                    Map<JumpInsnNode, InsnList> stores = new HashMap<>();
+                    for (JumpInsnNode jump : entryJumps) {
+                        int key = keys.get(jump.label);
+                        if (jump.getOpcode() == Opcodes.GOTO) {
+                            redirects.put(jump, dispatcher);
+                            stores.put(jump, storeKey(key, stateLocal));
+                            continue;
+                        }
+                        LabelNode stub = new LabelNode();
+                        dispatch.add(stub);
+                        dispatch.add(newFrame(locals.get(jump)));
+                        dispatch.add(storeKey(key, stateLocal));
+                        dispatch.add(new JumpInsnNode(Opcodes.GOTO, dispatcher));
+                        redirects.put(jump, stub);
+                    }
+
+                    List<Object> dispatcherLocals = new ArrayList<>(group.getKey());
+                    for (int slot = countSlots(dispatcherLocals); slot < stateLocal; slot++) {
+                        dispatcherLocals.add(Opcodes.TOP);
+                    }
+                    dispatcherLocals.add(Opcodes.INTEGER);
+                    List<LabelNode> targets = new ArrayList<>(keys.keySet());
+                    targets.sort(Comparator.comparingInt(keys::get));
+                    int[] sortedKeys = targets.stream().mapToInt(keys::get).toArray();
+
+                    dispatch.add(dispatcher);
+                    dispatch.add(newFrame(dispatcherLocals.toArray()));
+                    dispatch.add(new VarInsnNode(Opcodes.ILOAD, stateLocal));
+                    dispatch.add(new LookupSwitchInsnNode(targets.get(0), sortedKeys, targets.toArray(new LabelNode[0])));
+
+                    int cost = measureCodeSize(dispatch, true);
+                    for (InsnList store : stores.values()) {
+                        cost += measureCodeSize(store, true);
+                    }
+                    if (used + cost > budget) {
+                        break;
+                    }
+
+                    for (Map.Entry<JumpInsnNode, LabelNode> redirect : redirects.entrySet()) {
+                        InsnList store = stores.get(redirect.getKey());
+                        if (store != null) {
+                            method.instructions.insertBefore(redirect.getKey(), store);
+                        }
+                        redirect.getKey().label = redirect.getValue();
+                    }
+                    method.instructions.insertBefore(entry, dispatch);
+                    used += cost;
+                }
+            }
+
+            if (used > 0) {
+                method.maxLocals = stateLocal + 1;
+                method.maxStack = Math.max(method.maxStack, 1);
+            }
+            return used;
+        }
+
+        // Puts an always false condition ahead of a share of the statements, as far as the budget goes.
+        // Each one branches to a dead end that throws, shared by the statements with the same frame
+        private void insertPredicates(MethodNode method, Map<AbstractInsnNode, Object[]> locals, Map<AbstractInsnNode, Integer> stackHeights,
+                                      InsnList tail, Random random, int budget)
+        {
+            // Frames point at an object still being constructed by the label ahead of its new, which has to stay
+            // right there
+            List<AbstractInsnNode> points = new ArrayList<>();
+            for (AbstractInsnNode insn : locals.keySet()) {
+                if (stackHeights.get(insn) == 0 && insn.getOpcode() != Opcodes.NEW) {
+                    points.add(insn);
+                }
+            }
+            points.sort(Comparator.comparingInt(method.instructions::indexOf));
+            Collections.shuffle(points, random);
+            int count = points.size() * predicatePercent / 100;
+
+            Map<List<Object>, LabelNode> deadEnds = new HashMap<>();
+            int used = 0;
+            int inserted = 0;
+            for (AbstractInsnNode point : points) {
+                if (inserted >= count) {
+                    break;
+                }
+                Object[] frameLocals = locals.get(point);
+                List<Object> frameKey = Arrays.asList(frameLocals);
+                LabelNode deadEnd = deadEnds.get(frameKey);
+                InsnList deadEndCode = new InsnList();
+                if (deadEnd == null) {
+                    deadEnd = new LabelNode();
+                    deadEndCode.add(deadEnd);
+                    deadEndCode.add(newFrame(frameLocals));
+                    deadEndCode.add(new InsnNode(Opcodes.ACONST_NULL));
+                    deadEndCode.add(new InsnNode(Opcodes.ATHROW));
+                }
+
+                InsnList predicate = createPredicate(frameLocals, deadEnd, random);
+                if (predicate == null) {
+                    continue;
+                }
+                int cost = measureCodeSize(predicate, true) + measureCodeSize(deadEndCode, true);
+                if (used + cost > budget) {
+                    continue;
+                }
+                if (deadEndCode.size() > 0) {
+                    deadEnds.put(frameKey, deadEnd);
+                    tail.add(deadEndCode);
+                }
+                method.instructions.insertBefore(point, predicate);
+                used += cost;
+                inserted++;
+            }
+
+            if (inserted > 0) {
+                method.maxStack = Math.max(method.maxStack, PREDICATE_STACK);
+            }
+        }
+
+        // x * (x + 1) is always even and x * x mod 4 never 2, whatever x holds and however it overflows. The value
+        // comes from an int local or a static field nothing writes, so there is no constant to fold
+        private InsnList createPredicate(Object[] frameLocals, LabelNode deadEnd, Random random)
+        {
+            List<Integer> intLocals = new ArrayList<>();
+            int slot = 0;
+            for (Object type : frameLocals) {
+                if (type == Opcodes.INTEGER) {
+                    intLocals.add(slot);
+                }
+                slot += type == Opcodes.LONG || type == Opcodes.DOUBLE ? 2 : 1;
+            }
+            // An interface cannot have the private field
+            if (isInterface && intLocals.isEmpty()) {
+                return null;
+            }
+
+            InsnList predicate = new InsnList();
+            if (isInterface || (!intLocals.isEmpty() && random.nextBoolean())) {
+                predicate.add(new VarInsnNode(Opcodes.ILOAD, intLocals.get(random.nextInt(intLocals.size()))));
+            } else {
+                predicate.add(new FieldInsnNode(Opcodes.GETSTATIC, className, getPredicateField(), "I"));
+            }
+            predicate.add(new InsnNode(Opcodes.DUP));
+            if (random.nextBoolean()) {
+                predicate.add(new InsnNode(Opcodes.ICONST_1));
+                predicate.add(new InsnNode(Opcodes.IADD));
+                predicate.add(new InsnNode(Opcodes.IMUL));
+                predicate.add(new InsnNode(Opcodes.ICONST_1));
+                predicate.add(new InsnNode(Opcodes.IAND));
+                predicate.add(new JumpInsnNode(Opcodes.IFNE, deadEnd));
+            } else {
+                predicate.add(new InsnNode(Opcodes.IMUL));
+                predicate.add(new InsnNode(Opcodes.ICONST_3));
+                predicate.add(new InsnNode(Opcodes.IAND));
+                predicate.add(new InsnNode(Opcodes.ICONST_2));
+                predicate.add(new JumpInsnNode(Opcodes.IF_ICMPEQ, deadEnd));
+            }
+            return predicate;
+        }
+
+        private String getPredicateField()
+        {
+            if (predicateField == null) {
+                int index = 0;
+                String name;
+                do {
+                    name = fieldName(index++);
+                } while (fieldNames.contains(name));
+                predicateField = name;
+            }
+            return predicateField;
+        }
+    }
+
+    private static String fieldName(int index)
+    {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char) ('a' + index % 26));
+            index = index / 26 - 1;
+        } while (index >= 0);
+        return name.toString();
+    }
+
+    private static InsnList storeKey(int key, int stateLocal)
+    {
+        InsnList store = new InsnList();
+        store.add(new IntInsnNode(Opcodes.SIPUSH, key));
+        store.add(new VarInsnNode(Opcodes.ISTORE, stateLocal));
+        return store;
+    }
+
+    private static FrameNode newFrame(Object[] frameLocals)
+    {
+        return new FrameNode(Opcodes.F_NEW, frameLocals.length, frameLocals, 0, EMPTY_STACK);
+    }
+
+    private static FrameNode frameAt(LabelNode label)
+    {
+        for (AbstractInsnNode insn = label.getNext(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof FrameNode) {
+                return (FrameNode) insn;
+            }
+            if (insn.getOpcode() >= 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean canRedirect(JumpInsnNode jump, Map<AbstractInsnNode, Integer> stackHeights)
+    {
+        if (jump.getOpcode() == Opcodes.GOTO) {
+            return true;
+        }
+        Integer height = stackHeights.get(jump);
+        return height != null && height == operandSlots(jump.getOpcode());
+    }
+
+    // Whether code put right ahead of the label can be reached other than by a jump: by falling through from the
+    // instruction above, or by a jump to another label at the same offset
+    private static boolean fallsThrough(LabelNode label)
+    {
+        AbstractInsnNode previous = label.getPrevious();
+        if (previous == null || previous.getOpcode() < 0) {
+            return true;
+        }
+        int opcode = previous.getOpcode();
+        return opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW && opcode != Opcodes.TABLESWITCH &&
+               opcode != Opcodes.LOOKUPSWITCH && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN);
+    }
+
+    // Code put right ahead of the label would fall in the range of a handler whose frame it has not been checked
+    // against
+    private static boolean isInTryBlock(MethodNode method, LabelNode label)
+    {
+        int position = method.instructions.indexOf(label);
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            if (method.instructions.indexOf(tryCatchBlock.start) < position &&
+                method.instructions.indexOf(tryCatchBlock.end) >= position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int operandSlots(int opcode)
+    {
+        return opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE ? 2 : 1;
+    }
+
+    private static int countSlots(List<Object> frameLocals)
+    {
+        int slots = 0;
+        for (Object type : frameLocals) {
+            slots += type == Opcodes.LONG || type == Opcodes.DOUBLE ? 2 : 1;
+        }
+        return slots;
+    }
+
+    private static boolean isInitialized(List<Object> frameLocals)
+    {
+        for (Object type : frameLocals) {
+            if (type instanceof Label || type instanceof LabelNode || type == Opcodes.UNINITIALIZED_THIS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The analyzer lists the second slot of a long or double as its own entry, stack map frames do not
+    private static Object[] toFrameLocals(List<Object> analyzerLocals)
+    {
+        List<Object> frameLocals = new ArrayList<>();
+        for (int i = 0; i < analyzerLocals.size(); i++) {
+            Object type = analyzerLocals.get(i);
+            frameLocals.add(type);
+            if (type == Opcodes.LONG || type == Opcodes.DOUBLE) {
+                i++;
+            }
+        }
+        if (!isInitialized(frameLocals)) {
+            return null;
+        }
+        while (!frameLocals.isEmpty() && frameLocals.get(frameLocals.size() - 1) == Opcodes.TOP) {
+            frameLocals.remove(frameLocals.size() - 1);
+        }
+        return frameLocals.toArray();
+    }
+}
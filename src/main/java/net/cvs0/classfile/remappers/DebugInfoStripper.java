@@ -0,0 +1,120 @@
+package net.cvs0.classfile.remappers;
+
+import net.cvs0.config.LineNumberMode;
+import org.objectweb.asm.*;
+
+import java.util.*;
+
+// Drops local variable tables, parameter names and the source file of a class on its way to the output, keeping or
+// compacting its line numbers. Line numbers alone never reach a stack trace, so the source file is replaced by a
+// constant instead of removed. For STRIP, ClassReader.SKIP_DEBUG does the whole job without this visitor
+public class DebugInfoStripper extends ClassVisitor
+{
+    public static final String SOURCE_FILE = "SourceFile";
+
+    private final Map<String, int[]> compactedLines;
+
+    public DebugInfoStripper(ClassVisitor classVisitor, ClassReader classReader, LineNumberMode lineNumberMode)
+    {
+        super(Opcodes.ASM9, classVisitor);
+        this.compactedLines = lineNumberMode == LineNumberMode.COMPACT ? compactLines(classReader) : null;
+    }
+
+    // Each method with line numbers gets the next free range, in class file order and as long as its own, so one
+    // output line always belongs to exactly one method. Returns 0 for methods without line numbers, and for every
+    // method of a class whose ranges would not fit the u2 line numbers of the class file
+    public static int[] compactFirstLines(int[] firstLines, int[] lastLines)
+    {
+        int[] compactedFirstLines = new int[firstLines.length];
+        int nextLine = 1;
+        for (int i = 0; i < firstLines.length; i++) {
+            if (firstLines[i] > 0) {
+                compactedFirstLines[i] = nextLine;
+                nextLine += lastLines[i] - firstLines[i] + 1;
+            }
+        }
+        return nextLine - 1 <= 0xFFFF ? compactedFirstLines : new int[firstLines.length];
+    }
+
+    @Override
+    public void visitSource(String source, String debug)
+    {
+        super.visitSource(source != null ? SOURCE_FILE : null, null);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+    {
+        MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (methodVisitor == null) {
+            return null;
+        }
+
+        int[] lines = compactedLines != null ? compactedLines.get(name + descriptor) : null;
+        return new MethodVisitor(Opcodes.ASM9, methodVisitor) {
+            @Override
+            public void visitParameter(String parameterName, int parameterAccess)
+            {
+            }
+
+            @Override
+            public void visitLocalVariable(String variableName, String variableDescriptor, String variableSignature,
+                                           Label start, Label end, int index)
+            {
+            }
+
+            @Override
+            public void visitLineNumber(int line, Label start)
+            {
+                if (line <= 0) {
+                    return;
+                }
+                super.visitLineNumber(lines != null ? line - lines[0] + lines[1] : line, start);
+            }
+        };
+    }
+
+    // First and compacted first line per method, keyed by name + descriptor
+    private static Map<String, int[]> compactLines(ClassReader classReader)
+    {
+        List<String> methods = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        classReader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+            {
+                int[] range = new int[2];
+                methods.add(name + descriptor);
+                ranges.add(range);
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitLineNumber(int line, Label start)
+                    {
+                        if (line > 0 && (range[0] == 0 || line < range[0])) {
+                            range[0] = line;
+                        }
+                        if (line > range[1]) {
+                            range[1] = line;
+                        }
+                    }
+                };
+            }
+        }, ClassReader.SKIP_FRAMES);
+
+        int[] firstLines = new int[ranges.size()];
+        int[] lastLines = new int[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            firstLines[i] = ranges.get(i)[0];
+            lastLines[i] = ranges.get(i)[1];
+        }
+        int[] compactedFirstLines = compactFirstLines(firstLines, lastLines);
+
+        Map<String, int[]> compactedLines = new HashMap<>();
+        for (int i = 0; i < methods.size(); i++) {
+            if (compactedFirstLines[i] > 0) {
+                compactedLines.put(methods.get(i), new int[] {firstLines[i], compactedFirstLines[i]});
+            }
+        }
+        return compactedLines;
+    }
+}
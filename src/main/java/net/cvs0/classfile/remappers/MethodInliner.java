@@ -0,0 +1,364 @@
+package net.cvs0.classfile.remappers;
+
+import net.cvs0.core.InlinePlan;
+import net.cvs0.obfuscation.MappingContext;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+// Replaces the calls an InlinePlan picked with a copy of the body they call. Only straight-line bodies qualify: the
+// arguments are stored to fresh locals above the caller's own, the body runs on them and leaves its result where the
+// call would have. Without branches the copy needs no stack map frames, and the caller's frames stay valid since
+// none of them mentions the new locals
+public class MethodInliner
+{
+    private static final int NOT_INLINABLE = -1;
+    private static final int MAX_SLOTS = 0xFFFF;
+
+    private final InlinePlan inlinePlan;
+    private final Map<String, String> mappedCalls = new HashMap<>();
+    private final Map<String, MethodNode> bodies = new HashMap<>();
+
+    // Bodies are taken from the remapped classes, so the copies already use the output names
+    public MethodInliner(InlinePlan inlinePlan, MappingContext mappingContext, Map<String, byte[]> remappedClasses)
+    {
+        this.inlinePlan = inlinePlan;
+
+        Remapper descriptorRemapper = new SimpleRemapper(mappingContext.getAllClassMappings());
+        Map<String, Map<String, MethodNode>> methodsByClass = new HashMap<>();
+        for (String call : inlinePlan.getInlinedMethods()) {
+            int dotIndex = call.indexOf('.');
+            int parenIndex = call.indexOf('(', dotIndex);
+            String owner = call.substring(0, dotIndex);
+            String name = call.substring(dotIndex + 1, parenIndex);
+            String descriptor = call.substring(parenIndex);
+
+            String mappedOwner = mappingContext.getObfuscatedClassName(owner);
+            String mappedMethod = mappingContext.getObfuscatedMethodName(owner, name, descriptor) +
+                                  descriptorRemapper.mapMethodDesc(descriptor);
+            Map<String, MethodNode> methods = methodsByClass.computeIfAbsent(mappedOwner,
+                className -> readMethods(remappedClasses.get(className)));
+
+            MethodNode body = methods.get(mappedMethod);
+            if (body != null && measure(body) != NOT_INLINABLE) {
+                String mappedCall = mappedOwner + "." + mappedMethod;
+                mappedCalls.put(call, mappedCall);
+                bodies.put(mappedCall, body);
+            } else if (inlinePlan.getRemovedMethods(owner).contains(name + descriptor)) {
+                throw new IllegalStateException("No inlinable body for " + owner + "." + name + descriptor);
+            }
+        }
+    }
+
+    // Calls to these always run this very declaration, unless a bridge is overridden, which the plan rules out
+    public static boolean isCandidate(int classAccess, int access, String name)
+    {
+        if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_SYNCHRONIZED)) != 0 ||
+            name.equals("<init>") || name.equals("<clinit>")) {
+            return false;
+        }
+        return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_BRIDGE)) != 0 ||
+               (classAccess & Opcodes.ACC_FINAL) != 0;
+    }
+
+    // Instruction count of a straight-line body ending in its only return, with nothing but the result left on the
+    // stack there, or -1. Anything that can branch, throw on purpose or hold a monitor does not qualify
+    public static int measure(MethodNode method)
+    {
+        if (method.instructions.size() == 0 || (method.tryCatchBlocks != null && !method.tryCatchBlocks.isEmpty())) {
+            return NOT_INLINABLE;
+        }
+
+        int returnSize = Type.getReturnType(method.desc).getSize();
+        int height = 0;
+        int count = 0;
+        boolean returned = false;
+        for (AbstractInsnNode insn : method.instructions) {
+            int opcode = insn.getOpcode();
+            if (opcode < 0) {
+                continue;
+            }
+            if (returned) {
+                return NOT_INLINABLE;
+            }
+            count++;
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                if (height != returnSize) {
+                    return NOT_INLINABLE;
+                }
+                returned = true;
+                continue;
+            }
+
+            int delta = stackDelta(insn);
+            if (delta == Integer.MIN_VALUE) {
+                return NOT_INLINABLE;
+            }
+            height += delta;
+        }
+        return returned ? count : NOT_INLINABLE;
+    }
+
+    // Loads its arguments, casts them and passes them to a single field access or call
+    public static boolean isAccessor(MethodNode method)
+    {
+        int memberAccesses = 0;
+        for (AbstractInsnNode insn : method.instructions) {
+            int opcode = insn.getOpcode();
+            if (opcode < 0 || (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) || opcode == Opcodes.CHECKCAST ||
+                (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)) {
+                continue;
+            }
+            if (insn.getType() == AbstractInsnNode.FIELD_INSN ||
+                (insn.getType() == AbstractInsnNode.METHOD_INSN && opcode != Opcodes.INVOKESPECIAL)) {
+                memberAccesses++;
+                continue;
+            }
+            return false;
+        }
+        return memberAccesses <= 1;
+    }
+
+    public byte[] inline(byte[] classData, String originalName)
+    {
+        Map<String, MethodNode> targets = new HashMap<>();
+        for (String call : inlinePlan.getInlinedCalls(originalName)) {
+            String mappedCall = mappedCalls.get(call);
+            if (mappedCall != null) {
+                targets.put(mappedCall, bodies.get(mappedCall));
+            }
+        }
+        if (targets.isEmpty()) {
+            return classData;
+        }
+
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classData).accept(classNode, 0);
+
+        int inlined = 0;
+        for (MethodNode method : classNode.methods) {
+            inlined += inlineCalls(method, targets);
+        }
+        if (inlined == 0) {
+            return classData;
+        }
+
+        ClassWriter classWriter = new ClassWriter(0);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+
+    private int inlineCalls(MethodNode method, Map<String, MethodNode> targets)
+    {
+        int firstLocal = method.maxLocals;
+        int extraStack = 0;
+        int extraLocals = 0;
+        int inlined = 0;
+
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (insn.getType() != AbstractInsnNode.METHOD_INSN) {
+                continue;
+            }
+            MethodInsnNode call = (MethodInsnNode) insn;
+            MethodNode body = targets.get(call.owner + "." + call.name + call.desc);
+            boolean isStatic = call.getOpcode() == Opcodes.INVOKESTATIC;
+            if (body == null || isStatic != ((body.access & Opcodes.ACC_STATIC) != 0) ||
+                firstLocal + body.maxLocals > MAX_SLOTS || method.maxStack + body.maxStack > MAX_SLOTS) {
+                continue;
+            }
+
+            method.instructions.insert(call, copyBody(body, isStatic, firstLocal));
+            method.instructions.remove(call);
+            extraStack = Math.max(extraStack, body.maxStack);
+            extraLocals = Math.max(extraLocals, body.maxLocals);
+            inlined++;
+        }
+
+        // The arguments leave the stack before the body starts, so the body's stack sits on what the caller had below
+        // them. Every copy reuses the same fresh locals, nothing reads them past the end of a copy
+        method.maxStack += extraStack;
+        method.maxLocals += extraLocals;
+        return inlined;
+    }
+
+    private InsnList copyBody(MethodNode body, boolean isStatic, int firstLocal)
+    {
+        InsnList copy = new InsnList();
+        Type[] argumentTypes = Type.getArgumentTypes(body.desc);
+        int[] argumentLocals = new int[argumentTypes.length];
+        int local = isStatic ? 0 : 1;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentLocals[i] = local;
+            local += argumentTypes[i].getSize();
+        }
+
+        for (int i = argumentTypes.length - 1; i >= 0; i--) {
+            copy.add(new VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ISTORE), firstLocal + argumentLocals[i]));
+        }
+        if (!isStatic) {
+            copy.add(new VarInsnNode(Opcodes.ASTORE, firstLocal));
+            if (!dereferencesReceiverFirst(body)) {
+                // A call on null throws before the body runs, the copy has to as well
+                copy.add(new VarInsnNode(Opcodes.ALOAD, firstLocal));
+                copy.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false));
+                copy.add(new InsnNode(Opcodes.POP));
+            }
+        }
+
+        // Line numbers stay with the caller, which is where a stack trace now points
+        Map<LabelNode, LabelNode> labels = Collections.emptyMap();
+        for (AbstractInsnNode insn : body.instructions) {
+            int opcode = insn.getOpcode();
+            if (opcode < 0 || (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)) {
+                continue;
+            }
+            AbstractInsnNode insnCopy = insn.clone(labels);
+            if (insnCopy instanceof VarInsnNode) {
+                ((VarInsnNode) insnCopy).var += firstLocal;
+            } else if (insnCopy instanceof IincInsnNode) {
+                ((IincInsnNode) insnCopy).var += firstLocal;
+            }
+            copy.add(insnCopy);
+        }
+        return copy;
+    }
+
+    // Getters and setters read or write a field of the receiver before anything else happens, which throws on null
+    // exactly where the call would have
+    private static boolean dereferencesReceiverFirst(MethodNode body)
+    {
+        AbstractInsnNode first = nextInstruction(body.instructions.getFirst());
+        if (first == null || first.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) first).var != 0) {
+            return false;
+        }
+
+        AbstractInsnNode second = nextInstruction(first.getNext());
+        if (second != null && second.getOpcode() == Opcodes.GETFIELD) {
+            return true;
+        }
+        if (second == null || second.getOpcode() < Opcodes.ILOAD || second.getOpcode() > Opcodes.ALOAD) {
+            return false;
+        }
+        AbstractInsnNode third = nextInstruction(second.getNext());
+        return third != null && third.getOpcode() == Opcodes.PUTFIELD;
+    }
+
+    private static AbstractInsnNode nextInstruction(AbstractInsnNode insn)
+    {
+        while (insn != null && insn.getOpcode() < 0) {
+            insn = insn.getNext();
+        }
+        return insn;
+    }
+
+    private static Map<String, MethodNode> readMethods(byte[] classData)
+    {
+        Map<String, MethodNode> methods = new HashMap<>();
+        if (classData != null) {
+            ClassNode classNode = new ClassNode();
+            new ClassReader(classData).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            for (MethodNode method : classNode.methods) {
+                methods.put(method.name + method.desc, method);
+            }
+        }
+        return methods;
+    }
+
+    // Stack height change of a straight-line instruction in slots, Integer.MIN_VALUE for anything else
+    private static int stackDelta(AbstractInsnNode insn)
+    {
+        int opcode = insn.getOpcode();
+        switch (insn.getType()) {
+            case AbstractInsnNode.FIELD_INSN: {
+                int size = Type.getType(((FieldInsnNode) insn).desc).getSize();
+                switch (opcode) {
+                    case Opcodes.GETSTATIC: return size;
+                    case Opcodes.PUTSTATIC: return -size;
+                    case Opcodes.GETFIELD: return size - 1;
+                    default: return -size - 1;
+                }
+            }
+            case AbstractInsnNode.METHOD_INSN: {
+                // The argument size counts the receiver, which a static call does not have
+                int sizes = Type.getArgumentsAndReturnSizes(((MethodInsnNode) insn).desc);
+                return (sizes & 0x3) - (sizes >> 2) + (opcode == Opcodes.INVOKESTATIC ? 1 : 0);
+            }
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                int sizes = Type.getArgumentsAndReturnSizes(((InvokeDynamicInsnNode) insn).desc);
+                return (sizes & 0x3) - (sizes >> 2) + 1;
+            }
+            case AbstractInsnNode.LDC_INSN: {
+                Object constant = ((LdcInsnNode) insn).cst;
+                if (constant instanceof ConstantDynamic) {
+                    return ((ConstantDynamic) constant).getSize();
+                }
+                return constant instanceof Long || constant instanceof Double ? 2 : 1;
+            }
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return 1 - ((MultiANewArrayInsnNode) insn).dims;
+            case AbstractInsnNode.VAR_INSN:
+                switch (opcode) {
+                    case Opcodes.ILOAD: case Opcodes.FLOAD: case Opcodes.ALOAD: return 1;
+                    case Opcodes.LLOAD: case Opcodes.DLOAD: return 2;
+                    case Opcodes.ISTORE: case Opcodes.FSTORE: case Opcodes.ASTORE: return -1;
+                    case Opcodes.LSTORE: case Opcodes.DSTORE: return -2;
+                    default: return Integer.MIN_VALUE;
+                }
+            case AbstractInsnNode.INT_INSN:
+                return opcode == Opcodes.NEWARRAY ? 0 : 1;
+            case AbstractInsnNode.TYPE_INSN:
+                return opcode == Opcodes.NEW ? 1 : 0;
+            case AbstractInsnNode.IINC_INSN:
+                return 0;
+            case AbstractInsnNode.INSN:
+                return simpleStackDelta(opcode);
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+
+    private static int simpleStackDelta(int opcode)
+    {
+        switch (opcode) {
+            case Opcodes.NOP: case Opcodes.SWAP: case Opcodes.ARRAYLENGTH:
+            case Opcodes.LALOAD: case Opcodes.DALOAD:
+            case Opcodes.INEG: case Opcodes.LNEG: case Opcodes.FNEG: case Opcodes.DNEG:
+            case Opcodes.I2F: case Opcodes.L2D: case Opcodes.F2I: case Opcodes.D2L:
+            case Opcodes.I2B: case Opcodes.I2C: case Opcodes.I2S:
+                return 0;
+            case Opcodes.ACONST_NULL: case Opcodes.ICONST_M1: case Opcodes.ICONST_0: case Opcodes.ICONST_1:
+            case Opcodes.ICONST_2: case Opcodes.ICONST_3: case Opcodes.ICONST_4: case Opcodes.ICONST_5:
+            case Opcodes.FCONST_0: case Opcodes.FCONST_1: case Opcodes.FCONST_2:
+            case Opcodes.DUP: case Opcodes.DUP_X1: case Opcodes.DUP_X2:
+            case Opcodes.I2L: case Opcodes.I2D: case Opcodes.F2L: case Opcodes.F2D:
+                return 1;
+            case Opcodes.LCONST_0: case Opcodes.LCONST_1: case Opcodes.DCONST_0: case Opcodes.DCONST_1:
+            case Opcodes.DUP2: case Opcodes.DUP2_X1: case Opcodes.DUP2_X2:
+                return 2;
+            case Opcodes.IALOAD: case Opcodes.FALOAD: case Opcodes.AALOAD: case Opcodes.BALOAD:
+            case Opcodes.CALOAD: case Opcodes.SALOAD: case Opcodes.POP:
+            case Opcodes.IADD: case Opcodes.FADD: case Opcodes.ISUB: case Opcodes.FSUB: case Opcodes.IMUL:
+            case Opcodes.FMUL: case Opcodes.IDIV: case Opcodes.FDIV: case Opcodes.IREM: case Opcodes.FREM:
+            case Opcodes.ISHL: case Opcodes.ISHR: case Opcodes.IUSHR: case Opcodes.LSHL: case Opcodes.LSHR:
+            case Opcodes.LUSHR: case Opcodes.IAND: case Opcodes.IOR: case Opcodes.IXOR:
+            case Opcodes.L2I: case Opcodes.L2F: case Opcodes.D2I: case Opcodes.D2F:
+            case Opcodes.FCMPL: case Opcodes.FCMPG:
+                return -1;
+            case Opcodes.POP2:
+            case Opcodes.LADD: case Opcodes.DADD: case Opcodes.LSUB: case Opcodes.DSUB: case Opcodes.LMUL:
+            case Opcodes.DMUL: case Opcodes.LDIV: case Opcodes.DDIV: case Opcodes.LREM: case Opcodes.DREM:
+            case Opcodes.LAND: case Opcodes.LOR: case Opcodes.LXOR:
+                return -2;
+            case Opcodes.IASTORE: case Opcodes.FASTORE: case Opcodes.AASTORE: case Opcodes.BASTORE:
+            case Opcodes.CASTORE: case Opcodes.SASTORE: case Opcodes.LCMP: case Opcodes.DCMPL: case Opcodes.DCMPG:
+                return -3;
+            case Opcodes.LASTORE: case Opcodes.DASTORE:
+                return -4;
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+}
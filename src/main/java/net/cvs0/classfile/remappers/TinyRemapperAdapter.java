@@ -1,260 +1,417 @@
 package net.cvs0.classfile.remappers;
 
+import net.cvs0.classfile.writers.ConstantPoolCompactor;
+import net.cvs0.config.LineNumberMode;
 import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.ClassMergePlan;
+import net.cvs0.core.ControlFlowPlan;
+import net.cvs0.core.InlinePlan;
+import net.cvs0.core.LibraryClassPool;
+import net.cvs0.core.ShrinkResult;
+import net.cvs0.io.MappedZipFile;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.io.ZipWriter;
 import net.cvs0.obfuscation.MappingContext;
 import net.cvs0.utils.Logger;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.IMappingProvider;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
-import net.fabricmc.tinyremapper.NonClassCopyMode;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
 public class TinyRemapperAdapter 
 {
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
     private final ObfuscationConfig config;
     
     public TinyRemapperAdapter(ObfuscationConfig config) 
     {
         this.config = config;
     }
-    public void remap(File inputJar, File outputJar, MappingContext mappingContext, 
-                     Map<String, byte[]> resources, Map<String, String> manifestAttributes) throws IOException 
+
+    public void remap(MappedZipFile inputJar, File outputJar, MappingContext mappingContext, 
+                     Map<String, ZipEntryHandle> resources, Map<String, String> manifestAttributes) throws IOException 
+    {
+        remap(inputJar, outputJar, mappingContext, resources, manifestAttributes, Collections.emptyMap(), ShrinkResult.NONE, 
+              InlinePlan.NONE, ClassMergePlan.NONE, ControlFlowPlan.NONE);
+    }
+
+    public void remap(MappedZipFile inputJar, File outputJar, MappingContext mappingContext, 
+                     Map<String, ZipEntryHandle> resources, Map<String, String> manifestAttributes,
+                     Map<String, ZipEntryHandle> reusedClasses, ShrinkResult shrinkResult, InlinePlan inlinePlan,
+                     ClassMergePlan mergePlan, ControlFlowPlan controlFlowPlan) throws IOException 
     {
         if (config.isVerbose()) {
             Logger.info("Starting JAR remapping with TinyRemapper...");
         }
 
-        Path inputPath = inputJar.toPath();
-        Path outputPath = outputJar.toPath();
-
+        ClassMerger classMerger = mergePlan.isEmpty() ? null : 
+            new ClassMerger(mergePlan, mappingContext, collectOutputClassNames(inputJar, mappingContext));
         TinyRemapper.Builder builder = TinyRemapper.newRemapper();
-        builder.withMappings(createMappingProvider(mappingContext));
+        builder.withMappings(createMappingProvider(mappingContext, mergePlan, classMerger));
         
         TinyRemapper remapper = builder.build();
+        Map<String, byte[]> remappedClasses = new ConcurrentHashMap<>();
         
+        long remapStart = System.currentTimeMillis();
         try {
-            try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(outputPath).build()) {
-                outputConsumer.addNonClassFiles(inputPath, NonClassCopyMode.FIX_META_INF, remapper);
-                remapper.readInputs(inputPath);
-                remapper.apply(outputConsumer);
+            for (File libraryJar : LibraryClassPool.resolveJars(config.getLibraryJars())) {
+                remapper.readClassPath(libraryJar.toPath());
             }
-            
-            // Remove original classes that were mapped to avoid duplication
-            removeOriginalMappedClasses(outputPath, mappingContext);
-            
-            updateManifestInJar(outputPath, mappingContext, manifestAttributes);
-            
-            addResourcesToJar(outputPath, resources);
+            remapper.readInputs(inputJar.getPath());
+            remapper.apply(remappedClasses::put);
         } finally {
             remapper.finish();
         }
+        long remapTime = System.currentTimeMillis() - remapStart;
+        int remappedCount = remappedClasses.size();
+
+        long writeStart = System.currentTimeMillis();
+        // Merged classes are folded in first, so the bodies to inline are the ones the output gets
+        Set<String> mergedOutputClasses = classMerger != null ? classMerger.merge(remappedClasses) : Collections.emptySet();
+        // Bodies to inline are taken before writing starts to consume the remapped classes
+        MethodInliner methodInliner = inlinePlan.isEmpty() ? null : new MethodInliner(inlinePlan, mappingContext, remappedClasses);
+        ControlFlowObfuscator controlFlowObfuscator = controlFlowPlan.isEmpty() ? null : 
+            new ControlFlowObfuscator(controlFlowPlan, mappingContext, config.getObfuscationLevel(), config.getNamingSeed());
+        writeOutputJar(inputJar, outputJar.toPath(), mappingContext, remappedClasses, resources, manifestAttributes, 
+                      reusedClasses, shrinkResult, inlinePlan, methodInliner, mergePlan, mergedOutputClasses, controlFlowObfuscator);
+        long writeTime = System.currentTimeMillis() - writeStart;
 
         if (config.isVerbose()) {
+            Logger.info("Remapped " + remappedCount + " classes in " + remapTime + "ms, wrote output in " + writeTime + "ms");
             Logger.info("JAR remapping completed successfully");
         }
     }
 
-    private IMappingProvider createMappingProvider(MappingContext mappingContext) 
+    private void writeOutputJar(MappedZipFile inputJar, Path outputPath, MappingContext mappingContext, 
+                               Map<String, byte[]> remappedClasses, Map<String, ZipEntryHandle> resources, 
+                               Map<String, String> manifestAttributes, Map<String, ZipEntryHandle> reusedClasses,
+                               ShrinkResult shrinkResult, InlinePlan inlinePlan, MethodInliner methodInliner,
+                               ClassMergePlan mergePlan, Set<String> mergedOutputClasses, 
+                               ControlFlowObfuscator controlFlowObfuscator) throws IOException 
     {
-        return out -> {
-            for (Map.Entry<String, String> entry : mappingContext.getAllClassMappings().entrySet()) {
-                out.acceptClass(entry.getKey(), entry.getValue());
+        int copiedRaw = 0;
+        int recompressed = 0;
+        int shrunk = 0;
+        int merged = 0;
+        ClassPassthroughFilter passthroughFilter = new ClassPassthroughFilter(mappingContext);
+
+        ZipWriter writer = new ZipWriter(outputPath, config.getCompressionLevel(), config.getMaxThreads());
+        try {
+            ZipEntryHandle manifestEntry = inputJar.getEntry(MANIFEST_NAME);
+            if (manifestEntry != null || !manifestAttributes.isEmpty()) {
+                Manifest manifest = readManifest(manifestEntry);
+                updateManifest(manifest, mappingContext, manifestAttributes);
+                ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+                manifest.write(manifestBytes);
+                writer.writeEntry(MANIFEST_NAME, manifestBytes.toByteArray());
             }
-            
-            for (Map.Entry<String, String> entry : mappingContext.getAllFieldMappings().entrySet()) {
-                String key = entry.getKey();
-                int dotIndex = key.indexOf('.');
-                int colonIndex = key.indexOf(':', dotIndex);
-                if (dotIndex > 0 && colonIndex > dotIndex) {
-                    String owner = key.substring(0, dotIndex);
-                    String name = key.substring(dotIndex + 1, colonIndex);
-                    String desc = key.substring(colonIndex + 1);
-                    out.acceptField(new IMappingProvider.Member(owner, name, desc), entry.getValue());
+
+            for (ZipEntryHandle entry : inputJar.getEntries()) {
+                String entryName = entry.getName();
+
+                if (entryName.equals(MANIFEST_NAME) || isSignatureFile(entryName)) {
+                    continue;
                 }
-            }
-            
-            for (Map.Entry<String, String> entry : mappingContext.getAllMethodMappings().entrySet()) {
-                String key = entry.getKey();
-                int dotIndex = key.indexOf('.');
-                int parenIndex = key.indexOf('(', dotIndex);
-                if (dotIndex > 0 && parenIndex > dotIndex) {
-                    String owner = key.substring(0, dotIndex);
-                    String name = key.substring(dotIndex + 1, parenIndex);
-                    String desc = key.substring(parenIndex);
-                    out.acceptMethod(new IMappingProvider.Member(owner, name, desc), entry.getValue());
+
+                if (entry.isDirectory()) {
+                    writer.copyRawEntry(entry);
+                    continue;
+                }
+
+                if (entryName.endsWith(".class")) {
+                    String originalName = entryName.substring(0, entryName.length() - 6);
+                    String mappedName = mappingContext.getObfuscatedClassName(originalName);
+                    byte[] classData = remappedClasses.remove(mappedName);
+
+                    ZipEntryHandle reusedEntry = reusedClasses.get(originalName);
+                    Set<String> removedMembers = shrinkResult.getRemovedMembers(originalName);
+
+                    if (shrinkResult.isClassRemoved(originalName)) {
+                        shrunk++;
+                    } else if (mergePlan.isMerged(originalName)) {
+                        merged++;
+                    } else if (reusedEntry != null) {
+                        writer.copyRawEntry(mappedName + ".class", reusedEntry);
+                        copiedRaw++;
+                    } else if (!removedMembers.isEmpty() || !inlinePlan.getInlinedCalls(originalName).isEmpty() ||
+                               config.isStripDebugInfo() || config.isCompactConstantPools() || 
+                               (controlFlowObfuscator != null && controlFlowObfuscator.hasMethods(originalName))) {
+                        byte[] remapped = classData != null ? classData : entry.readAllBytes();
+                        if (methodInliner != null) {
+                            remapped = inlineCalls(methodInliner, remapped, originalName);
+                            if (remapped == null) {
+                                remapped = classData != null ? classData : entry.readAllBytes();
+                                removedMembers = withoutInlinedMethods(removedMembers, inlinePlan.getRemovedMethods(originalName));
+                            }
+                        }
+                        writer.writeEntry(mappedName + ".class", rewriteClass(remapped, originalName, removedMembers, mappingContext, 
+                                                                                controlFlowObfuscator));
+                        if (!removedMembers.isEmpty()) {
+                            shrunk++;
+                        }
+                        recompressed++;
+                    } else if (mappedName.equals(originalName) && !mergedOutputClasses.contains(mappedName) && 
+                               passthroughFilter.isUnchanged(entry.readAllBytes())) {
+                        writer.copyRawEntry(entry);
+                        copiedRaw++;
+                    } else if (classData != null) {
+                        if (!mappedName.equals(originalName) && config.isVerbose()) {
+                            Logger.debug("Writing remapped class: " + originalName + " -> " + mappedName);
+                        }
+                        writer.writeEntry(mappedName + ".class", classData);
+                        recompressed++;
+                    } else {
+                        writer.copyRawEntry(entry);
+                        copiedRaw++;
+                    }
+                    continue;
+                }
+
+                ZipEntryHandle resource = resources.get(entryName);
+                if (resource != null && writer.copyRawEntry(entryName, resource)) {
+                    copiedRaw++;
                 }
             }
-        };
-    }
 
-    private void updateManifest(Manifest manifest, MappingContext mappingContext, Map<String, String> manifestAttributes) 
-    {
-        if (manifestAttributes.containsKey("Main-Class")) {
-            String mainClass = manifestAttributes.get("Main-Class");
-            String internalMainClass = mainClass.replace('.', '/');
-            String mappedMainClass = mappingContext.getObfuscatedClassName(internalMainClass);
-            if (!mappedMainClass.equals(internalMainClass)) {
-                String dottedMappedMainClass = mappedMainClass.replace('/', '.');
-                manifest.getMainAttributes().putValue("Main-Class", dottedMappedMainClass);
-                
+            List<String> leftoverClasses = new ArrayList<>(remappedClasses.keySet());
+            Collections.sort(leftoverClasses);
+            for (String className : leftoverClasses) {
+                byte[] classData = remappedClasses.get(className);
+                writer.writeEntry(className + ".class", config.isStripDebugInfo() || config.isCompactConstantPools() ? 
+                    rewriteClass(classData, className, Collections.emptySet(), mappingContext, null) : classData);
+                recompressed++;
+            }
+
+            for (Map.Entry<String, ZipEntryHandle> resourceEntry : resources.entrySet()) {
+                String resourceName = resourceEntry.getKey();
+
+                if (resourceName.equals(MANIFEST_NAME) || resourceName.endsWith(".class") || writer.hasEntry(resourceName)) {
+                    continue;
+                }
+
+                writer.copyRawEntry(resourceName, resourceEntry.getValue());
+                copiedRaw++;
+
                 if (config.isVerbose()) {
-                    Logger.info("Updated Main-Class in manifest: " + mainClass + " -> " + dottedMappedMainClass);
+                    Logger.debug("Added resource: " + resourceName);
                 }
             }
-        }
 
-        for (Map.Entry<String, String> entry : manifestAttributes.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            if (!key.equals("Main-Class")) {
-                manifest.getMainAttributes().putValue(key, value);
+            if (config.isVerbose()) {
+                Logger.debug("Output entries: " + writer.getEntryCount() + " (" + recompressed + " compressed, " + 
+                           copiedRaw + " copied without recompression, " + shrunk + " classes shrunk or dropped, " + 
+                           merged + " merged into others)");
             }
+        } catch (IOException | RuntimeException | Error e) {
+            // A class that failed to rewrite leaves no partial jar where the output should be
+            writer.abort(e);
+            throw e;
         }
+        writer.close();
     }
 
-    private void updateManifestInJar(Path jarPath, MappingContext mappingContext, Map<String, String> manifestAttributes) throws IOException 
+    // A method grown past the class file limits keeps its calls, so the methods they call stay in the class
+    private byte[] inlineCalls(MethodInliner methodInliner, byte[] classData, String originalName) 
     {
-        Path tempJar = Files.createTempFile("temp-", ".jar");
-        
-        try (JarInputStream inputStream = new JarInputStream(Files.newInputStream(jarPath));
-             JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(tempJar))) {
-            
-            Manifest manifest = inputStream.getManifest();
-            if (manifest != null) {
-                updateManifest(manifest, mappingContext, manifestAttributes);
-                outputStream.putNextEntry(new JarEntry("META-INF/MANIFEST.MF"));
-                manifest.write(outputStream);
-                outputStream.closeEntry();
-            }
-            
-            JarEntry entry;
-            while ((entry = inputStream.getNextJarEntry()) != null) {
-                if (entry.getName().equals("META-INF/MANIFEST.MF")) {
-                    continue;
-                }
-                
-                outputStream.putNextEntry(new JarEntry(entry.getName()));
-                inputStream.transferTo(outputStream);
-                outputStream.closeEntry();
-            }
+        try {
+            return methodInliner.inline(classData, originalName);
+        } catch (MethodTooLargeException | ClassTooLargeException e) {
+            Logger.warn("Not inlining calls in " + originalName + ": " + e.getMessage());
+            return null;
         }
-        
-        Files.move(tempJar, jarPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
     }
-    
-    private void addResourcesToJar(Path jarPath, Map<String, byte[]> resources) throws IOException 
+
+    private Set<String> withoutInlinedMethods(Set<String> removedMembers, Set<String> inlinedMethods) 
     {
-        if (resources.isEmpty()) {
-            return;
+        Set<String> remaining = new HashSet<>(removedMembers);
+        remaining.removeAll(inlinedMethods);
+        return remaining;
+    }
+
+    // Drops shrunk members and debug info, obfuscates control flow and compacts the constant pool in a single pass.
+    // Written without the reader, so constants only the removed members and attributes used are dropped from the pool too
+    private byte[] rewriteClass(byte[] classData, String originalName, Set<String> removedMembers, MappingContext mappingContext,
+                                ControlFlowObfuscator controlFlowObfuscator) 
+    {
+        return rewriteClass(classData, originalName, removedMembers, mappingContext, controlFlowObfuscator, 
+                           config.isStripDebugInfo(), config.isCompactConstantPools());
+    }
+
+    private byte[] rewriteClass(byte[] classData, String originalName, Set<String> removedMembers, MappingContext mappingContext,
+                                ControlFlowObfuscator controlFlowObfuscator, boolean stripDebugInfo, boolean compactConstantPool) 
+    {
+        boolean compactLines = stripDebugInfo && config.getLineNumberMode() == LineNumberMode.COMPACT;
+        if ((compactLines || compactConstantPool) && !removedMembers.isEmpty()) {
+            // Lines and pool entries are laid out over the methods that remain, so the removed ones have to be gone
+            // before they are counted
+            classData = rewriteClass(classData, originalName, removedMembers, mappingContext, null, false, false);
+            removedMembers = Collections.emptySet();
         }
-        
-        Path tempJar = Files.createTempFile("temp-", ".jar");
-        
-        try (JarInputStream inputStream = new JarInputStream(Files.newInputStream(jarPath));
-             JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(tempJar))) {
-            
-            Set<String> existingEntries = new HashSet<>();
-            
-            Manifest manifest = inputStream.getManifest();
-            if (manifest != null) {
-                outputStream.putNextEntry(new JarEntry("META-INF/MANIFEST.MF"));
-                manifest.write(outputStream);
-                outputStream.closeEntry();
-                existingEntries.add("META-INF/MANIFEST.MF");
-            }
-            
-            JarEntry entry;
-            while ((entry = inputStream.getNextJarEntry()) != null) {
-                if (entry.getName().equals("META-INF/MANIFEST.MF")) {
-                    continue;
-                }
-                
-                outputStream.putNextEntry(new JarEntry(entry.getName()));
-                inputStream.transferTo(outputStream);
-                outputStream.closeEntry();
-                existingEntries.add(entry.getName());
-            }
-            
-            for (Map.Entry<String, byte[]> resourceEntry : resources.entrySet()) {
-                String resourceName = resourceEntry.getKey();
-                byte[] resourceData = resourceEntry.getValue();
 
-                if (resourceName.equals("META-INF/MANIFEST.MF") || resourceName.endsWith(".class")) {
-                    continue;
-                }
+        ClassReader classReader = new ClassReader(classData);
+        ClassWriter classWriter = compactConstantPool ? ConstantPoolCompactor.newClassWriter(classReader) : new ClassWriter(0);
+        ClassVisitor classVisitor = classWriter;
+        int parsingOptions = 0;
 
-                if (existingEntries.contains(resourceName)) {
-                    if (config.isVerbose()) {
-                        Logger.debug("Skipping duplicate resource: " + resourceName);
-                    }
-                    continue;
-                }
+        if (controlFlowObfuscator != null && controlFlowObfuscator.hasMethods(originalName)) {
+            // Sees the code last, as it is written, and measures it that way
+            classVisitor = controlFlowObfuscator.visitor(classVisitor, originalName);
+            parsingOptions = ClassReader.EXPAND_FRAMES;
+        }
+        if (stripDebugInfo) {
+            if (config.getLineNumberMode() == LineNumberMode.STRIP) {
+                parsingOptions |= ClassReader.SKIP_DEBUG;
+            } else {
+                classVisitor = new DebugInfoStripper(classVisitor, classReader, config.getLineNumberMode());
+            }
+        }
+        if (!removedMembers.isEmpty()) {
+            classVisitor = removeMembers(classVisitor, originalName, removedMembers, mappingContext);
+        }
 
-                outputStream.putNextEntry(new JarEntry(resourceName));
-                outputStream.write(resourceData);
-                outputStream.closeEntry();
-                existingEntries.add(resourceName);
+        classReader.accept(classVisitor, parsingOptions);
+        return classWriter.toByteArray();
+    }
 
-                if (config.isVerbose()) {
-                    Logger.debug("Added resource: " + resourceName);
-                }
+    // Shrunk members were never renamed and inlined ones are private, so the mapping context has their output names;
+    // their descriptors still name renamed classes
+    private ClassVisitor removeMembers(ClassVisitor classVisitor, String originalName, Set<String> removedMembers, 
+                                       MappingContext mappingContext) 
+    {
+        Remapper descriptorRemapper = new SimpleRemapper(mappingContext.getAllClassMappings());
+        Set<String> removed = new HashSet<>();
+        for (String member : removedMembers) {
+            int colonIndex = member.indexOf(':');
+            if (colonIndex >= 0) {
+                String name = member.substring(0, colonIndex);
+                String descriptor = member.substring(colonIndex + 1);
+                removed.add(mappingContext.getObfuscatedFieldName(originalName, name, descriptor) + ":" + 
+                           descriptorRemapper.mapDesc(descriptor));
+            } else {
+                int parenIndex = member.indexOf('(');
+                String name = member.substring(0, parenIndex);
+                String descriptor = member.substring(parenIndex);
+                removed.add(mappingContext.getObfuscatedMethodName(originalName, name, descriptor) + 
+                           descriptorRemapper.mapMethodDesc(descriptor));
             }
         }
-        
-        Files.move(tempJar, jarPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+
+        return new ClassVisitor(Opcodes.ASM9, classVisitor) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) 
+            {
+                return removed.contains(name + ":" + descriptor) ? null : super.visitField(access, name, descriptor, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) 
+            {
+                return removed.contains(name + descriptor) ? null : super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+        };
     }
-    
-    private void removeOriginalMappedClasses(Path jarPath, MappingContext mappingContext) throws IOException 
+
+    private Manifest readManifest(ZipEntryHandle manifestEntry) throws IOException 
     {
-        if (mappingContext.getAllClassMappings().isEmpty()) {
-            return;
+        if (manifestEntry == null) {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            return manifest;
         }
-        
-        Path tempJar = Files.createTempFile("obfuscated-temp", ".jar");
-        Set<String> classesToRemove = new HashSet<>();
-        
-        // Build set of original class names that were mapped (these should be removed)
-        for (String originalClass : mappingContext.getAllClassMappings().keySet()) {
-            classesToRemove.add(originalClass + ".class");
+
+        try (InputStream inputStream = manifestEntry.openStream()) {
+            Manifest manifest = new Manifest(inputStream);
+            // Per-entry digests no longer match once classes are rewritten
+            manifest.getEntries().clear();
+            return manifest;
         }
-        
-        if (config.isVerbose()) {
-            Logger.debug("Removing " + classesToRemove.size() + " original mapped classes to prevent duplication");
+    }
+
+    private boolean isSignatureFile(String entryName) 
+    {
+        if (!entryName.startsWith("META-INF/") || entryName.indexOf('/', 9) >= 0) {
+            return false;
         }
-        
-        try (JarInputStream inputStream = new JarInputStream(Files.newInputStream(jarPath))) {
-            Manifest manifest = inputStream.getManifest();
-            
-            try (JarOutputStream outputStream = new JarOutputStream(Files.newOutputStream(tempJar), manifest)) {
-                JarEntry entry;
-                while ((entry = inputStream.getNextJarEntry()) != null) {
-                    String entryName = entry.getName();
-                    
-                    // Skip original classes that were mapped
-                    if (classesToRemove.contains(entryName)) {
-                        if (config.isVerbose()) {
-                            Logger.debug("Removed original mapped class: " + entryName);
-                        }
-                        continue;
+
+        String fileName = entryName.substring(9).toUpperCase();
+        return fileName.endsWith(".SF") || fileName.endsWith(".RSA") || fileName.endsWith(".DSA") || 
+               fileName.endsWith(".EC") || fileName.startsWith("SIG-");
+    }
+
+    // A merged class goes by its interim name, and its members by the names they have in the class they joined
+    private IMappingProvider createMappingProvider(MappingContext mappingContext, ClassMergePlan mergePlan, ClassMerger classMerger) 
+    {
+        return out -> {
+            mappingContext.forEachClassMapping(out::acceptClass);
+            mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) ->
+                out.acceptField(new IMappingProvider.Member(owner, name, descriptor), obfuscatedName));
+            mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) ->
+                out.acceptMethod(new IMappingProvider.Member(owner, name, descriptor), obfuscatedName));
+
+            for (String mergedClass : mergePlan.getMergedClasses()) {
+                out.acceptClass(mergedClass, classMerger.getInterimName(mergedClass));
+                String target = mergePlan.getMerge(mergedClass).getTarget();
+                for (String member : mergePlan.getMerge(mergedClass).getMembers()) {
+                    int colonIndex = member.indexOf(':');
+                    if (colonIndex >= 0) {
+                        String name = member.substring(0, colonIndex);
+                        String descriptor = member.substring(colonIndex + 1);
+                        out.acceptField(new IMappingProvider.Member(mergedClass, name, descriptor), 
+                                        mappingContext.getObfuscatedFieldName(target, name, descriptor));
+                    } else {
+                        int parenIndex = member.indexOf('(');
+                        String name = member.substring(0, parenIndex);
+                        String descriptor = member.substring(parenIndex);
+                        out.acceptMethod(new IMappingProvider.Member(mergedClass, name, descriptor), 
+                                         mappingContext.getObfuscatedMethodName(target, name, descriptor));
                     }
-                    
-                    outputStream.putNextEntry(new JarEntry(entry.getName()));
-                    inputStream.transferTo(outputStream);
-                    outputStream.closeEntry();
                 }
             }
+        };
+    }
+
+    private Set<String> collectOutputClassNames(MappedZipFile inputJar, MappingContext mappingContext) 
+    {
+        Set<String> classNames = new HashSet<>(mappingContext.getAllClassMappings().values());
+        for (ZipEntryHandle entry : inputJar.getEntries()) {
+            if (entry.getName().endsWith(".class")) {
+                classNames.add(entry.getName().substring(0, entry.getName().length() - 6));
+            }
+        }
+        return classNames;
+    }
+
+    private void updateManifest(Manifest manifest, MappingContext mappingContext, Map<String, String> manifestAttributes) 
+    {
+        if (manifestAttributes.containsKey("Main-Class")) {
+            String mainClass = manifestAttributes.get("Main-Class");
+            String internalMainClass = mainClass.replace('.', '/');
+            String mappedMainClass = mappingContext.getObfuscatedClassName(internalMainClass);
+            if (!mappedMainClass.equals(internalMainClass)) {
+                String dottedMappedMainClass = mappedMainClass.replace('/', '.');
+                manifest.getMainAttributes().putValue("Main-Class", dottedMappedMainClass);
+                
+                if (config.isVerbose()) {
+                    Logger.info("Updated Main-Class in manifest: " + mainClass + " -> " + dottedMappedMainClass);
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> entry : manifestAttributes.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (!key.equals("Main-Class")) {
+                manifest.getMainAttributes().putValue(key, value);
+            }
         }
-        
-        Files.move(tempJar, jarPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
     }
 }
\ No newline at end of file
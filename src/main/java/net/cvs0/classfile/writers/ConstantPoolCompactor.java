@@ -0,0 +1,54 @@
+package net.cvs0.classfile.writers;
+
+import org.objectweb.asm.*;
+
+import java.util.*;
+
+// Rebuilds the constant pool of an emitted class from scratch, so it only holds entries the class still refers to,
+// each of them once. Constants loaded with ldc are entered first, the most loaded first, so as many of them as
+// possible fit the single byte index of ldc instead of needing the wide ldc_w
+public final class ConstantPoolCompactor
+{
+    private static final int LDC_INDEX_LIMIT = 255;
+
+    private ConstantPoolCompactor() {}
+
+    // A writer for the class the reader holds, its pool seeded with the hot constants. It never shares the reader's
+    // pool, so entries nothing visits again are gone from the result
+    public static ClassWriter newClassWriter(ClassReader classReader)
+    {
+        ClassWriter classWriter = new ClassWriter(0);
+        for (Object constant : rankLoadedConstants(classReader)) {
+            if (classWriter.newConst(constant) > LDC_INDEX_LIMIT) {
+                break;
+            }
+        }
+        return classWriter;
+    }
+
+    // ldc operands by use count, ties in order of first use so the pool layout only depends on the class
+    private static List<Object> rankLoadedConstants(ClassReader classReader)
+    {
+        Map<Object, Integer> counts = new LinkedHashMap<>();
+        classReader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+            {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitLdcInsn(Object value)
+                    {
+                        // Longs and doubles always take ldc2_w, whatever their index
+                        if (!(value instanceof Long) && !(value instanceof Double)) {
+                            counts.merge(value, 1, Integer::sum);
+                        }
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        List<Object> constants = new ArrayList<>(counts.keySet());
+        constants.sort(Comparator.comparingInt((Object constant) -> counts.get(constant)).reversed());
+        return constants;
+    }
+}
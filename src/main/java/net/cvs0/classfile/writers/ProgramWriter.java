@@ -3,6 +3,7 @@ package net.cvs0.classfile.writers;
 import net.cvs0.classfile.*;
 import net.cvs0.classfile.Attribute;
 import net.cvs0.core.Program;
+import net.cvs0.io.ZipEntryHandle;
 import net.cvs0.utils.Logger;
 import org.objectweb.asm.*;
 
@@ -13,7 +14,7 @@ import java.util.jar.JarOutputStream;
 
 public class ProgramWriter 
 {
-    public void writeProgram(Program program, File outputJar, Map<String, byte[]> resources, 
+    public void writeProgram(Program program, File outputJar, Map<String, ZipEntryHandle> resources, 
                            Map<String, String> manifestAttributes) throws IOException 
     {
         try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(outputJar))) {
@@ -28,9 +29,9 @@ public class ProgramWriter
                 jarOut.closeEntry();
             }
             
-            for (Map.Entry<String, byte[]> resourceEntry : resources.entrySet()) {
+            for (Map.Entry<String, ZipEntryHandle> resourceEntry : resources.entrySet()) {
                 String resourceName = resourceEntry.getKey();
-                byte[] resourceData = resourceEntry.getValue();
+                ZipEntryHandle resourceData = resourceEntry.getValue();
                 
                 if (resourceName.endsWith(".class")) {
                     continue;
@@ -38,7 +39,9 @@ public class ProgramWriter
                 
                 JarEntry entry = new JarEntry(resourceName);
                 jarOut.putNextEntry(entry);
-                jarOut.write(resourceData);
+                try (InputStream resourceStream = resourceData.openStream()) {
+                    resourceStream.transferTo(jarOut);
+                }
                 jarOut.closeEntry();
             }
         }
@@ -54,6 +54,10 @@ public class ConfigLoader
             builder.obfuscateControlFlow(root.get("obfuscateControlFlow").asBoolean());
         }
         
+        if (root.has("controlFlowProfile")) {
+            builder.controlFlowProfile(root.get("controlFlowProfile").asText());
+        }
+        
         if (root.has("enableBackup")) {
             builder.enableBackup(root.get("enableBackup").asBoolean());
         }
@@ -88,6 +92,22 @@ public class ConfigLoader
             builder.backupDir(root.get("backupDir").asText());
         }
         
+        if (root.has("incrementalCacheDir")) {
+            builder.incrementalCacheDir(root.get("incrementalCacheDir").asText());
+        }
+        
+        if (root.has("libraryIndexDir")) {
+            builder.libraryIndexDir(root.get("libraryIndexDir").asText());
+        }
+        
+        if (root.has("applyMappingFile")) {
+            builder.applyMappingFile(root.get("applyMappingFile").asText());
+        }
+        
+        if (root.has("mappingOutputFile")) {
+            builder.mappingOutputFile(root.get("mappingOutputFile").asText());
+        }
+        
         if (root.has("namingMode")) {
             try {
                 NamingMode mode = NamingMode.valueOf(root.get("namingMode").asText().toUpperCase());
@@ -97,6 +117,15 @@ public class ConfigLoader
             }
         }
         
+        if (root.has("lineNumberMode")) {
+            try {
+                LineNumberMode mode = LineNumberMode.valueOf(root.get("lineNumberMode").asText().toUpperCase());
+                builder.lineNumberMode(mode);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid line number mode: " + root.get("lineNumberMode").asText());
+            }
+        }
+        
         if (root.has("obfuscationLevel")) {
             try {
                 ObfuscationLevel level = ObfuscationLevel.valueOf(root.get("obfuscationLevel").asText().toUpperCase());
@@ -110,6 +139,42 @@ public class ConfigLoader
             builder.maxThreads(root.get("maxThreads").asInt());
         }
         
+        if (root.has("namingSeed")) {
+            builder.namingSeed(root.get("namingSeed").asLong());
+        }
+
+        if (root.has("rankNamesByUsage")) {
+            builder.rankNamesByUsage(root.get("rankNamesByUsage").asBoolean());
+        }
+
+        if (root.has("aggressiveOverloading")) {
+            builder.aggressiveOverloading(root.get("aggressiveOverloading").asBoolean());
+        }
+        
+        if (root.has("shrink")) {
+            builder.shrink(root.get("shrink").asBoolean());
+        }
+        
+        if (root.has("compactConstantPools")) {
+            builder.compactConstantPools(root.get("compactConstantPools").asBoolean());
+        }
+        
+        if (root.has("inlineSimpleMethods")) {
+            builder.inlineSimpleMethods(root.get("inlineSimpleMethods").asBoolean());
+        } else if (obfuscationNode.has("inlineSimpleMethods")) {
+            builder.inlineSimpleMethods(obfuscationNode.get("inlineSimpleMethods").asBoolean());
+        }
+
+        if (root.has("mergeClasses")) {
+            builder.mergeClasses(root.get("mergeClasses").asBoolean());
+        } else if (obfuscationNode.has("mergeClasses")) {
+            builder.mergeClasses(obfuscationNode.get("mergeClasses").asBoolean());
+        }
+
+        if (root.has("compressionLevel")) {
+            builder.compressionLevel(root.get("compressionLevel").asInt());
+        }
+        
         if (keepRulesNode.has("keepClasses")) {
             JsonNode keepClasses = keepRulesNode.get("keepClasses");
             if (keepClasses.isArray()) {
@@ -176,6 +241,17 @@ public class ConfigLoader
             }
         }
         
+        if (root.has("libraryJars")) {
+            JsonNode libraryJars = root.get("libraryJars");
+            if (libraryJars.isArray()) {
+                List<String> paths = new ArrayList<>();
+                for (JsonNode node : libraryJars) {
+                    paths.add(node.asText());
+                }
+                builder.libraryJars(paths);
+            }
+        }
+        
         if (root.has("excludePackages")) {
             JsonNode excludePackages = root.get("excludePackages");
             if (excludePackages.isArray()) {
@@ -243,10 +319,34 @@ public class ConfigLoader
         if (config.getBackupDir() != null) {
             configMap.put("backupDir", config.getBackupDir());
         }
+        if (config.getIncrementalCacheDir() != null) {
+            configMap.put("incrementalCacheDir", config.getIncrementalCacheDir());
+        }
+        if (config.getLibraryIndexDir() != null) {
+            configMap.put("libraryIndexDir", config.getLibraryIndexDir());
+        }
+        if (config.getApplyMappingFile() != null) {
+            configMap.put("applyMappingFile", config.getApplyMappingFile());
+        }
+        if (config.getControlFlowProfile() != null) {
+            configMap.put("controlFlowProfile", config.getControlFlowProfile());
+        }
+        if (config.getMappingOutputFile() != null) {
+            configMap.put("mappingOutputFile", config.getMappingOutputFile());
+        }
         
         configMap.put("namingMode", config.getNamingMode().name());
+        configMap.put("lineNumberMode", config.getLineNumberMode().name());
         configMap.put("obfuscationLevel", config.getObfuscationLevel().name());
         configMap.put("maxThreads", config.getMaxThreads());
+        configMap.put("compressionLevel", config.getCompressionLevel());
+        configMap.put("namingSeed", config.getNamingSeed());
+        configMap.put("rankNamesByUsage", config.isRankNamesByUsage());
+        configMap.put("aggressiveOverloading", config.isAggressiveOverloading());
+        configMap.put("shrink", config.isShrink());
+        configMap.put("compactConstantPools", config.isCompactConstantPools());
+        configMap.put("inlineSimpleMethods", config.isInlineSimpleMethods());
+        configMap.put("mergeClasses", config.isMergeClasses());
         
         if (!config.getKeepClasses().isEmpty()) {
             configMap.put("keepClasses", new ArrayList<>(config.getKeepClasses()));
@@ -266,6 +366,9 @@ public class ConfigLoader
         if (!config.getExcludePackages().isEmpty()) {
             configMap.put("excludePackages", new ArrayList<>(config.getExcludePackages()));
         }
+        if (!config.getLibraryJars().isEmpty()) {
+            configMap.put("libraryJars", config.getLibraryJars());
+        }
         if (!config.getCustomMappings().isEmpty()) {
             configMap.put("customMappings", config.getCustomMappings());
         }
@@ -1,5 +1,6 @@
 package net.cvs0.config;
 
+import java.io.File;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -24,6 +25,10 @@ public class ConfigValidator
                              (Runtime.getRuntime().availableProcessors() * 2) + ")");
         }
 
+        if (config.getCompressionLevel() < -1 || config.getCompressionLevel() > 9) {
+            result.addError("Compression level must be between -1 and 9 (0 stores entries uncompressed)");
+        }
+
         if (!config.isRenameClasses() && !config.isRenameFields() && !config.isRenameMethods()) {
             result.addWarning("No renaming options enabled - obfuscation will be minimal");
         }
@@ -41,6 +46,22 @@ public class ConfigValidator
             result.addError("Backup directory cannot be empty");
         }
 
+        if (config.getIncrementalCacheDir() != null && config.getIncrementalCacheDir().trim().isEmpty()) {
+            result.addError("Incremental cache directory cannot be empty");
+        }
+
+        if (config.getLibraryIndexDir() != null && config.getLibraryIndexDir().trim().isEmpty()) {
+            result.addError("Library index directory cannot be empty");
+        }
+
+        if (config.getApplyMappingFile() != null && !new File(config.getApplyMappingFile()).isFile()) {
+            result.addError("Mapping file to apply does not exist: " + config.getApplyMappingFile());
+        }
+
+        if (config.getControlFlowProfile() != null && !new File(config.getControlFlowProfile()).isFile()) {
+            result.addError("Control flow profile does not exist: " + config.getControlFlowProfile());
+        }
+
         for (String className : config.getKeepClasses()) {
             if (className == null || className.trim().isEmpty()) {
                 result.addError("Keep class name cannot be null or empty");
@@ -71,16 +92,38 @@ public class ConfigValidator
             }
         }
 
+        for (String libraryJar : config.getLibraryJars()) {
+            if (!new File(libraryJar).exists()) {
+                result.addError("Library jar does not exist: " + libraryJar);
+            }
+        }
+
         Set<String> intersection = new HashSet<>(config.getIncludePackages());
         intersection.retainAll(config.getExcludePackages());
         if (!intersection.isEmpty()) {
             result.addError("Packages cannot be both included and excluded: " + intersection);
         }
 
+        if (!config.isStripDebugInfo() && config.getLineNumberMode() != LineNumberMode.STRIP) {
+            result.addWarning("Line number mode " + config.getLineNumberMode() + " has no effect without debug info stripping");
+        }
+
+        if (config.isStripDebugInfo() && config.getLineNumberMode() == LineNumberMode.COMPACT && config.getMappingOutputFile() == null) {
+            result.addWarning("Compacted line numbers can only be restored with a mapping file (--print-mapping)");
+        }
+
+        if (config.isMergeClasses() && config.getIncrementalCacheDir() != null) {
+            result.addWarning("Class merging is skipped when an incremental cache is used");
+        }
+
         if (config.isObfuscateControlFlow() && config.getObfuscationLevel() == ObfuscationLevel.LIGHT) {
             result.addWarning("Control flow obfuscation is enabled but obfuscation level is LIGHT");
         }
 
+        if (config.getControlFlowProfile() != null && !config.isObfuscateControlFlow()) {
+            result.addWarning("A control flow profile is set but control flow obfuscation is disabled");
+        }
+
         return result;
     }
 
@@ -0,0 +1,20 @@
+package net.cvs0.config;
+
+public enum LineNumberMode 
+{
+    STRIP("Drop line numbers with the rest of the debug information"),
+    KEEP("Keep the original line numbers"),
+    COMPACT("Renumber each class from line 1, one method after another (retrace restores the originals)");
+
+    private final String description;
+
+    LineNumberMode(String description) 
+    {
+        this.description = description;
+    }
+
+    public String getDescription() 
+    {
+        return description;
+    }
+}
@@ -6,6 +6,7 @@ public enum NamingMode
     SEQUENTIAL_ALPHA("Sequential alphabetic (a, b, c... aa, ab, ac...)"),
     RANDOM_SHORT("Random short names (abcd, xyzk, mnop...)"),
     RANDOM_LONG("Random long names (highly obfuscated)"),
+    RANDOM_PERMUTED("Random-looking short names from a keyed permutation (never retried, no used-name tracking)"),
     SINGLE_CHAR("Single character names (a, b, c...)");
 
     private final String description;
@@ -1,6 +1,7 @@
 package net.cvs0.config;
 
 import java.io.File;
+import java.security.SecureRandom;
 import java.util.*;
 
 public class ObfuscationConfig 
@@ -11,6 +12,7 @@ public class ObfuscationConfig
     private final boolean addSyntheticMembers;
     private final boolean stripDebugInfo;
     private final boolean obfuscateControlFlow;
+    private final String controlFlowProfile;
     private final boolean enableBackup;
     private final boolean verbose;
     private final boolean keepMainClass;
@@ -20,9 +22,23 @@ public class ObfuscationConfig
     
     private final String mainClass;
     private final String backupDir;
+    private final String incrementalCacheDir;
+    private final String applyMappingFile;
+    private final String mappingOutputFile;
     private final NamingMode namingMode;
+    private final LineNumberMode lineNumberMode;
     private final ObfuscationLevel obfuscationLevel;
     private final int maxThreads;
+    private final int compressionLevel;
+    private final long namingSeed;
+    private final boolean rankNamesByUsage;
+    private final boolean aggressiveOverloading;
+    private final boolean shrink;
+    private final boolean compactConstantPools;
+    private final boolean inlineSimpleMethods;
+    private final boolean mergeClasses;
+    private final List<String> libraryJars;
+    private final String libraryIndexDir;
     
     private final Set<String> keepClasses;
     private final Set<String> keepClassPatterns;
@@ -43,6 +59,7 @@ public class ObfuscationConfig
         this.addSyntheticMembers = builder.addSyntheticMembers;
         this.stripDebugInfo = builder.stripDebugInfo;
         this.obfuscateControlFlow = builder.obfuscateControlFlow;
+        this.controlFlowProfile = builder.controlFlowProfile;
         this.enableBackup = builder.enableBackup;
         this.verbose = builder.verbose;
         this.keepMainClass = builder.keepMainClass;
@@ -52,9 +69,23 @@ public class ObfuscationConfig
         
         this.mainClass = builder.mainClass;
         this.backupDir = builder.backupDir;
+        this.incrementalCacheDir = builder.incrementalCacheDir;
+        this.applyMappingFile = builder.applyMappingFile;
+        this.mappingOutputFile = builder.mappingOutputFile;
         this.namingMode = builder.namingMode;
+        this.lineNumberMode = builder.lineNumberMode;
         this.obfuscationLevel = builder.obfuscationLevel;
         this.maxThreads = builder.maxThreads;
+        this.compressionLevel = builder.compressionLevel;
+        this.rankNamesByUsage = builder.rankNamesByUsage;
+        this.aggressiveOverloading = builder.aggressiveOverloading;
+        this.shrink = builder.shrink;
+        this.compactConstantPools = builder.compactConstantPools;
+        this.inlineSimpleMethods = builder.inlineSimpleMethods;
+        this.mergeClasses = builder.mergeClasses;
+        this.libraryJars = Collections.unmodifiableList(new ArrayList<>(builder.libraryJars));
+        this.libraryIndexDir = builder.libraryIndexDir;
+        this.namingSeed = builder.namingSeed != null ? builder.namingSeed : new SecureRandom().nextLong();
         
         this.keepClasses = Collections.unmodifiableSet(new HashSet<>(builder.keepClasses));
         this.keepClassPatterns = Collections.unmodifiableSet(new HashSet<>(builder.keepClassPatterns));
@@ -74,6 +105,7 @@ public class ObfuscationConfig
     public boolean isAddSyntheticMembers() { return addSyntheticMembers; }
     public boolean isStripDebugInfo() { return stripDebugInfo; }
     public boolean isObfuscateControlFlow() { return obfuscateControlFlow; }
+    public String getControlFlowProfile() { return controlFlowProfile; }
     public boolean isEnableBackup() { return enableBackup; }
     public boolean isVerbose() { return verbose; }
     public boolean isKeepMainClass() { return keepMainClass; }
@@ -83,9 +115,23 @@ public class ObfuscationConfig
     
     public String getMainClass() { return mainClass; }
     public String getBackupDir() { return backupDir; }
+    public String getIncrementalCacheDir() { return incrementalCacheDir; }
+    public String getApplyMappingFile() { return applyMappingFile; }
+    public String getMappingOutputFile() { return mappingOutputFile; }
     public NamingMode getNamingMode() { return namingMode; }
+    public LineNumberMode getLineNumberMode() { return lineNumberMode; }
     public ObfuscationLevel getObfuscationLevel() { return obfuscationLevel; }
     public int getMaxThreads() { return maxThreads; }
+    public int getCompressionLevel() { return compressionLevel; }
+    public long getNamingSeed() { return namingSeed; }
+    public boolean isRankNamesByUsage() { return rankNamesByUsage; }
+    public boolean isAggressiveOverloading() { return aggressiveOverloading; }
+    public boolean isShrink() { return shrink; }
+    public boolean isCompactConstantPools() { return compactConstantPools; }
+    public boolean isInlineSimpleMethods() { return inlineSimpleMethods; }
+    public boolean isMergeClasses() { return mergeClasses; }
+    public List<String> getLibraryJars() { return libraryJars; }
+    public String getLibraryIndexDir() { return libraryIndexDir; }
     
     public Set<String> getKeepClasses() { return keepClasses; }
     public Set<String> getKeepClassPatterns() { return keepClassPatterns; }
@@ -120,6 +166,7 @@ public class ObfuscationConfig
         private boolean addSyntheticMembers = false;
         private boolean stripDebugInfo = false;
         private boolean obfuscateControlFlow = false;
+        private String controlFlowProfile;
         private boolean enableBackup = false;
         private boolean verbose = false;
         private boolean keepMainClass = true;
@@ -129,9 +176,23 @@ public class ObfuscationConfig
         
         private String mainClass;
         private String backupDir = "backups";
+        private String incrementalCacheDir;
+        private String applyMappingFile;
+        private String mappingOutputFile;
         private NamingMode namingMode = NamingMode.SEQUENTIAL_PREFIX;
+        private LineNumberMode lineNumberMode = LineNumberMode.STRIP;
         private ObfuscationLevel obfuscationLevel = ObfuscationLevel.MEDIUM;
         private int maxThreads = Runtime.getRuntime().availableProcessors();
+        private int compressionLevel = -1;
+        private Long namingSeed;
+        private boolean rankNamesByUsage = false;
+        private boolean aggressiveOverloading = false;
+        private boolean shrink = false;
+        private boolean compactConstantPools = false;
+        private boolean inlineSimpleMethods = false;
+        private boolean mergeClasses = false;
+        private List<String> libraryJars = new ArrayList<>();
+        private String libraryIndexDir;
         
         private Set<String> keepClasses = new HashSet<>();
         private Set<String> keepClassPatterns = new HashSet<>();
@@ -150,6 +211,7 @@ public class ObfuscationConfig
         public Builder addSyntheticMembers(boolean addSyntheticMembers) { this.addSyntheticMembers = addSyntheticMembers; return this; }
         public Builder stripDebugInfo(boolean stripDebugInfo) { this.stripDebugInfo = stripDebugInfo; return this; }
         public Builder obfuscateControlFlow(boolean obfuscateControlFlow) { this.obfuscateControlFlow = obfuscateControlFlow; return this; }
+        public Builder controlFlowProfile(String controlFlowProfile) { this.controlFlowProfile = controlFlowProfile; return this; }
         public Builder enableBackup(boolean enableBackup) { this.enableBackup = enableBackup; return this; }
         public Builder verbose(boolean verbose) { this.verbose = verbose; return this; }
         public Builder keepMainClass(boolean keepMainClass) { this.keepMainClass = keepMainClass; return this; }
@@ -159,9 +221,24 @@ public class ObfuscationConfig
         
         public Builder mainClass(String mainClass) { this.mainClass = mainClass; return this; }
         public Builder backupDir(String backupDir) { this.backupDir = backupDir; return this; }
+        public Builder incrementalCacheDir(String incrementalCacheDir) { this.incrementalCacheDir = incrementalCacheDir; return this; }
+        public Builder applyMappingFile(String applyMappingFile) { this.applyMappingFile = applyMappingFile; return this; }
+        public Builder mappingOutputFile(String mappingOutputFile) { this.mappingOutputFile = mappingOutputFile; return this; }
         public Builder namingMode(NamingMode namingMode) { this.namingMode = namingMode; return this; }
+        public Builder lineNumberMode(LineNumberMode lineNumberMode) { this.lineNumberMode = lineNumberMode; return this; }
         public Builder obfuscationLevel(ObfuscationLevel obfuscationLevel) { this.obfuscationLevel = obfuscationLevel; return this; }
         public Builder maxThreads(int maxThreads) { this.maxThreads = Math.max(1, maxThreads); return this; }
+        public Builder compressionLevel(int compressionLevel) { this.compressionLevel = compressionLevel; return this; }
+        public Builder namingSeed(long namingSeed) { this.namingSeed = namingSeed; return this; }
+        public Builder rankNamesByUsage(boolean rankNamesByUsage) { this.rankNamesByUsage = rankNamesByUsage; return this; }
+        public Builder aggressiveOverloading(boolean aggressiveOverloading) { this.aggressiveOverloading = aggressiveOverloading; return this; }
+        public Builder shrink(boolean shrink) { this.shrink = shrink; return this; }
+        public Builder compactConstantPools(boolean compactConstantPools) { this.compactConstantPools = compactConstantPools; return this; }
+        public Builder inlineSimpleMethods(boolean inlineSimpleMethods) { this.inlineSimpleMethods = inlineSimpleMethods; return this; }
+        public Builder mergeClasses(boolean mergeClasses) { this.mergeClasses = mergeClasses; return this; }
+        public Builder libraryJar(String path) { this.libraryJars.add(path); return this; }
+        public Builder libraryJars(Collection<String> paths) { this.libraryJars.addAll(paths); return this; }
+        public Builder libraryIndexDir(String libraryIndexDir) { this.libraryIndexDir = libraryIndexDir; return this; }
         
         public Builder keepClass(String className) { this.keepClasses.add(className); return this; }
         public Builder keepClasses(Collection<String> classNames) { this.keepClasses.addAll(classNames); return this; }
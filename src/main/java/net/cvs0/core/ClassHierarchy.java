@@ -0,0 +1,219 @@
+package net.cvs0.core;
+
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.classfile.ProgramMethod;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+// Override families of every program method. Two methods share a family when one can override or implement the
+// other, including the case where a class inherits an implementation from its superclass for an interface method.
+// Members of a family must all keep the same name, and a family touching a library class cannot be renamed at all
+public final class ClassHierarchy
+{
+    private static final int UNRESOLVED = 0;
+
+    private final Program program;
+    private final LibraryClassPool library;
+    private final Map<String, Integer> programMethods = new HashMap<>();
+    private final Map<String, Map<String, Integer>> visibleMethods = new HashMap<>();
+    private final Map<String, Boolean> unresolvedAncestors = new HashMap<>();
+    private final Set<String> unresolvedClasses = new TreeSet<>();
+    private final Set<String> libraryMethodNames = new HashSet<>();
+    private int[] parents = new int[256];
+    private boolean[] libraryBound = new boolean[256];
+    private int size;
+
+    private ClassHierarchy(Program program, LibraryClassPool library)
+    {
+        this.program = program;
+        this.library = library;
+        // Stands in for whatever an unresolved supertype declares, so it is always library bound
+        newMethod(true);
+    }
+
+    public static ClassHierarchy build(Program program, LibraryClassPool library)
+    {
+        ClassHierarchy hierarchy = new ClassHierarchy(program, library);
+        for (ProgramClass programClass : program.getAllClasses()) {
+            hierarchy.visibleMethods(programClass.getName());
+        }
+        for (int i = 0; i < hierarchy.size; i++) {
+            if (hierarchy.libraryBound[i]) {
+                hierarchy.libraryBound[hierarchy.find(i)] = true;
+            }
+        }
+        // The per-class views are only needed while families are being joined
+        hierarchy.visibleMethods.clear();
+        return hierarchy;
+    }
+
+    public int getFamily(String owner, String name, String descriptor)
+    {
+        Integer id = programMethods.get(methodKey(owner, name, descriptor));
+        return id != null ? find(id) : -1;
+    }
+
+    public boolean isLibraryBound(int family)
+    {
+        return family >= 0 && libraryBound[find(family)];
+    }
+
+    public boolean isLibraryBound(String owner, String name, String descriptor)
+    {
+        return isLibraryBound(getFamily(owner, name, descriptor));
+    }
+
+    // Names a renamed method must avoid, or it could start overriding a library method by accident
+    public Set<String> getLibraryMethodNames()
+    {
+        return Collections.unmodifiableSet(libraryMethodNames);
+    }
+
+    public Set<String> getUnresolvedClasses()
+    {
+        return Collections.unmodifiableSet(unresolvedClasses);
+    }
+
+    public int getMethodCount()
+    {
+        return programMethods.size();
+    }
+
+    private Map<String, Integer> visibleMethods(String className)
+    {
+        Map<String, Integer> visible = visibleMethods.get(className);
+        if (visible != null) {
+            return visible;
+        }
+        // Guards against malformed input with a cyclic hierarchy
+        visibleMethods.put(className, Collections.emptyMap());
+        visible = new HashMap<>();
+
+        ProgramClass programClass = program.getClass(className);
+        LibraryClass libraryClass = programClass == null ? library.findClass(className) : null;
+        if (programClass == null && libraryClass == null) {
+            unresolvedClasses.add(className);
+            visibleMethods.put(className, visible);
+            return visible;
+        }
+
+        String superName = programClass != null ? programClass.getSuperName() : libraryClass.getSuperName();
+        String[] interfaces = programClass != null ? programClass.getInterfaces() : libraryClass.getInterfaces();
+        if (superName != null) {
+            inherit(visible, visibleMethods(superName));
+        }
+        for (String interfaceName : interfaces) {
+            inherit(visible, visibleMethods(interfaceName));
+        }
+
+        if (programClass != null) {
+            boolean unresolvedAncestor = hasUnresolvedAncestor(className);
+            for (ProgramMethod method : programClass.getMethods()) {
+                int id = newMethod(false);
+                programMethods.put(methodKey(className, method.getName(), method.getDescriptor()), id);
+                if (isVirtual(method.getName(), method.getAccess())) {
+                    if (unresolvedAncestor) {
+                        union(id, UNRESOLVED);
+                    }
+                    declare(visible, method.getName() + method.getDescriptor(), id);
+                }
+            }
+        } else {
+            for (LibraryClass.Member method : libraryClass.getMethods()) {
+                if (isVirtual(method.getName(), method.getAccess())) {
+                    libraryMethodNames.add(method.getName());
+                    declare(visible, method.getName() + method.getDescriptor(), newMethod(true));
+                }
+            }
+        }
+
+        visibleMethods.put(className, visible);
+        return visible;
+    }
+
+    private boolean hasUnresolvedAncestor(String className)
+    {
+        Boolean cached = unresolvedAncestors.get(className);
+        if (cached != null) {
+            return cached;
+        }
+        unresolvedAncestors.put(className, false);
+
+        boolean unresolved;
+        ProgramClass programClass = program.getClass(className);
+        if (programClass != null) {
+            unresolved = (programClass.getSuperName() != null && hasUnresolvedAncestor(programClass.getSuperName()));
+            for (String interfaceName : programClass.getInterfaces()) {
+                unresolved |= hasUnresolvedAncestor(interfaceName);
+            }
+        } else {
+            LibraryClass libraryClass = library.findClass(className);
+            unresolved = libraryClass == null;
+            if (libraryClass != null) {
+                unresolved = libraryClass.getSuperName() != null && hasUnresolvedAncestor(libraryClass.getSuperName());
+                for (String interfaceName : libraryClass.getInterfaces()) {
+                    unresolved |= hasUnresolvedAncestor(interfaceName);
+                }
+            }
+        }
+        unresolvedAncestors.put(className, unresolved);
+        return unresolved;
+    }
+
+    private void inherit(Map<String, Integer> visible, Map<String, Integer> inherited)
+    {
+        for (Map.Entry<String, Integer> entry : inherited.entrySet()) {
+            declare(visible, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void declare(Map<String, Integer> visible, String signature, int id)
+    {
+        Integer existing = visible.putIfAbsent(signature, id);
+        if (existing != null) {
+            union(existing, id);
+        }
+    }
+
+    // Constructors, initializers and private methods never take part in dispatch, so they stay on their own.
+    // Static methods are joined too: they can hide each other, and a conservative family is always safe
+    private static boolean isVirtual(String name, int access)
+    {
+        return (access & Opcodes.ACC_PRIVATE) == 0 && !name.equals("<init>") && !name.equals("<clinit>");
+    }
+
+    private int newMethod(boolean fromLibrary)
+    {
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            libraryBound = Arrays.copyOf(libraryBound, size * 2);
+        }
+        parents[size] = size;
+        libraryBound[size] = fromLibrary;
+        return size++;
+    }
+
+    private int find(int id)
+    {
+        while (parents[id] != id) {
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+
+    private void union(int first, int second)
+    {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if (firstRoot != secondRoot) {
+            parents[Math.max(firstRoot, secondRoot)] = Math.min(firstRoot, secondRoot);
+        }
+    }
+
+    private static String methodKey(String owner, String name, String descriptor)
+    {
+        return owner + "." + name + descriptor;
+    }
+}
@@ -0,0 +1,83 @@
+package net.cvs0.core;
+
+import java.util.*;
+
+// Which classes were merged into which other class, by original name, in the order they were merged. Each merged
+// class leaves the output; the members it brings along are keyed like the shrink result keys members, name +
+// descriptor for methods and name + ':' + descriptor for fields, and are named like the members of the class they
+// joined. Constructors are never brought along
+public final class ClassMergePlan
+{
+    public static final ClassMergePlan NONE = new ClassMergePlan(Collections.emptyMap());
+
+    public enum MergeKind
+    {
+        // An interface into its only implementation
+        INTERFACE,
+        // An abstract class into its only subclass
+        SUPERCLASS,
+        // A class of static methods into another one of its package
+        UTILITY
+    }
+
+    public static final class Merge
+    {
+        private final String target;
+        private final MergeKind kind;
+        private final Set<String> members;
+
+        public Merge(String target, MergeKind kind, Set<String> members)
+        {
+            this.target = target;
+            this.kind = kind;
+            this.members = members;
+        }
+
+        public String getTarget()
+        {
+            return target;
+        }
+
+        public MergeKind getKind()
+        {
+            return kind;
+        }
+
+        public Set<String> getMembers()
+        {
+            return Collections.unmodifiableSet(members);
+        }
+    }
+
+    private final Map<String, Merge> merges;
+
+    public ClassMergePlan(Map<String, Merge> merges)
+    {
+        this.merges = merges;
+    }
+
+    public boolean isMerged(String className)
+    {
+        return merges.containsKey(className);
+    }
+
+    public Merge getMerge(String className)
+    {
+        return merges.get(className);
+    }
+
+    public Set<String> getMergedClasses()
+    {
+        return Collections.unmodifiableSet(merges.keySet());
+    }
+
+    public int getMergedClassCount()
+    {
+        return merges.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return merges.isEmpty();
+    }
+}
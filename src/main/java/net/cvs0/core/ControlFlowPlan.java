@@ -0,0 +1,33 @@
+package net.cvs0.core;
+
+import java.util.*;
+
+// Which methods the output rewrite obfuscates the control flow of, by the original name of their class, keyed like
+// the shrink result keys members, name + descriptor. Only cold methods, which run straight through once per call,
+// are listed; every other method is left as it is
+public final class ControlFlowPlan
+{
+    public static final ControlFlowPlan NONE = new ControlFlowPlan(Collections.emptyMap());
+
+    private final Map<String, Set<String>> methods;
+
+    public ControlFlowPlan(Map<String, Set<String>> methods)
+    {
+        this.methods = methods;
+    }
+
+    public Set<String> getMethods(String className)
+    {
+        return methods.getOrDefault(className, Collections.emptySet());
+    }
+
+    public boolean hasMethods(String className)
+    {
+        return methods.containsKey(className);
+    }
+
+    public boolean isEmpty()
+    {
+        return methods.isEmpty();
+    }
+}
@@ -0,0 +1,448 @@
+package net.cvs0.core;
+
+import net.cvs0.classfile.ConstantPoolScanner;
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.io.MappedZipFile;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.obfuscation.MappingContext;
+import net.cvs0.utils.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class IncrementalCache implements Closeable
+{
+    private static final int MAGIC = 0x4F424943;
+    private static final int FORMAT_VERSION = 2;
+    private static final String STATE_FILE = "incremental.cache";
+    private static final String OUTPUT_FILE = "previous-output.jar";
+
+    private final File cacheDir;
+    private final ObfuscationConfig config;
+    private final String configFingerprint;
+
+    private final Map<String, byte[]> previousHashes = new HashMap<>();
+    private final Map<String, String> previousClassMappings = new HashMap<>();
+    private final Map<String, Map<String, String>> previousFieldMappings = new HashMap<>();
+    private final Map<String, Map<String, String>> previousMethodMappings = new HashMap<>();
+    private final Map<String, Set<String>> previousRemovedMembers = new HashMap<>();
+    private MappedZipFile previousOutput;
+
+    private final Map<String, byte[]> currentHashes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> currentReferences = new ConcurrentHashMap<>();
+    private final Set<String> unchangedClasses = ConcurrentHashMap.newKeySet();
+
+    private IncrementalCache(File cacheDir, ObfuscationConfig config)
+    {
+        this.cacheDir = cacheDir;
+        this.config = config;
+        this.configFingerprint = fingerprint(config);
+    }
+
+    public static IncrementalCache open(File cacheDir, ObfuscationConfig config) throws IOException
+    {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create incremental cache directory: " + cacheDir.getAbsolutePath());
+        }
+
+        IncrementalCache cache = new IncrementalCache(cacheDir, config);
+        File stateFile = new File(cacheDir, STATE_FILE);
+        File outputFile = new File(cacheDir, OUTPUT_FILE);
+
+        if (!stateFile.isFile() || !outputFile.isFile()) {
+            if (config.isVerbose()) {
+                Logger.info("No incremental cache found in " + cacheDir.getPath() + ", performing full obfuscation");
+            }
+            return cache;
+        }
+
+        try {
+            if (cache.readState(stateFile)) {
+                cache.previousOutput = new MappedZipFile(outputFile);
+            } else if (config.isVerbose()) {
+                Logger.info("Incremental cache was created with different settings, performing full obfuscation");
+            }
+        } catch (IOException e) {
+            Logger.warn("Ignoring unreadable incremental cache: " + e.getMessage());
+            cache.clearPrevious();
+        }
+
+        return cache;
+    }
+
+    public boolean hasPreviousRun()
+    {
+        return previousOutput != null;
+    }
+
+    public boolean recordClass(String className, byte[] classData)
+    {
+        byte[] hash = hash(classData);
+        currentHashes.put(className, hash);
+        currentReferences.put(className, ConstantPoolScanner.collectClassReferences(classData));
+
+        byte[] previousHash = previousHashes.get(className);
+        boolean unchanged = previousHash != null && MessageDigest.isEqual(previousHash, hash);
+        if (unchanged) {
+            unchangedClasses.add(className);
+        }
+        return unchanged;
+    }
+
+    public boolean isUnchanged(String className)
+    {
+        return unchangedClasses.contains(className);
+    }
+
+    public void seedMappings(Program program, MappingContext mappingContext)
+    {
+        if (!hasPreviousRun()) {
+            return;
+        }
+
+        int seeded = 0;
+        int unchanged = 0;
+        for (String className : program.getClassNames()) {
+            // Changed classes keep their previous name too, so they stay in the package of their unchanged
+            // neighbours; only their members are named afresh
+            String obfuscatedName = previousClassMappings.get(className);
+            if (obfuscatedName != null) {
+                mappingContext.mapClass(className, obfuscatedName);
+                seeded++;
+            }
+
+            if (!isUnchanged(className)) {
+                continue;
+            }
+            ProgramClass programClass = program.getClass(className);
+            unchanged++;
+
+            for (Map.Entry<String, String> entry : previousFieldMappings.getOrDefault(className, Collections.emptyMap()).entrySet()) {
+                String key = entry.getKey();
+                int dotIndex = key.indexOf('.');
+                int colonIndex = key.indexOf(':', dotIndex);
+                // Members the shrinker removed this time have nothing left to name
+                if (programClass.findField(key.substring(dotIndex + 1, colonIndex), key.substring(colonIndex + 1)) == null) {
+                    continue;
+                }
+                mappingContext.mapField(className, key.substring(dotIndex + 1, colonIndex),
+                                        key.substring(colonIndex + 1), entry.getValue());
+                seeded++;
+            }
+
+            for (Map.Entry<String, String> entry : previousMethodMappings.getOrDefault(className, Collections.emptyMap()).entrySet()) {
+                String key = entry.getKey();
+                int dotIndex = key.indexOf('.');
+                int parenIndex = key.indexOf('(', dotIndex);
+                if (programClass.findMethod(key.substring(dotIndex + 1, parenIndex), key.substring(parenIndex)) == null) {
+                    continue;
+                }
+                mappingContext.mapMethod(className, key.substring(dotIndex + 1, parenIndex),
+                                         key.substring(parenIndex), entry.getValue());
+                seeded++;
+            }
+        }
+
+        if (config.isVerbose()) {
+            Logger.info("Incremental cache: " + unchanged + " of " + program.getClassCount() +
+                       " classes unchanged, seeded " + seeded + " mappings from the previous run");
+        }
+    }
+
+    public Map<String, ZipEntryHandle> findReusableOutputs(Program program, MappingContext mappingContext, ShrinkResult shrinkResult)
+    {
+        Map<String, ZipEntryHandle> reusable = new HashMap<>();
+        if (!hasPreviousRun()) {
+            return reusable;
+        }
+
+        Map<String, Map<String, String>> fieldMappings = new HashMap<>();
+        mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) ->
+            fieldMappings.computeIfAbsent(owner, k -> new HashMap<>()).put(owner + "." + name + ":" + descriptor, obfuscatedName));
+        Map<String, Map<String, String>> methodMappings = new HashMap<>();
+        mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) ->
+            methodMappings.computeIfAbsent(owner, k -> new HashMap<>()).put(owner + "." + name + descriptor, obfuscatedName));
+        Map<String, String> classMappings = mappingContext.getAllClassMappings();
+        Map<String, Boolean> stability = new HashMap<>();
+
+        for (String className : program.getClassNames()) {
+            // The previous output only fits if the shrinker took out exactly the same members
+            if (!isUnchanged(className) ||
+                !previousRemovedMembers.getOrDefault(className, Collections.emptySet()).equals(shrinkResult.getRemovedMembers(className))) {
+                continue;
+            }
+
+            String obfuscatedName = classMappings.getOrDefault(className, className);
+            ZipEntryHandle previousEntry = previousOutput.getEntry(obfuscatedName + ".class");
+            if (previousEntry == null) {
+                continue;
+            }
+
+            if (isClosureStable(className, program, classMappings, fieldMappings, methodMappings, stability)) {
+                reusable.put(className, previousEntry);
+            }
+        }
+
+        if (config.isVerbose()) {
+            Logger.info("Incremental cache: reusing previous output for " + reusable.size() + " classes");
+        }
+
+        return reusable;
+    }
+
+    private boolean isClosureStable(String className, Program program, Map<String, String> classMappings,
+                                    Map<String, Map<String, String>> fieldMappings,
+                                    Map<String, Map<String, String>> methodMappings, Map<String, Boolean> stability)
+    {
+        // The emitted bytes only depend on the names of the class itself, everything it references, and the
+        // supertypes through which those references resolve
+        Deque<String> worklist = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        worklist.add(className);
+        worklist.addAll(currentReferences.getOrDefault(className, Collections.emptySet()));
+
+        while (!worklist.isEmpty()) {
+            String current = worklist.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+
+            boolean stable = stability.computeIfAbsent(current, name ->
+                Objects.equals(previousClassMappings.get(name), classMappings.get(name)) &&
+                previousFieldMappings.getOrDefault(name, Collections.emptyMap())
+                    .equals(fieldMappings.getOrDefault(name, Collections.emptyMap())) &&
+                previousMethodMappings.getOrDefault(name, Collections.emptyMap())
+                    .equals(methodMappings.getOrDefault(name, Collections.emptyMap())));
+            if (!stable) {
+                return false;
+            }
+
+            ProgramClass programClass = program.getClass(current);
+            if (programClass != null) {
+                if (programClass.getSuperName() != null) {
+                    worklist.add(programClass.getSuperName());
+                }
+                worklist.addAll(Arrays.asList(programClass.getInterfaces()));
+            }
+        }
+
+        return true;
+    }
+
+    public void save(File outputJar, MappingContext mappingContext, ShrinkResult shrinkResult) throws IOException
+    {
+        clearPrevious();
+
+        Path outputCopy = new File(cacheDir, OUTPUT_FILE + ".tmp").toPath();
+        Files.copy(outputJar.toPath(), outputCopy, StandardCopyOption.REPLACE_EXISTING);
+
+        File stateTemp = new File(cacheDir, STATE_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateTemp)))) {
+            writeState(out, mappingContext, shrinkResult);
+        }
+
+        Files.move(outputCopy, new File(cacheDir, OUTPUT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(stateTemp.toPath(), new File(cacheDir, STATE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (config.isVerbose()) {
+            Logger.info("Saved incremental cache for " + currentHashes.size() + " classes to " + cacheDir.getPath());
+        }
+    }
+
+    private void writeState(DataOutputStream out, MappingContext mappingContext, ShrinkResult shrinkResult) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(configFingerprint);
+
+        List<String> classNames = new ArrayList<>(currentHashes.keySet());
+        Collections.sort(classNames);
+        out.writeInt(classNames.size());
+        for (String className : classNames) {
+            byte[] hash = currentHashes.get(className);
+            out.writeUTF(className);
+            out.writeByte(hash.length);
+            out.write(hash);
+        }
+
+        writeMappings(out, mappingContext.getAllClassMappings());
+        writeMappings(out, mappingContext.getAllFieldMappings());
+        writeMappings(out, mappingContext.getAllMethodMappings());
+
+        Map<String, Set<String>> removedMembers = new TreeMap<>(shrinkResult.getAllRemovedMembers());
+        out.writeInt(removedMembers.size());
+        for (Map.Entry<String, Set<String>> entry : removedMembers.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String member : new TreeSet<>(entry.getValue())) {
+                out.writeUTF(member);
+            }
+        }
+    }
+
+    private boolean readState(File stateFile) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an incremental cache file: " + stateFile.getPath());
+            }
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(configFingerprint)) {
+                return false;
+            }
+
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                String className = in.readUTF();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                previousHashes.put(className, hash);
+            }
+
+            previousClassMappings.putAll(readMappings(in));
+            previousFieldMappings.putAll(groupByOwner(readMappings(in)));
+            previousMethodMappings.putAll(groupByOwner(readMappings(in)));
+
+            int shrunkClassCount = in.readInt();
+            for (int i = 0; i < shrunkClassCount; i++) {
+                String className = in.readUTF();
+                int memberCount = in.readInt();
+                Set<String> members = new HashSet<>(memberCount * 2);
+                for (int j = 0; j < memberCount; j++) {
+                    members.add(in.readUTF());
+                }
+                previousRemovedMembers.put(className, members);
+            }
+            return true;
+        }
+    }
+
+    private static void writeMappings(DataOutputStream out, Map<String, String> mappings) throws IOException
+    {
+        Map<String, String> sorted = new TreeMap<>(mappings);
+        out.writeInt(sorted.size());
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMappings(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, String> mappings = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            mappings.put(in.readUTF(), in.readUTF());
+        }
+        return mappings;
+    }
+
+    private static Map<String, Map<String, String>> groupByOwner(Map<String, String> memberMappings)
+    {
+        Map<String, Map<String, String>> grouped = new HashMap<>();
+        for (Map.Entry<String, String> entry : memberMappings.entrySet()) {
+            String key = entry.getKey();
+            int dotIndex = key.indexOf('.');
+            if (dotIndex > 0) {
+                grouped.computeIfAbsent(key.substring(0, dotIndex), k -> new HashMap<>()).put(key, entry.getValue());
+            }
+        }
+        return grouped;
+    }
+
+    private void clearPrevious()
+    {
+        previousHashes.clear();
+        previousClassMappings.clear();
+        previousFieldMappings.clear();
+        previousMethodMappings.clear();
+        previousRemovedMembers.clear();
+        unchangedClasses.clear();
+
+        if (previousOutput != null) {
+            try {
+                previousOutput.close();
+            } catch (IOException e) {
+                Logger.warn("Failed to close previous output: " + e.getMessage());
+            }
+            previousOutput = null;
+        }
+    }
+
+    // Libraries decide which methods can be renamed, so a changed jar invalidates the cache like a changed option
+    private static String libraryFingerprint(ObfuscationConfig config)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String libraryJar : config.getLibraryJars()) {
+            File file = new File(libraryJar);
+            builder.append(file.getAbsolutePath()).append(':').append(file.length()).append(':').append(file.lastModified()).append(';');
+        }
+        return builder.toString();
+    }
+
+    private static byte[] hash(byte[] data)
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String fingerprint(ObfuscationConfig config)
+    {
+        // Only settings that influence naming or emitted bytes; thread counts and verbosity do not invalidate the cache
+        StringBuilder builder = new StringBuilder();
+        builder.append(config.isRenameClasses()).append('|')
+               .append(config.isRenameFields()).append('|')
+               .append(config.isRenameMethods()).append('|')
+               .append(config.isAddSyntheticMembers()).append('|')
+               .append(config.isStripDebugInfo()).append('|')
+               .append(config.getLineNumberMode()).append('|')
+               .append(config.isObfuscateControlFlow()).append('|')
+               .append(config.getControlFlowProfile()).append('|')
+               .append(config.isKeepMainClass()).append('|')
+               .append(config.isKeepStandardEntryPoints()).append('|')
+               .append(config.isStayInScope()).append('|')
+               .append(config.getMainClass()).append('|')
+               .append(config.getNamingMode()).append('|')
+               .append(config.isRankNamesByUsage()).append('|')
+               .append(config.isAggressiveOverloading()).append('|')
+               .append(config.isShrink()).append('|')
+               .append(config.isCompactConstantPools()).append('|')
+               .append(config.isInlineSimpleMethods()).append('|')
+               .append(config.isMergeClasses()).append('|')
+               .append(config.getObfuscationLevel()).append('|')
+               .append(config.getCompressionLevel()).append('|')
+               .append(new TreeSet<>(config.getKeepClasses())).append('|')
+               .append(new TreeSet<>(config.getKeepClassPatterns())).append('|')
+               .append(new TreeSet<>(config.getKeepMethods())).append('|')
+               .append(new TreeSet<>(config.getKeepMethodsInClassPatterns())).append('|')
+               .append(new TreeSet<>(config.getKeepFields())).append('|')
+               .append(new TreeSet<>(config.getIncludePackages())).append('|')
+               .append(new TreeSet<>(config.getExcludePackages())).append('|')
+               .append(new TreeMap<>(config.getCustomMappings())).append('|')
+               .append(libraryFingerprint(config)).append('|')
+               .append(new TreeMap<>(config.getTransformerOptions()));
+
+        byte[] digest = hash(builder.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void close()
+    {
+        clearPrevious();
+    }
+}
@@ -0,0 +1,48 @@
+package net.cvs0.core;
+
+import java.util.*;
+
+// Which calls the output rewrite replaces with a copy of the method they call, by the original name of the calling
+// class, and which methods have no call left once it has. Calls are keyed like the analyzer records them,
+// owner + '.' + name + descriptor; removed methods like the shrink result keys members, name + descriptor
+public final class InlinePlan
+{
+    public static final InlinePlan NONE = new InlinePlan(Collections.emptyMap(), Collections.emptyMap());
+
+    private final Map<String, Set<String>> inlinedCalls;
+    private final Map<String, Set<String>> removedMethods;
+
+    public InlinePlan(Map<String, Set<String>> inlinedCalls, Map<String, Set<String>> removedMethods)
+    {
+        this.inlinedCalls = inlinedCalls;
+        this.removedMethods = removedMethods;
+    }
+
+    public Set<String> getInlinedCalls(String className)
+    {
+        return inlinedCalls.getOrDefault(className, Collections.emptySet());
+    }
+
+    // Every method some class has its calls to replaced
+    public Set<String> getInlinedMethods()
+    {
+        Set<String> methods = new TreeSet<>();
+        inlinedCalls.values().forEach(methods::addAll);
+        return methods;
+    }
+
+    public Set<String> getRemovedMethods(String className)
+    {
+        return removedMethods.getOrDefault(className, Collections.emptySet());
+    }
+
+    public Map<String, Set<String>> getAllRemovedMethods()
+    {
+        return Collections.unmodifiableMap(removedMethods);
+    }
+
+    public boolean isEmpty()
+    {
+        return inlinedCalls.isEmpty();
+    }
+}
@@ -1,29 +1,45 @@
 package net.cvs0.core;
 
 import net.cvs0.classfile.*;
+import net.cvs0.classfile.remappers.ControlFlowObfuscator;
+import net.cvs0.classfile.remappers.MethodInliner;
 import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.io.MappedZipFile;
+import net.cvs0.io.ZipEntryHandle;
 import net.cvs0.utils.Logger;
 import org.objectweb.asm.*;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.io.*;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class JarAnalyzer 
 {
     private final ObfuscationConfig config;
     private final Program program;
-    private final Map<String, byte[]> resources;
+    private final Map<String, ZipEntryHandle> resources;
     private final Map<String, String> manifestAttributes;
+    private final IncrementalCache incrementalCache;
+    private final boolean recordReferences;
 
     public JarAnalyzer(ObfuscationConfig config) 
+    {
+        this(config, null);
+    }
+
+    public JarAnalyzer(ObfuscationConfig config, IncrementalCache incrementalCache) 
     {
         this.config = config;
         this.program = new Program();
         this.resources = new HashMap<>();
         this.manifestAttributes = new HashMap<>();
+        this.incrementalCache = incrementalCache;
+        // Usage ranking, shrinking, inlining and class merging all need to know what each method body refers to
+        this.recordReferences = config.isRankNamesByUsage() || config.isShrink() || config.isInlineSimpleMethods() || 
+                                config.isMergeClasses();
     }
 
     public AnalysisResult analyze(File jarFile) throws IOException 
@@ -32,97 +48,191 @@ public class JarAnalyzer
             throw new FileNotFoundException("JAR file not found: " + jarFile.getAbsolutePath());
         }
 
+        int threads = Math.max(1, config.getMaxThreads());
+
         if (config.isVerbose()) {
             Logger.info("Analyzing JAR file: " + jarFile.getAbsolutePath());
+            Logger.info("Class parsing threads: " + threads);
         }
 
         long startTime = System.currentTimeMillis();
         int classesProcessed = 0;
         int resourcesProcessed = 0;
 
-        try (JarFile jar = new JarFile(jarFile)) {
-            Enumeration<JarEntry> entries = jar.entries();
-            
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
+        ExecutorService parserPool = threads > 1 ? createParserPool(threads) : null;
+        List<Future<ProgramClass>> parsedClasses = new ArrayList<>();
+        AtomicLong parseNanos = new AtomicLong();
+        long readNanos = 0;
+        long drainNanos = 0;
+        long linkNanos = 0;
+        MappedZipFile zipFile = null;
+
+        try {
+            long readStart = System.nanoTime();
+            zipFile = new MappedZipFile(jarFile);
+
+            for (ZipEntryHandle entry : zipFile.getEntries()) {
                 String entryName = entry.getName();
                 
                 if (entry.isDirectory()) {
                     continue;
                 }
-                
-                try (InputStream inputStream = jar.getInputStream(entry)) {
-                    byte[] entryData = inputStream.readAllBytes();
                     
-                    if (entryName.endsWith(".class")) {
-                        processClassEntry(entryName, entryData);
-                        classesProcessed++;
-                    } else if (entryName.equals("META-INF/MANIFEST.MF")) {
-                        processManifest(entryData);
-                    } else {
-                        processResourceEntry(entryName, entryData);
-                        resourcesProcessed++;
+                if (entryName.endsWith(".class")) {
+                    String className = entryName.substring(0, entryName.length() - 6);
+                    if (!shouldSkipClass(className)) {
+                        parsedClasses.add(submitClassEntry(parserPool, parseNanos, entry));
+                    } else if (config.isMergeClasses()) {
+                        recordExternalReferences(entry);
                     }
+                    classesProcessed++;
+                } else if (entryName.equals("META-INF/MANIFEST.MF")) {
+                    processManifest(entry);
+                } else {
+                    processResourceEntry(entry);
+                    resourcesProcessed++;
                 }
             }
+            readNanos = System.nanoTime() - readStart;
+
+            long drainStart = System.nanoTime();
+            List<ProgramClass> results = awaitParsedClasses(parsedClasses);
+            drainNanos = System.nanoTime() - drainStart;
+
+            long linkStart = System.nanoTime();
+            for (ProgramClass programClass : results) {
+                program.addClass(programClass);
+            }
+            linkNanos = System.nanoTime() - linkStart;
+        } catch (IOException | RuntimeException e) {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+            throw e;
+        } finally {
+            if (parserPool != null) {
+                parserPool.shutdownNow();
+            }
         }
 
         long analysisTime = System.currentTimeMillis() - startTime;
         
         if (config.isVerbose()) {
             Logger.info("Analysis completed in " + analysisTime + "ms");
+            Logger.info("  Read phase: " + toMillis(readNanos) + "ms (" + zipFile.size() + " entries mapped)");
+            Logger.info("  Parse phase: " + toMillis(parseNanos.get()) + "ms across " + threads + 
+                       " thread(s), " + toMillis(drainNanos) + "ms waiting after read");
+            Logger.info("  Link phase: " + toMillis(linkNanos) + "ms");
             Logger.info("Classes processed: " + classesProcessed);
             Logger.info("Resources processed: " + resourcesProcessed);
             Logger.info("Entry points found: " + program.getEntryPoints().size());
         }
 
-        return new AnalysisResult(program, resources, manifestAttributes, analysisTime);
+        return new AnalysisResult(program, zipFile, resources, manifestAttributes, analysisTime);
     }
 
-    private void processClassEntry(String entryName, byte[] classData) 
+    private ExecutorService createParserPool(int threads) 
     {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Analyzer-Worker-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private Future<ProgramClass> submitClassEntry(ExecutorService parserPool, AtomicLong parseNanos, ZipEntryHandle entry) 
+    {
+        if (parserPool == null) {
+            return CompletableFuture.completedFuture(timedParse(parseNanos, entry));
+        }
+
+        return parserPool.submit(() -> timedParse(parseNanos, entry));
+    }
+
+    private ProgramClass timedParse(AtomicLong parseNanos, ZipEntryHandle entry) 
+    {
+        long parseStart = System.nanoTime();
         try {
-            String className = entryName.substring(0, entryName.length() - 6);
-            
-            if (shouldSkipClass(className)) {
-                return;
+            return parseClassEntry(entry);
+        } finally {
+            parseNanos.addAndGet(System.nanoTime() - parseStart);
+        }
+    }
+
+    private List<ProgramClass> awaitParsedClasses(List<Future<ProgramClass>> parsedClasses) throws IOException 
+    {
+        // Results are collected in JAR entry order so the resulting Program does not depend on thread scheduling
+        List<ProgramClass> results = new ArrayList<>(parsedClasses.size());
+        for (Future<ProgramClass> future : parsedClasses) {
+            try {
+                ProgramClass programClass = future.get();
+                if (programClass != null) {
+                    results.add(programClass);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for class analysis");
+            } catch (ExecutionException e) {
+                throw new IOException("Class analysis failed", e.getCause());
             }
+        }
+        return results;
+    }
+
+    private static long toMillis(long nanos) 
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
 
+    private ProgramClass parseClassEntry(ZipEntryHandle entry) 
+    {
+        try {
+            byte[] classData = entry.readAllBytes();
             ClassReader classReader = new ClassReader(classData);
+            int parsingOptions = ClassReader.EXPAND_FRAMES;
+
+            // Classes unchanged since the last incremental run only need their declarations, unless the
+            // mapping output needs their line numbers, the shrinker and inliner need their references or control
+            // flow obfuscation needs their code measured
+            if (incrementalCache != null && incrementalCache.recordClass(classReader.getClassName(), classData) &&
+                config.getMappingOutputFile() == null && !config.isShrink() && !config.isInlineSimpleMethods() &&
+                !config.isObfuscateControlFlow()) {
+                parsingOptions = ClassReader.SKIP_CODE;
+            }
+
             ClassAnalysisVisitor visitor = new ClassAnalysisVisitor();
-            classReader.accept(visitor, ClassReader.EXPAND_FRAMES);
+            classReader.accept(visitor, parsingOptions);
             
             ProgramClass programClass = visitor.getProgramClass();
-            if (programClass != null) {
-                program.addClass(programClass);
-                
-                if (config.isVerbose()) {
-                    Logger.debug("Analyzed class: " + programClass.getName() + 
-                                " (" + programClass.getMethods().size() + " methods, " + 
-                                programClass.getFields().size() + " fields)");
-                }
+            if (programClass != null && config.isVerbose()) {
+                Logger.debug("Analyzed class: " + programClass.getName() + 
+                            " (" + programClass.getMethods().size() + " methods, " + 
+                            programClass.getFields().size() + " fields)");
             }
+            return programClass;
             
         } catch (Exception e) {
-            Logger.error("Failed to analyze class " + entryName + ": " + e.getMessage());
+            Logger.error("Failed to analyze class " + entry.getName() + ": " + e.getMessage());
             if (config.isVerbose()) {
                 e.printStackTrace();
             }
+            return null;
         }
     }
 
-    private void processResourceEntry(String entryName, byte[] resourceData) 
+    private void processResourceEntry(ZipEntryHandle entry) 
     {
-        resources.put(entryName, resourceData);
+        resources.put(entry.getName(), entry);
         
         if (config.isVerbose()) {
-            Logger.debug("Processed resource: " + entryName + " (" + resourceData.length + " bytes)");
+            Logger.debug("Processed resource: " + entry.getName() + " (" + entry.getSize() + " bytes)");
         }
     }
 
-    private void processManifest(byte[] manifestData) throws IOException 
+    private void processManifest(ZipEntryHandle entry) throws IOException 
     {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(manifestData)))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(entry.openStream()))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 if (line.contains(": ")) {
@@ -134,13 +244,23 @@ public class JarAnalyzer
             }
         }
         
-        resources.put("META-INF/MANIFEST.MF", manifestData);
+        resources.put("META-INF/MANIFEST.MF", entry);
         
         if (config.isVerbose()) {
             Logger.debug("Processed manifest with " + manifestAttributes.size() + " attributes");
         }
     }
 
+    // A class left out of the program still reaches the output, so nothing it names may be merged into another
+    private void recordExternalReferences(ZipEntryHandle entry) throws IOException 
+    {
+        try {
+            program.addExternalReferences(ConstantPoolScanner.collectClassReferences(entry.readAllBytes()));
+        } catch (IllegalArgumentException e) {
+            Logger.warn("Cannot read references of " + entry.getName() + ": " + e.getMessage());
+        }
+    }
+
     private boolean shouldSkipClass(String className) 
     {
         if (config.isStayInScope()) {
@@ -203,7 +323,17 @@ public class JarAnalyzer
         {
             ProgramMethod method = new ProgramMethod(access, name, descriptor, signature, exceptions);
             methods.add(method);
-            return new MethodAnalysisVisitor(method);
+            // Bodies a call might be replaced with are built as a tree to be measured, then dropped. So are the
+            // constructors of abstract classes, which a class merge can only leave out when they do nothing, and
+            // every body whose control flow may be obfuscated, which is weighed by its size and loops
+            boolean inlineCandidate = config.isInlineSimpleMethods() && MethodInliner.isCandidate(programClass.getAccess(), access, name);
+            boolean mergeCandidate = config.isMergeClasses() && name.equals("<init>") && 
+                                     (programClass.getAccess() & Opcodes.ACC_ABSTRACT) != 0;
+            boolean controlFlowCandidate = config.isObfuscateControlFlow() && 
+                                           (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+            MethodNode body = inlineCandidate || mergeCandidate || controlFlowCandidate ? 
+                              new MethodNode(access, name, descriptor, signature, exceptions) : null;
+            return new MethodAnalysisVisitor(method, body, inlineCandidate || mergeCandidate, controlFlowCandidate);
         }
 
         @Override
@@ -271,15 +401,22 @@ public class JarAnalyzer
         private LineNumberTableAttribute lineNumberTable;
         private MethodParametersAttribute methodParameters;
         private CodeAttribute codeAttribute;
+        private final MethodNode body;
+        private final boolean measureInline;
+        private final boolean measureControlFlow;
 
-        public MethodAnalysisVisitor(ProgramMethod method) {
-            super(Opcodes.ASM9);
+        public MethodAnalysisVisitor(ProgramMethod method, MethodNode body, boolean measureInline, boolean measureControlFlow) {
+            super(Opcodes.ASM9, body);
             this.method = method;
+            this.body = body;
+            this.measureInline = measureInline;
+            this.measureControlFlow = measureControlFlow;
         }
 
         @Override
         public void visitCode() 
         {
+            super.visitCode();
             method.setHasCode(true);
             if (codeAttribute == null) {
                 codeAttribute = new CodeAttribute();
@@ -296,6 +433,7 @@ public class JarAnalyzer
         @Override
         public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) 
         {
+            super.visitLocalVariable(name, descriptor, signature, start, end, index);
             if (codeAttribute != null) {
                 if (localVariableTable == null) {
                     localVariableTable = new LocalVariableTableAttribute();
@@ -316,23 +454,163 @@ public class JarAnalyzer
         @Override
         public void visitLineNumber(int line, Label start) 
         {
+            super.visitLineNumber(line, start);
             if (codeAttribute != null) {
                 if (lineNumberTable == null) {
                     lineNumberTable = new LineNumberTableAttribute();
                     codeAttribute.addAttribute(lineNumberTable);
                 }
+                lineNumberTable.addLineNumber(0, line);
+                method.recordLine(line);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) 
+        {
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            if (recordReferences) {
+                method.addMethodCall(owner, name, descriptor);
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) 
+        {
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+            if (recordReferences) {
+                method.addFieldAccess(owner, name, descriptor);
+            }
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) 
+        {
+            super.visitTypeInsn(opcode, type);
+            if (recordReferences) {
+                method.addTypeReference(type);
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) 
+        {
+            super.visitLdcInsn(value);
+            if (recordReferences) {
+                recordConstant(value);
+                recordClassLiteral(value);
+            }
+            if ((config.isShrink() || config.isMergeClasses()) && value instanceof String) {
+                method.addStringConstant((String) value);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethod, Object... bootstrapArguments) 
+        {
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethod, bootstrapArguments);
+            if (!recordReferences) {
+                return;
+            }
+            recordConstant(bootstrapMethod);
+            for (Object argument : bootstrapArguments) {
+                recordConstant(argument);
+                recordClassLiteral(argument);
+            }
+
+            // A lambda implements the interface method named by the call site, whose erased descriptor is the first argument
+            Type returnType = Type.getReturnType(descriptor);
+            if (returnType.getSort() == Type.OBJECT) {
+                method.addLambdaType(returnType.getInternalName());
+            }
+            if (returnType.getSort() == Type.OBJECT && bootstrapArguments.length > 0 && bootstrapArguments[0] instanceof Type &&
+                ((Type) bootstrapArguments[0]).getSort() == Type.METHOD) {
+                method.addMethodCall(returnType.getInternalName(), name, ((Type) bootstrapArguments[0]).getDescriptor());
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) 
+        {
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+            if (recordReferences) {
+                recordConstant(Type.getType(descriptor));
+            }
+        }
+
+        private void recordConstant(Object value) 
+        {
+            if (value instanceof Type) {
+                Type type = (Type) value;
+                while (type.getSort() == Type.ARRAY) {
+                    type = type.getElementType();
+                }
+                if (type.getSort() == Type.OBJECT) {
+                    method.addTypeReference(type.getInternalName());
+                }
+            } else if (value instanceof Handle) {
+                Handle handle = (Handle) value;
+                if (handle.getTag() <= Opcodes.H_PUTSTATIC) {
+                    method.addFieldAccess(handle.getOwner(), handle.getName(), handle.getDesc());
+                } else {
+                    method.addMethodCall(handle.getOwner(), handle.getName(), handle.getDesc());
+                    method.addMethodHandle(handle.getOwner(), handle.getName(), handle.getDesc());
+                }
+            }
+        }
+
+        private void recordClassLiteral(Object value) 
+        {
+            if (value instanceof Type && (((Type) value).getSort() == Type.OBJECT || ((Type) value).getSort() == Type.ARRAY)) {
+                Type type = (Type) value;
+                while (type.getSort() == Type.ARRAY) {
+                    type = type.getElementType();
+                }
+                if (type.getSort() == Type.OBJECT) {
+                    method.addClassLiteral(type.getInternalName());
+                }
+            }
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) 
+        {
+            super.visitTryCatchBlock(start, end, handler, type);
+            if (recordReferences && type != null) {
+                method.addTypeReference(type);
             }
         }
 
         @Override
         public void visitParameter(String name, int access) 
         {
+            super.visitParameter(name, access);
             if (methodParameters == null) {
                 methodParameters = new MethodParametersAttribute();
                 method.addAttribute(methodParameters);
             }
             methodParameters.addParameter(name, access);
         }
+
+        @Override
+        public void visitEnd() 
+        {
+            super.visitEnd();
+            if (measureControlFlow) {
+                method.setCodeSize(ControlFlowObfuscator.measureCodeSize(body.instructions, false));
+                method.setLoopDepth(ControlFlowObfuscator.measureLoopDepth(body.instructions));
+            }
+            if (measureInline) {
+                int size = MethodInliner.measure(body);
+                if (size > 0) {
+                    method.setInstructionCount(size);
+                    if (!method.isConstructor()) {
+                        method.setInlinableBody(true);
+                        method.setAccessorBody(MethodInliner.isAccessor(body));
+                    }
+                }
+            }
+        }
     }
 
     private class AnnotationAnalysisVisitor extends AnnotationVisitor 
@@ -368,25 +646,34 @@ public class JarAnalyzer
         }
     }
 
-    public static class AnalysisResult 
+    public static class AnalysisResult implements Closeable 
     {
         private final Program program;
-        private final Map<String, byte[]> resources;
+        private final MappedZipFile inputJar;
+        private final Map<String, ZipEntryHandle> resources;
         private final Map<String, String> manifestAttributes;
         private final long analysisTime;
 
-        public AnalysisResult(Program program, Map<String, byte[]> resources, 
+        public AnalysisResult(Program program, MappedZipFile inputJar, Map<String, ZipEntryHandle> resources, 
                             Map<String, String> manifestAttributes, long analysisTime) 
         {
             this.program = program;
-            this.resources = new HashMap<>(resources);
+            this.inputJar = inputJar;
+            this.resources = Collections.unmodifiableMap(resources);
             this.manifestAttributes = new HashMap<>(manifestAttributes);
             this.analysisTime = analysisTime;
         }
 
         public Program getProgram() { return program; }
-        public Map<String, byte[]> getResources() { return new HashMap<>(resources); }
+        public MappedZipFile getInputJar() { return inputJar; }
+        public Map<String, ZipEntryHandle> getResources() { return resources; }
         public Map<String, String> getManifestAttributes() { return new HashMap<>(manifestAttributes); }
         public long getAnalysisTime() { return analysisTime; }
+
+        @Override
+        public void close() throws IOException 
+        {
+            inputJar.close();
+        }
     }
 }
\ No newline at end of file
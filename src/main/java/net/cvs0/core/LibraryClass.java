@@ -0,0 +1,98 @@
+package net.cvs0.core;
+
+import org.objectweb.asm.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Header of a class outside the program: enough to walk the hierarchy and see which members it declares
+public class LibraryClass
+{
+    private final String name;
+    private final int access;
+    private final String superName;
+    private final String[] interfaces;
+    private final List<Member> methods = new ArrayList<>();
+    private final List<Member> fields = new ArrayList<>();
+
+    public LibraryClass(String name, int access, String superName, String[] interfaces)
+    {
+        this.name = name;
+        this.access = access;
+        this.superName = superName;
+        this.interfaces = interfaces != null ? interfaces : new String[0];
+    }
+
+    public static LibraryClass read(byte[] classData)
+    {
+        LibraryClass[] result = new LibraryClass[1];
+        new ClassReader(classData).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+            {
+                result[0] = new LibraryClass(name, access, superName, interfaces);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+            {
+                result[0].fields.add(new Member(name, descriptor, access));
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+            {
+                result[0].methods.add(new Member(name, descriptor, access));
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return result[0];
+    }
+
+    public String getName() { return name; }
+    public int getAccess() { return access; }
+    public String getSuperName() { return superName; }
+    public String[] getInterfaces() { return interfaces.clone(); }
+    public List<Member> getMethods() { return Collections.unmodifiableList(methods); }
+    public List<Member> getFields() { return Collections.unmodifiableList(fields); }
+
+    void addField(Member field)
+    {
+        fields.add(field);
+    }
+
+    void addMethod(Member method)
+    {
+        methods.add(method);
+    }
+
+    public boolean isInterface()
+    {
+        return (access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    public static class Member
+    {
+        private final String name;
+        private final String descriptor;
+        private final int access;
+
+        public Member(String name, String descriptor, int access)
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.access = access;
+        }
+
+        public String getName() { return name; }
+        public String getDescriptor() { return descriptor; }
+        public int getAccess() { return access; }
+
+        public boolean isPrivate()
+        {
+            return (access & Opcodes.ACC_PRIVATE) != 0;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package net.cvs0.core;
+
+import net.cvs0.io.MappedZipFile;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.utils.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Classes the program is compiled against: the given library jars, then the running JDK's module image. Opening
+// the pool only reads jar directories; a class header is parsed the first time it is looked up, and only a bounded
+// number of parsed headers is kept. With an index directory the jars and the JDK are read from precomputed
+// LibraryIndex files instead, so only the first run against a given jar pays for scanning it
+public class LibraryClassPool implements Closeable
+{
+    private static final int DEFAULT_CACHE_SIZE = 8192;
+    private static final String CLASS_SUFFIX = ".class";
+    private static final FileSystem RUNTIME_IMAGE = openRuntimeImage();
+    private static final LibraryClassPool RUNTIME_ONLY = new LibraryClassPool(Collections.emptyList(), Collections.emptyList(),
+                                                                              null, DEFAULT_CACHE_SIZE);
+
+    private final List<MappedZipFile> jars;
+    private final List<LibraryIndex> jarIndexes;
+    private final LibraryIndex runtimeIndex;
+    private final Map<String, ZipEntryHandle> jarClasses = new HashMap<>();
+    private final Map<String, List<String>> runtimePackages = new ConcurrentHashMap<>();
+    private final Map<String, LibraryClass> cache;
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private long loadedClasses;
+
+    private LibraryClassPool(List<MappedZipFile> jars, List<LibraryIndex> jarIndexes, LibraryIndex runtimeIndex, int cacheSize)
+    {
+        this.jars = jars;
+        this.jarIndexes = jarIndexes;
+        this.runtimeIndex = runtimeIndex;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LibraryClass> eldest)
+            {
+                return size() > cacheSize;
+            }
+        });
+
+        // Earlier jars win, as on a classpath
+        for (MappedZipFile jar : jars) {
+            for (ZipEntryHandle entry : jar.getEntries()) {
+                String name = entry.getName();
+                if (name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")) {
+                    jarClasses.putIfAbsent(name.substring(0, name.length() - CLASS_SUFFIX.length()), entry);
+                }
+            }
+        }
+    }
+
+    public static LibraryClassPool open(List<String> paths) throws IOException
+    {
+        if (paths.isEmpty()) {
+            return RUNTIME_ONLY;
+        }
+
+        List<MappedZipFile> jars = new ArrayList<>();
+        try {
+            for (File file : resolveJars(paths)) {
+                jars.add(new MappedZipFile(file));
+            }
+        } catch (IOException e) {
+            for (MappedZipFile jar : jars) {
+                jar.close();
+            }
+            throw e;
+        }
+        return new LibraryClassPool(jars, Collections.emptyList(), null, DEFAULT_CACHE_SIZE);
+    }
+
+    public static LibraryClassPool open(List<String> paths, String indexDir) throws IOException
+    {
+        if (indexDir == null) {
+            return open(paths);
+        }
+
+        File directory = new File(indexDir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create library index directory: " + directory.getAbsolutePath());
+        }
+
+        List<LibraryIndex> jarIndexes = new ArrayList<>();
+        for (File file : resolveJars(paths)) {
+            jarIndexes.add(LibraryIndex.forJar(file, directory));
+        }
+        LibraryIndex runtimeIndex = RUNTIME_IMAGE != null ? LibraryIndex.forRuntime(RUNTIME_IMAGE, directory) : null;
+        return new LibraryClassPool(Collections.emptyList(), jarIndexes, runtimeIndex, DEFAULT_CACHE_SIZE);
+    }
+
+    // Only the JDK; nothing to close
+    public static LibraryClassPool runtimeOnly()
+    {
+        return RUNTIME_ONLY;
+    }
+
+    // Directories stand for the jars directly inside them
+    public static List<File> resolveJars(List<String> paths) throws IOException
+    {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> name.endsWith(".jar") || name.endsWith(".zip"));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else if (file.isFile()) {
+                files.add(file);
+            } else {
+                throw new IOException("Library jar not found: " + file.getAbsolutePath());
+            }
+        }
+        return files;
+    }
+
+    public LibraryClass findClass(String internalName)
+    {
+        LibraryClass libraryClass = cache.get(internalName);
+        if (libraryClass != null || missing.contains(internalName)) {
+            return libraryClass;
+        }
+
+        libraryClass = load(internalName);
+        if (libraryClass == null) {
+            missing.add(internalName);
+        } else {
+            cache.put(internalName, libraryClass);
+        }
+        return libraryClass;
+    }
+
+    // Answered from the jar index where possible, so it does not parse anything for library jar classes
+    public boolean containsClass(String internalName)
+    {
+        if (jarClasses.containsKey(internalName)) {
+            return true;
+        }
+        for (LibraryIndex index : jarIndexes) {
+            if (index.contains(internalName)) {
+                return true;
+            }
+        }
+        return findClass(internalName) != null;
+    }
+
+    public boolean hasLibraryJars()
+    {
+        return !jars.isEmpty() || !jarIndexes.isEmpty();
+    }
+
+    public int getIndexedClassCount()
+    {
+        int count = jarClasses.size();
+        for (LibraryIndex index : jarIndexes) {
+            count += index.getClassCount();
+        }
+        return count;
+    }
+
+    public synchronized long getLoadedClassCount()
+    {
+        return loadedClasses;
+    }
+
+    private LibraryClass load(String internalName)
+    {
+        if (!jarIndexes.isEmpty() || runtimeIndex != null) {
+            return loadIndexed(internalName);
+        }
+
+        byte[] classData = null;
+        try {
+            ZipEntryHandle entry = jarClasses.get(internalName);
+            classData = entry != null ? entry.readAllBytes() : readRuntimeClass(internalName);
+        } catch (IOException e) {
+            Logger.warn("Failed to read library class " + internalName + ": " + e.getMessage());
+        }
+        if (classData == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            loadedClasses++;
+        }
+        return LibraryClass.read(classData);
+    }
+
+    private LibraryClass loadIndexed(String internalName)
+    {
+        LibraryClass libraryClass = null;
+        for (int i = 0; i < jarIndexes.size() && libraryClass == null; i++) {
+            libraryClass = jarIndexes.get(i).find(internalName);
+        }
+        if (libraryClass == null && runtimeIndex != null) {
+            libraryClass = runtimeIndex.find(internalName);
+        }
+        if (libraryClass != null) {
+            synchronized (this) {
+                loadedClasses++;
+            }
+        }
+        return libraryClass;
+    }
+
+    private byte[] readRuntimeClass(String internalName) throws IOException
+    {
+        int slashIndex = internalName.lastIndexOf('/');
+        if (RUNTIME_IMAGE == null || slashIndex < 0) {
+            return null;
+        }
+
+        // /packages/<package> lists the modules containing that package, so only those are probed
+        String packageName = internalName.substring(0, slashIndex).replace('/', '.');
+        for (String module : runtimePackages.computeIfAbsent(packageName, LibraryClassPool::listModules)) {
+            Path classFile = RUNTIME_IMAGE.getPath("/modules", module, internalName + CLASS_SUFFIX);
+            if (Files.exists(classFile)) {
+                return Files.readAllBytes(classFile);
+            }
+        }
+        return null;
+    }
+
+    private static List<String> listModules(String packageName)
+    {
+        Path packageDirectory = RUNTIME_IMAGE.getPath("/packages", packageName);
+        if (!Files.isDirectory(packageDirectory)) {
+            return Collections.emptyList();
+        }
+
+        List<String> modules = new ArrayList<>(1);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(packageDirectory)) {
+            for (Path module : entries) {
+                modules.add(module.getFileName().toString());
+            }
+        } catch (IOException e) {
+            Logger.warn("Failed to list JDK modules for package " + packageName + ": " + e.getMessage());
+        }
+        return modules;
+    }
+
+    private static FileSystem openRuntimeImage()
+    {
+        try {
+            return FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (RuntimeException e) {
+            Logger.warn("JDK runtime image is not available, JDK classes cannot be resolved: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        IOException failure = null;
+        for (MappedZipFile jar : jars) {
+            try {
+                jar.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package net.cvs0.core;
+
+import net.cvs0.io.MappedZipFile;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.utils.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Class headers of one library jar or of the JDK image in a compact file that later runs map read-only instead of
+// scanning the source again. The file name is a hash of the source's path, size and modification time, so a changed
+// jar simply gets a new index. Files are written under a temporary name and renamed into place, which lets any number
+// of concurrent runs build and share one index directory without locking.
+//
+// Layout (big-endian ints): magic, version, class count, string count, the offsets of all class records sorted by
+// name, the offsets of all strings, the strings (u2 length + UTF-8), then the class records. A record is name, access,
+// super name (-1 for none), the interfaces, then fields and methods as (name, descriptor, access) triples, where every
+// name is an index into the string table. String 0 is the source key, checked on open.
+public class LibraryIndex
+{
+    private static final int MAGIC = 0x4F424C49;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final ByteBuffer buffer;
+    private final int classCount;
+    private final int stringTable;
+
+    private LibraryIndex(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.classCount = buffer.getInt(8);
+        this.stringTable = HEADER_SIZE + classCount * 4;
+    }
+
+    public static LibraryIndex forJar(File jar, File indexDir) throws IOException
+    {
+        String key = jar.getAbsolutePath() + ':' + jar.length() + ':' + jar.lastModified();
+        LibraryIndex index = load(indexDir, key);
+        if (index != null) {
+            return index;
+        }
+
+        // Earlier entries win, as in LibraryClassPool
+        Map<String, LibraryClass> classes = new HashMap<>();
+        try (MappedZipFile zip = new MappedZipFile(jar)) {
+            for (ZipEntryHandle entry : zip.getEntries()) {
+                String name = entry.getName();
+                if (isLibraryClassFile(name) && !classes.containsKey(name.substring(0, name.length() - CLASS_SUFFIX.length()))) {
+                    LibraryClass libraryClass = readClass(entry.readAllBytes(), jar.getName() + "!" + name);
+                    if (libraryClass != null) {
+                        classes.putIfAbsent(libraryClass.getName(), libraryClass);
+                    }
+                }
+            }
+        }
+        return create(indexDir, key, classes.values(), jar.getPath());
+    }
+
+    // The JDK is keyed by its module image, so upgrading the JDK in place also rebuilds the index
+    public static LibraryIndex forRuntime(FileSystem runtimeImage, File indexDir) throws IOException
+    {
+        File modules = new File(System.getProperty("java.home"), "lib" + File.separator + "modules");
+        String key = "jrt:" + modules.getAbsolutePath() + ':' + modules.length() + ':' + modules.lastModified();
+        LibraryIndex index = load(indexDir, key);
+        if (index != null) {
+            return index;
+        }
+
+        List<LibraryClass> classes = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(runtimeImage.getPath("/modules"))) {
+            for (Iterator<Path> iterator = paths.iterator(); iterator.hasNext(); ) {
+                Path path = iterator.next();
+                if (isLibraryClassFile(path.toString()) && Files.isRegularFile(path)) {
+                    LibraryClass libraryClass = readClass(Files.readAllBytes(path), path.toString());
+                    if (libraryClass != null) {
+                        classes.add(libraryClass);
+                    }
+                }
+            }
+        }
+        return create(indexDir, key, classes, "the JDK runtime image");
+    }
+
+    public LibraryClass find(String internalName)
+    {
+        int record = findRecord(internalName);
+        if (record < 0) {
+            return null;
+        }
+
+        int position = record;
+        LibraryClass libraryClass = new LibraryClass(string(buffer.getInt(position)), buffer.getInt(position + 4),
+                                                     optionalString(buffer.getInt(position + 8)),
+                                                     readInterfaces(position + 12));
+        position += 16 + buffer.getInt(position + 12) * 4;
+        position = readMembers(position, libraryClass, false);
+        readMembers(position, libraryClass, true);
+        return libraryClass;
+    }
+
+    public boolean contains(String internalName)
+    {
+        return findRecord(internalName) >= 0;
+    }
+
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    private int findRecord(String internalName)
+    {
+        byte[] key = internalName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = buffer.getInt(HEADER_SIZE + middle * 4);
+            int comparison = compareString(buffer.getInt(record), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    // Compares in place against the mapped bytes so a lookup decodes nothing but the class it finds
+    private int compareString(int stringIndex, byte[] key)
+    {
+        int offset = buffer.getInt(stringTable + stringIndex * 4);
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String string(int stringIndex)
+    {
+        int offset = buffer.getInt(stringTable + stringIndex * 4);
+        byte[] bytes = new byte[buffer.getShort(offset) & 0xFFFF];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String optionalString(int stringIndex)
+    {
+        return stringIndex < 0 ? null : string(stringIndex);
+    }
+
+    private String[] readInterfaces(int position)
+    {
+        String[] interfaces = new String[buffer.getInt(position)];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = string(buffer.getInt(position + 4 + i * 4));
+        }
+        return interfaces;
+    }
+
+    private int readMembers(int position, LibraryClass libraryClass, boolean methods)
+    {
+        int count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++, position += 12) {
+            LibraryClass.Member member = new LibraryClass.Member(string(buffer.getInt(position)),
+                                                                 string(buffer.getInt(position + 4)),
+                                                                 buffer.getInt(position + 8));
+            if (methods) {
+                libraryClass.addMethod(member);
+            } else {
+                libraryClass.addField(member);
+            }
+        }
+        return position;
+    }
+
+    private static LibraryIndex load(File indexDir, String key) throws IOException
+    {
+        Path path = indexFile(indexDir, key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        // The mapping stays valid after the channel is closed, and even if another run replaces the file
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION) {
+                LibraryIndex index = new LibraryIndex(buffer);
+                if (index.string(0).equals(key)) {
+                    return index;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Falls through to the rebuild below
+        }
+        Logger.warn("Ignoring unreadable library index " + path + ", rebuilding it");
+        return null;
+    }
+
+    private static LibraryIndex create(File indexDir, String key, Collection<LibraryClass> classes, String source)
+    {
+        byte[] data = encode(key, classes);
+        Path path = indexFile(indexDir, key);
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(indexDir.toPath(), path.getFileName().toString(), ".tmp");
+            Files.write(temporary, data);
+            try {
+                // Temporary files are private to their creator, but other users' builds should be able to read the index
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-r--r--"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Logger.debug("Indexed " + classes.size() + " library classes of " + source + " into " + path);
+        } catch (IOException e) {
+            // Still usable for this run, the next one tries again
+            Logger.warn("Failed to write library index for " + source + ": " + e.getMessage());
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+        return new LibraryIndex(ByteBuffer.wrap(data));
+    }
+
+    private static byte[] encode(String key, Collection<LibraryClass> classes)
+    {
+        List<LibraryClass> sorted = new ArrayList<>(classes);
+        Map<String, byte[]> nameBytes = new HashMap<>();
+        for (LibraryClass libraryClass : sorted) {
+            nameBytes.put(libraryClass.getName(), libraryClass.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        // Unsigned byte order, the order findRecord searches in
+        sorted.sort((first, second) -> Arrays.compareUnsigned(nameBytes.get(first.getName()), nameBytes.get(second.getName())));
+
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        intern(key, stringIndices, strings);
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(sorted.size() * 64);
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int[] recordOffsets = new int[sorted.size()];
+        try {
+            for (int i = 0; i < sorted.size(); i++) {
+                LibraryClass libraryClass = sorted.get(i);
+                recordOffsets[i] = records.size();
+                records.writeInt(intern(libraryClass.getName(), stringIndices, strings));
+                records.writeInt(libraryClass.getAccess());
+                records.writeInt(libraryClass.getSuperName() != null ? intern(libraryClass.getSuperName(), stringIndices, strings) : -1);
+                String[] interfaces = libraryClass.getInterfaces();
+                records.writeInt(interfaces.length);
+                for (String interfaceName : interfaces) {
+                    records.writeInt(intern(interfaceName, stringIndices, strings));
+                }
+                writeMembers(records, libraryClass.getFields(), stringIndices, strings);
+                writeMembers(records, libraryClass.getMethods(), stringIndices, strings);
+            }
+
+            int stringData = HEADER_SIZE + sorted.size() * 4 + strings.size() * 4;
+            int recordData = stringData;
+            for (byte[] string : strings) {
+                recordData += 2 + string.length;
+            }
+
+            ByteArrayOutputStream fileBytes = new ByteArrayOutputStream(recordData + records.size());
+            DataOutputStream out = new DataOutputStream(fileBytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(strings.size());
+            for (int recordOffset : recordOffsets) {
+                out.writeInt(recordData + recordOffset);
+            }
+            int stringOffset = stringData;
+            for (byte[] string : strings) {
+                out.writeInt(stringOffset);
+                stringOffset += 2 + string.length;
+            }
+            for (byte[] string : strings) {
+                out.writeShort(string.length);
+                out.write(string);
+            }
+            recordBytes.writeTo(out);
+            out.flush();
+            return fileBytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory write failed", e);
+        }
+    }
+
+    private static void writeMembers(DataOutputStream records, List<LibraryClass.Member> members,
+                                     Map<String, Integer> stringIndices, List<byte[]> strings) throws IOException
+    {
+        records.writeInt(members.size());
+        for (LibraryClass.Member member : members) {
+            records.writeInt(intern(member.getName(), stringIndices, strings));
+            records.writeInt(intern(member.getDescriptor(), stringIndices, strings));
+            records.writeInt(member.getAccess());
+        }
+    }
+
+    // Descriptors and supertypes repeat across thousands of classes, so every string is stored once
+    private static int intern(String string, Map<String, Integer> stringIndices, List<byte[]> strings)
+    {
+        return stringIndices.computeIfAbsent(string, s -> {
+            strings.add(s.getBytes(StandardCharsets.UTF_8));
+            return strings.size() - 1;
+        });
+    }
+
+    private static LibraryClass readClass(byte[] classData, String source)
+    {
+        try {
+            return LibraryClass.read(classData);
+        } catch (RuntimeException e) {
+            Logger.warn("Skipping unreadable library class " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isLibraryClassFile(String name)
+    {
+        return name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/") && !name.endsWith("module-info.class");
+    }
+
+    private static Path indexFile(File indexDir, String key)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return new File(indexDir, name.append(INDEX_SUFFIX).toString()).toPath();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
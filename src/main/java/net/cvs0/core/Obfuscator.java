@@ -4,27 +4,22 @@ import net.cvs0.config.ObfuscationConfig;
 import net.cvs0.obfuscation.*;
 import net.cvs0.obfuscation.strategies.*;
 import net.cvs0.classfile.remappers.TinyRemapperAdapter;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.mapping.MappingFile;
 import net.cvs0.utils.Logger;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.*;
 
 public class Obfuscator 
 {
     private final List<ObfuscationStrategy> strategies;
-    private final ExecutorService executorService;
 
     public Obfuscator() 
     {
         this.strategies = createDefaultStrategies();
-        this.executorService = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r, "Obfuscator-Worker");
-            t.setDaemon(true);
-            return t;
-        });
     }
 
     public void obfuscate(File inputJar, File outputJar, ObfuscationConfig config) throws Exception 
@@ -37,28 +32,65 @@ public class Obfuscator
 
         long startTime = System.currentTimeMillis();
 
-        try {
-            JarAnalyzer analyzer = new JarAnalyzer(config);
-            JarAnalyzer.AnalysisResult analysisResult = analyzer.analyze(inputJar);
+        IncrementalCache incrementalCache = config.getIncrementalCacheDir() != null ? 
+            IncrementalCache.open(new File(config.getIncrementalCacheDir()), config) : null;
+
+        JarAnalyzer analyzer = new JarAnalyzer(config, incrementalCache);
+        try (JarAnalyzer.AnalysisResult analysisResult = analyzer.analyze(inputJar);
+             LibraryClassPool libraryClassPool = LibraryClassPool.open(config.getLibraryJars(), config.getLibraryIndexDir())) {
             Program program = analysisResult.getProgram();
+            program.setLibraryClassPool(libraryClassPool);
 
             if (config.isVerbose()) {
                 Logger.info("Analysis completed. Found " + program.getClassCount() + " classes");
             }
 
+            // Before anything is named, so unused code never takes a name or reaches the output
+            ShrinkResult shrinkResult = config.isShrink() ? Shrinker.shrink(program, config, analysisResult) : ShrinkResult.NONE;
+
             MappingContext mappingContext = new MappingContext();
+            if (incrementalCache != null) {
+                incrementalCache.seedMappings(program, mappingContext);
+            }
+            if (config.getApplyMappingFile() != null) {
+                applyMappingFile(program, config);
+            }
             
             applyObfuscationStrategies(program, config, mappingContext);
 
+            // Methods whose every call was inlined leave the output just like the ones the shrinker removed
+            InlinePlan inlinePlan = program.getInlinePlan();
+            shrinkResult = shrinkResult.withRemovedMethods(inlinePlan.getAllRemovedMethods());
+
+            if (config.getMappingOutputFile() != null) {
+                MappingFile.fromContext(mappingContext, program).save(new File(config.getMappingOutputFile()));
+                if (config.isVerbose()) {
+                    Logger.info("Mapping written to " + config.getMappingOutputFile());
+                }
+            }
+
             if (config.isVerbose()) {
                 mappingContext.printMappingStats();
             }
 
+            if (config.isVerbose() && libraryClassPool.hasLibraryJars()) {
+                Logger.info("Library classes: " + libraryClassPool.getIndexedClassCount() + " indexed, " + 
+                           libraryClassPool.getLoadedClassCount() + " headers loaded");
+            }
+
             validateProgram(program, config);
 
+            Map<String, ZipEntryHandle> reusedClasses = incrementalCache != null ? 
+                incrementalCache.findReusableOutputs(program, mappingContext, shrinkResult) : Collections.emptyMap();
+
             TinyRemapperAdapter remapper = new TinyRemapperAdapter(config);
-            remapper.remap(inputJar, outputJar, mappingContext, analysisResult.getResources(), 
-                          analysisResult.getManifestAttributes());
+            remapper.remap(analysisResult.getInputJar(), outputJar, mappingContext, analysisResult.getResources(), 
+                          analysisResult.getManifestAttributes(), reusedClasses, shrinkResult, inlinePlan, 
+                          program.getClassMergePlan(), program.getControlFlowPlan());
+
+            if (incrementalCache != null) {
+                incrementalCache.save(outputJar, mappingContext, shrinkResult);
+            }
 
             long duration = System.currentTimeMillis() - startTime;
             if (config.isVerbose()) {
@@ -71,6 +103,25 @@ public class Obfuscator
                 e.printStackTrace();
             }
             throw e;
+        } finally {
+            if (incrementalCache != null) {
+                incrementalCache.close();
+            }
+        }
+    }
+
+    private void applyMappingFile(Program program, ObfuscationConfig config) throws IOException 
+    {
+        long loadStart = System.currentTimeMillis();
+        MappingFile mappingFile = MappingFile.load(new File(config.getApplyMappingFile()));
+        long loadTime = System.currentTimeMillis() - loadStart;
+
+        // The renaming strategies prefer its names, so their keep rules still decide what gets renamed
+        program.setAppliedMapping(mappingFile);
+
+        if (config.isVerbose()) {
+            Logger.info("Loaded mapping " + config.getApplyMappingFile() + " (" + mappingFile.getClasses().size() + 
+                       " classes, " + mappingFile.getMemberCount() + " members) in " + loadTime + "ms");
         }
     }
 
@@ -99,7 +150,7 @@ public class Obfuscator
         if (config.isSequentialTransformers()) {
             applyStrategiesSequentially(enabledStrategies, program, config, mappingContext);
         } else {
-            applyStrategiesInParallel(enabledStrategies, program, config, mappingContext);
+            new StrategyScheduler(enabledStrategies).run(program, config, mappingContext);
         }
     }
 
@@ -121,52 +172,6 @@ public class Obfuscator
         }
     }
 
-    private void applyStrategiesInParallel(List<ObfuscationStrategy> strategies, Program program, 
-                                         ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException 
-    {
-        List<Future<Void>> futures = new ArrayList<>();
-        
-        for (ObfuscationStrategy strategy : strategies) {
-            Future<Void> future = executorService.submit(() -> {
-                try {
-                    if (config.isVerbose()) {
-                        Logger.info("Applying strategy: " + strategy.getName());
-                    }
-                    
-                    long strategyStart = System.currentTimeMillis();
-                    strategy.obfuscate(program, config, mappingContext);
-                    long strategyDuration = System.currentTimeMillis() - strategyStart;
-                    
-                    if (config.isVerbose()) {
-                        Logger.info("Strategy " + strategy.getName() + " completed in " + strategyDuration + "ms");
-                    }
-                    
-                    return null;
-                } catch (Exception e) {
-                    throw new RuntimeException("Strategy " + strategy.getName() + " failed", e);
-                }
-            });
-            
-            futures.add(future);
-        }
-
-        for (Future<Void> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new ObfuscationException("Obfuscation interrupted", e);
-            } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof ObfuscationException) {
-                    throw (ObfuscationException) cause;
-                } else {
-                    throw new ObfuscationException("Strategy execution failed", cause);
-                }
-            }
-        }
-    }
-
     private void validateProgram(Program program, ObfuscationConfig config) throws ObfuscationException 
     {
         if (config.isVerbose()) {
@@ -205,10 +210,14 @@ public class Obfuscator
         List<ObfuscationStrategy> defaultStrategies = new ArrayList<>();
         
 
+        defaultStrategies.add(new ClassMergingStrategy());
         defaultStrategies.add(new ClassRenamingStrategy());
         defaultStrategies.add(new MethodRenamingStrategy());
         defaultStrategies.add(new FieldRenamingStrategy());
         defaultStrategies.add(new SyntheticMemberStrategy());
+        defaultStrategies.add(new MethodInliningStrategy());
+        defaultStrategies.add(new DebugInfoStrategy());
+        defaultStrategies.add(new ControlFlowStrategy());
 
         return defaultStrategies;
     }
@@ -3,6 +3,7 @@ package net.cvs0.core;
 import net.cvs0.classfile.ProgramClass;
 import net.cvs0.classfile.ProgramField;
 import net.cvs0.classfile.ProgramMethod;
+import net.cvs0.mapping.MappingFile;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,6 +17,13 @@ public class Program
     private final Map<String, Set<String>> innerClassRelations;
     private final Set<String> entryPoints;
     private final Map<String, Set<String>> dependencies;
+    private final Set<String> externalReferences;
+    private volatile ReferenceCounts referenceCounts;
+    private volatile LibraryClassPool libraryClassPool = LibraryClassPool.runtimeOnly();
+    private volatile InlinePlan inlinePlan = InlinePlan.NONE;
+    private volatile ClassMergePlan classMergePlan = ClassMergePlan.NONE;
+    private volatile ControlFlowPlan controlFlowPlan = ControlFlowPlan.NONE;
+    private volatile MappingFile appliedMapping = MappingFile.NONE;
 
     public Program() 
     {
@@ -25,6 +33,7 @@ public class Program
         this.innerClassRelations = new ConcurrentHashMap<>();
         this.entryPoints = ConcurrentHashMap.newKeySet();
         this.dependencies = new ConcurrentHashMap<>();
+        this.externalReferences = ConcurrentHashMap.newKeySet();
     }
 
     public void addClass(ProgramClass programClass) 
@@ -35,6 +44,7 @@ public class Program
         
         String className = programClass.getName();
         classes.put(className, programClass);
+        referenceCounts = null;
         
         buildHierarchyInfo(programClass);
         buildDependencyInfo(programClass);
@@ -44,6 +54,7 @@ public class Program
     public void removeClass(String className) 
     {
         classes.remove(className);
+        referenceCounts = null;
         classHierarchy.remove(className);
         interfaceImplementations.remove(className);
         innerClassRelations.remove(className);
@@ -56,6 +67,118 @@ public class Program
         dependencies.values().forEach(set -> set.remove(className));
     }
 
+    // Swaps in a new model of a class that may extend and implement other types, keeping the relations other
+    // classes have to it
+    public void replaceClass(ProgramClass programClass) 
+    {
+        String className = programClass.getName();
+        ProgramClass previous = classes.get(className);
+        if (previous == null) {
+            throw new IllegalArgumentException("Cannot replace unknown class: " + className);
+        }
+
+        if (previous.getSuperName() != null) {
+            classHierarchy.getOrDefault(previous.getSuperName(), Collections.emptySet()).remove(className);
+        }
+        for (String interfaceName : previous.getInterfaces()) {
+            interfaceImplementations.getOrDefault(interfaceName, Collections.emptySet()).remove(className);
+        }
+        dependencies.remove(className);
+
+        classes.put(className, programClass);
+        referenceCounts = null;
+
+        buildHierarchyInfo(programClass);
+        buildDependencyInfo(programClass);
+        detectEntryPoints(programClass);
+    }
+
+    // One pass over the relation sets for the whole batch, instead of one per class as removeClass does
+    public void removeClasses(Collection<String> classNames) 
+    {
+        Set<String> removed = new HashSet<>(classNames);
+        for (String className : removed) {
+            classes.remove(className);
+            classHierarchy.remove(className);
+            interfaceImplementations.remove(className);
+            innerClassRelations.remove(className);
+            entryPoints.remove(className);
+            dependencies.remove(className);
+        }
+        referenceCounts = null;
+        
+        classHierarchy.values().forEach(set -> set.removeAll(removed));
+        interfaceImplementations.values().forEach(set -> set.removeAll(removed));
+        innerClassRelations.values().forEach(set -> set.removeAll(removed));
+        dependencies.values().forEach(set -> set.removeAll(removed));
+    }
+
+    public LibraryClassPool getLibraryClassPool() 
+    {
+        return libraryClassPool;
+    }
+
+    public void setLibraryClassPool(LibraryClassPool libraryClassPool) 
+    {
+        this.libraryClassPool = libraryClassPool;
+    }
+
+    public InlinePlan getInlinePlan() 
+    {
+        return inlinePlan;
+    }
+
+    public void setInlinePlan(InlinePlan inlinePlan) 
+    {
+        this.inlinePlan = inlinePlan;
+    }
+
+    public ClassMergePlan getClassMergePlan() 
+    {
+        return classMergePlan;
+    }
+
+    public void setClassMergePlan(ClassMergePlan classMergePlan) 
+    {
+        this.classMergePlan = classMergePlan;
+    }
+
+    public ControlFlowPlan getControlFlowPlan() 
+    {
+        return controlFlowPlan;
+    }
+
+    public void setControlFlowPlan(ControlFlowPlan controlFlowPlan) 
+    {
+        this.controlFlowPlan = controlFlowPlan;
+    }
+
+    public MappingFile getAppliedMapping() 
+    {
+        return appliedMapping;
+    }
+
+    public void setAppliedMapping(MappingFile appliedMapping) 
+    {
+        this.appliedMapping = appliedMapping;
+    }
+
+    // Built on first use; strategies running side by side share one instance
+    public ReferenceCounts getReferenceCounts() 
+    {
+        ReferenceCounts counts = referenceCounts;
+        if (counts == null) {
+            synchronized (this) {
+                counts = referenceCounts;
+                if (counts == null) {
+                    counts = ReferenceCounts.collect(this);
+                    referenceCounts = counts;
+                }
+            }
+        }
+        return counts;
+    }
+
     public ProgramClass getClass(String className) 
     {
         return classes.get(className);
@@ -111,6 +234,17 @@ public class Program
         entryPoints.remove(className);
     }
 
+    // Classes named by the classes left out of the program, which reach the output without being modeled
+    public void addExternalReferences(Collection<String> classNames) 
+    {
+        externalReferences.addAll(classNames);
+    }
+
+    public Set<String> getExternalReferences() 
+    {
+        return Collections.unmodifiableSet(externalReferences);
+    }
+
     public Set<String> getDependencies(String className) 
     {
         return dependencies.getOrDefault(className, Collections.emptySet());
@@ -199,6 +333,7 @@ public class Program
         innerClassRelations.clear();
         entryPoints.clear();
         dependencies.clear();
+        externalReferences.clear();
     }
 
     private void buildHierarchyInfo(ProgramClass programClass) 
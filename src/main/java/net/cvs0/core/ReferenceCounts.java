@@ -0,0 +1,147 @@
+package net.cvs0.core;
+
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.classfile.ProgramMethod;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+public final class ReferenceCounts
+{
+    private final Map<String, Integer> classCounts = new HashMap<>();
+    private final Map<String, Integer> methodCounts = new HashMap<>();
+    private final Map<String, Integer> fieldCounts = new HashMap<>();
+
+    private ReferenceCounts() {}
+
+    // Counts references from method bodies recorded during analysis. Member references are charged to the class
+    // that declares the member, so a call through a subclass still counts for the method it resolves to
+    static ReferenceCounts collect(Program program)
+    {
+        ReferenceCounts counts = new ReferenceCounts();
+        Map<String, String> resolved = new HashMap<>();
+
+        for (ProgramClass programClass : program.getAllClasses()) {
+            for (ProgramMethod method : programClass.getMethods()) {
+                for (String call : method.getMethodCalls()) {
+                    int dot = call.indexOf('.');
+                    int paren = call.indexOf('(', dot);
+                    String owner = call.substring(0, dot);
+                    String name = call.substring(dot + 1, paren);
+                    String descriptor = call.substring(paren);
+
+                    counts.countClass(owner);
+                    counts.countDescriptor(descriptor);
+                    String declaringClass = resolved.computeIfAbsent(call, k -> resolveMethod(program, owner, name, descriptor));
+                    counts.methodCounts.merge(memberKey(declaringClass, name, descriptor), 1, Integer::sum);
+                }
+
+                for (String access : method.getFieldAccesses()) {
+                    int dot = access.indexOf('.');
+                    int colon = access.indexOf(':', dot);
+                    String owner = access.substring(0, dot);
+                    String name = access.substring(dot + 1, colon);
+                    String descriptor = access.substring(colon + 1);
+
+                    counts.countClass(owner);
+                    counts.countDescriptor(descriptor);
+                    String declaringClass = resolved.computeIfAbsent(access, k -> resolveField(program, owner, name, descriptor));
+                    counts.fieldCounts.merge(memberKey(declaringClass, name, descriptor), 1, Integer::sum);
+                }
+
+                for (String type : method.getTypeReferences()) {
+                    counts.countClass(type.startsWith("[") ? elementClass(Type.getType(type)) : type);
+                }
+            }
+        }
+        return counts;
+    }
+
+    public int getClassCount(String className)
+    {
+        return classCounts.getOrDefault(className, 0);
+    }
+
+    public int getMethodCount(String owner, String name, String descriptor)
+    {
+        return methodCounts.getOrDefault(memberKey(owner, name, descriptor), 0);
+    }
+
+    public int getFieldCount(String owner, String name, String descriptor)
+    {
+        return fieldCounts.getOrDefault(memberKey(owner, name, descriptor), 0);
+    }
+
+    private void countClass(String className)
+    {
+        if (className != null) {
+            classCounts.merge(className, 1, Integer::sum);
+        }
+    }
+
+    private void countDescriptor(String descriptor)
+    {
+        Type type = Type.getType(descriptor);
+        if (type.getSort() == Type.METHOD) {
+            for (Type argumentType : type.getArgumentTypes()) {
+                countClass(elementClass(argumentType));
+            }
+            countClass(elementClass(type.getReturnType()));
+        } else {
+            countClass(elementClass(type));
+        }
+    }
+
+    private static String elementClass(Type type)
+    {
+        Type elementType = type.getSort() == Type.ARRAY ? type.getElementType() : type;
+        return elementType.getSort() == Type.OBJECT ? elementType.getInternalName() : null;
+    }
+
+    private static String resolveMethod(Program program, String owner, String name, String descriptor)
+    {
+        Deque<String> pending = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        pending.add(owner);
+        while (!pending.isEmpty()) {
+            ProgramClass programClass = program.getClass(pending.poll());
+            if (programClass == null || !visited.add(programClass.getName())) {
+                continue;
+            }
+            if (programClass.findMethod(name, descriptor) != null) {
+                return programClass.getName();
+            }
+            if (programClass.getSuperName() != null) {
+                pending.add(programClass.getSuperName());
+            }
+            pending.addAll(Arrays.asList(programClass.getInterfaces()));
+        }
+        return owner;
+    }
+
+    private static String resolveField(Program program, String owner, String name, String descriptor)
+    {
+        Deque<String> pending = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        pending.add(owner);
+        while (!pending.isEmpty()) {
+            ProgramClass programClass = program.getClass(pending.poll());
+            if (programClass == null || !visited.add(programClass.getName())) {
+                continue;
+            }
+            if (programClass.findField(name, descriptor) != null) {
+                return programClass.getName();
+            }
+            pending.addAll(Arrays.asList(programClass.getInterfaces()));
+            if (programClass.getSuperName() != null) {
+                pending.add(programClass.getSuperName());
+            }
+        }
+        return owner;
+    }
+
+    private static String memberKey(String owner, String name, String descriptor)
+    {
+        return owner + "." + name + descriptor;
+    }
+}
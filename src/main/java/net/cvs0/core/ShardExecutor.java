@@ -0,0 +1,175 @@
+package net.cvs0.core;
+
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.obfuscation.MappingContext;
+import net.cvs0.obfuscation.NameGenerator;
+import net.cvs0.obfuscation.ObfuscationException;
+import net.cvs0.obfuscation.ProgramShard;
+import net.cvs0.obfuscation.ShardedStrategy;
+import net.cvs0.utils.Logger;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public final class ShardExecutor
+{
+    private ShardExecutor() {}
+
+    public static List<ProgramShard> execute(ShardedStrategy strategy, Program program, ObfuscationConfig config,
+                                             MappingContext mappingContext) throws ObfuscationException
+    {
+        strategy.prepareShards(program, config, mappingContext);
+
+        // One shard per package or hierarchy, never per thread, so the layout and with it every generated
+        // name is the same for any --threads value
+        int threads = Math.max(1, config.getMaxThreads());
+        Map<String, List<ProgramClass>> units = partition(program, strategy.getPartitioning());
+        NameGenerator nameGenerator = strategy.createNameGenerator(config);
+        List<ProgramShard> shards = new ArrayList<>(units.size());
+        for (Map.Entry<String, List<ProgramClass>> unit : units.entrySet()) {
+            shards.add(new ProgramShard(shards.size(), unit.getKey(), unit.getValue(), nameGenerator.partition()));
+        }
+
+        if (config.isVerbose()) {
+            Logger.info(strategy.getName() + ": " + program.getClassCount() + " classes in " + shards.size() +
+                       " shards by " + strategy.getPartitioning().name().toLowerCase());
+        }
+
+        if (threads == 1 || shards.size() <= 1) {
+            for (ProgramShard shard : shards) {
+                strategy.obfuscateShard(shard, config, mappingContext);
+            }
+        } else {
+            runInParallel(strategy, shards, config, mappingContext, threads);
+        }
+
+        // Merged in shard order, which only depends on the program, never on thread timing
+        for (ProgramShard shard : shards) {
+            shard.getMappings().applyTo(mappingContext);
+        }
+        return shards;
+    }
+
+    private static void runInParallel(ShardedStrategy strategy, List<ProgramShard> shards, ObfuscationConfig config,
+                                      MappingContext mappingContext, int threads) throws ObfuscationException
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>(shards.size());
+            for (ProgramShard shard : shards) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute()
+                    {
+                        try {
+                            strategy.obfuscateShard(shard, config, mappingContext);
+                        } catch (ObfuscationException e) {
+                            throw new ShardFailure(e);
+                        }
+                    }
+                });
+            }
+            pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+        } catch (ShardFailure e) {
+            throw (ObfuscationException) e.getCause();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ShardFailure) {
+                throw (ObfuscationException) e.getCause().getCause();
+            }
+            throw new ObfuscationException("Strategy " + strategy.getName() + " failed", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Units come back sorted by key with their classes sorted by name
+    static Map<String, List<ProgramClass>> partition(Program program, ShardedStrategy.Partitioning partitioning)
+    {
+        Map<String, List<ProgramClass>> units = partitioning == ShardedStrategy.Partitioning.PACKAGE ?
+            groupByPackage(program) : groupByHierarchy(program);
+
+        Map<String, List<ProgramClass>> sorted = new TreeMap<>(units);
+        for (List<ProgramClass> unit : sorted.values()) {
+            unit.sort(Comparator.comparing(ProgramClass::getName));
+        }
+        return sorted;
+    }
+
+    private static Map<String, List<ProgramClass>> groupByPackage(Program program)
+    {
+        Map<String, List<ProgramClass>> packages = new TreeMap<>();
+        for (ProgramClass programClass : program.getAllClasses()) {
+            String name = programClass.getName();
+            int slashIndex = name.lastIndexOf('/');
+            packages.computeIfAbsent(slashIndex >= 0 ? name.substring(0, slashIndex) : "", k -> new ArrayList<>()).add(programClass);
+        }
+        return packages;
+    }
+
+    private static Map<String, List<ProgramClass>> groupByHierarchy(Program program)
+    {
+        List<ProgramClass> classes = new ArrayList<>(program.getAllClasses());
+        classes.sort(Comparator.comparing(ProgramClass::getName));
+
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            indices.put(classes.get(i).getName(), i);
+        }
+
+        int[] parents = new int[classes.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+
+        for (int i = 0; i < classes.size(); i++) {
+            ProgramClass programClass = classes.get(i);
+            union(parents, i, indices.get(programClass.getSuperName()));
+            for (String interfaceName : programClass.getInterfaces()) {
+                union(parents, i, indices.get(interfaceName));
+            }
+        }
+
+        // Classes are sorted, so each component is keyed by the name of its first class
+        Map<String, List<ProgramClass>> components = new LinkedHashMap<>();
+        Map<Integer, String> componentKeys = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            String key = componentKeys.computeIfAbsent(find(parents, i), root -> classes.get(root).getName());
+            components.computeIfAbsent(key, k -> new ArrayList<>()).add(classes.get(i));
+        }
+        return components;
+    }
+
+    private static void union(int[] parents, int first, Integer second)
+    {
+        if (second == null) {
+            return;
+        }
+        int firstRoot = find(parents, first);
+        int secondRoot = find(parents, second);
+        if (firstRoot != secondRoot) {
+            parents[Math.max(firstRoot, secondRoot)] = Math.min(firstRoot, secondRoot);
+        }
+    }
+
+    private static int find(int[] parents, int index)
+    {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    private static class ShardFailure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ShardFailure(ObfuscationException cause)
+        {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.cvs0.core;
+
+import java.util.*;
+
+// What the shrinker took out of the program, by original name. Members are keyed like the mapping context does
+// it: name + descriptor for methods, name + ':' + descriptor for fields
+public final class ShrinkResult
+{
+    public static final ShrinkResult NONE = new ShrinkResult(Collections.emptySet(), Collections.emptyMap(), 0, 0);
+
+    private final Set<String> removedClasses;
+    private final Map<String, Set<String>> removedMembers;
+    private final int removedMethodCount;
+    private final int removedFieldCount;
+
+    ShrinkResult(Set<String> removedClasses, Map<String, Set<String>> removedMembers, int removedMethodCount, int removedFieldCount)
+    {
+        this.removedClasses = removedClasses;
+        this.removedMembers = removedMembers;
+        this.removedMethodCount = removedMethodCount;
+        this.removedFieldCount = removedFieldCount;
+    }
+
+    // This result with more methods gone, for passes after the shrinker that leave a method nothing to do
+    public ShrinkResult withRemovedMethods(Map<String, Set<String>> methods)
+    {
+        if (methods.isEmpty()) {
+            return this;
+        }
+
+        Map<String, Set<String>> merged = new TreeMap<>(removedMembers);
+        int methodCount = removedMethodCount;
+        for (Map.Entry<String, Set<String>> entry : methods.entrySet()) {
+            Set<String> members = new TreeSet<>(merged.getOrDefault(entry.getKey(), Collections.emptySet()));
+            for (String method : entry.getValue()) {
+                if (members.add(method)) {
+                    methodCount++;
+                }
+            }
+            merged.put(entry.getKey(), members);
+        }
+        return new ShrinkResult(removedClasses, merged, methodCount, removedFieldCount);
+    }
+
+    public boolean isClassRemoved(String className)
+    {
+        return removedClasses.contains(className);
+    }
+
+    public Set<String> getRemovedMembers(String className)
+    {
+        return removedMembers.getOrDefault(className, Collections.emptySet());
+    }
+
+    public Map<String, Set<String>> getAllRemovedMembers()
+    {
+        return Collections.unmodifiableMap(removedMembers);
+    }
+
+    public int getRemovedClassCount()
+    {
+        return removedClasses.size();
+    }
+
+    public int getRemovedMethodCount()
+    {
+        return removedMethodCount;
+    }
+
+    public int getRemovedFieldCount()
+    {
+        return removedFieldCount;
+    }
+
+    public boolean isEmpty()
+    {
+        return removedClasses.isEmpty() && removedMembers.isEmpty();
+    }
+}
@@ -0,0 +1,488 @@
+package net.cvs0.core;
+
+import net.cvs0.classfile.ConstantPoolScanner;
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.classfile.ProgramField;
+import net.cvs0.classfile.ProgramMethod;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.io.ZipEntryHandle;
+import net.cvs0.utils.Logger;
+import org.objectweb.asm.Type;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Removes every class, method and field that cannot be reached from the roots: main methods, keep rules, manifest
+// and service-loader entries, classes named by string constants, and whatever classes left out of the program refer
+// to. From there it follows the calls, field accesses and type references recorded for each method body. Dispatch is
+// resolved per override family: once one member of a family is used, every member in a used class stays, and
+// families bound to a library method always stay because the library may call them
+public final class Shrinker
+{
+    private static final String MAIN_DESCRIPTOR = "([Ljava/lang/String;)V";
+    private static final String SERIALIZABLE = "java/io/Serializable";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String[] MANIFEST_ENTRY_ATTRIBUTES = {"Main-Class", "Premain-Class", "Agent-Class", "Launcher-Agent-Class"};
+    private static final Set<String> SERIALIZATION_METHODS = Set.of("writeObject", "readObject", "readObjectNoData",
+                                                                     "writeReplace", "readResolve");
+
+    private final Program program;
+    private final ClassHierarchy hierarchy;
+    private final Map<Integer, List<ProgramMethod>> familyMembers = new HashMap<>();
+    private final Set<String> liveClasses = new HashSet<>();
+    private final Set<ProgramMethod> liveMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ProgramField> liveFields = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Integer> liveFamilies = new HashSet<>();
+    private final Map<String, Boolean> serializableClasses = new HashMap<>();
+    private final Deque<ProgramClass> classQueue = new ArrayDeque<>();
+    private final Deque<ProgramMethod> methodQueue = new ArrayDeque<>();
+
+    private Shrinker(Program program)
+    {
+        this.program = program;
+        this.hierarchy = ClassHierarchy.build(program, program.getLibraryClassPool());
+
+        for (ProgramClass programClass : program.getAllClasses()) {
+            for (ProgramMethod method : programClass.getMethods()) {
+                int family = hierarchy.getFamily(programClass.getName(), method.getName(), method.getDescriptor());
+                familyMembers.computeIfAbsent(family, k -> new ArrayList<>()).add(method);
+            }
+        }
+    }
+
+    public static ShrinkResult shrink(Program program, ObfuscationConfig config, JarAnalyzer.AnalysisResult analysis) throws IOException
+    {
+        long startTime = System.currentTimeMillis();
+        int classCount = program.getClassCount();
+
+        Shrinker shrinker = new Shrinker(program);
+        shrinker.markRoots(config, analysis);
+        shrinker.propagate();
+        ShrinkResult result = shrinker.removeUnused();
+
+        if (config.isVerbose()) {
+            Logger.info("Shrinking removed " + result.getRemovedClassCount() + " of " + classCount + " classes, " +
+                       result.getRemovedMethodCount() + " methods and " + result.getRemovedFieldCount() + " fields in " +
+                       (System.currentTimeMillis() - startTime) + "ms");
+        }
+        return result;
+    }
+
+    private void markRoots(ObfuscationConfig config, JarAnalyzer.AnalysisResult analysis) throws IOException
+    {
+        for (String entryPoint : program.getEntryPoints()) {
+            markMethod(entryPoint, "main", MAIN_DESCRIPTOR);
+        }
+        if (config.getMainClass() != null) {
+            String mainClass = config.getMainClass().replace('.', '/');
+            markClass(mainClass);
+            markMethod(mainClass, "main", MAIN_DESCRIPTOR);
+        }
+
+        Map<String, String> manifestAttributes = analysis.getManifestAttributes();
+        for (String attribute : MANIFEST_ENTRY_ATTRIBUTES) {
+            if (manifestAttributes.containsKey(attribute)) {
+                keepClassAndMembers(manifestAttributes.get(attribute).replace('.', '/'));
+            }
+        }
+
+        for (String keepClass : config.getKeepClasses()) {
+            keepClassAndMembers(keepClass);
+        }
+        for (String pattern : config.getKeepClassPatterns()) {
+            keepMatchingClasses(pattern, false);
+        }
+        for (String pattern : config.getKeepMethodsInClassPatterns()) {
+            keepMatchingClasses(pattern, true);
+        }
+        for (String keepMethod : config.getKeepMethods()) {
+            int dotIndex = keepMethod.indexOf('.');
+            int parenIndex = keepMethod.indexOf('(', dotIndex + 1);
+            if (dotIndex > 0 && parenIndex > dotIndex) {
+                markMethod(keepMethod.substring(0, dotIndex), keepMethod.substring(dotIndex + 1, parenIndex), keepMethod.substring(parenIndex));
+            }
+        }
+        for (String keepField : config.getKeepFields()) {
+            int dotIndex = keepField.indexOf('.');
+            int colonIndex = keepField.indexOf(':', dotIndex + 1);
+            if (dotIndex > 0 && colonIndex > dotIndex) {
+                ProgramClass owner = program.getClass(keepField.substring(0, dotIndex));
+                ProgramField field = owner != null ? owner.findField(keepField.substring(dotIndex + 1, colonIndex), keepField.substring(colonIndex + 1)) : null;
+                if (field != null) {
+                    markField(field);
+                }
+            }
+        }
+
+        for (Map.Entry<String, ZipEntryHandle> resource : analysis.getResources().entrySet()) {
+            if (resource.getKey().startsWith(SERVICES_PREFIX)) {
+                markServiceProviders(resource.getKey(), resource.getValue());
+            }
+        }
+
+        // Classes filtered out of the program are emitted unchanged, so anything they mention has to stay whole
+        for (ZipEntryHandle entry : analysis.getInputJar().getEntries()) {
+            String entryName = entry.getName();
+            if (entryName.endsWith(".class") && !entry.isDirectory() &&
+                !program.hasClass(entryName.substring(0, entryName.length() - 6))) {
+                try {
+                    for (String reference : ConstantPoolScanner.collectClassReferences(entry.readAllBytes())) {
+                        keepClassAndMembers(reference);
+                    }
+                } catch (IllegalArgumentException e) {
+                    Logger.warn("Cannot read references of " + entryName + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void keepMatchingClasses(String pattern, boolean methodsOnly)
+    {
+        Pattern regex;
+        try {
+            regex = Pattern.compile(pattern);
+        } catch (Exception e) {
+            return;
+        }
+        for (ProgramClass programClass : program.getAllClasses()) {
+            if (!regex.matcher(programClass.getName()).matches()) {
+                continue;
+            }
+            if (methodsOnly) {
+                markClass(programClass.getName());
+                programClass.getMethods().forEach(this::markMethod);
+            } else {
+                keepClassAndMembers(programClass.getName());
+            }
+        }
+    }
+
+    private void markServiceProviders(String resourceName, ZipEntryHandle entry) throws IOException
+    {
+        markClass(resourceName.substring(SERVICES_PREFIX.length()).replace('.', '/'));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(entry.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int commentIndex = line.indexOf('#');
+                String provider = (commentIndex >= 0 ? line.substring(0, commentIndex) : line).trim();
+                if (!provider.isEmpty()) {
+                    keepClassAndMembers(provider.replace('.', '/'));
+                }
+            }
+        }
+    }
+
+    private void propagate()
+    {
+        while (!classQueue.isEmpty() || !methodQueue.isEmpty()) {
+            if (!methodQueue.isEmpty()) {
+                processMethod(methodQueue.poll());
+            } else {
+                processClass(classQueue.poll());
+            }
+        }
+    }
+
+    private void processClass(ProgramClass programClass)
+    {
+        String className = programClass.getName();
+        markClass(programClass.getSuperName());
+        for (String interfaceName : programClass.getInterfaces()) {
+            markClass(interfaceName);
+        }
+        // The nest host is loaded to check private access between nestmates
+        int dollarIndex = className.lastIndexOf('$');
+        if (dollarIndex > 0) {
+            markClass(className.substring(0, dollarIndex));
+        }
+        for (String annotation : programClass.getAnnotations().keySet()) {
+            markDescriptor(annotation);
+        }
+
+        boolean serializable = isSerializable(className);
+        for (ProgramMethod method : programClass.getMethods()) {
+            int family = hierarchy.getFamily(className, method.getName(), method.getDescriptor());
+            if (method.isStaticInitializer() || liveFamilies.contains(family) || hierarchy.isLibraryBound(family) ||
+                programClass.isAnnotation() || (serializable && SERIALIZATION_METHODS.contains(method.getName())) ||
+                (programClass.isEnum() && isEnumAccessor(className, method))) {
+                markMethod(method);
+            }
+        }
+        if (serializable) {
+            programClass.getFields().forEach(this::markField);
+        }
+    }
+
+    private void processMethod(ProgramMethod method)
+    {
+        String owner = method.getOwnerClass().getName();
+        markClass(owner);
+
+        int family = hierarchy.getFamily(owner, method.getName(), method.getDescriptor());
+        if (family >= 0 && liveFamilies.add(family)) {
+            for (ProgramMethod member : familyMembers.getOrDefault(family, Collections.emptyList())) {
+                if (liveClasses.contains(member.getOwnerClass().getName())) {
+                    markMethod(member);
+                }
+            }
+        }
+
+        markDescriptor(method.getDescriptor());
+        for (String exception : method.getExceptions()) {
+            markClass(exception);
+        }
+        for (String annotation : method.getAnnotations().keySet()) {
+            markDescriptor(annotation);
+        }
+
+        for (String call : method.getMethodCalls()) {
+            int dotIndex = call.indexOf('.');
+            int parenIndex = call.indexOf('(', dotIndex);
+            String callOwner = call.substring(0, dotIndex);
+            if (callOwner.startsWith("[")) {
+                markDescriptor(callOwner);
+                continue;
+            }
+            markClass(callOwner);
+            ProgramMethod target = resolveMethod(callOwner, call.substring(dotIndex + 1, parenIndex), call.substring(parenIndex));
+            if (target != null) {
+                markMethod(target);
+            }
+        }
+
+        for (String access : method.getFieldAccesses()) {
+            int dotIndex = access.indexOf('.');
+            int colonIndex = access.indexOf(':', dotIndex);
+            String accessOwner = access.substring(0, dotIndex);
+            markClass(accessOwner);
+            ProgramField target = resolveField(accessOwner, access.substring(dotIndex + 1, colonIndex),
+                                               access.substring(colonIndex + 1), new HashSet<>());
+            if (target != null) {
+                markField(target);
+            }
+        }
+
+        for (String type : method.getTypeReferences()) {
+            if (type.startsWith("[")) {
+                markDescriptor(type);
+            } else {
+                markClass(type);
+            }
+        }
+
+        // Class.forName and friends: a string that names a program class keeps all of it
+        for (String constant : method.getStringConstants()) {
+            if (constant.length() > 1 && constant.length() < 512) {
+                String className = constant.replace('.', '/');
+                if (program.hasClass(className)) {
+                    keepClassAndMembers(className);
+                }
+            }
+        }
+    }
+
+    private ShrinkResult removeUnused()
+    {
+        Set<String> removedClasses = new TreeSet<>();
+        Map<String, Set<String>> removedMembers = new TreeMap<>();
+        int removedMethods = 0;
+        int removedFields = 0;
+
+        for (ProgramClass programClass : program.getAllClasses()) {
+            if (!liveClasses.contains(programClass.getName())) {
+                removedClasses.add(programClass.getName());
+                continue;
+            }
+
+            for (ProgramMethod method : programClass.getMethods()) {
+                if (!liveMethods.contains(method)) {
+                    programClass.removeMethod(method);
+                    removedMembers.computeIfAbsent(programClass.getName(), k -> new TreeSet<>()).add(method.getName() + method.getDescriptor());
+                    removedMethods++;
+                }
+            }
+            for (ProgramField field : programClass.getFields()) {
+                if (!liveFields.contains(field)) {
+                    programClass.removeField(field);
+                    removedMembers.computeIfAbsent(programClass.getName(), k -> new TreeSet<>()).add(field.getName() + ":" + field.getDescriptor());
+                    removedFields++;
+                }
+            }
+        }
+
+        program.removeClasses(removedClasses);
+        return new ShrinkResult(removedClasses, removedMembers, removedMethods, removedFields);
+    }
+
+    private void markClass(String className)
+    {
+        if (className == null) {
+            return;
+        }
+        ProgramClass programClass = program.getClass(className);
+        if (programClass != null && liveClasses.add(className)) {
+            classQueue.add(programClass);
+        }
+    }
+
+    private void keepClassAndMembers(String className)
+    {
+        ProgramClass programClass = program.getClass(className);
+        if (programClass != null) {
+            markClass(className);
+            programClass.getMethods().forEach(this::markMethod);
+            programClass.getFields().forEach(this::markField);
+        }
+    }
+
+    private void markMethod(String owner, String name, String descriptor)
+    {
+        ProgramClass programClass = program.getClass(owner);
+        ProgramMethod method = programClass != null ? programClass.findMethod(name, descriptor) : null;
+        if (method != null) {
+            markMethod(method);
+        }
+    }
+
+    private void markMethod(ProgramMethod method)
+    {
+        if (liveMethods.add(method)) {
+            methodQueue.add(method);
+        }
+    }
+
+    private void markField(ProgramField field)
+    {
+        if (liveFields.add(field)) {
+            markClass(field.getOwnerClass().getName());
+            markDescriptor(field.getDescriptor());
+            for (String annotation : field.getAnnotations().keySet()) {
+                markDescriptor(annotation);
+            }
+        }
+    }
+
+    // Types in signatures must stay loadable for the verifier, but that does not keep any of their members
+    private void markDescriptor(String descriptor)
+    {
+        Type type;
+        try {
+            type = Type.getType(descriptor);
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (type.getSort() == Type.METHOD) {
+            for (Type argumentType : type.getArgumentTypes()) {
+                markType(argumentType);
+            }
+            markType(type.getReturnType());
+        } else {
+            markType(type);
+        }
+    }
+
+    private void markType(Type type)
+    {
+        if (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+        if (type.getSort() == Type.OBJECT) {
+            markClass(type.getInternalName());
+        }
+    }
+
+    // Superclasses first, then interfaces for default methods
+    private ProgramMethod resolveMethod(String owner, String name, String descriptor)
+    {
+        List<String> interfaces = new ArrayList<>();
+        for (ProgramClass current = program.getClass(owner); current != null; current = program.getClass(current.getSuperName())) {
+            ProgramMethod method = current.findMethod(name, descriptor);
+            if (method != null) {
+                return method;
+            }
+            interfaces.addAll(Arrays.asList(current.getInterfaces()));
+        }
+
+        Set<String> visited = new HashSet<>();
+        for (int i = 0; i < interfaces.size(); i++) {
+            ProgramClass current = program.getClass(interfaces.get(i));
+            if (current == null || !visited.add(current.getName())) {
+                continue;
+            }
+            ProgramMethod method = current.findMethod(name, descriptor);
+            if (method != null) {
+                return method;
+            }
+            interfaces.addAll(Arrays.asList(current.getInterfaces()));
+        }
+        return null;
+    }
+
+    // JVM order: the class itself, its superinterfaces, then its superclass
+    private ProgramField resolveField(String owner, String name, String descriptor, Set<String> visited)
+    {
+        ProgramClass programClass = program.getClass(owner);
+        if (programClass == null || !visited.add(owner)) {
+            return null;
+        }
+        ProgramField field = programClass.findField(name, descriptor);
+        if (field != null) {
+            return field;
+        }
+        for (String interfaceName : programClass.getInterfaces()) {
+            field = resolveField(interfaceName, name, descriptor, visited);
+            if (field != null) {
+                return field;
+            }
+        }
+        return resolveField(programClass.getSuperName(), name, descriptor, visited);
+    }
+
+    private boolean isSerializable(String className)
+    {
+        if (className == null) {
+            return false;
+        }
+        if (className.equals(SERIALIZABLE)) {
+            return true;
+        }
+        Boolean cached = serializableClasses.get(className);
+        if (cached != null) {
+            return cached;
+        }
+        serializableClasses.put(className, false);
+
+        String superName;
+        String[] interfaces;
+        ProgramClass programClass = program.getClass(className);
+        if (programClass != null) {
+            superName = programClass.getSuperName();
+            interfaces = programClass.getInterfaces();
+        } else {
+            LibraryClass libraryClass = program.getLibraryClassPool().findClass(className);
+            if (libraryClass == null) {
+                return false;
+            }
+            superName = libraryClass.getSuperName();
+            interfaces = libraryClass.getInterfaces();
+        }
+
+        boolean serializable = isSerializable(superName);
+        for (int i = 0; i < interfaces.length && !serializable; i++) {
+            serializable = isSerializable(interfaces[i]);
+        }
+        serializableClasses.put(className, serializable);
+        return serializable;
+    }
+
+    // Enum.valueOf and EnumSet reach these reflectively
+    private static boolean isEnumAccessor(String className, ProgramMethod method)
+    {
+        return (method.getName().equals("values") && method.getDescriptor().equals("()[L" + className + ";")) ||
+               (method.getName().equals("valueOf") && method.getDescriptor().equals("(Ljava/lang/String;)L" + className + ";"));
+    }
+}
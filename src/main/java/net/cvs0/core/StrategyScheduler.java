@@ -0,0 +1,159 @@
+package net.cvs0.core;
+
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.obfuscation.MappingContext;
+import net.cvs0.obfuscation.MappingKind;
+import net.cvs0.obfuscation.ObfuscationException;
+import net.cvs0.obfuscation.ObfuscationStrategy;
+import net.cvs0.utils.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class StrategyScheduler
+{
+    private final List<ObfuscationStrategy> strategies;
+    private final List<List<Integer>> dependents = new ArrayList<>();
+    private final int[] dependencyCounts;
+
+    StrategyScheduler(List<ObfuscationStrategy> strategies)
+    {
+        // Strategies arrive sorted by priority; a conflicting pair always runs in that order
+        this.strategies = strategies;
+        this.dependencyCounts = new int[strategies.size()];
+
+        for (int i = 0; i < strategies.size(); i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int later = 0; later < strategies.size(); later++) {
+            for (int earlier = 0; earlier < later; earlier++) {
+                if (conflicts(strategies.get(earlier), strategies.get(later))) {
+                    dependents.get(earlier).add(later);
+                    dependencyCounts[later]++;
+                }
+            }
+        }
+    }
+
+    static boolean conflicts(ObfuscationStrategy first, ObfuscationStrategy second)
+    {
+        // Every strategy reads the program, so a mutating one cannot overlap with anything
+        if (first.mutatesProgram() || second.mutatesProgram()) {
+            return true;
+        }
+        return intersects(first.getProducedMappings(), second.getProducedMappings()) ||
+               intersects(first.getProducedMappings(), second.getConsumedMappings()) ||
+               intersects(first.getConsumedMappings(), second.getProducedMappings());
+    }
+
+    private static boolean intersects(Set<MappingKind> first, Set<MappingKind> second)
+    {
+        for (MappingKind kind : first) {
+            if (second.contains(kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void run(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException
+    {
+        if (strategies.isEmpty()) {
+            return;
+        }
+
+        if (config.isVerbose()) {
+            logGraph();
+        }
+
+        int threads = Math.max(1, Math.min(config.getMaxThreads(), strategies.size()));
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Obfuscator-Worker-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+
+        try {
+            int[] remaining = dependencyCounts.clone();
+            int running = 0;
+            for (int i = 0; i < strategies.size(); i++) {
+                if (remaining[i] == 0) {
+                    submit(completionService, i, program, config, mappingContext);
+                    running++;
+                }
+            }
+
+            int completed = 0;
+            while (running > 0) {
+                int finished = awaitNext(completionService);
+                running--;
+                completed++;
+
+                for (int dependent : dependents.get(finished)) {
+                    if (--remaining[dependent] == 0) {
+                        submit(completionService, dependent, program, config, mappingContext);
+                        running++;
+                    }
+                }
+            }
+
+            if (completed != strategies.size()) {
+                throw new ObfuscationException("Strategy scheduling stalled after " + completed + " of " + strategies.size() + " strategies");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submit(CompletionService<Integer> completionService, int index, Program program,
+                        ObfuscationConfig config, MappingContext mappingContext)
+    {
+        ObfuscationStrategy strategy = strategies.get(index);
+        completionService.submit(() -> {
+            if (config.isVerbose()) {
+                Logger.info("Applying strategy: " + strategy.getName());
+            }
+
+            long strategyStart = System.currentTimeMillis();
+            strategy.obfuscate(program, config, mappingContext);
+            long strategyDuration = System.currentTimeMillis() - strategyStart;
+
+            if (config.isVerbose()) {
+                Logger.info("Strategy " + strategy.getName() + " completed in " + strategyDuration + "ms");
+            }
+            return index;
+        });
+    }
+
+    private int awaitNext(CompletionService<Integer> completionService) throws ObfuscationException
+    {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObfuscationException("Obfuscation interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ObfuscationException) {
+                throw (ObfuscationException) cause;
+            }
+            throw new ObfuscationException("Strategy execution failed", cause);
+        }
+    }
+
+    private void logGraph()
+    {
+        for (int i = 0; i < strategies.size(); i++) {
+            List<String> waitsFor = new ArrayList<>();
+            for (int earlier = 0; earlier < i; earlier++) {
+                if (dependents.get(earlier).contains(i)) {
+                    waitsFor.add(strategies.get(earlier).getName());
+                }
+            }
+            Logger.info("  - " + strategies.get(i).getName() + (waitsFor.isEmpty() ? " runs immediately" : " waits for " + String.join(", ", waitsFor)));
+        }
+    }
+}
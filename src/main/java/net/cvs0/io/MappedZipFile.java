@@ -0,0 +1,234 @@
+package net.cvs0.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipException;
+
+public class MappedZipFile implements Closeable
+{
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ByteBuffer fileBuffer;
+    private final List<ZipEntryHandle> entries;
+    private final Map<String, ZipEntryHandle> entriesByName;
+    private volatile boolean closed;
+
+    public MappedZipFile(File file) throws IOException
+    {
+        this(file.toPath());
+    }
+
+    public MappedZipFile(Path path) throws IOException
+    {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            this.fileSize = channel.size();
+            // Files up to 2 GB are mapped in one piece; larger files map each entry on demand
+            this.fileBuffer = fileSize <= Integer.MAX_VALUE ? map(0, (int) fileSize) : null;
+            this.entries = new ArrayList<>();
+            this.entriesByName = new HashMap<>();
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    public List<ZipEntryHandle> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public ZipEntryHandle getEntry(String name)
+    {
+        return entriesByName.get(name);
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    ByteBuffer region(long offset, int length) throws IOException
+    {
+        ensureOpen();
+
+        if (offset < 0 || length < 0 || offset + length > fileSize) {
+            throw new ZipException("Entry data out of bounds in " + path + " at offset " + offset);
+        }
+
+        if (fileBuffer != null) {
+            return fileBuffer.slice((int) offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return map(offset, length);
+    }
+
+    private ByteBuffer map(long offset, int length) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void readCentralDirectory() throws IOException
+    {
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("Not a ZIP file (too small): " + path);
+        }
+
+        int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+        long tailOffset = fileSize - tailLength;
+        ByteBuffer tail = region(tailOffset, tailLength);
+
+        int eocd = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found: " + path);
+        }
+
+        long entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+
+        if (entryCount == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            long locatorOffset = tailOffset + eocd - 20;
+            ByteBuffer locator = region(locatorOffset, 20);
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new ZipException("ZIP64 end of central directory locator missing: " + path);
+            }
+
+            ByteBuffer zip64 = region(locator.getLong(8), 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Invalid ZIP64 end of central directory record: " + path);
+            }
+
+            entryCount = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too large: " + path);
+        }
+
+        ByteBuffer directory = region(directoryOffset, (int) directorySize);
+        int position = 0;
+
+        for (long i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Corrupt central directory entry " + i + " in " + path);
+            }
+
+            int flags = Short.toUnsignedInt(directory.getShort(position + 8));
+            int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            int dosTime = directory.getInt(position + 12);
+            long crc = Integer.toUnsignedLong(directory.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            long size = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+            byte[] nameBytes = new byte[nameLength];
+            directory.get(position + CENTRAL_HEADER_SIZE, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                int extraStart = position + CENTRAL_HEADER_SIZE + nameLength;
+                int extraEnd = extraStart + extraLength;
+                int cursor = extraStart;
+
+                while (cursor + 4 <= extraEnd) {
+                    int headerId = Short.toUnsignedInt(directory.getShort(cursor));
+                    int dataSize = Short.toUnsignedInt(directory.getShort(cursor + 2));
+
+                    if (headerId == ZIP64_EXTRA_ID) {
+                        int field = cursor + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = directory.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == ZIP64_MAGIC) {
+                            localHeaderOffset = directory.getLong(field);
+                        }
+                        break;
+                    }
+
+                    cursor += 4 + dataSize;
+                }
+            }
+
+            ZipEntryHandle entry = new ZipEntryHandle(this, name, method, flags, dosTime, crc,
+                                                      compressedSize, size, localHeaderOffset);
+            entries.add(entry);
+            entriesByName.putIfAbsent(name, entry);
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed) {
+            throw new IOException("ZIP file already closed: " + path);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        channel.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MappedZipFile{path=" + path + ", entries=" + entries.size() + "}";
+    }
+}
@@ -0,0 +1,259 @@
+package net.cvs0.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+public class ZipEntryHandle
+{
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final int FLAG_ENCRYPTED = 0x1;
+
+    private final MappedZipFile zipFile;
+    private final String name;
+    private final int method;
+    private final int flags;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private volatile long dataOffset = -1;
+
+    ZipEntryHandle(MappedZipFile zipFile, String name, int method, int flags, int dosTime, long crc,
+                   long compressedSize, long size, long localHeaderOffset)
+    {
+        this.zipFile = zipFile;
+        this.name = name;
+        this.method = method;
+        this.flags = flags;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public MappedZipFile getZipFile()
+    {
+        return zipFile;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getMethod()
+    {
+        return method;
+    }
+
+    public int getFlags()
+    {
+        return flags;
+    }
+
+    public int getDosTime()
+    {
+        return dosTime;
+    }
+
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    public long getCompressedSize()
+    {
+        return compressedSize;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLocalHeaderOffset()
+    {
+        return localHeaderOffset;
+    }
+
+    public boolean isDirectory()
+    {
+        return name.endsWith("/");
+    }
+
+    public boolean isStored()
+    {
+        return method == STORED;
+    }
+
+    public boolean isEncrypted()
+    {
+        return (flags & FLAG_ENCRYPTED) != 0;
+    }
+
+    public ByteBuffer getRawData() throws IOException
+    {
+        if (compressedSize > Integer.MAX_VALUE) {
+            throw new ZipException("Entry too large to map: " + name);
+        }
+        return zipFile.region(getDataOffset(), (int) compressedSize);
+    }
+
+    public ByteBuffer getData() throws IOException
+    {
+        checkReadable();
+
+        if (method == STORED) {
+            return getRawData();
+        }
+
+        return ByteBuffer.wrap(inflate());
+    }
+
+    public byte[] readAllBytes() throws IOException
+    {
+        checkReadable();
+
+        if (method == STORED) {
+            ByteBuffer data = getRawData();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            return bytes;
+        }
+
+        return inflate();
+    }
+
+    public InputStream openStream() throws IOException
+    {
+        checkReadable();
+
+        InputStream raw = new ByteBufferInputStream(getRawData());
+        if (method == STORED) {
+            return raw;
+        }
+
+        return new InflaterInputStream(raw, new Inflater(true), 8192) {
+            @Override
+            public void close() throws IOException
+            {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    private byte[] inflate() throws IOException
+    {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Entry too large to inflate into memory: " + name);
+        }
+
+        byte[] output = new byte[(int) size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(getRawData());
+            int written = 0;
+            while (written < output.length) {
+                int count = inflater.inflate(output, written, output.length - written);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                written += count;
+            }
+            if (written != output.length) {
+                throw new ZipException("Truncated entry " + name + ": expected " + size + " bytes, got " + written);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data in " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    long getDataOffset() throws IOException
+    {
+        long offset = dataOffset;
+        if (offset < 0) {
+            ByteBuffer header = zipFile.region(localHeaderOffset, MappedZipFile.LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != MappedZipFile.LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header for " + name);
+            }
+            int nameLength = Short.toUnsignedInt(header.getShort(26));
+            int extraLength = Short.toUnsignedInt(header.getShort(28));
+            offset = localHeaderOffset + MappedZipFile.LOCAL_HEADER_SIZE + nameLength + extraLength;
+            dataOffset = offset;
+        }
+        return offset;
+    }
+
+    private void checkReadable() throws IOException
+    {
+        if (isEncrypted()) {
+            throw new ZipException("Encrypted entries are not supported: " + name);
+        }
+        if (method != STORED && method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method + " for " + name);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package net.cvs0.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+public class ZipWriter implements Closeable
+{
+    public static final int STORED_LEVEL = 0;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x8;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+    private static final int PENDING_PER_THREAD = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int compressionLevel;
+    private final int dosTime;
+    private final ExecutorService compressor;
+    private final int maxPending;
+    private final Deque<Future<OutputEntry>> pending;
+    private final List<EntryRecord> records;
+    private final Set<String> names;
+    private long position;
+    private boolean failed;
+    private boolean closed;
+
+    public ZipWriter(Path path, int compressionLevel, int threads) throws IOException
+    {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.compressionLevel = compressionLevel;
+        this.dosTime = toDosTime(LocalDateTime.now());
+        this.compressor = threads > 1 && compressionLevel != STORED_LEVEL ? createCompressorPool(threads) : null;
+        this.maxPending = Math.max(1, threads) * PENDING_PER_THREAD;
+        this.pending = new ArrayDeque<>();
+        this.records = new ArrayList<>();
+        this.names = new HashSet<>();
+    }
+
+    private static ExecutorService createCompressorPool(int threads)
+    {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Zip-Compressor-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean hasEntry(String name)
+    {
+        return names.contains(name);
+    }
+
+    public int getEntryCount()
+    {
+        return names.size();
+    }
+
+    public boolean writeEntry(String name, byte[] data) throws IOException
+    {
+        if (!names.add(name)) {
+            return false;
+        }
+
+        if (compressor == null) {
+            OutputEntry entry;
+            try {
+                entry = compress(name, data, compressionLevel, dosTime);
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+            enqueue(CompletableFuture.completedFuture(entry));
+        } else {
+            enqueue(compressor.submit(() -> compress(name, data, compressionLevel, dosTime)));
+        }
+        return true;
+    }
+
+    public boolean copyRawEntry(ZipEntryHandle source) throws IOException
+    {
+        return copyRawEntry(source.getName(), source);
+    }
+
+    public boolean copyRawEntry(String name, ZipEntryHandle source) throws IOException
+    {
+        if (!names.add(name)) {
+            return false;
+        }
+
+        // Sizes are known up front, so the copy never needs a trailing data descriptor
+        int flags = (source.getFlags() & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8;
+        enqueue(CompletableFuture.completedFuture(
+                new OutputEntry(name, source.getMethod(), flags, source.getDosTime(), source.getCrc(),
+                                source.getSize(), source.getRawData())));
+        return true;
+    }
+
+    private void enqueue(Future<OutputEntry> entry) throws IOException
+    {
+        pending.addLast(entry);
+
+        // Entries are written strictly in submission order; only block once the queue is full
+        try {
+            while (!pending.isEmpty() && (pending.peekFirst().isDone() || pending.size() > maxPending)) {
+                writeOutputEntry(await(pending.pollFirst()));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void drainPending() throws IOException
+    {
+        try {
+            while (!pending.isEmpty()) {
+                writeOutputEntry(await(pending.pollFirst()));
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private OutputEntry await(Future<OutputEntry> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing output entries", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to compress output entry: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void writeOutputEntry(OutputEntry entry) throws IOException
+    {
+        long compressedSize = entry.data != null ? entry.data.remaining() : 0;
+        EntryRecord record = new EntryRecord(entry.name, entry.method, entry.flags, entry.dosTime,
+                                             entry.crc, compressedSize, entry.size, position);
+        writeLocalHeader(record);
+        if (entry.data != null) {
+            put(entry.data);
+        }
+    }
+
+    private static OutputEntry compress(String name, byte[] data, int level, int dosTime)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        if (level == STORED_LEVEL) {
+            return new OutputEntry(name, ZipEntryHandle.STORED, FLAG_UTF8, dosTime, crc.getValue(),
+                                   data.length, ByteBuffer.wrap(data));
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] output = new byte[Math.max(64, data.length / 2)];
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                compressedLength += deflater.deflate(output, compressedLength, output.length - compressedLength);
+            }
+
+            return new OutputEntry(name, ZipEntryHandle.DEFLATED, FLAG_UTF8, dosTime, crc.getValue(),
+                                   data.length, ByteBuffer.wrap(output, 0, compressedLength));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(EntryRecord record) throws IOException
+    {
+        records.add(record);
+
+        boolean zip64 = record.needsZip64Sizes();
+        ensureCapacity(MappedZipFile.LOCAL_HEADER_SIZE + record.nameBytes.length + 20);
+
+        buffer.putInt(MappedZipFile.LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        buffer.putShort((short) record.flags);
+        buffer.putShort((short) record.method);
+        buffer.putInt(record.dosTime);
+        buffer.putInt((int) record.crc);
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : record.compressedSize));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : record.size));
+        buffer.putShort((short) record.nameBytes.length);
+        buffer.putShort((short) (zip64 ? 20 : 0));
+        buffer.put(record.nameBytes);
+
+        if (zip64) {
+            buffer.putShort((short) MappedZipFile.ZIP64_EXTRA_ID);
+            buffer.putShort((short) 16);
+            buffer.putLong(record.size);
+            buffer.putLong(record.compressedSize);
+        }
+
+        position += MappedZipFile.LOCAL_HEADER_SIZE + record.nameBytes.length + (zip64 ? 20 : 0);
+    }
+
+    private void writeCentralDirectory() throws IOException
+    {
+        long directoryOffset = position;
+
+        for (EntryRecord record : records) {
+            boolean zip64Sizes = record.needsZip64Sizes();
+            boolean zip64Offset = record.offset >= ZIP64_MAGIC;
+            int extraLength = (zip64Sizes || zip64Offset) ? 4 + (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0) : 0;
+            int version = extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+            ensureCapacity(MappedZipFile.CENTRAL_HEADER_SIZE + record.nameBytes.length + extraLength);
+
+            buffer.putInt(MappedZipFile.CENTRAL_HEADER_SIGNATURE);
+            buffer.putShort((short) version);
+            buffer.putShort((short) version);
+            buffer.putShort((short) record.flags);
+            buffer.putShort((short) record.method);
+            buffer.putInt(record.dosTime);
+            buffer.putInt((int) record.crc);
+            buffer.putInt((int) (zip64Sizes ? ZIP64_MAGIC : record.compressedSize));
+            buffer.putInt((int) (zip64Sizes ? ZIP64_MAGIC : record.size));
+            buffer.putShort((short) record.nameBytes.length);
+            buffer.putShort((short) extraLength);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putInt(record.isDirectory() ? DIRECTORY_ATTRIBUTE : 0);
+            buffer.putInt((int) (zip64Offset ? ZIP64_MAGIC : record.offset));
+            buffer.put(record.nameBytes);
+
+            if (extraLength > 0) {
+                buffer.putShort((short) MappedZipFile.ZIP64_EXTRA_ID);
+                buffer.putShort((short) (extraLength - 4));
+                if (zip64Sizes) {
+                    buffer.putLong(record.size);
+                    buffer.putLong(record.compressedSize);
+                }
+                if (zip64Offset) {
+                    buffer.putLong(record.offset);
+                }
+            }
+
+            position += MappedZipFile.CENTRAL_HEADER_SIZE + record.nameBytes.length + extraLength;
+        }
+
+        long directorySize = position - directoryOffset;
+        boolean zip64 = records.size() >= ZIP64_ENTRY_LIMIT || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC;
+
+        if (zip64) {
+            long zip64RecordOffset = position;
+
+            ensureCapacity(56 + 20);
+            buffer.putInt(MappedZipFile.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            buffer.putLong(44);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(records.size());
+            buffer.putLong(records.size());
+            buffer.putLong(directorySize);
+            buffer.putLong(directoryOffset);
+
+            buffer.putInt(MappedZipFile.ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0);
+            buffer.putLong(zip64RecordOffset);
+            buffer.putInt(1);
+            position += 56 + 20;
+        }
+
+        ensureCapacity(MappedZipFile.END_OF_CENTRAL_DIRECTORY_SIZE);
+        buffer.putInt(MappedZipFile.END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) (zip64 ? ZIP64_ENTRY_LIMIT : records.size()));
+        buffer.putShort((short) (zip64 ? ZIP64_ENTRY_LIMIT : records.size()));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : directorySize));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : directoryOffset));
+        buffer.putShort((short) 0);
+        position += MappedZipFile.END_OF_CENTRAL_DIRECTORY_SIZE;
+    }
+
+    private void put(ByteBuffer data) throws IOException
+    {
+        int length = data.remaining();
+        if (length <= buffer.remaining()) {
+            buffer.put(data);
+        } else {
+            flush();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        position += length;
+    }
+
+    private void ensureCapacity(int bytes) throws IOException
+    {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+        if (buffer.remaining() < bytes) {
+            throw new ZipException("ZIP header too large: " + bytes + " bytes");
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Finishes the archive, unless an entry already failed to compress or write: an archive missing entries is
+    // deleted rather than left behind looking complete
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        if (failed) {
+            discard();
+            return;
+        }
+
+        try {
+            drainPending();
+            writeCentralDirectory();
+            flush();
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            throw e;
+        }
+        closed = true;
+        shutdownCompressor();
+        channel.close();
+    }
+
+    // Deletes the partial archive after the caller failed to produce its entries; problems doing so are attached
+    // to the failure
+    public void abort(Throwable cause)
+    {
+        try {
+            discard();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void discard() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        shutdownCompressor();
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private void shutdownCompressor()
+    {
+        if (compressor != null) {
+            compressor.shutdownNow();
+        }
+    }
+
+    public static int toDosTime(LocalDateTime time)
+    {
+        int year = Math.max(1980, time.getYear());
+        int date = ((year - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        int clock = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+        return (date << 16) | clock;
+    }
+
+    private static class OutputEntry
+    {
+        final String name;
+        final int method;
+        final int flags;
+        final int dosTime;
+        final long crc;
+        final long size;
+        final ByteBuffer data;
+
+        OutputEntry(String name, int method, int flags, int dosTime, long crc, long size, ByteBuffer data)
+        {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+
+    private static class EntryRecord
+    {
+        final byte[] nameBytes;
+        final int method;
+        final int flags;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        EntryRecord(String name, int method, int flags, int dosTime, long crc, long compressedSize, long size, long offset)
+        {
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        boolean needsZip64Sizes()
+        {
+            return compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+        }
+
+        boolean isDirectory()
+        {
+            return nameBytes.length > 0 && nameBytes[nameBytes.length - 1] == '/';
+        }
+    }
+}
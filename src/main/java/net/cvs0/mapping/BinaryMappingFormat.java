@@ -0,0 +1,224 @@
+package net.cvs0.mapping;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+final class BinaryMappingFormat
+{
+    static final int MAGIC = 0x4F42464D;
+    static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int CLASS_RECORD_SIZE = 24;
+    private static final int MEMBER_RECORD_SIZE = 12;
+    private static final int LINE_RANGE_RECORD_SIZE = 20;
+    private static final int METHOD_RECORD_SIZE = 24;
+
+    private BinaryMappingFormat() {}
+
+    static boolean isBinaryMapping(File file) throws IOException
+    {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    static void write(MappingFile mappingFile, File file) throws IOException
+    {
+        StringTable strings = new StringTable();
+        List<MappingFile.ClassMapping> classes = mappingFile.getClasses();
+        int fieldCount = 0;
+        int methodCount = 0;
+
+        for (MappingFile.ClassMapping classMapping : classes) {
+            strings.add(classMapping.getOriginalName());
+            strings.add(classMapping.getObfuscatedName());
+            for (MappingFile.MemberMapping field : classMapping.getFields()) {
+                strings.add(field.getName());
+                strings.add(field.getDescriptor());
+                strings.add(field.getObfuscatedName());
+            }
+            for (MappingFile.MemberMapping method : classMapping.getMethods()) {
+                strings.add(method.getName());
+                strings.add(method.getDescriptor());
+                strings.add(method.getObfuscatedName());
+            }
+            fieldCount += classMapping.getFields().size();
+            methodCount += classMapping.getMethods().size();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // String table: offsets first so a reader can slice the UTF-8 blob without scanning it
+            byte[][] encoded = strings.encode();
+            out.writeInt(encoded.length);
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+
+            // Class index, sorted by original name, pointing into the member tables
+            out.writeInt(classes.size());
+            int fieldStart = 0;
+            int methodStart = 0;
+            for (MappingFile.ClassMapping classMapping : classes) {
+                out.writeInt(strings.indexOf(classMapping.getOriginalName()));
+                out.writeInt(strings.indexOf(classMapping.getObfuscatedName()));
+                out.writeInt(fieldStart);
+                out.writeInt(classMapping.getFields().size());
+                out.writeInt(methodStart);
+                out.writeInt(classMapping.getMethods().size());
+                fieldStart += classMapping.getFields().size();
+                methodStart += classMapping.getMethods().size();
+            }
+
+            out.writeInt(fieldCount);
+            for (MappingFile.ClassMapping classMapping : classes) {
+                writeMembers(out, strings, classMapping.getFields());
+            }
+
+            out.writeInt(methodCount);
+            for (MappingFile.ClassMapping classMapping : classes) {
+                for (MappingFile.MemberMapping method : classMapping.getMethods()) {
+                    writeMember(out, strings, method);
+                    out.writeInt(method.getFirstLine());
+                    out.writeInt(method.getLastLine());
+                    out.writeInt(method.getOriginalFirstLine());
+                }
+            }
+        }
+    }
+
+    private static void writeMembers(DataOutputStream out, StringTable strings, List<MappingFile.MemberMapping> members) throws IOException
+    {
+        for (MappingFile.MemberMapping member : members) {
+            writeMember(out, strings, member);
+        }
+    }
+
+    private static void writeMember(DataOutputStream out, StringTable strings, MappingFile.MemberMapping member) throws IOException
+    {
+        out.writeInt(strings.indexOf(member.getName()));
+        out.writeInt(strings.indexOf(member.getDescriptor()));
+        out.writeInt(strings.indexOf(member.getObfuscatedName()));
+    }
+
+    static MappingFile read(File file) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Mapping file too large: " + file.getPath());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary mapping file: " + file.getPath());
+            }
+            int version = buffer.getInt();
+            // Version 1 files predate the method line ranges, version 2 the compacted ones
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported mapping file version " + version + ": " + file.getPath());
+            }
+
+            int stringCount = buffer.getInt();
+            int[] offsets = new int[stringCount + 1];
+            for (int i = 0; i <= stringCount; i++) {
+                offsets[i] = buffer.getInt();
+            }
+            byte[] blob = new byte[offsets[stringCount]];
+            buffer.get(blob);
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                strings[i] = new String(blob, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+            }
+
+            int methodRecordSize = version == 1 ? MEMBER_RECORD_SIZE : version == 2 ? LINE_RANGE_RECORD_SIZE : METHOD_RECORD_SIZE;
+            int classCount = buffer.getInt();
+            int classTable = buffer.position();
+            buffer.position(classTable + classCount * CLASS_RECORD_SIZE);
+
+            int fieldCount = buffer.getInt();
+            int fieldTable = buffer.position();
+            buffer.position(fieldTable + fieldCount * MEMBER_RECORD_SIZE);
+
+            buffer.getInt();
+            int methodTable = buffer.position();
+
+            List<MappingFile.ClassMapping> classes = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                int record = classTable + i * CLASS_RECORD_SIZE;
+                MappingFile.ClassMapping classMapping = new MappingFile.ClassMapping(
+                    strings[buffer.getInt(record)], strings[buffer.getInt(record + 4)]);
+
+                readMembers(buffer, strings, fieldTable, MEMBER_RECORD_SIZE, buffer.getInt(record + 8), buffer.getInt(record + 12),
+                           classMapping.getFields());
+                readMembers(buffer, strings, methodTable, methodRecordSize, buffer.getInt(record + 16), buffer.getInt(record + 20),
+                           classMapping.getMethods());
+                classes.add(classMapping);
+            }
+
+            return new MappingFile(classes);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt binary mapping file " + file.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void readMembers(ByteBuffer buffer, String[] strings, int table, int recordSize, int start, int count,
+                                    List<MappingFile.MemberMapping> members)
+    {
+        for (int i = 0; i < count; i++) {
+            int record = table + (start + i) * recordSize;
+            boolean hasLines = recordSize > MEMBER_RECORD_SIZE;
+            boolean hasOriginalLines = recordSize > LINE_RANGE_RECORD_SIZE;
+            members.add(new MappingFile.MemberMapping(
+                strings[buffer.getInt(record)], strings[buffer.getInt(record + 4)], strings[buffer.getInt(record + 8)],
+                hasLines ? buffer.getInt(record + 12) : 0, hasLines ? buffer.getInt(record + 16) : 0,
+                hasOriginalLines ? buffer.getInt(record + 20) : 0));
+        }
+    }
+
+    private static class StringTable
+    {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        void add(String value)
+        {
+            if (indices.putIfAbsent(value, values.size()) == null) {
+                values.add(value);
+            }
+        }
+
+        int indexOf(String value)
+        {
+            return indices.get(value);
+        }
+
+        byte[][] encode()
+        {
+            byte[][] encoded = new byte[values.size()][];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            return encoded;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package net.cvs0.mapping;
+
+import net.cvs0.classfile.ProgramClass;
+import net.cvs0.classfile.ProgramMethod;
+import net.cvs0.core.Program;
+import net.cvs0.obfuscation.MappingContext;
+
+import java.io.*;
+import java.util.*;
+
+public class MappingFile
+{
+    public static final MappingFile NONE = new MappingFile(Collections.emptyList());
+
+    private final List<ClassMapping> classes;
+
+    public MappingFile(List<ClassMapping> classes)
+    {
+        List<ClassMapping> sorted = new ArrayList<>(classes);
+        sorted.sort(Comparator.comparing(ClassMapping::getOriginalName));
+        for (ClassMapping classMapping : sorted) {
+            classMapping.sortMembers();
+        }
+        this.classes = Collections.unmodifiableList(sorted);
+    }
+
+    public static MappingFile fromContext(MappingContext mappingContext)
+    {
+        return fromContext(mappingContext, null);
+    }
+
+    public static MappingFile fromContext(MappingContext mappingContext, Program program)
+    {
+        Map<String, ClassMapping> byOwner = new TreeMap<>();
+
+        mappingContext.forEachClassMapping((originalName, obfuscatedName) ->
+            byOwner.put(originalName, new ClassMapping(originalName, obfuscatedName)));
+
+        mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) ->
+            byOwner.computeIfAbsent(owner, className -> new ClassMapping(className, mappingContext.getObfuscatedClassName(className)))
+                   .addField(new MemberMapping(name, descriptor, obfuscatedName)));
+
+        mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) -> {
+            // Line ranges let retrace pick between overloads that share an obfuscated name
+            ProgramMethod method = program != null ? findMethod(program, owner, name, descriptor) : null;
+            byOwner.computeIfAbsent(owner, className -> new ClassMapping(className, mappingContext.getObfuscatedClassName(className)))
+                   .addMethod(method != null ? createMethodMapping(method, obfuscatedName) :
+                       new MemberMapping(name, descriptor, obfuscatedName));
+        });
+
+        if (program != null) {
+            // Methods that kept their names still need an entry for retrace to restore their compacted lines
+            for (ProgramClass programClass : program.getAllClasses()) {
+                String owner = programClass.getName();
+                for (ProgramMethod method : programClass.getMethods()) {
+                    if (method.getCompactedFirstLine() > 0 && !mappingContext.hasMethodMapping(owner, method.getName(), method.getDescriptor())) {
+                        byOwner.computeIfAbsent(owner, className -> new ClassMapping(className, mappingContext.getObfuscatedClassName(className)))
+                               .addMethod(createMethodMapping(method, method.getName()));
+                    }
+                }
+            }
+        }
+
+        return new MappingFile(new ArrayList<>(byOwner.values()));
+    }
+
+    // Compacted methods are mapped by the lines the output carries, and remember where those started in the source
+    private static MemberMapping createMethodMapping(ProgramMethod method, String obfuscatedName)
+    {
+        int compactedFirstLine = method.getCompactedFirstLine();
+        if (compactedFirstLine > 0) {
+            return new MemberMapping(method.getName(), method.getDescriptor(), obfuscatedName, compactedFirstLine,
+                                     compactedFirstLine + method.getLastLine() - method.getFirstLine(), method.getFirstLine());
+        }
+        return new MemberMapping(method.getName(), method.getDescriptor(), obfuscatedName, method.getFirstLine(), method.getLastLine());
+    }
+
+    private static ProgramMethod findMethod(Program program, String owner, String name, String descriptor)
+    {
+        ProgramClass programClass = program.getClass(owner);
+        if (programClass == null) {
+            return null;
+        }
+        for (ProgramMethod method : programClass.getMethods()) {
+            if (method.getName().equals(name) && method.getDescriptor().equals(descriptor)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    public static MappingFile load(File file) throws IOException
+    {
+        if (BinaryMappingFormat.isBinaryMapping(file)) {
+            return BinaryMappingFormat.read(file);
+        }
+        return TextMappingFormat.read(file);
+    }
+
+    public void save(File file) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory for mapping file: " + parent.getAbsolutePath());
+        }
+
+        if (TextMappingFormat.isTextMappingName(file.getName())) {
+            TextMappingFormat.write(this, file);
+        } else {
+            BinaryMappingFormat.write(this, file);
+        }
+    }
+
+    public List<ClassMapping> getClasses()
+    {
+        return classes;
+    }
+
+    public ClassMapping findClass(String originalName)
+    {
+        int low = 0;
+        int high = classes.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = classes.get(mid).getOriginalName().compareTo(originalName);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return classes.get(mid);
+            }
+        }
+        return null;
+    }
+
+    public int getMemberCount()
+    {
+        int count = 0;
+        for (ClassMapping classMapping : classes) {
+            count += classMapping.getFields().size() + classMapping.getMethods().size();
+        }
+        return count;
+    }
+
+    // Names an earlier run gave, which the renaming strategies prefer for members they rename; null where that run
+    // left the name as it was. Method entries that only carry the compacted lines of a kept method map to themselves
+    public String getObfuscatedClassName(String className)
+    {
+        ClassMapping classMapping = findClass(className);
+        return classMapping != null && !classMapping.getObfuscatedName().equals(className) ? classMapping.getObfuscatedName() : null;
+    }
+
+    public String getObfuscatedFieldName(String className, String fieldName, String descriptor)
+    {
+        ClassMapping classMapping = findClass(className);
+        MemberMapping fieldMapping = classMapping != null ? classMapping.findField(fieldName, descriptor) : null;
+        return fieldMapping != null && !fieldMapping.getObfuscatedName().equals(fieldName) ? fieldMapping.getObfuscatedName() : null;
+    }
+
+    public String getObfuscatedMethodName(String className, String methodName, String descriptor)
+    {
+        ClassMapping classMapping = findClass(className);
+        MemberMapping methodMapping = classMapping != null ? classMapping.findMethod(methodName, descriptor) : null;
+        return methodMapping != null && !methodMapping.getObfuscatedName().equals(methodName) ? methodMapping.getObfuscatedName() : null;
+    }
+
+    public static class ClassMapping
+    {
+        private final String originalName;
+        private final String obfuscatedName;
+        private final List<MemberMapping> fields = new ArrayList<>();
+        private final List<MemberMapping> methods = new ArrayList<>();
+
+        public ClassMapping(String originalName, String obfuscatedName)
+        {
+            this.originalName = originalName;
+            this.obfuscatedName = obfuscatedName;
+        }
+
+        public String getOriginalName() { return originalName; }
+        public String getObfuscatedName() { return obfuscatedName; }
+        public List<MemberMapping> getFields() { return fields; }
+        public List<MemberMapping> getMethods() { return methods; }
+
+        public void addField(MemberMapping field)
+        {
+            fields.add(field);
+        }
+
+        public void addMethod(MemberMapping method)
+        {
+            methods.add(method);
+        }
+
+        public MemberMapping findField(String name, String descriptor)
+        {
+            return findMember(fields, name, descriptor);
+        }
+
+        public MemberMapping findMethod(String name, String descriptor)
+        {
+            return findMember(methods, name, descriptor);
+        }
+
+        void sortMembers()
+        {
+            fields.sort(MemberMapping.ORDER);
+            methods.sort(MemberMapping.ORDER);
+        }
+
+        private static MemberMapping findMember(List<MemberMapping> members, String name, String descriptor)
+        {
+            // Members are sorted by name and descriptor when the mapping file is built
+            int low = 0;
+            int high = members.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                MemberMapping member = members.get(mid);
+                int compare = member.getName().compareTo(name);
+                if (compare == 0) {
+                    compare = member.getDescriptor().compareTo(descriptor);
+                }
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return member;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class MemberMapping
+    {
+        static final Comparator<MemberMapping> ORDER = Comparator.comparing(MemberMapping::getName)
+                                                                 .thenComparing(MemberMapping::getDescriptor);
+
+        private final String name;
+        private final String descriptor;
+        private final String obfuscatedName;
+        private final int firstLine;
+        private final int lastLine;
+        private final int originalFirstLine;
+
+        public MemberMapping(String name, String descriptor, String obfuscatedName)
+        {
+            this(name, descriptor, obfuscatedName, 0, 0);
+        }
+
+        public MemberMapping(String name, String descriptor, String obfuscatedName, int firstLine, int lastLine)
+        {
+            this(name, descriptor, obfuscatedName, firstLine, lastLine, 0);
+        }
+
+        public MemberMapping(String name, String descriptor, String obfuscatedName, int firstLine, int lastLine, int originalFirstLine)
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.obfuscatedName = obfuscatedName;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.originalFirstLine = originalFirstLine;
+        }
+
+        public String getName() { return name; }
+        public String getDescriptor() { return descriptor; }
+        public String getObfuscatedName() { return obfuscatedName; }
+        public int getFirstLine() { return firstLine; }
+        public int getLastLine() { return lastLine; }
+        public int getOriginalFirstLine() { return originalFirstLine; }
+
+        public boolean hasLineRange()
+        {
+            return firstLine > 0;
+        }
+
+        public boolean containsLine(int line)
+        {
+            return line >= firstLine && line <= lastLine;
+        }
+
+        // Whether the range was compacted, so output lines differ from the source lines
+        public boolean hasRemappedLines()
+        {
+            return originalFirstLine > 0;
+        }
+
+        public int getOriginalLine(int line)
+        {
+            return hasRemappedLines() ? line - firstLine + originalFirstLine : line;
+        }
+    }
+}
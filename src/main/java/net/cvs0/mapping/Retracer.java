@@ -0,0 +1,256 @@
+package net.cvs0.mapping;
+
+import java.io.*;
+import java.util.*;
+
+public class Retracer
+{
+    private final Map<Object, ClassEntry> classes = new HashMap<>();
+    private final boolean showDescriptors;
+    private final CharSlice slice = new CharSlice();
+    private int restoredLine;
+
+    public Retracer(MappingFile mappingFile, boolean showDescriptors)
+    {
+        this.showDescriptors = showDescriptors;
+
+        for (MappingFile.ClassMapping classMapping : mappingFile.getClasses()) {
+            ClassEntry entry = new ClassEntry(classMapping.getOriginalName().replace('/', '.'));
+            for (MappingFile.MemberMapping method : classMapping.getMethods()) {
+                entry.methods.computeIfAbsent(method.getObfuscatedName(), k -> new ArrayList<>(1)).add(method);
+            }
+            classes.put(classMapping.getObfuscatedName().replace('/', '.'), entry);
+        }
+    }
+
+    public long retrace(Reader input, Writer output) throws IOException
+    {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, 1 << 16);
+        StringBuilder buffer = new StringBuilder(256);
+        long lineCount = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            output.write(retraceLine(line, buffer));
+            output.write('\n');
+            lineCount++;
+        }
+        output.flush();
+        return lineCount;
+    }
+
+    public String retraceLine(String line)
+    {
+        return retraceLine(line, new StringBuilder(line.length() + 32));
+    }
+
+    private String retraceLine(String line, StringBuilder buffer)
+    {
+        // Every frame and qualified class name contains a dot, so most log lines are rejected here
+        if (line.indexOf('.') < 0) {
+            return line;
+        }
+
+        int length = line.length();
+        int copied = 0;
+        boolean changed = false;
+        buffer.setLength(0);
+
+        // Jump from dot to dot and widen each one to the surrounding name instead of classifying every character
+        int dot = line.indexOf('.');
+        while (dot >= 0) {
+            int start = dot;
+            while (start > copied && isNameChar(line.charAt(start - 1))) {
+                start--;
+            }
+            int end = dot + 1;
+            while (end < length && isNameChar(line.charAt(end))) {
+                end++;
+            }
+            int next = end < length ? line.indexOf('.', end) : -1;
+
+            while (end > start && line.charAt(end - 1) == '.') {
+                end--;
+            }
+            int lastDot = line.lastIndexOf('.', end - 1);
+            char first = line.charAt(start);
+            if (lastDot <= start || first == '.' || (first >= '0' && first <= '9')) {
+                dot = next;
+                continue;
+            }
+
+            String replacement;
+            restoredLine = 0;
+            if (end < length && line.charAt(end) == '(') {
+                replacement = retraceFrame(line, start, lastDot, end);
+            } else {
+                ClassEntry entry = classes.get(slice.set(line, start, end));
+                replacement = entry != null ? entry.originalName : null;
+            }
+
+            if (replacement != null) {
+                buffer.append(line, copied, start).append(replacement);
+                copied = end;
+                changed = true;
+
+                if (restoredLine > 0) {
+                    // Compacted line numbers go back to the source lines along with the names
+                    int closeParen = line.indexOf(')', end);
+                    buffer.append(line, end, line.lastIndexOf(':', closeParen) + 1).append(restoredLine);
+                    copied = closeParen;
+                    if (next >= 0 && next < copied) {
+                        next = line.indexOf('.', copied);
+                    }
+                }
+            }
+            dot = next;
+        }
+
+        if (!changed) {
+            return line;
+        }
+        return buffer.append(line, copied, length).toString();
+    }
+
+    private String retraceFrame(String line, int start, int lastDot, int end)
+    {
+        ClassEntry entry = classes.get(slice.set(line, start, lastDot));
+        if (entry == null) {
+            return null;
+        }
+
+        List<MappingFile.MemberMapping> candidates = entry.methods.get(slice.set(line, lastDot + 1, end));
+        if (candidates == null) {
+            return entry.originalName + line.substring(lastDot, end);
+        }
+
+        int lineNumber = parseLineNumber(line, end);
+        for (MappingFile.MemberMapping candidate : candidates) {
+            // Compacted ranges never overlap within a class, so at most one candidate holds the line
+            if (lineNumber > 0 && candidate.hasRemappedLines() && candidate.containsLine(lineNumber)) {
+                restoredLine = candidate.getOriginalLine(lineNumber);
+                break;
+            }
+        }
+        StringBuilder names = new StringBuilder(entry.originalName).append('.');
+        int nameStart = names.length();
+        appendCandidates(names, candidates, lineNumber, true);
+        if (names.length() == nameStart) {
+            // No overload covers the line (or the trace has no line numbers), so list every candidate
+            appendCandidates(names, candidates, lineNumber, false);
+        }
+        return names.toString();
+    }
+
+    private void appendCandidates(StringBuilder names, List<MappingFile.MemberMapping> candidates, int lineNumber, boolean matchLine)
+    {
+        int nameStart = names.length();
+        for (MappingFile.MemberMapping candidate : candidates) {
+            if (matchLine && (lineNumber <= 0 || !candidate.hasLineRange() || !candidate.containsLine(lineNumber))) {
+                continue;
+            }
+
+            String name = showDescriptors ? candidate.getName() + candidate.getDescriptor() : candidate.getName();
+            if (containsAlternative(names, nameStart, name)) {
+                continue;
+            }
+            if (names.length() > nameStart) {
+                names.append('|');
+            }
+            names.append(name);
+        }
+    }
+
+    private static boolean containsAlternative(StringBuilder names, int nameStart, String name)
+    {
+        int position = nameStart;
+        while (position < names.length()) {
+            int separator = names.indexOf("|", position);
+            int alternativeEnd = separator < 0 ? names.length() : separator;
+            if (alternativeEnd - position == name.length() && names.indexOf(name, position) == position) {
+                return true;
+            }
+            position = alternativeEnd + 1;
+        }
+        return false;
+    }
+
+    private static int parseLineNumber(String line, int openParen)
+    {
+        int closeParen = line.indexOf(')', openParen);
+        if (closeParen < 0) {
+            return -1;
+        }
+        int colon = line.lastIndexOf(':', closeParen);
+        if (colon < openParen) {
+            return -1;
+        }
+
+        int lineNumber = 0;
+        for (int i = colon + 1; i < closeParen; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            lineNumber = lineNumber * 10 + (c - '0');
+        }
+        return lineNumber;
+    }
+
+    private static boolean isNameChar(char c)
+    {
+        if (c < 128) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                   c == '.' || c == '$' || c == '_';
+        }
+        return Character.isJavaIdentifierPart(c);
+    }
+
+    private static class ClassEntry
+    {
+        private final String originalName;
+        private final Map<Object, List<MappingFile.MemberMapping>> methods = new HashMap<>();
+
+        ClassEntry(String originalName)
+        {
+            this.originalName = originalName;
+        }
+    }
+
+    // Reusable view of part of a line that hashes and compares like the equivalent String, so class lookups
+    // don't allocate a substring per token
+    private static class CharSlice
+    {
+        private String source;
+        private int start;
+        private int end;
+
+        CharSlice set(String source, int start, int end)
+        {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + source.charAt(i);
+            }
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof String)) {
+                return false;
+            }
+            String string = (String) other;
+            return string.length() == end - start && source.regionMatches(start, string, 0, end - start);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.cvs0.mapping;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+final class TextMappingFormat
+{
+    private static final String HEADER = "# obfuscator mapping v1";
+    private static final String ARROW = " -> ";
+
+    private TextMappingFormat() {}
+
+    static boolean isTextMappingName(String fileName)
+    {
+        String lowerName = fileName.toLowerCase();
+        return lowerName.endsWith(".txt") || lowerName.endsWith(".map") || lowerName.endsWith(".mapping");
+    }
+
+    static void write(MappingFile mappingFile, File file) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (MappingFile.ClassMapping classMapping : mappingFile.getClasses()) {
+                writer.write(classMapping.getOriginalName() + ARROW + classMapping.getObfuscatedName() + ":");
+                writer.newLine();
+
+                for (MappingFile.MemberMapping field : classMapping.getFields()) {
+                    writer.write("    field " + field.getName() + " " + field.getDescriptor() + ARROW + field.getObfuscatedName());
+                    writer.newLine();
+                }
+                for (MappingFile.MemberMapping method : classMapping.getMethods()) {
+                    String lines = method.hasLineRange() ? " " + method.getFirstLine() + ":" + method.getLastLine() : "";
+                    if (method.hasRemappedLines()) {
+                        lines += ":" + method.getOriginalFirstLine();
+                    }
+                    writer.write("    method " + method.getName() + " " + method.getDescriptor() + lines + ARROW + method.getObfuscatedName());
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    static MappingFile read(File file) throws IOException
+    {
+        List<MappingFile.ClassMapping> classes = new ArrayList<>();
+        MappingFile.ClassMapping current = null;
+        int lineNumber = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+
+                int arrowIndex = trimmed.indexOf(ARROW);
+                if (arrowIndex <= 0) {
+                    throw new IOException("Invalid mapping at " + file.getName() + ":" + lineNumber + ": " + line);
+                }
+                String target = trimmed.substring(arrowIndex + ARROW.length()).trim();
+
+                if (!Character.isWhitespace(line.charAt(0))) {
+                    if (!target.endsWith(":")) {
+                        throw new IOException("Class mapping must end with ':' at " + file.getName() + ":" + lineNumber);
+                    }
+                    current = new MappingFile.ClassMapping(trimmed.substring(0, arrowIndex).trim(),
+                                                           target.substring(0, target.length() - 1));
+                    classes.add(current);
+                    continue;
+                }
+
+                if (current == null) {
+                    throw new IOException("Member mapping outside of a class at " + file.getName() + ":" + lineNumber);
+                }
+
+                String[] parts = trimmed.substring(0, arrowIndex).trim().split("\\s+");
+                if (parts.length != 3 && !(parts.length == 4 && parts[0].equals("method"))) {
+                    throw new IOException("Invalid member mapping at " + file.getName() + ":" + lineNumber + ": " + line);
+                }
+
+                MappingFile.MemberMapping member = parts.length == 4 ?
+                    parseLineRange(parts, target, file, lineNumber) :
+                    new MappingFile.MemberMapping(parts[1], parts[2], target);
+                if (parts[0].equals("field")) {
+                    current.addField(member);
+                } else if (parts[0].equals("method")) {
+                    current.addMethod(member);
+                } else {
+                    throw new IOException("Unknown member kind '" + parts[0] + "' at " + file.getName() + ":" + lineNumber);
+                }
+            }
+        }
+
+        return new MappingFile(classes);
+    }
+
+    // first:last, or first:last:originalFirst for compacted line numbers
+    private static MappingFile.MemberMapping parseLineRange(String[] parts, String target, File file, int lineNumber) throws IOException
+    {
+        int colonIndex = parts[3].indexOf(':');
+        int secondColonIndex = parts[3].indexOf(':', colonIndex + 1);
+        try {
+            return new MappingFile.MemberMapping(parts[1], parts[2], target,
+                                                 Integer.parseInt(parts[3].substring(0, colonIndex)),
+                                                 Integer.parseInt(secondColonIndex < 0 ? parts[3].substring(colonIndex + 1) :
+                                                                  parts[3].substring(colonIndex + 1, secondColonIndex)),
+                                                 secondColonIndex < 0 ? 0 : Integer.parseInt(parts[3].substring(secondColonIndex + 1)));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Invalid line range '" + parts[3] + "' at " + file.getName() + ":" + lineNumber);
+        }
+    }
+}
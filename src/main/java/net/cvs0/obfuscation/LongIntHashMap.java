@@ -0,0 +1,173 @@
+package net.cvs0.obfuscation;
+
+import java.util.concurrent.locks.StampedLock;
+
+final class LongIntHashMap
+{
+    static final int MISSING = -1;
+
+    private static final long EMPTY_KEY = 0L;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final StampedLock lock = new StampedLock();
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeThreshold;
+
+    LongIntHashMap()
+    {
+        allocate(64);
+    }
+
+    interface EntryConsumer
+    {
+        void accept(long key, int value);
+    }
+
+    int get(long key)
+    {
+        long stamp = lock.tryOptimisticRead();
+        int value = find(keys, values, key);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return find(keys, values, key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(long key)
+    {
+        return get(key) != MISSING;
+    }
+
+    int put(long key, int value)
+    {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != EMPTY_KEY) {
+                if (keys[slot] == key) {
+                    int previous = values[slot];
+                    values[slot] = value;
+                    return previous;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > resizeThreshold) {
+                rehash(keys.length << 1);
+            }
+            return MISSING;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size()
+    {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    void forEach(EntryConsumer consumer)
+    {
+        long[] keySnapshot;
+        int[] valueSnapshot;
+        long stamp = lock.readLock();
+        try {
+            keySnapshot = keys.clone();
+            valueSnapshot = values.clone();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        for (int i = 0; i < keySnapshot.length; i++) {
+            if (keySnapshot[i] != EMPTY_KEY) {
+                consumer.accept(keySnapshot[i], valueSnapshot[i]);
+            }
+        }
+    }
+
+    void clear()
+    {
+        long stamp = lock.writeLock();
+        try {
+            allocate(64);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static int find(long[] keys, int[] values, long key)
+    {
+        // May run against a table that is being resized; the caller re-checks the stamp before trusting the result
+        int mask = keys.length - 1;
+        if (values.length != keys.length) {
+            return MISSING;
+        }
+        int slot = mix(key) & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            long current = keys[slot];
+            if (current == key) {
+                return values[slot];
+            }
+            if (current == EMPTY_KEY) {
+                return MISSING;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != EMPTY_KEY) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
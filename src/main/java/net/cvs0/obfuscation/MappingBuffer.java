@@ -0,0 +1,83 @@
+package net.cvs0.obfuscation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappingBuffer 
+{
+    private final List<Entry> entries = new ArrayList<>();
+
+    public void mapClass(String originalName, String obfuscatedName) 
+    {
+        entries.add(new Entry(MappingKind.CLASS, false, originalName, null, null, obfuscatedName));
+    }
+
+    public void mapField(String className, String originalName, String descriptor, String obfuscatedName) 
+    {
+        entries.add(new Entry(MappingKind.FIELD, false, className, originalName, descriptor, obfuscatedName));
+    }
+
+    public void mapMethod(String className, String originalName, String descriptor, String obfuscatedName) 
+    {
+        entries.add(new Entry(MappingKind.METHOD, false, className, originalName, descriptor, obfuscatedName));
+    }
+
+    public void addKeepField(String className, String fieldName, String descriptor) 
+    {
+        entries.add(new Entry(MappingKind.FIELD, true, className, fieldName, descriptor, null));
+    }
+
+    public void addKeepMethod(String className, String methodName, String descriptor) 
+    {
+        entries.add(new Entry(MappingKind.METHOD, true, className, methodName, descriptor, null));
+    }
+
+    public int size() 
+    {
+        return entries.size();
+    }
+
+    public void applyTo(MappingContext mappingContext) 
+    {
+        // Replayed in recording order, so the merged result does not depend on which thread ran the shard
+        for (Entry entry : entries) {
+            switch (entry.kind) {
+                case CLASS -> mappingContext.mapClass(entry.owner, entry.obfuscatedName);
+                case FIELD -> {
+                    if (entry.keep) {
+                        mappingContext.addKeepField(entry.owner, entry.name, entry.descriptor);
+                    } else {
+                        mappingContext.mapField(entry.owner, entry.name, entry.descriptor, entry.obfuscatedName);
+                    }
+                }
+                case METHOD -> {
+                    if (entry.keep) {
+                        mappingContext.addKeepMethod(entry.owner, entry.name, entry.descriptor);
+                    } else {
+                        mappingContext.mapMethod(entry.owner, entry.name, entry.descriptor, entry.obfuscatedName);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Entry 
+    {
+        final MappingKind kind;
+        final boolean keep;
+        final String owner;
+        final String name;
+        final String descriptor;
+        final String obfuscatedName;
+
+        Entry(MappingKind kind, boolean keep, String owner, String name, String descriptor, String obfuscatedName) 
+        {
+            this.kind = kind;
+            this.keep = keep;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.obfuscatedName = obfuscatedName;
+        }
+    }
+}
@@ -2,66 +2,75 @@ package net.cvs0.obfuscation;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class MappingContext 
 {
-    private final Map<String, String> classMappings = new ConcurrentHashMap<>();
-    private final Map<String, String> fieldMappings = new ConcurrentHashMap<>();
-    private final Map<String, String> methodMappings = new ConcurrentHashMap<>();
+    private final SymbolTable symbols = new SymbolTable();
+    private final LongIntHashMap classMappings = new LongIntHashMap();
+    private final MemberTable fieldMappings = new MemberTable();
+    private final MemberTable methodMappings = new MemberTable();
     private final Map<String, String> localVariableMappings = new ConcurrentHashMap<>();
-    private final Map<String, String> reverseMappings = new ConcurrentHashMap<>();
+    private volatile ReverseMappingIndex reverseIndex;
+    private volatile boolean buildingReverseIndex;
+    private volatile boolean reverseIndexStale;
     
-    private final Set<String> keepClasses = ConcurrentHashMap.newKeySet();
-    private final Set<String> keepMethods = ConcurrentHashMap.newKeySet();
-    private final Set<String> keepFields = ConcurrentHashMap.newKeySet();
+    private final LongIntHashMap keepClasses = new LongIntHashMap();
+    private final MemberTable keepMethods = new MemberTable();
+    private final MemberTable keepFields = new MemberTable();
     
     private final Map<String, Set<String>> hierarchyMappings = new ConcurrentHashMap<>();
 
+    public interface MemberMappingConsumer
+    {
+        void accept(String owner, String name, String descriptor, String obfuscatedName);
+    }
+
     public void mapClass(String originalName, String obfuscatedName) 
     {
         if (originalName == null || obfuscatedName == null) {
             throw new IllegalArgumentException("Names cannot be null");
         }
-        classMappings.put(originalName, obfuscatedName);
-        reverseMappings.put(obfuscatedName, originalName);
+        classMappings.put(symbols.intern(originalName), symbols.intern(obfuscatedName));
+        invalidateReverseIndex();
     }
 
     public void mapField(String className, String originalName, String descriptor, String obfuscatedName) 
     {
-        String key = className + "." + originalName + ":" + descriptor;
-        fieldMappings.put(key, obfuscatedName);
-        reverseMappings.put(obfuscatedName, key);
+        intern(fieldMappings, className, originalName, descriptor, symbols.intern(obfuscatedName));
+        invalidateReverseIndex();
     }
 
     public void mapMethod(String className, String originalName, String descriptor, String obfuscatedName) 
     {
-        String key = className + "." + originalName + descriptor;
-        methodMappings.put(key, obfuscatedName);
-        reverseMappings.put(obfuscatedName, key);
+        intern(methodMappings, className, originalName, descriptor, symbols.intern(obfuscatedName));
+        invalidateReverseIndex();
     }
 
     public void mapLocalVariable(String className, String methodName, String methodDescriptor, String originalName, int index, String obfuscatedName) 
     {
         String key = className + "." + methodName + methodDescriptor + "#" + originalName + "@" + index;
         localVariableMappings.put(key, obfuscatedName);
-        reverseMappings.put(obfuscatedName, key);
     }
 
     public String getObfuscatedClassName(String originalName) 
     {
-        return classMappings.getOrDefault(originalName, originalName);
+        int id = symbols.find(originalName);
+        if (id == SymbolTable.NO_SYMBOL) {
+            return originalName;
+        }
+        int obfuscatedId = classMappings.get(id);
+        return obfuscatedId != LongIntHashMap.MISSING ? symbols.get(obfuscatedId) : originalName;
     }
 
     public String getObfuscatedFieldName(String className, String fieldName, String descriptor) 
     {
-        String key = className + "." + fieldName + ":" + descriptor;
-        return fieldMappings.getOrDefault(key, fieldName);
+        return lookup(fieldMappings, className, fieldName, descriptor, fieldName);
     }
 
     public String getObfuscatedMethodName(String className, String methodName, String descriptor) 
     {
-        String key = className + "." + methodName + descriptor;
-        return methodMappings.getOrDefault(key, methodName);
+        return lookup(methodMappings, className, methodName, descriptor, methodName);
     }
 
     public String getObfuscatedLocalVariableName(String className, String methodName, String methodDescriptor, String variableName, int index) 
@@ -72,58 +81,64 @@ public class MappingContext
 
     public String getOriginalName(String obfuscatedName) 
     {
-        return reverseMappings.get(obfuscatedName);
+        return reverseIndex().findClass(obfuscatedName);
+    }
+
+    public List<MemberReference> getOriginalFields(String obfuscatedOwner, String obfuscatedName)
+    {
+        return reverseIndex().findFields(obfuscatedOwner, obfuscatedName);
+    }
+
+    public List<MemberReference> getOriginalMethods(String obfuscatedOwner, String obfuscatedName)
+    {
+        return reverseIndex().findMethods(obfuscatedOwner, obfuscatedName);
     }
 
     public boolean hasClassMapping(String originalName) 
     {
-        return classMappings.containsKey(originalName);
+        int id = symbols.find(originalName);
+        return id != SymbolTable.NO_SYMBOL && classMappings.containsKey(id);
     }
 
     public boolean hasFieldMapping(String className, String fieldName, String descriptor) 
     {
-        String key = className + "." + fieldName + ":" + descriptor;
-        return fieldMappings.containsKey(key);
+        return contains(fieldMappings, className, fieldName, descriptor);
     }
 
     public boolean hasMethodMapping(String className, String methodName, String descriptor) 
     {
-        String key = className + "." + methodName + descriptor;
-        return methodMappings.containsKey(key);
+        return contains(methodMappings, className, methodName, descriptor);
     }
 
     public void addKeepClass(String className) 
     {
-        keepClasses.add(className);
+        keepClasses.put(symbols.intern(className), 1);
     }
 
     public void addKeepMethod(String className, String methodName, String descriptor) 
     {
-        String key = className + "." + methodName + descriptor;
-        keepMethods.add(key);
+        intern(keepMethods, className, methodName, descriptor, 1);
     }
 
     public void addKeepField(String className, String fieldName, String descriptor) 
     {
-        String key = className + "." + fieldName + ":" + descriptor;
-        keepFields.add(key);
+        intern(keepFields, className, fieldName, descriptor, 1);
     }
 
     public boolean shouldKeepClass(String className) 
     {
-        return keepClasses.contains(className);
+        int id = symbols.find(className);
+        return id != SymbolTable.NO_SYMBOL && keepClasses.containsKey(id);
     }
 
     public boolean shouldKeepMethod(String className, String methodName, String descriptor) 
     {
-        String key = className + "." + methodName + descriptor;
-        return keepMethods.contains(key);
+        return contains(keepMethods, className, methodName, descriptor);
     }
 
     public boolean shouldKeepField(String className, String fieldName, String descriptor) 
     {
-        String key = className + "." + fieldName + ":" + descriptor;
-        return keepFields.contains(key);
+        return contains(keepFields, className, fieldName, descriptor);
     }
 
     public void addHierarchyMapping(String className, String member) 
@@ -138,17 +153,25 @@ public class MappingContext
 
     public Map<String, String> getAllClassMappings() 
     {
-        return new HashMap<>(classMappings);
+        Map<String, String> mappings = new HashMap<>();
+        forEachClassMapping(mappings::put);
+        return mappings;
     }
 
     public Map<String, String> getAllFieldMappings() 
     {
-        return new HashMap<>(fieldMappings);
+        Map<String, String> mappings = new HashMap<>();
+        forEachFieldMapping((owner, name, descriptor, obfuscatedName) ->
+            mappings.put(owner + "." + name + ":" + descriptor, obfuscatedName));
+        return mappings;
     }
 
     public Map<String, String> getAllMethodMappings() 
     {
-        return new HashMap<>(methodMappings);
+        Map<String, String> mappings = new HashMap<>();
+        forEachMethodMapping((owner, name, descriptor, obfuscatedName) ->
+            mappings.put(owner + "." + name + descriptor, obfuscatedName));
+        return mappings;
     }
 
     public Map<String, String> getAllLocalVariableMappings() 
@@ -156,6 +179,36 @@ public class MappingContext
         return new HashMap<>(localVariableMappings);
     }
 
+    public void forEachClassMapping(BiConsumer<String, String> consumer)
+    {
+        classMappings.forEach((key, value) -> consumer.accept(symbols.get((int) key), symbols.get(value)));
+    }
+
+    public void forEachFieldMapping(MemberMappingConsumer consumer)
+    {
+        forEachMember(fieldMappings, consumer);
+    }
+
+    public void forEachMethodMapping(MemberMappingConsumer consumer)
+    {
+        forEachMember(methodMappings, consumer);
+    }
+
+    public int getClassMappingCount()
+    {
+        return classMappings.size();
+    }
+
+    public int getFieldMappingCount()
+    {
+        return fieldMappings.size();
+    }
+
+    public int getMethodMappingCount()
+    {
+        return methodMappings.size();
+    }
+
     public int getTotalMappings() 
     {
         return classMappings.size() + fieldMappings.size() + methodMappings.size() + localVariableMappings.size();
@@ -166,11 +219,12 @@ public class MappingContext
         classMappings.clear();
         fieldMappings.clear();
         methodMappings.clear();
-        reverseMappings.clear();
+        reverseIndex = null;
         keepClasses.clear();
         keepMethods.clear();
         keepFields.clear();
         hierarchyMappings.clear();
+        symbols.clear();
     }
 
     public void printMappingStats() 
@@ -185,4 +239,77 @@ public class MappingContext
         System.out.println("  Fields kept: " + keepFields.size());
         System.out.println("  Total mappings: " + getTotalMappings());
     }
-}
\ No newline at end of file
+
+    private ReverseMappingIndex reverseIndex()
+    {
+        ReverseMappingIndex index = reverseIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = reverseIndex;
+                if (index == null) {
+                    reverseIndexStale = false;
+                    buildingReverseIndex = true;
+                    try {
+                        index = new ReverseMappingIndex(this);
+                    } finally {
+                        buildingReverseIndex = false;
+                    }
+                    // A mapping added while the index was being built may be missing from it, so rebuild next time
+                    if (!reverseIndexStale) {
+                        reverseIndex = index;
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private void invalidateReverseIndex()
+    {
+        // Only written once an index has been built, so the renaming loop stays free of volatile stores
+        if (reverseIndex != null || buildingReverseIndex) {
+            reverseIndexStale = true;
+            reverseIndex = null;
+        }
+    }
+
+    private void intern(MemberTable table, String className, String memberName, String descriptor, int value)
+    {
+        table.put(symbols.intern(className), symbols.intern(memberName), symbols.intern(descriptor), value);
+    }
+
+    // Resolves a member without interning; an unknown symbol means the member was never recorded
+    private int find(MemberTable table, String className, String memberName, String descriptor)
+    {
+        int owner = symbols.find(className);
+        if (owner == SymbolTable.NO_SYMBOL) {
+            return LongIntHashMap.MISSING;
+        }
+        int name = symbols.find(memberName);
+        if (name == SymbolTable.NO_SYMBOL) {
+            return LongIntHashMap.MISSING;
+        }
+        int desc = symbols.find(descriptor);
+        if (desc == SymbolTable.NO_SYMBOL) {
+            return LongIntHashMap.MISSING;
+        }
+        return table.get(owner, name, desc);
+    }
+
+    private String lookup(MemberTable table, String className, String memberName, String descriptor, String defaultName)
+    {
+        int obfuscatedId = find(table, className, memberName, descriptor);
+        return obfuscatedId != LongIntHashMap.MISSING ? symbols.get(obfuscatedId) : defaultName;
+    }
+
+    private boolean contains(MemberTable table, String className, String memberName, String descriptor)
+    {
+        return find(table, className, memberName, descriptor) != LongIntHashMap.MISSING;
+    }
+
+    private void forEachMember(MemberTable table, MemberMappingConsumer consumer)
+    {
+        table.forEach((owner, name, descriptor, value) -> consumer.accept(symbols.get(owner), symbols.get(name),
+                                                                          symbols.get(descriptor), symbols.get(value)));
+    }
+}
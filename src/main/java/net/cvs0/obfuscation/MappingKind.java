@@ -0,0 +1,8 @@
+package net.cvs0.obfuscation;
+
+public enum MappingKind 
+{
+    CLASS,
+    FIELD,
+    METHOD
+}
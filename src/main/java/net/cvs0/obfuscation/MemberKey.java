@@ -0,0 +1,37 @@
+package net.cvs0.obfuscation;
+
+public final class MemberKey
+{
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    public static final int MAX_SYMBOL_ID = (int) MASK;
+
+    private MemberKey() {}
+
+    public static boolean fits(int owner, int name, int descriptor)
+    {
+        return owner <= MAX_SYMBOL_ID && name <= MAX_SYMBOL_ID && descriptor <= MAX_SYMBOL_ID;
+    }
+
+    // Owner, name and descriptor symbol ids packed into one long; symbol ids start at 1, so a key is never 0
+    public static long of(int owner, int name, int descriptor)
+    {
+        return ((long) owner << (2 * BITS)) | ((long) name << BITS) | descriptor;
+    }
+
+    public static int owner(long key)
+    {
+        return (int) ((key >>> (2 * BITS)) & MASK);
+    }
+
+    public static int name(long key)
+    {
+        return (int) ((key >>> BITS) & MASK);
+    }
+
+    public static int descriptor(long key)
+    {
+        return (int) (key & MASK);
+    }
+}
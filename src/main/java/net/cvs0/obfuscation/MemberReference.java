@@ -0,0 +1,25 @@
+package net.cvs0.obfuscation;
+
+public final class MemberReference
+{
+    private final String owner;
+    private final String name;
+    private final String descriptor;
+
+    public MemberReference(String owner, String name, String descriptor)
+    {
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    public String getOwner() { return owner; }
+    public String getName() { return name; }
+    public String getDescriptor() { return descriptor; }
+
+    @Override
+    public String toString()
+    {
+        return owner + "." + name + (descriptor.startsWith("(") ? descriptor : ":" + descriptor);
+    }
+}
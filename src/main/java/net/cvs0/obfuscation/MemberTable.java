@@ -0,0 +1,87 @@
+package net.cvs0.obfuscation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Member entries keyed by the symbol ids of owner, name and descriptor. Keys are packed into a long while all three
+// ids fit MemberKey; members naming a symbol past that go to a map keyed by the plain ids, so a program with more
+// symbols than the packed layout holds only gets slower lookups for the overflow
+final class MemberTable
+{
+    private final LongIntHashMap packed = new LongIntHashMap();
+    private final Map<WideKey, Integer> wide = new ConcurrentHashMap<>();
+
+    interface EntryConsumer
+    {
+        void accept(int owner, int name, int descriptor, int value);
+    }
+
+    int get(int owner, int name, int descriptor)
+    {
+        if (MemberKey.fits(owner, name, descriptor)) {
+            return packed.get(MemberKey.of(owner, name, descriptor));
+        }
+        return wide.getOrDefault(new WideKey(owner, name, descriptor), LongIntHashMap.MISSING);
+    }
+
+    boolean containsKey(int owner, int name, int descriptor)
+    {
+        return get(owner, name, descriptor) != LongIntHashMap.MISSING;
+    }
+
+    void put(int owner, int name, int descriptor, int value)
+    {
+        if (MemberKey.fits(owner, name, descriptor)) {
+            packed.put(MemberKey.of(owner, name, descriptor), value);
+        } else {
+            wide.put(new WideKey(owner, name, descriptor), value);
+        }
+    }
+
+    int size()
+    {
+        return packed.size() + wide.size();
+    }
+
+    void forEach(EntryConsumer consumer)
+    {
+        packed.forEach((key, value) -> consumer.accept(MemberKey.owner(key), MemberKey.name(key), MemberKey.descriptor(key), value));
+        wide.forEach((key, value) -> consumer.accept(key.owner, key.name, key.descriptor, value));
+    }
+
+    void clear()
+    {
+        packed.clear();
+        wide.clear();
+    }
+
+    private static final class WideKey
+    {
+        private final int owner;
+        private final int name;
+        private final int descriptor;
+
+        WideKey(int owner, int name, int descriptor)
+        {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof WideKey)) {
+                return false;
+            }
+            WideKey other = (WideKey) obj;
+            return owner == other.owner && name == other.name && descriptor == other.descriptor;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (owner * 31 + name) * 31 + descriptor;
+        }
+    }
+}
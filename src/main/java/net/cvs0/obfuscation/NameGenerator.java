@@ -2,23 +2,85 @@ package net.cvs0.obfuscation;
 
 import net.cvs0.config.NamingMode;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class NameGenerator 
 {
-    protected final Set<String> usedNames = new HashSet<>();
-    protected final Set<String> reservedNames = new HashSet<>();
+    public enum NameKind
+    {
+        CLASS, METHOD, FIELD, VARIABLE, PACKAGE
+    }
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    protected final Set<String> usedNames = ConcurrentHashMap.newKeySet();
+    protected final Set<String> reservedNames;
+    protected final long seed;
+    private final AtomicLong[] counters = new AtomicLong[NameKind.values().length];
 
-    public NameGenerator() 
+    public NameGenerator(long seed) 
     {
+        this.seed = seed;
+        this.reservedNames = ConcurrentHashMap.newKeySet();
         initializeReservedNames();
+        initializeCounters();
+    }
+
+    // Partitions share the reserved names of their parent but count from zero on their own, so the names a
+    // partition hands out only depend on the requests made to it and not on what other threads are doing
+    protected NameGenerator(NameGenerator parent) 
+    {
+        this.seed = parent.seed;
+        this.reservedNames = parent.reservedNames;
+        initializeCounters();
+    }
+
+    // Pure function of the kind and index (and the seed); uniqueness is handled by the caller
+    protected abstract String nameAt(NameKind kind, long index);
+
+    public abstract NameGenerator partition();
+
+    public String generateClassName() 
+    {
+        return generateName(NameKind.CLASS);
+    }
+
+    public String generateMethodName() 
+    {
+        return generateName(NameKind.METHOD);
     }
 
-    public abstract String generateClassName();
-    public abstract String generateMethodName();
-    public abstract String generateFieldName();
-    public abstract String generateVariableName();
-    public abstract String generatePackageName();
+    public String generateFieldName() 
+    {
+        return generateName(NameKind.FIELD);
+    }
+
+    public String generateVariableName() 
+    {
+        return generateName(NameKind.VARIABLE);
+    }
+
+    public String generatePackageName() 
+    {
+        return generateName(NameKind.PACKAGE);
+    }
+
+    public String generateName(NameKind kind) 
+    {
+        AtomicLong counter = counters[kind.ordinal()];
+        String name;
+        do {
+            name = nameAt(kind, counter.getAndIncrement());
+        } while (reservedNames.contains(name) || (!isCollisionFree() && !usedNames.add(name)));
+        return name;
+    }
+
+    // True when nameAt never repeats a name for one kind, so generated names need not be tracked at all
+    protected boolean isCollisionFree() 
+    {
+        return false;
+    }
 
     public void addReservedName(String name) 
     {
@@ -35,9 +97,24 @@ public abstract class NameGenerator
         return usedNames.contains(name) || reservedNames.contains(name);
     }
 
+    public long getSeed() 
+    {
+        return seed;
+    }
+
     public void reset() 
     {
         usedNames.clear();
+        for (AtomicLong counter : counters) {
+            counter.set(0);
+        }
+    }
+
+    private void initializeCounters() 
+    {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
     }
 
     private void initializeReservedNames() 
@@ -53,148 +130,94 @@ public abstract class NameGenerator
         ));
     }
 
-    public static NameGenerator createGenerator(NamingMode mode) 
+    public static NameGenerator createGenerator(NamingMode mode, long seed) 
     {
         return switch (mode) {
-            case SEQUENTIAL_PREFIX -> new SequentialPrefixGenerator();
-            case SEQUENTIAL_ALPHA -> new SequentialAlphaGenerator();
-            case RANDOM_SHORT -> new RandomShortGenerator();
-            case RANDOM_LONG -> new RandomLongGenerator();
-            case SINGLE_CHAR -> new SingleCharGenerator();
+            case SEQUENTIAL_PREFIX -> new SequentialPrefixGenerator(seed);
+            case SEQUENTIAL_ALPHA -> new SequentialAlphaGenerator(seed);
+            case RANDOM_SHORT -> new RandomShortGenerator(seed);
+            case RANDOM_LONG -> new RandomLongGenerator(seed);
+            case RANDOM_PERMUTED -> new PermutedGenerator(seed);
+            case SINGLE_CHAR -> new SingleCharGenerator(seed);
         };
     }
 
-    public static class SequentialPrefixGenerator extends NameGenerator 
+    protected static long mix(long z) 
     {
-        private int classCounter = 1;
-        private int methodCounter = 1;
-        private int fieldCounter = 1;
-        private int variableCounter = 1;
-        private int packageCounter = 1;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 
-        @Override
-        public String generateClassName() 
-        {
-            String name;
-            do {
-                name = "a" + classCounter++;
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+    // Seeded counterpart of drawing from a Random: every character comes from a hash of (seed, kind, index, position)
+    protected String randomName(NameKind kind, long index, String chars, int firstChars, int minLength, int maxLength) 
+    {
+        long state = mix(seed ^ mix(index * GOLDEN_GAMMA + kind.ordinal()));
+        int length = minLength + (int) Long.remainderUnsigned(mix(state), maxLength - minLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            state += GOLDEN_GAMMA;
+            int bound = i == 0 ? firstChars : chars.length();
+            sb.append(chars.charAt((int) Long.remainderUnsigned(mix(state), bound)));
         }
+        return sb.toString();
+    }
 
-        @Override
-        public String generateMethodName() 
+    public static class SequentialPrefixGenerator extends NameGenerator 
+    {
+        public SequentialPrefixGenerator(long seed) 
         {
-            String name;
-            do {
-                name = "b" + methodCounter++;
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            super(seed);
         }
 
-        @Override
-        public String generateFieldName() 
+        private SequentialPrefixGenerator(SequentialPrefixGenerator parent) 
         {
-            String name;
-            do {
-                name = "c" + fieldCounter++;
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            super(parent);
         }
 
         @Override
-        public String generateVariableName() 
+        public NameGenerator partition() 
         {
-            String name;
-            do {
-                name = "d" + variableCounter++;
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            return new SequentialPrefixGenerator(this);
         }
 
         @Override
-        public String generatePackageName() 
+        protected String nameAt(NameKind kind, long index) 
         {
-            String name;
-            do {
-                name = "p" + packageCounter++;
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            String prefix = switch (kind) {
+                case CLASS -> "a";
+                case METHOD -> "b";
+                case FIELD -> "c";
+                case VARIABLE -> "d";
+                case PACKAGE -> "p";
+            };
+            return prefix + (index + 1);
         }
     }
 
     public static class SequentialAlphaGenerator extends NameGenerator 
     {
-        private int classCounter = 0;
-        private int methodCounter = 0;
-        private int fieldCounter = 0;
-        private int variableCounter = 0;
-        private int packageCounter = 0;
-
-        @Override
-        public String generateClassName() 
+        public SequentialAlphaGenerator(long seed) 
         {
-            String name;
-            do {
-                name = generateAlphaSequence(classCounter++);
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            super(seed);
         }
 
-        @Override
-        public String generateMethodName() 
+        private SequentialAlphaGenerator(SequentialAlphaGenerator parent) 
         {
-            String name;
-            do {
-                name = generateAlphaSequence(methodCounter++);
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            super(parent);
         }
 
         @Override
-        public String generateFieldName() 
+        public NameGenerator partition() 
         {
-            String name;
-            do {
-                name = generateAlphaSequence(fieldCounter++);
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            return new SequentialAlphaGenerator(this);
         }
 
         @Override
-        public String generateVariableName() 
-        {
-            String name;
-            do {
-                name = generateAlphaSequence(variableCounter++);
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
-        }
-
-        @Override
-        public String generatePackageName() 
-        {
-            String name;
-            do {
-                name = generateAlphaSequence(packageCounter++);
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
-        }
-
-        private String generateAlphaSequence(int index) 
+        protected String nameAt(NameKind kind, long index) 
         {
             StringBuilder sb = new StringBuilder();
-            int temp = index;
+            long temp = index;
             do {
                 sb.insert(0, (char) ('a' + (temp % 26)));
                 temp /= 26;
@@ -209,174 +232,183 @@ public abstract class NameGenerator
         private static final int MIN_LENGTH = 3;
         private static final int MAX_LENGTH = 8;
 
-        @Override
-        public String generateClassName() 
+        public RandomShortGenerator(long seed) 
         {
-            return generateRandomName();
+            super(seed);
         }
 
-        @Override
-        public String generateMethodName() 
+        private RandomShortGenerator(RandomShortGenerator parent) 
         {
-            return generateRandomName();
+            super(parent);
         }
 
         @Override
-        public String generateFieldName() 
+        public NameGenerator partition() 
         {
-            return generateRandomName();
+            return new RandomShortGenerator(this);
         }
 
         @Override
-        public String generateVariableName() 
+        protected String nameAt(NameKind kind, long index) 
+        {
+            return randomName(kind, index, CHARS, CHARS.length(), MIN_LENGTH, MAX_LENGTH);
+        }
+    }
+
+    public static class RandomLongGenerator extends NameGenerator 
+    {
+        private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_$";
+        private static final int MIN_LENGTH = 8;
+        private static final int MAX_LENGTH = 20;
+
+        public RandomLongGenerator(long seed) 
+        {
+            super(seed);
+        }
+
+        private RandomLongGenerator(RandomLongGenerator parent) 
         {
-            return generateRandomName();
+            super(parent);
         }
 
         @Override
-        public String generatePackageName() 
+        public NameGenerator partition() 
         {
-            return generateRandomName();
+            return new RandomLongGenerator(this);
         }
 
-        private String generateRandomName() 
+        @Override
+        protected String nameAt(NameKind kind, long index) 
         {
-            String name;
-            do {
-                int length = ThreadLocalRandom.current().nextInt(MIN_LENGTH, MAX_LENGTH + 1);
-                StringBuilder sb = new StringBuilder(length);
-                for (int i = 0; i < length; i++) {
-                    sb.append(CHARS.charAt(ThreadLocalRandom.current().nextInt(CHARS.length())));
-                }
-                name = sb.toString();
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+            // Names start with one of the 52 letters
+            return randomName(kind, index, CHARS, 52, MIN_LENGTH, MAX_LENGTH);
         }
     }
 
-    public static class RandomLongGenerator extends NameGenerator 
+    // Index i is mapped to the i-th name of a keyed shuffle of all letter strings, shortest first: a Feistel
+    // network permutes the offset within each length, so names look random but can never collide
+    public static class PermutedGenerator extends NameGenerator 
     {
-        private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_$";
-        private static final int MIN_LENGTH = 8;
-        private static final int MAX_LENGTH = 20;
+        private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        private static final int MIN_LENGTH = 3;
+        private static final int MAX_LENGTH = 10;
+        private static final int ROUNDS = 4;
 
-        @Override
-        public String generateClassName() 
+        public PermutedGenerator(long seed) 
         {
-            return generateRandomName();
+            super(seed);
         }
 
-        @Override
-        public String generateMethodName() 
+        private PermutedGenerator(PermutedGenerator parent) 
         {
-            return generateRandomName();
+            super(parent);
         }
 
         @Override
-        public String generateFieldName() 
+        public NameGenerator partition() 
         {
-            return generateRandomName();
+            return new PermutedGenerator(this);
         }
 
         @Override
-        public String generateVariableName() 
+        protected boolean isCollisionFree() 
         {
-            return generateRandomName();
+            return true;
         }
 
         @Override
-        public String generatePackageName() 
+        protected String nameAt(NameKind kind, long index) 
         {
-            return generateRandomName();
+            int length = MIN_LENGTH;
+            long size = pow(CHARS.length(), length);
+            long offset = index;
+            while (offset >= size) {
+                if (length == MAX_LENGTH) {
+                    throw new IllegalStateException("Name space exhausted for " + kind);
+                }
+                offset -= size;
+                length++;
+                size *= CHARS.length();
+            }
+
+            long key = mix(seed ^ mix(((long) kind.ordinal() << 8) | length));
+            long permuted = permute(offset, size, key);
+
+            char[] name = new char[length];
+            for (int i = length - 1; i >= 0; i--) {
+                name[i] = CHARS.charAt((int) (permuted % CHARS.length()));
+                permuted /= CHARS.length();
+            }
+            return new String(name);
         }
 
-        private String generateRandomName() 
+        // Feistel network over the smallest even bit width that covers the size; values that land outside the
+        // range are fed through again (cycle walking), which keeps the mapping a bijection on [0, size)
+        private static long permute(long value, long size, long key) 
         {
-            String name;
+            int bits = 64 - Long.numberOfLeadingZeros(size - 1);
+            int halfBits = (bits + 1) / 2;
+            long halfMask = (1L << halfBits) - 1;
+
+            long result = value;
             do {
-                int length = ThreadLocalRandom.current().nextInt(MIN_LENGTH, MAX_LENGTH + 1);
-                StringBuilder sb = new StringBuilder(length);
-                
-                sb.append(CHARS.charAt(ThreadLocalRandom.current().nextInt(52)));
-                
-                for (int i = 1; i < length; i++) {
-                    sb.append(CHARS.charAt(ThreadLocalRandom.current().nextInt(CHARS.length())));
+                long left = result >>> halfBits;
+                long right = result & halfMask;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long next = left ^ (mix(key + round * GOLDEN_GAMMA + right) & halfMask);
+                    left = right;
+                    right = next;
                 }
-                name = sb.toString();
-            } while (isNameUsed(name));
-            usedNames.add(name);
-            return name;
+                result = (left << halfBits) | right;
+            } while (result >= size);
+            return result;
         }
-    }
-
-    public static class SingleCharGenerator extends NameGenerator 
-    {
-        private int classIndex = 0;
-        private int methodIndex = 0;
-        private int fieldIndex = 0;
-        private int variableIndex = 0;
-        private int packageIndex = 0;
 
-        @Override
-        public String generateClassName() 
+        private static long pow(int base, int exponent) 
         {
-            return generateSingleChar(classIndex++);
+            long result = 1;
+            for (int i = 0; i < exponent; i++) {
+                result *= base;
+            }
+            return result;
         }
+    }
 
-        @Override
-        public String generateMethodName() 
+    public static class SingleCharGenerator extends NameGenerator 
+    {
+        public SingleCharGenerator(long seed) 
         {
-            return generateSingleChar(methodIndex++);
+            super(seed);
         }
 
-        @Override
-        public String generateFieldName() 
+        private SingleCharGenerator(SingleCharGenerator parent) 
         {
-            return generateSingleChar(fieldIndex++);
+            super(parent);
         }
 
         @Override
-        public String generateVariableName() 
+        public NameGenerator partition() 
         {
-            return generateSingleChar(variableIndex++);
+            return new SingleCharGenerator(this);
         }
 
         @Override
-        public String generatePackageName() 
-        {
-            return generateSingleChar(packageIndex++);
-        }
-
-        private String generateSingleChar(int index) 
+        protected String nameAt(NameKind kind, long index) 
         {
-            String name;
-            do {
-                if (index < 26) {
-                    name = String.valueOf((char) ('a' + index));
-                } else if (index < 52) {
-                    name = String.valueOf((char) ('A' + (index - 26)));
-                } else {
-                    int cycles = (index - 52) / 52;
-                    int remainder = (index - 52) % 52;
-                    StringBuilder sb = new StringBuilder();
-                    for (int i = 0; i <= cycles; i++) {
-                        if (remainder < 26) {
-                            sb.append((char) ('a' + remainder));
-                        } else {
-                            sb.append((char) ('A' + (remainder - 26)));
-                        }
-                    }
-                    name = sb.toString();
-                }
-                if (!isNameUsed(name)) {
-                    break;
-                }
-                index++;
-            } while (true);
-            
-            usedNames.add(name);
-            return name;
+            if (index < 26) {
+                return String.valueOf((char) ('a' + index));
+            } else if (index < 52) {
+                return String.valueOf((char) ('A' + (index - 26)));
+            }
+
+            long cycles = (index - 52) / 52;
+            int remainder = (int) ((index - 52) % 52);
+            char c = remainder < 26 ? (char) ('a' + remainder) : (char) ('A' + (remainder - 26));
+            StringBuilder sb = new StringBuilder();
+            for (long i = 0; i <= cycles; i++) {
+                sb.append(c);
+            }
+            return sb.toString();
         }
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,9 @@ package net.cvs0.obfuscation;
 import net.cvs0.core.Program;
 import net.cvs0.config.ObfuscationConfig;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 public interface ObfuscationStrategy 
 {
     void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException;
@@ -12,4 +15,22 @@ public interface ObfuscationStrategy
     boolean isEnabled(ObfuscationConfig config);
     
     int getPriority();
-}
\ No newline at end of file
+
+    // Mapping kinds (including their keep rules) this strategy writes to the MappingContext
+    default Set<MappingKind> getProducedMappings()
+    {
+        return EnumSet.noneOf(MappingKind.class);
+    }
+
+    // Mapping kinds this strategy reads, and so must see complete
+    default Set<MappingKind> getConsumedMappings()
+    {
+        return EnumSet.noneOf(MappingKind.class);
+    }
+
+    // Whether the strategy adds, removes or rewrites classes or members; such strategies never overlap with another
+    default boolean mutatesProgram()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package net.cvs0.obfuscation;
+
+import net.cvs0.classfile.ProgramClass;
+
+import java.util.List;
+
+public class ProgramShard 
+{
+    private final int index;
+    private final String key;
+    private final List<ProgramClass> classes;
+    private final NameGenerator nameGenerator;
+    private final MappingBuffer mappings = new MappingBuffer();
+
+    public ProgramShard(int index, String key, List<ProgramClass> classes, NameGenerator nameGenerator) 
+    {
+        this.index = index;
+        this.key = key;
+        this.classes = classes;
+        this.nameGenerator = nameGenerator;
+    }
+
+    public int getIndex() { return index; }
+    public String getKey() { return key; }
+    public List<ProgramClass> getClasses() { return classes; }
+    public NameGenerator getNameGenerator() { return nameGenerator; }
+    public MappingBuffer getMappings() { return mappings; }
+}
@@ -0,0 +1,56 @@
+package net.cvs0.obfuscation;
+
+import java.util.*;
+
+final class ReverseMappingIndex
+{
+    private final Map<String, String> classes = new HashMap<>();
+    private final Map<String, Map<String, List<MemberReference>>> fieldsByOwner = new HashMap<>();
+    private final Map<String, Map<String, List<MemberReference>>> methodsByOwner = new HashMap<>();
+
+    ReverseMappingIndex(MappingContext mappingContext)
+    {
+        mappingContext.forEachClassMapping((originalName, obfuscatedName) -> classes.put(obfuscatedName, originalName));
+
+        // Members are grouped under the obfuscated owner, since the same short name is reused across unrelated classes
+        mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) ->
+            add(fieldsByOwner, mappingContext.getObfuscatedClassName(owner), obfuscatedName,
+                new MemberReference(owner, name, descriptor)));
+        mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) ->
+            add(methodsByOwner, mappingContext.getObfuscatedClassName(owner), obfuscatedName,
+                new MemberReference(owner, name, descriptor)));
+    }
+
+    String findClass(String obfuscatedName)
+    {
+        return classes.get(obfuscatedName);
+    }
+
+    List<MemberReference> findFields(String obfuscatedOwner, String obfuscatedName)
+    {
+        return find(fieldsByOwner, obfuscatedOwner, obfuscatedName);
+    }
+
+    List<MemberReference> findMethods(String obfuscatedOwner, String obfuscatedName)
+    {
+        return find(methodsByOwner, obfuscatedOwner, obfuscatedName);
+    }
+
+    private static void add(Map<String, Map<String, List<MemberReference>>> index, String obfuscatedOwner,
+                            String obfuscatedName, MemberReference original)
+    {
+        index.computeIfAbsent(obfuscatedOwner, k -> new HashMap<>())
+             .computeIfAbsent(obfuscatedName, k -> new ArrayList<>(1))
+             .add(original);
+    }
+
+    private static List<MemberReference> find(Map<String, Map<String, List<MemberReference>>> index,
+                                              String obfuscatedOwner, String obfuscatedName)
+    {
+        Map<String, List<MemberReference>> members = index.get(obfuscatedOwner);
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(members.getOrDefault(obfuscatedName, Collections.emptyList()));
+    }
+}
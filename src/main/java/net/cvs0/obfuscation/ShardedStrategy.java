@@ -0,0 +1,26 @@
+package net.cvs0.obfuscation;
+
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.Program;
+
+public interface ShardedStrategy extends ObfuscationStrategy 
+{
+    enum Partitioning 
+    {
+        // Classes of one package stay together; enough for strategies that only look at a single class
+        PACKAGE,
+        // Classes linked by extends/implements stay together, so member names never clash along a hierarchy
+        HIERARCHY
+    }
+
+    Partitioning getPartitioning();
+
+    // Runs once, before any shard, for global setup such as keep rules and reserved names
+    void prepareShards(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException;
+
+    // Called once per run; every shard draws from its own partition of this generator
+    NameGenerator createNameGenerator(ObfuscationConfig config);
+
+    // Runs concurrently with other shards; mappings go to the shard's buffer, never straight to the context
+    void obfuscateShard(ProgramShard shard, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException;
+}
@@ -0,0 +1,63 @@
+package net.cvs0.obfuscation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SymbolTable
+{
+    public static final int NO_SYMBOL = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[1024];
+    private int nextId = 1;
+
+    public int intern(String symbol)
+    {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(symbol);
+            if (id != null) {
+                return id;
+            }
+
+            int newId = nextId++;
+
+            String[] current = symbols;
+            if (newId >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[newId] = symbol;
+            // Publish the array before the id so readers that see the id also see the symbol
+            symbols = current;
+            ids.put(symbol, newId);
+            return newId;
+        }
+    }
+
+    public int find(String symbol)
+    {
+        Integer id = ids.get(symbol);
+        return id != null ? id : NO_SYMBOL;
+    }
+
+    public String get(int id)
+    {
+        return symbols[id];
+    }
+
+    public int size()
+    {
+        return ids.size();
+    }
+
+    public synchronized void clear()
+    {
+        ids.clear();
+        symbols = new String[1024];
+        nextId = 1;
+    }
+}
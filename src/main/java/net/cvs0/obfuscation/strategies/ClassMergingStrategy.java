@@ -0,0 +1,586 @@
+package net.cvs0.obfuscation.strategies;
+
+import net.cvs0.classfile.*;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.ClassMergePlan;
+import net.cvs0.core.ClassMergePlan.Merge;
+import net.cvs0.core.ClassMergePlan.MergeKind;
+import net.cvs0.core.LibraryClass;
+import net.cvs0.core.Program;
+import net.cvs0.obfuscation.*;
+import net.cvs0.utils.Logger;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Folds classes into others so fewer of them have to be loaded: an interface with a single implementation into
+// that class, an abstract class with a single subclass into the subclass, and small classes of static helpers into
+// one per package. Runs before any renaming, which then names the members a merged class brought along together with
+// the ones of the class they joined. The ClassMerger makes every reference to a merged class name that class instead
+public class ClassMergingStrategy implements ObfuscationStrategy
+{
+    private static final int PRIORITY = 50;
+    private static final int UTILITY_CLASS_METHOD_LIMIT = 16;
+    private static final int MERGED_UTILITY_METHOD_LIMIT = 64;
+    // aload_0, invokespecial and return: a constructor that only calls the one of its superclass
+    private static final int EMPTY_CONSTRUCTOR_SIZE = 3;
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RECORD = "java/lang/Record";
+    private static final String SERIALIZABLE = "java/io/Serializable";
+    private static final Set<String> LAUNCH_METHODS = Set.of("main", "premain", "agentmain");
+
+    private final Map<String, Boolean> serializableClasses = new HashMap<>();
+
+    @Override
+    public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException
+    {
+        Logger.info("Starting class merging...");
+
+        serializableClasses.clear();
+        Set<String> keptClasses = collectKeptClasses(program, config);
+        Set<String> pinnedClasses = collectPinnedClasses(program);
+        Set<String> constructedClasses = collectConstructedClasses(program);
+
+        List<ProgramClass> classes = new ArrayList<>(program.getAllClasses());
+        classes.sort(Comparator.comparing(ProgramClass::getName));
+
+        Map<String, String> targets = new LinkedHashMap<>();
+        Map<String, MergeKind> kinds = new HashMap<>();
+        Map<String, Set<String>> targetMembers = new HashMap<>();
+        Set<String> involved = new HashSet<>();
+
+        for (ProgramClass cls : classes) {
+            if (!cls.isInterface() || involved.contains(cls.getName())) {
+                continue;
+            }
+            Set<String> implementors = program.getImplementors(cls.getName());
+            ProgramClass target = implementors.size() == 1 ? program.getClass(implementors.iterator().next()) : null;
+            if (target != null && !target.isInterface() && !involved.contains(target.getName()) &&
+                canMerge(program, cls, target, MergeKind.INTERFACE, keptClasses, pinnedClasses, mappingContext, targetMembers)) {
+                addMerge(cls, target, MergeKind.INTERFACE, targets, kinds, involved);
+            }
+        }
+
+        for (ProgramClass cls : classes) {
+            if (cls.isInterface() || !cls.isAbstract() || involved.contains(cls.getName()) || involved.contains(cls.getSuperName())) {
+                continue;
+            }
+            Set<String> subclasses = program.getSubclasses(cls.getName());
+            ProgramClass target = subclasses.size() == 1 ? program.getClass(subclasses.iterator().next()) : null;
+            if (target != null && !target.isInterface() && !involved.contains(target.getName()) && hasEmptyConstructor(cls) &&
+                canMerge(program, cls, target, MergeKind.SUPERCLASS, keptClasses, pinnedClasses, mappingContext, targetMembers)) {
+                addMerge(cls, target, MergeKind.SUPERCLASS, targets, kinds, involved);
+            }
+        }
+
+        // Each package's helper classes go into the first of them, until that one holds enough methods
+        Map<String, List<ProgramClass>> utilityClasses = new TreeMap<>();
+        for (ProgramClass cls : classes) {
+            if (!involved.contains(cls.getName()) && !keptClasses.contains(cls.getName()) &&
+                isUtilityClass(program, cls, constructedClasses)) {
+                utilityClasses.computeIfAbsent(cls.getPackageName(), k -> new ArrayList<>()).add(cls);
+            }
+        }
+        for (List<ProgramClass> packageClasses : utilityClasses.values()) {
+            ProgramClass target = null;
+            int methodCount = 0;
+            for (ProgramClass cls : packageClasses) {
+                int classMethodCount = countStaticMethods(cls);
+                if (target == null || methodCount + classMethodCount > MERGED_UTILITY_METHOD_LIMIT) {
+                    target = cls;
+                    methodCount = classMethodCount;
+                } else if (canMerge(program, cls, target, MergeKind.UTILITY, keptClasses, pinnedClasses, mappingContext, targetMembers)) {
+                    addMerge(cls, target, MergeKind.UTILITY, targets, kinds, involved);
+                    methodCount += classMethodCount;
+                }
+            }
+        }
+
+        dropCollidingMerges(program, targets);
+
+        Map<String, Merge> merges = applyMerges(program, targets, kinds, config);
+        program.setClassMergePlan(new ClassMergePlan(merges));
+
+        Map<MergeKind, Integer> counts = new EnumMap<>(MergeKind.class);
+        for (Merge merge : merges.values()) {
+            counts.merge(merge.getKind(), 1, Integer::sum);
+        }
+        Logger.info("Class merging completed. Merged " + merges.size() + " classes into " + new HashSet<>(targets.values()).size() +
+                   " (" + counts.getOrDefault(MergeKind.INTERFACE, 0) + " interfaces, " +
+                   counts.getOrDefault(MergeKind.SUPERCLASS, 0) + " superclasses, " +
+                   counts.getOrDefault(MergeKind.UTILITY, 0) + " utility classes)");
+    }
+
+    private void addMerge(ProgramClass source, ProgramClass target, MergeKind kind, Map<String, String> targets,
+                          Map<String, MergeKind> kinds, Set<String> involved)
+    {
+        targets.put(source.getName(), target.getName());
+        kinds.put(source.getName(), kind);
+        involved.add(source.getName());
+        involved.add(target.getName());
+    }
+
+    private boolean canMerge(Program program, ProgramClass source, ProgramClass target, MergeKind kind, Set<String> keptClasses,
+                             Set<String> pinnedClasses, MappingContext mappingContext, Map<String, Set<String>> targetMembers)
+    {
+        if (!isMovable(program, source, keptClasses, pinnedClasses, mappingContext) || keptClasses.contains(target.getName()) ||
+            target.isAnnotation() || (target.getAccess() & Opcodes.ACC_MODULE) != 0 || isSerializable(program, target.getName())) {
+            return false;
+        }
+
+        // The moved code keeps its package access and bytecode level, and whoever could see the class sees the target
+        if (!target.getPackageName().equals(source.getPackageName()) || (source.isPublic() && !target.isPublic()) ||
+            (target.getVersion() & 0xFFFF) < (source.getVersion() & 0xFFFF)) {
+            return false;
+        }
+
+        // A signature naming the class would name the target as its own supertype
+        if (kind != MergeKind.UTILITY && target.getSignature() != null) {
+            return false;
+        }
+
+        // Static members now initialize the target, which must have nothing to run when they do
+        if (hasStaticMembers(source) && target.findMethod("<clinit>", "()V") != null) {
+            return false;
+        }
+
+        Set<String> members = targetMembers.computeIfAbsent(target.getName(), k -> collectMemberKeys(target));
+        Set<String> added = new HashSet<>();
+        for (ProgramField field : source.getFields()) {
+            if (members.contains(field.getName() + ":" + field.getDescriptor())) {
+                return false;
+            }
+            added.add(field.getName() + ":" + field.getDescriptor());
+        }
+        for (ProgramMethod method : source.getMethods()) {
+            if (method.isConstructor()) {
+                continue;
+            }
+            // An abstract method the target implements is left out; one it does not is only allowed if the target is
+            // abstract itself and can take it over
+            String key = method.getName() + method.getDescriptor();
+            if (members.contains(key) ? !method.isAbstract() : method.isAbstract() && !target.isAbstract()) {
+                return false;
+            }
+            // A class takes a method from its superclasses over an interface default, so a default that joins the
+            // class must not meet one there
+            if (kind == MergeKind.INTERFACE && !method.isAbstract() && !method.isStatic() && !method.isPrivate() &&
+                isDeclaredInSuperclasses(program, target.getSuperName(), method.getName(), method.getDescriptor())) {
+                return false;
+            }
+            added.add(key);
+        }
+        members.addAll(added);
+        return true;
+    }
+
+    private boolean isDeclaredInSuperclasses(Program program, String className, String name, String descriptor)
+    {
+        Set<String> visited = new HashSet<>();
+        while (className != null && visited.add(className)) {
+            ProgramClass programClass = program.getClass(className);
+            if (programClass != null) {
+                if (programClass.findMethod(name, descriptor) != null) {
+                    return true;
+                }
+                className = programClass.getSuperName();
+                continue;
+            }
+
+            // A superclass that cannot be looked at might declare anything
+            LibraryClass libraryClass = program.getLibraryClassPool().findClass(className);
+            if (libraryClass == null) {
+                return true;
+            }
+            for (LibraryClass.Member method : libraryClass.getMethods()) {
+                if (method.getName().equals(name) && method.getDescriptor().equals(descriptor)) {
+                    return true;
+                }
+            }
+            className = libraryClass.getSuperName();
+        }
+        return false;
+    }
+
+    // What the class is, its name and its members may all disappear into another class
+    private boolean isMovable(Program program, ProgramClass source, Set<String> keptClasses, Set<String> pinnedClasses,
+                              MappingContext mappingContext)
+    {
+        String name = source.getName();
+        if (keptClasses.contains(name) || pinnedClasses.contains(name) || mappingContext.hasClassMapping(name) ||
+            source.isAnnotation() || source.isEnum() || (source.getAccess() & Opcodes.ACC_MODULE) != 0 ||
+            RECORD.equals(source.getSuperName()) || source.getSignature() != null || !source.getAnnotations().isEmpty()) {
+            return false;
+        }
+
+        // Nested classes reach into their outer class and back through the nest, which only knows them by name
+        if (source.isInnerClass() || !program.getInnerClasses(name).isEmpty() || isSerializable(program, name)) {
+            return false;
+        }
+
+        // Names an applied mapping gave its members belong to the class, not to the one it would join
+        for (ProgramField field : source.getFields()) {
+            if (mappingContext.hasFieldMapping(name, field.getName(), field.getDescriptor())) {
+                return false;
+            }
+        }
+        for (ProgramMethod method : source.getMethods()) {
+            if (method.isStaticInitializer() || method.isNative() ||
+                (method.isStatic() && method.isPublic() && LAUNCH_METHODS.contains(method.getName())) ||
+                mappingContext.hasMethodMapping(name, method.getName(), method.getDescriptor())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasEmptyConstructor(ProgramClass cls)
+    {
+        List<ProgramMethod> constructors = new ArrayList<>();
+        for (ProgramMethod method : cls.getMethods()) {
+            if (method.isConstructor()) {
+                constructors.add(method);
+            }
+        }
+        if (constructors.size() != 1) {
+            return false;
+        }
+        ProgramMethod constructor = constructors.get(0);
+        return constructor.getDescriptor().equals("()V") && constructor.getInstructionCount() == EMPTY_CONSTRUCTOR_SIZE &&
+               constructor.getMethodCalls().equals(List.of(cls.getSuperName() + ".<init>()V")) &&
+               constructor.getFieldAccesses().isEmpty();
+    }
+
+    // Static methods and constants only, in a class nothing creates or extends
+    private boolean isUtilityClass(Program program, ProgramClass cls, Set<String> constructedClasses)
+    {
+        if (cls.isInterface() || cls.isAnnotation() || cls.isEnum() || !OBJECT.equals(cls.getSuperName()) || cls.hasInterfaces() ||
+            constructedClasses.contains(cls.getName()) || !program.getSubclasses(cls.getName()).isEmpty()) {
+            return false;
+        }
+        for (ProgramField field : cls.getFields()) {
+            if (!field.isStatic() || !field.isFinal()) {
+                return false;
+            }
+        }
+        for (ProgramMethod method : cls.getMethods()) {
+            if (!method.isConstructor() && (!method.isStatic() || method.isStaticInitializer())) {
+                return false;
+            }
+        }
+        int methodCount = countStaticMethods(cls);
+        return methodCount > 0 && methodCount <= UTILITY_CLASS_METHOD_LIMIT;
+    }
+
+    private int countStaticMethods(ProgramClass cls)
+    {
+        int count = 0;
+        for (ProgramMethod method : cls.getMethods()) {
+            if (method.isStatic()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean hasStaticMembers(ProgramClass cls)
+    {
+        for (ProgramField field : cls.getFields()) {
+            if (field.isStatic()) {
+                return true;
+            }
+        }
+        for (ProgramMethod method : cls.getMethods()) {
+            if (method.isStatic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> collectMemberKeys(ProgramClass cls)
+    {
+        Set<String> keys = new HashSet<>();
+        for (ProgramField field : cls.getFields()) {
+            keys.add(field.getName() + ":" + field.getDescriptor());
+        }
+        for (ProgramMethod method : cls.getMethods()) {
+            keys.add(method.getName() + method.getDescriptor());
+        }
+        return keys;
+    }
+
+    // Two descriptors that only differ in a merged class and its target would become one. Renaming may give the
+    // methods or fields behind them the same name wherever they are, so the merges involved are dropped
+    private void dropCollidingMerges(Program program, Map<String, String> targets)
+    {
+        Set<String> methodDescriptors = new TreeSet<>();
+        Set<String> fieldDescriptors = new TreeSet<>();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                methodDescriptors.add(method.getDescriptor());
+            }
+            for (ProgramField field : cls.getFields()) {
+                fieldDescriptors.add(field.getDescriptor());
+            }
+        }
+
+        boolean collided = true;
+        while (collided && !targets.isEmpty()) {
+            Remapper remapper = new SimpleRemapper(targets);
+            String[] collision = findCollision(methodDescriptors, remapper::mapMethodDesc);
+            if (collision == null) {
+                collision = findCollision(fieldDescriptors, remapper::mapDesc);
+            }
+            collided = collision != null;
+            if (collided) {
+                String[] descriptors = collision;
+                targets.keySet().removeIf(source -> descriptors[0].contains("L" + source + ";") ||
+                                                    descriptors[1].contains("L" + source + ";"));
+            }
+        }
+    }
+
+    private String[] findCollision(Set<String> descriptors, java.util.function.UnaryOperator<String> mapping)
+    {
+        Map<String, String> mapped = new HashMap<>();
+        for (String descriptor : descriptors) {
+            String previous = mapped.putIfAbsent(mapping.apply(descriptor), descriptor);
+            if (previous != null) {
+                return new String[] { previous, descriptor };
+            }
+        }
+        return null;
+    }
+
+    // Moves the members of every merged class into its target, whose supertypes take the place of the merged class
+    private Map<String, Merge> applyMerges(Program program, Map<String, String> targets, Map<String, MergeKind> kinds,
+                                           ObfuscationConfig config)
+    {
+        Map<String, List<String>> sourcesByTarget = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : targets.entrySet()) {
+            sourcesByTarget.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        Map<String, Merge> merges = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : sourcesByTarget.entrySet()) {
+            ProgramClass target = program.getClass(entry.getKey());
+            List<ProgramClass> sources = new ArrayList<>();
+            String superName = target.getSuperName();
+            List<String> interfaces = new ArrayList<>(Arrays.asList(target.getInterfaces()));
+
+            for (String sourceName : entry.getValue()) {
+                ProgramClass source = program.getClass(sourceName);
+                sources.add(source);
+                if (kinds.get(sourceName) == MergeKind.INTERFACE) {
+                    interfaces.remove(sourceName);
+                } else if (kinds.get(sourceName) == MergeKind.SUPERCLASS) {
+                    superName = source.getSuperName();
+                }
+                for (String interfaceName : source.getInterfaces()) {
+                    if (!interfaces.contains(interfaceName)) {
+                        interfaces.add(interfaceName);
+                    }
+                }
+            }
+
+            ProgramClass merged = new ProgramClass(target.getVersion(), target.getAccess(), target.getName(), target.getSignature(),
+                                                   superName, interfaces.toArray(new String[0]));
+            target.getAttributes().forEach(merged::addAttribute);
+            target.getAnnotations().forEach(merged::addAnnotation);
+            target.getFields().forEach(merged::addField);
+            target.getMethods().forEach(merged::addMethod);
+
+            for (ProgramClass source : sources) {
+                Set<String> members = new LinkedHashSet<>();
+                for (ProgramField field : source.getFields()) {
+                    merged.addField(field);
+                    members.add(field.getName() + ":" + field.getDescriptor());
+                }
+                for (ProgramMethod method : source.getMethods()) {
+                    if (method.isConstructor()) {
+                        continue;
+                    }
+                    members.add(method.getName() + method.getDescriptor());
+                    if (merged.findMethod(method.getName(), method.getDescriptor()) == null) {
+                        merged.addMethod(method);
+                    }
+                }
+
+                MergeKind kind = kinds.get(source.getName());
+                merges.put(source.getName(), new Merge(target.getName(), kind, members));
+                program.removeClass(source.getName());
+                if (config.isVerbose()) {
+                    Logger.debug("Merged " + kind.name().toLowerCase() + " " + source.getName() + " into " + target.getName());
+                }
+            }
+            program.replaceClass(merged);
+        }
+        return merges;
+    }
+
+    // Keep rules only reach the mapping context once renaming starts, so they are read from the configuration
+    private Set<String> collectKeptClasses(Program program, ObfuscationConfig config)
+    {
+        Set<String> kept = new HashSet<>(config.getKeepClasses());
+        kept.addAll(config.getCustomMappings().keySet());
+        if (config.getMainClass() != null) {
+            kept.add(config.getMainClass().replace('.', '/'));
+        }
+        for (String keepMethod : config.getKeepMethods()) {
+            int dotIndex = keepMethod.indexOf('.');
+            if (dotIndex > 0) {
+                kept.add(keepMethod.substring(0, dotIndex));
+            }
+        }
+        for (String keepField : config.getKeepFields()) {
+            int dotIndex = keepField.indexOf('.');
+            if (dotIndex > 0) {
+                kept.add(keepField.substring(0, dotIndex));
+            }
+        }
+
+        List<String> patterns = new ArrayList<>(config.getKeepClassPatterns());
+        patterns.addAll(config.getKeepMethodsInClassPatterns());
+        for (String pattern : patterns) {
+            try {
+                Pattern regex = Pattern.compile(pattern);
+                for (ProgramClass cls : program.getAllClasses()) {
+                    if (regex.matcher(cls.getName()).matches()) {
+                        kept.add(cls.getName());
+                    }
+                }
+            } catch (PatternSyntaxException e) {
+                // Reported by the config validator
+            }
+        }
+        return kept;
+    }
+
+    // Classes the program depends on being exactly themselves: ones it holds as Class objects or looks up by name,
+    // ones a lambda implements, ones annotations point at, entry points, and anything a class left out of the
+    // program refers to
+    private Set<String> collectPinnedClasses(Program program)
+    {
+        Set<String> pinned = new HashSet<>(program.getEntryPoints());
+        pinned.addAll(program.getExternalReferences());
+        for (ProgramClass cls : program.getAllClasses()) {
+            collectAnnotationTypes(cls.getAnnotations(), pinned);
+            for (ProgramField field : cls.getFields()) {
+                collectAnnotationTypes(field.getAnnotations(), pinned);
+            }
+            for (ProgramMethod method : cls.getMethods()) {
+                collectAnnotationTypes(method.getAnnotations(), pinned);
+                pinned.addAll(method.getClassLiterals());
+                pinned.addAll(method.getLambdaTypes());
+                for (String constant : method.getStringConstants()) {
+                    pinned.add(constant.replace('.', '/'));
+                }
+            }
+        }
+        return pinned;
+    }
+
+    private void collectAnnotationTypes(Map<String, Object> annotations, Set<String> pinned)
+    {
+        for (Object values : annotations.values()) {
+            if (!(values instanceof Map)) {
+                continue;
+            }
+            for (Object value : ((Map<?, ?>) values).values()) {
+                if (value instanceof Type && ((Type) value).getSort() == Type.OBJECT) {
+                    pinned.add(((Type) value).getInternalName());
+                }
+            }
+        }
+    }
+
+    private Set<String> collectConstructedClasses(Program program)
+    {
+        Set<String> constructed = new HashSet<>();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                for (String call : method.getMethodCalls()) {
+                    int dotIndex = call.indexOf('.');
+                    if (call.startsWith("<init>(", dotIndex + 1)) {
+                        constructed.add(call.substring(0, dotIndex));
+                    }
+                }
+            }
+        }
+        return constructed;
+    }
+
+    private boolean isSerializable(Program program, String className)
+    {
+        if (className == null) {
+            return false;
+        }
+        if (className.equals(SERIALIZABLE)) {
+            return true;
+        }
+        Boolean cached = serializableClasses.get(className);
+        if (cached != null) {
+            return cached;
+        }
+        serializableClasses.put(className, false);
+
+        String superName;
+        String[] interfaces;
+        ProgramClass programClass = program.getClass(className);
+        if (programClass != null) {
+            superName = programClass.getSuperName();
+            interfaces = programClass.getInterfaces();
+        } else {
+            LibraryClass libraryClass = program.getLibraryClassPool().findClass(className);
+            if (libraryClass == null) {
+                return false;
+            }
+            superName = libraryClass.getSuperName();
+            interfaces = libraryClass.getInterfaces();
+        }
+
+        boolean serializable = isSerializable(program, superName);
+        for (int i = 0; i < interfaces.length && !serializable; i++) {
+            serializable = isSerializable(program, interfaces[i]);
+        }
+        serializableClasses.put(className, serializable);
+        return serializable;
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings()
+    {
+        return EnumSet.of(MappingKind.CLASS);
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return PRIORITY;
+    }
+
+    @Override
+    public boolean mutatesProgram()
+    {
+        return true;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Class Merging";
+    }
+
+    // An incremental run reuses the output of unchanged classes, which a merge would tie to the classes merged in
+    @Override
+    public boolean isEnabled(ObfuscationConfig config)
+    {
+        return config.isMergeClasses() && config.getIncrementalCacheDir() == null;
+    }
+}
@@ -2,7 +2,10 @@ package net.cvs0.obfuscation.strategies;
 
 import net.cvs0.classfile.ProgramClass;
 import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.LibraryClassPool;
 import net.cvs0.core.Program;
+import net.cvs0.core.ReferenceCounts;
+import net.cvs0.mapping.MappingFile;
 import net.cvs0.obfuscation.*;
 import net.cvs0.utils.Logger;
 
@@ -13,6 +16,8 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
 {
     private static final int PRIORITY = 100;
     private NameGenerator nameGenerator;
+    private LibraryClassPool libraryClassPool;
+    private MappingFile appliedMapping;
 
     @Override
     public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException 
@@ -21,7 +26,10 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
             Logger.info("Starting class renaming obfuscation...");
         }
 
-        nameGenerator = NameGenerator.createGenerator(config.getNamingMode());
+        nameGenerator = NameGenerator.createGenerator(config.getNamingMode(), config.getNamingSeed());
+        libraryClassPool = program.getLibraryClassPool();
+        appliedMapping = program.getAppliedMapping();
+        reserveExistingMappings(program, mappingContext);
         initializeKeepRules(program, config, mappingContext);
 
         List<ProgramClass> classesToRename = identifyClassesToRename(program, config, mappingContext);
@@ -30,12 +38,24 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
             Logger.info("Found " + classesToRename.size() + " classes to rename");
         }
 
-        Map<String, String> packageMappings = createPackageMappings(classesToRename, config);
-        renameClasses(classesToRename, packageMappings, mappingContext, config);
+        Map<String, String> packageMappings = createPackageMappings(classesToRename, config, mappingContext);
+        renameClasses(program, classesToRename, packageMappings, mappingContext, config);
 
         if (config.isVerbose()) {
             Logger.info("Class renaming completed. Renamed " + 
-                      mappingContext.getAllClassMappings().size() + " classes");
+                      mappingContext.getClassMappingCount() + " classes");
+        }
+    }
+
+    private void reserveExistingMappings(Program program, MappingContext mappingContext) 
+    {
+        mappingContext.forEachClassMapping((originalName, obfuscatedName) ->
+            nameGenerator.addReservedName(obfuscatedName.substring(obfuscatedName.lastIndexOf('/') + 1)));
+        for (ProgramClass cls : program.getAllClasses()) {
+            String preferredName = appliedMapping.getObfuscatedClassName(cls.getName());
+            if (preferredName != null) {
+                nameGenerator.addReservedName(preferredName.substring(preferredName.lastIndexOf('/') + 1));
+            }
         }
     }
 
@@ -125,7 +145,15 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
             Logger.debug("Total classes in program: " + totalClasses);
         }
 
+        ReferenceCounts referenceCounts = config.isRankNamesByUsage() ? program.getReferenceCounts() : null;
         classesToRename.sort((c1, c2) -> {
+            if (referenceCounts != null) {
+                // Most referenced first, so they draw the shortest names
+                int usageCompare = Integer.compare(referenceCounts.getClassCount(c2.getName()), referenceCounts.getClassCount(c1.getName()));
+                if (usageCompare != 0) {
+                    return usageCompare;
+                }
+            }
             int depthCompare = Integer.compare(getClassDepth(c1.getName()), getClassDepth(c2.getName()));
             if (depthCompare != 0) {
                 return depthCompare;
@@ -222,10 +250,35 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
         return true;
     }
 
-    private Map<String, String> createPackageMappings(List<ProgramClass> classesToRename, ObfuscationConfig config) 
+    private Map<String, String> createPackageMappings(List<ProgramClass> classesToRename, ObfuscationConfig config,
+                                                     MappingContext mappingContext) 
     {
         Map<String, String> packageMappings = new HashMap<>();
-        Set<String> packages = new HashSet<>();
+        Set<String> packages = new LinkedHashSet<>();
+
+        // Classes that already have a name (from the incremental cache or a custom mapping) fix where their
+        // package went; new classes have to join them there or package-private access breaks between them
+        if (config.getObfuscationLevel().ordinal() >= 2) {
+            mappingContext.forEachClassMapping((originalName, obfuscatedName) -> {
+                String obfuscatedPackage = getPackageName(obfuscatedName);
+                packageMappings.putIfAbsent(getPackageName(originalName), obfuscatedPackage);
+                for (String part : obfuscatedPackage.split("\\.")) {
+                    nameGenerator.addReservedName(part);
+                }
+            });
+        }
+
+        // So do the names an applied mapping gives, at any level, since the classes are going to take them
+        for (ProgramClass cls : classesToRename) {
+            String preferredName = appliedMapping.getObfuscatedClassName(cls.getName());
+            if (preferredName != null) {
+                String obfuscatedPackage = getPackageName(preferredName);
+                packageMappings.putIfAbsent(cls.getPackageName(), obfuscatedPackage);
+                for (String part : obfuscatedPackage.split("\\.")) {
+                    nameGenerator.addReservedName(part);
+                }
+            }
+        }
 
         for (ProgramClass cls : classesToRename) {
             String packageName = cls.getPackageName();
@@ -267,12 +320,30 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
         return obfuscatedPackage.toString();
     }
 
-    private void renameClasses(List<ProgramClass> classesToRename, Map<String, String> packageMappings, 
+    private void renameClasses(Program program, List<ProgramClass> classesToRename, Map<String, String> packageMappings, 
                               MappingContext mappingContext, ObfuscationConfig config) 
     {
+        // A name from the applied mapping is only taken while no class that keeps or already has its name holds it
+        Set<String> takenNames = new HashSet<>(mappingContext.getAllClassMappings().values());
+        Set<ProgramClass> renamed = new HashSet<>(classesToRename);
+        for (ProgramClass cls : program.getAllClasses()) {
+            if (!renamed.contains(cls) && !mappingContext.hasClassMapping(cls.getName())) {
+                takenNames.add(cls.getName());
+            }
+        }
+
+        // Simple names only have to be unique within a package, so when ranking every package starts from the
+        // shortest names again
+        Map<String, NameGenerator> packageGenerators = new HashMap<>();
         for (ProgramClass cls : classesToRename) {
             String originalName = cls.getName();
-            String obfuscatedName = generateObfuscatedClassName(cls, packageMappings, config);
+            NameGenerator generator = config.isRankNamesByUsage() ?
+                packageGenerators.computeIfAbsent(packageMappings.getOrDefault(cls.getPackageName(), cls.getPackageName()), k -> nameGenerator.partition()) :
+                nameGenerator;
+            String obfuscatedName = appliedMapping.getObfuscatedClassName(originalName);
+            if (obfuscatedName == null || !takenNames.add(obfuscatedName)) {
+                obfuscatedName = generateObfuscatedClassName(cls, packageMappings, generator, config);
+            }
             
             mappingContext.mapClass(originalName, obfuscatedName);
             
@@ -282,7 +353,8 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
         }
     }
 
-    private String generateObfuscatedClassName(ProgramClass cls, Map<String, String> packageMappings, ObfuscationConfig config) 
+    private String generateObfuscatedClassName(ProgramClass cls, Map<String, String> packageMappings, NameGenerator generator, 
+                                               ObfuscationConfig config) 
     {
         String originalName = cls.getName();
         String packageName = cls.getPackageName();
@@ -292,9 +364,9 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
         String obfuscatedSimpleName;
 
         if (cls.isInnerClass()) {
-            obfuscatedSimpleName = generateInnerClassName(originalName, config);
+            obfuscatedSimpleName = generateInnerClassName(originalName, generator, config);
         } else {
-            obfuscatedSimpleName = nameGenerator.generateClassName();
+            obfuscatedSimpleName = generator.generateClassName();
         }
 
         String result;
@@ -313,19 +385,25 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
         return result;
     }
 
-    private String generateInnerClassName(String originalName, ObfuscationConfig config) 
+    private String generateInnerClassName(String originalName, NameGenerator generator, ObfuscationConfig config) 
     {
         if (config.getObfuscationLevel().ordinal() < 2) {
             int lastDollar = originalName.lastIndexOf('$');
             if (lastDollar > 0) {
                 String innerPart = originalName.substring(lastDollar + 1);
                 if (innerPart.matches("\\d+")) {
-                    return nameGenerator.generateClassName() + "$" + innerPart;
+                    return generator.generateClassName() + "$" + innerPart;
                 }
             }
         }
         
-        return nameGenerator.generateClassName();
+        return generator.generateClassName();
+    }
+
+    private String getPackageName(String className)
+    {
+        int lastSlash = className.lastIndexOf('/');
+        return lastSlash != -1 ? className.substring(0, lastSlash).replace('/', '.') : "";
     }
 
     private int getClassDepth(String className) 
@@ -335,6 +413,11 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
 
     private boolean isThirdPartyLibrary(String className) 
     {
+        // With library jars given, a class bundled into the input is left alone exactly when a library also has it.
+        // Without them, fall back to the well-known library packages
+        if (libraryClassPool.hasLibraryJars()) {
+            return libraryClassPool.containsClass(className);
+        }
         return className.startsWith("com/fasterxml/jackson/") ||
                className.startsWith("org/objectweb/asm/") ||
                className.startsWith("picocli/") ||
@@ -373,4 +456,22 @@ public class ClassRenamingStrategy implements ObfuscationStrategy
     {
         return PRIORITY;
     }
+
+    @Override
+    public Set<MappingKind> getProducedMappings() 
+    {
+        return EnumSet.of(MappingKind.CLASS);
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings() 
+    {
+        return EnumSet.of(MappingKind.CLASS);
+    }
+
+    @Override
+    public boolean mutatesProgram() 
+    {
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package net.cvs0.obfuscation.strategies;
+
+import net.cvs0.classfile.*;
+import net.cvs0.classfile.remappers.ControlFlowObfuscator;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.ControlFlowPlan;
+import net.cvs0.core.Program;
+import net.cvs0.obfuscation.*;
+import net.cvs0.utils.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Plans which methods the output rewrite obfuscates the control flow of. Methods a profile names as hot, with a loop,
+// or small enough to be inlined anywhere or too big to be compiled are left alone; the rest run straight through once
+// per call and are cold. The ControlFlowObfuscator does the rewriting
+public class ControlFlowStrategy implements ObfuscationStrategy
+{
+    private static final int PRIORITY = 650;
+
+    @Override
+    public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException
+    {
+        Logger.info("Starting control flow obfuscation...");
+
+        Set<String> profiledMethods = config.getControlFlowProfile() != null ?
+            readProfile(config.getControlFlowProfile()) : Collections.emptySet();
+
+        Map<String, Set<String>> methods = new TreeMap<>();
+        int coldMethods = 0;
+        int profiledHotMethods = 0;
+        int loopingHotMethods = 0;
+        int sizedHotMethods = 0;
+
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                if (!method.hasCode()) {
+                    continue;
+                }
+
+                String methodName = cls.getName() + "." + method.getName();
+                int codeSize = method.getCodeSize();
+                boolean cold = false;
+                if (profiledMethods.contains(methodName) || profiledMethods.contains(methodName + method.getDescriptor())) {
+                    profiledHotMethods++;
+                } else if (method.getLoopDepth() > 0) {
+                    loopingHotMethods++;
+                } else if (codeSize <= ControlFlowObfuscator.MAX_INLINE_SIZE || codeSize > ControlFlowObfuscator.HUGE_METHOD_LIMIT) {
+                    sizedHotMethods++;
+                } else {
+                    cold = true;
+                    coldMethods++;
+                }
+
+                if (cold) {
+                    methods.computeIfAbsent(cls.getName(), k -> new HashSet<>()).add(method.getName() + method.getDescriptor());
+                }
+            }
+        }
+
+        program.setControlFlowPlan(new ControlFlowPlan(methods));
+
+        Logger.info("Control flow obfuscation completed. Obfuscating " + coldMethods + " cold methods in " +
+                   methods.size() + " classes, left out " + profiledHotMethods + " profiled, " + loopingHotMethods +
+                   " looping and " + sizedHotMethods + " inlinable or huge methods");
+    }
+
+    // One method per line, as class.method or class.method(descriptor) with dots or slashes in the class name, which
+    // is how profilers print the hot methods they sampled. Anything after the method is ignored
+    private Set<String> readProfile(String profileFile) throws ObfuscationException
+    {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(profileFile));
+        } catch (IOException e) {
+            throw new ObfuscationException("Failed to read control flow profile: " + profileFile, e);
+        }
+
+        Set<String> methods = new HashSet<>();
+        for (String line : lines) {
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            entry = entry.split("\\s+")[0];
+
+            int parenIndex = entry.indexOf('(');
+            String name = parenIndex < 0 ? entry : entry.substring(0, parenIndex);
+            int dotIndex = name.lastIndexOf('.');
+            if (dotIndex <= 0) {
+                continue;
+            }
+            String className = name.substring(0, dotIndex).replace('.', '/');
+            String methodName = className + "." + name.substring(dotIndex + 1);
+            methods.add(parenIndex < 0 ? methodName : methodName + entry.substring(parenIndex));
+        }
+        return methods;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return PRIORITY;
+    }
+
+    @Override
+    public boolean mutatesProgram()
+    {
+        return false;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Control Flow Obfuscation";
+    }
+
+    @Override
+    public boolean isEnabled(ObfuscationConfig config)
+    {
+        return config.isObfuscateControlFlow() && config.getObfuscationLevel().includesControlFlow();
+    }
+}
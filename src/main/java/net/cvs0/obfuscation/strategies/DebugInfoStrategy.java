@@ -0,0 +1,123 @@
+package net.cvs0.obfuscation.strategies;
+
+import net.cvs0.classfile.*;
+import net.cvs0.classfile.remappers.DebugInfoStripper;
+import net.cvs0.config.LineNumberMode;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.Program;
+import net.cvs0.obfuscation.*;
+import net.cvs0.utils.Logger;
+
+import java.util.*;
+
+// Brings the program model in line with what the output rewrite strips, so the mapping file only carries line
+// ranges a stack trace can actually show. The class bytes themselves are stripped by the DebugInfoStripper
+public class DebugInfoStrategy implements ObfuscationStrategy
+{
+    private static final int PRIORITY = 600;
+
+    @Override
+    public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException
+    {
+        Logger.info("Starting debug info stripping...");
+
+        LineNumberMode lineNumberMode = config.getLineNumberMode();
+        int removedAttributes = 0;
+        int compactedClasses = 0;
+
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (Attribute attribute : cls.getAttributes()) {
+                if (attribute instanceof SourceFileAttribute) {
+                    cls.removeAttribute(attribute);
+                    if (lineNumberMode == LineNumberMode.STRIP) {
+                        removedAttributes++;
+                    } else {
+                        cls.addAttribute(new SourceFileAttribute(DebugInfoStripper.SOURCE_FILE));
+                    }
+                }
+            }
+
+            List<ProgramMethod> methods = cls.getMethods();
+            for (ProgramMethod method : methods) {
+                removedAttributes += stripMethod(method, lineNumberMode);
+            }
+
+            if (lineNumberMode == LineNumberMode.COMPACT && compactLines(methods)) {
+                compactedClasses++;
+            }
+        }
+
+        Logger.info("Debug info stripping completed. Removed " + removedAttributes + " attributes from " +
+                   program.getClassCount() + " classes, line numbers " + lineNumberMode.name().toLowerCase() +
+                   (lineNumberMode == LineNumberMode.COMPACT ? " (" + compactedClasses + " classes renumbered)" : ""));
+    }
+
+    private int stripMethod(ProgramMethod method, LineNumberMode lineNumberMode)
+    {
+        int removed = 0;
+        for (Attribute attribute : method.getAttributes()) {
+            if (attribute instanceof MethodParametersAttribute) {
+                method.removeAttribute(attribute);
+                removed++;
+            } else if (attribute instanceof CodeAttribute) {
+                CodeAttribute codeAttribute = (CodeAttribute) attribute;
+                for (Attribute codeSubAttribute : new ArrayList<>(codeAttribute.getAttributes())) {
+                    if (codeSubAttribute instanceof LocalVariableTableAttribute ||
+                        codeSubAttribute instanceof LocalVariableTypeTableAttribute ||
+                        (codeSubAttribute instanceof LineNumberTableAttribute && lineNumberMode == LineNumberMode.STRIP)) {
+                        codeAttribute.removeAttribute(codeSubAttribute);
+                        removed++;
+                    }
+                }
+            }
+        }
+
+        if (lineNumberMode == LineNumberMode.STRIP) {
+            method.clearLines();
+        }
+        return removed;
+    }
+
+    // Same numbering as the stripper applies to the output, which sees the methods in the same class file order
+    private boolean compactLines(List<ProgramMethod> methods)
+    {
+        int[] firstLines = new int[methods.size()];
+        int[] lastLines = new int[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            firstLines[i] = methods.get(i).getFirstLine();
+            lastLines[i] = methods.get(i).getLastLine();
+        }
+
+        int[] compactedFirstLines = DebugInfoStripper.compactFirstLines(firstLines, lastLines);
+        boolean compacted = false;
+        for (int i = 0; i < methods.size(); i++) {
+            methods.get(i).setCompactedFirstLine(compactedFirstLines[i]);
+            compacted |= compactedFirstLines[i] > 0;
+        }
+        return compacted;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return PRIORITY;
+    }
+
+    @Override
+    public boolean mutatesProgram()
+    {
+        return true;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Debug Info Stripping";
+    }
+
+    @Override
+    public boolean isEnabled(ObfuscationConfig config)
+    {
+        return config.isStripDebugInfo();
+    }
+}
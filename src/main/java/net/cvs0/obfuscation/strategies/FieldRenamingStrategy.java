@@ -4,16 +4,21 @@ import net.cvs0.classfile.ProgramClass;
 import net.cvs0.classfile.ProgramField;
 import net.cvs0.config.ObfuscationConfig;
 import net.cvs0.core.Program;
+import net.cvs0.core.ReferenceCounts;
+import net.cvs0.core.ShardExecutor;
+import net.cvs0.mapping.MappingFile;
 import net.cvs0.obfuscation.*;
 import net.cvs0.utils.Logger;
 
 import java.util.*;
 
-public class FieldRenamingStrategy implements ObfuscationStrategy 
+public class FieldRenamingStrategy implements ShardedStrategy 
 {
     private static final int PRIORITY = 300;
-    private NameGenerator nameGenerator;
     private final Set<String> standardFields = new HashSet<>();
+    private final Set<String> reservedNames = new HashSet<>();
+    private final Map<String, String> preferredNames = new HashMap<>();
+    private ReferenceCounts referenceCounts;
 
     public FieldRenamingStrategy() 
     {
@@ -27,15 +32,11 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
             Logger.info("Starting field renaming obfuscation...");
         }
 
-        nameGenerator = NameGenerator.createGenerator(config.getNamingMode());
-        initializeKeepRules(program, config, mappingContext);
-
-        Map<String, List<FieldInfo>> fieldGroups = groupFieldsByName(program, config, mappingContext);
-        renameFieldGroups(fieldGroups, mappingContext, config);
+        ShardExecutor.execute(this, program, config, mappingContext);
 
         if (config.isVerbose()) {
             Logger.info("Field renaming completed. Renamed " + 
-                      mappingContext.getAllFieldMappings().size() + " fields");
+                      mappingContext.getFieldMappingCount() + " fields");
         }
     }
 
@@ -46,6 +47,101 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
         ));
     }
 
+    @Override
+    public Partitioning getPartitioning() 
+    {
+        return Partitioning.HIERARCHY;
+    }
+
+    @Override
+    public void prepareShards(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        reservedNames.clear();
+        initializeKeepRules(program, config, mappingContext);
+        collectPreferredNames(program, program.getAppliedMapping());
+        reserveExistingMappings(mappingContext);
+        referenceCounts = config.isRankNamesByUsage() ? program.getReferenceCounts() : null;
+    }
+
+    @Override
+    public NameGenerator createNameGenerator(ObfuscationConfig config) 
+    {
+        NameGenerator nameGenerator = NameGenerator.createGenerator(config.getNamingMode(), config.getNamingSeed());
+        nameGenerator.addReservedNames(reservedNames);
+        return nameGenerator;
+    }
+
+    @Override
+    public void obfuscateShard(ProgramShard shard, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        Map<String, List<FieldInfo>> fieldGroups = groupFieldsByName(shard.getClasses(), config, mappingContext);
+        Map<String, String> existingGroupNames = collectExistingGroupNames(shard.getClasses(), config, mappingContext);
+        renameFieldGroups(orderFieldGroups(fieldGroups), existingGroupNames, shard.getNameGenerator(), shard.getMappings(), config);
+    }
+
+    private void reserveExistingMappings(MappingContext mappingContext) 
+    {
+        mappingContext.forEachFieldMapping((owner, name, descriptor, obfuscatedName) -> reservedNames.add(obfuscatedName));
+        reservedNames.addAll(preferredNames.values());
+    }
+
+    // Names an applied mapping gives; one that a kept field now holds is dropped, and the field draws a new one
+    private void collectPreferredNames(Program program, MappingFile appliedMapping) 
+    {
+        preferredNames.clear();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramField field : cls.getFields()) {
+                String preferredName = appliedMapping.getObfuscatedFieldName(cls.getName(), field.getName(), field.getDescriptor());
+                if (preferredName != null && !reservedNames.contains(preferredName)) {
+                    preferredNames.put(cls.getName() + "." + field.getName() + ":" + field.getDescriptor(), preferredName);
+                }
+            }
+        }
+    }
+
+    private Map<String, String> collectExistingGroupNames(List<ProgramClass> classes, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        // Mappings carried over from an earlier run keep their names, and new members of the same group follow them.
+        // Names are reused across hierarchies, so only mappings from this shard's own hierarchy may be followed
+        Map<String, String> existingGroupNames = new HashMap<>();
+        for (ProgramClass cls : classes) {
+            for (ProgramField field : cls.getFields()) {
+                if (mappingContext.hasFieldMapping(cls.getName(), field.getName(), field.getDescriptor())) {
+                    existingGroupNames.putIfAbsent(createFieldGroupKey(field), 
+                        mappingContext.getObfuscatedFieldName(cls.getName(), field.getName(), field.getDescriptor()));
+                }
+            }
+        }
+        // Then the applied mapping, for the groups nothing has named yet
+        for (ProgramClass cls : classes) {
+            for (ProgramField field : cls.getFields()) {
+                String preferredName = preferredNames.get(cls.getName() + "." + field.getName() + ":" + field.getDescriptor());
+                if (preferredName != null && shouldRenameField(cls, field, config, mappingContext)) {
+                    existingGroupNames.putIfAbsent(createFieldGroupKey(field), preferredName);
+                }
+            }
+        }
+        return existingGroupNames;
+    }
+
+    private List<Map.Entry<String, List<FieldInfo>>> orderFieldGroups(Map<String, List<FieldInfo>> fieldGroups) 
+    {
+        List<Map.Entry<String, List<FieldInfo>>> ordered = new ArrayList<>(fieldGroups.entrySet());
+        if (referenceCounts != null) {
+            Map<String, Integer> usage = new HashMap<>();
+            for (Map.Entry<String, List<FieldInfo>> entry : ordered) {
+                int count = 0;
+                for (FieldInfo fieldInfo : entry.getValue()) {
+                    count += referenceCounts.getFieldCount(fieldInfo.className, fieldInfo.field.getName(), fieldInfo.field.getDescriptor());
+                }
+                usage.put(entry.getKey(), count);
+            }
+            // Stable sort, so equally used groups keep their declaration order
+            ordered.sort((a, b) -> Integer.compare(usage.get(b.getKey()), usage.get(a.getKey())));
+        }
+        return ordered;
+    }
+
     private void initializeKeepRules(Program program, ObfuscationConfig config, MappingContext mappingContext) 
     {
         for (String keepField : config.getKeepFields()) {
@@ -59,7 +155,7 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
                     String fieldName = fieldSignature.substring(0, descriptorIndex);
                     String descriptor = fieldSignature.substring(descriptorIndex + 1);
                     mappingContext.addKeepField(className, fieldName, descriptor);
-                    nameGenerator.addReservedName(fieldName);
+                    reservedNames.add(fieldName);
                 }
             }
         }
@@ -77,7 +173,7 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
                     String obfuscatedName = config.getCustomMappings().get(customMapping);
                     
                     mappingContext.mapField(className, fieldName, descriptor, obfuscatedName);
-                    nameGenerator.addReservedName(obfuscatedName);
+                    reservedNames.add(obfuscatedName);
                 }
             }
         }
@@ -86,17 +182,17 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
             for (ProgramField field : cls.getFields()) {
                 if (isSerializationField(field)) {
                     mappingContext.addKeepField(cls.getName(), field.getName(), field.getDescriptor());
-                    nameGenerator.addReservedName(field.getName());
+                    reservedNames.add(field.getName());
                 }
             }
         }
     }
 
-    private Map<String, List<FieldInfo>> groupFieldsByName(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    private Map<String, List<FieldInfo>> groupFieldsByName(List<ProgramClass> classes, ObfuscationConfig config, MappingContext mappingContext) 
     {
-        Map<String, List<FieldInfo>> fieldGroups = new HashMap<>();
+        Map<String, List<FieldInfo>> fieldGroups = new LinkedHashMap<>();
 
-        for (ProgramClass cls : program.getAllClasses()) {
+        for (ProgramClass cls : classes) {
             for (ProgramField field : cls.getFields()) {
                 if (shouldRenameField(cls, field, config, mappingContext)) {
                     String groupKey = createFieldGroupKey(field);
@@ -214,9 +310,12 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
         return field.getName() + ":" + field.getDescriptor();
     }
 
-    private void renameFieldGroups(Map<String, List<FieldInfo>> fieldGroups, MappingContext mappingContext, ObfuscationConfig config) 
+    private void renameFieldGroups(List<Map.Entry<String, List<FieldInfo>>> fieldGroups, Map<String, String> existingGroupNames, 
+                                  NameGenerator nameGenerator, MappingBuffer mappings, ObfuscationConfig config) 
     {
-        for (Map.Entry<String, List<FieldInfo>> entry : fieldGroups.entrySet()) {
+        // Fields are resolved by name and type, so with aggressive overloading every type gets its own name space
+        Map<String, NameGenerator> descriptorGenerators = new HashMap<>();
+        for (Map.Entry<String, List<FieldInfo>> entry : fieldGroups) {
             String groupKey = entry.getKey();
             List<FieldInfo> fields = entry.getValue();
 
@@ -224,44 +323,21 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
                 continue;
             }
 
-            if (hasConflictingFieldTypes(fields)) {
-                renameFieldsIndividually(fields, mappingContext, config);
-            } else {
-                renameFieldGroup(fields, mappingContext, config);
-            }
-        }
-    }
-
-    private boolean hasConflictingFieldTypes(List<FieldInfo> fields) 
-    {
-        Set<String> descriptors = new HashSet<>();
-        for (FieldInfo fieldInfo : fields) {
-            descriptors.add(fieldInfo.field.getDescriptor());
-        }
-        return descriptors.size() > 1;
-    }
-
-    private void renameFieldsIndividually(List<FieldInfo> fields, MappingContext mappingContext, ObfuscationConfig config) 
-    {
-        for (FieldInfo fieldInfo : fields) {
-            String obfuscatedName = nameGenerator.generateFieldName();
-            mappingContext.mapField(fieldInfo.className, fieldInfo.field.getName(), 
-                                  fieldInfo.field.getDescriptor(), obfuscatedName);
-            
-            if (config.isVerbose()) {
-                Logger.debug("Mapped field (individual): " + fieldInfo.className + "." + 
-                           fieldInfo.field.getName() + " -> " + obfuscatedName);
-            }
+            NameGenerator generator = config.isAggressiveOverloading() ?
+                descriptorGenerators.computeIfAbsent(fields.get(0).field.getDescriptor(), k -> nameGenerator.partition()) :
+                nameGenerator;
+            renameFieldGroup(fields, existingGroupNames.get(groupKey), generator, mappings, config);
         }
     }
 
-    private void renameFieldGroup(List<FieldInfo> fields, MappingContext mappingContext, ObfuscationConfig config) 
+    private void renameFieldGroup(List<FieldInfo> fields, String existingName, NameGenerator nameGenerator, 
+                                  MappingBuffer mappings, ObfuscationConfig config) 
     {
-        String obfuscatedName = nameGenerator.generateFieldName();
+        String obfuscatedName = existingName != null ? existingName : nameGenerator.generateFieldName();
         
         for (FieldInfo fieldInfo : fields) {
-            mappingContext.mapField(fieldInfo.className, fieldInfo.field.getName(), 
-                                  fieldInfo.field.getDescriptor(), obfuscatedName);
+            mappings.mapField(fieldInfo.className, fieldInfo.field.getName(), 
+                              fieldInfo.field.getDescriptor(), obfuscatedName);
             
             if (config.isVerbose()) {
                 Logger.debug("Mapped field (group): " + fieldInfo.className + "." + 
@@ -288,6 +364,24 @@ public class FieldRenamingStrategy implements ObfuscationStrategy
         return PRIORITY;
     }
 
+    @Override
+    public Set<MappingKind> getProducedMappings() 
+    {
+        return EnumSet.of(MappingKind.FIELD);
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings() 
+    {
+        return EnumSet.of(MappingKind.FIELD);
+    }
+
+    @Override
+    public boolean mutatesProgram() 
+    {
+        return false;
+    }
+
     private static class FieldInfo 
     {
         final String className;
@@ -0,0 +1,249 @@
+package net.cvs0.obfuscation.strategies;
+
+import net.cvs0.classfile.*;
+import net.cvs0.classfile.remappers.MethodInliner;
+import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.InlinePlan;
+import net.cvs0.core.LibraryClass;
+import net.cvs0.core.Program;
+import net.cvs0.obfuscation.*;
+import net.cvs0.utils.Logger;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+// Plans which calls the output rewrite replaces with the body they call: short straight-line methods such as getters,
+// setters and bridges at every call in their own class, longer ones where that is their only call, and accessors at
+// the calls from the rest of their package too. Private methods left with no call are dropped from the program, so
+// the mapping and the line numbering only cover what the output keeps. The MethodInliner does the rewriting
+public class MethodInliningStrategy implements ObfuscationStrategy
+{
+    private static final int PRIORITY = 550;
+    private static final int SHARED_BODY_LIMIT = 12;
+    private static final int SINGLE_CALL_BODY_LIMIT = 256;
+    private static final int ACCESSOR_BODY_LIMIT = 8;
+    private static final Set<String> SERIALIZATION_METHODS = Set.of("writeObject", "readObject", "readObjectNoData",
+                                                                     "writeReplace", "readResolve");
+
+    @Override
+    public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException
+    {
+        Logger.info("Starting method inlining...");
+
+        // Handles name a method without calling it, so they are taken back out of the calls they were recorded with
+        Map<String, Integer> ownClassCalls = new HashMap<>();
+        Map<String, Map<String, Integer>> otherClassCalls = new HashMap<>();
+        Set<String> handleReferences = new HashSet<>();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                List<String> calls = method.getMethodCalls();
+                for (String handle : method.getMethodHandles()) {
+                    calls.remove(handle);
+                    handleReferences.add(handle);
+                }
+                for (String call : calls) {
+                    String owner = call.substring(0, call.indexOf('.'));
+                    if (owner.equals(cls.getName())) {
+                        ownClassCalls.merge(call, 1, Integer::sum);
+                    } else if (program.hasClass(owner)) {
+                        otherClassCalls.computeIfAbsent(call, k -> new TreeMap<>()).merge(cls.getName(), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+
+        Map<String, ProgramMethod> candidates = new TreeMap<>();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                if (isCandidate(program, cls, method, mappingContext)) {
+                    candidates.put(cls.getName() + "." + method.getName() + method.getDescriptor(), method);
+                }
+            }
+        }
+
+        // A copied body would carry its own calls to candidates along, and those may be gone by then
+        Set<String> excluded = new HashSet<>();
+        for (Map.Entry<String, ProgramMethod> entry : candidates.entrySet()) {
+            String owner = entry.getValue().getOwnerClass().getName();
+            for (String call : entry.getValue().getMethodCalls()) {
+                if (call.startsWith(owner + ".") && candidates.containsKey(call)) {
+                    excluded.add(entry.getKey());
+                }
+            }
+        }
+        candidates.keySet().removeAll(excluded);
+
+        // Other classes only get their calls replaced when nothing ties their output to the bytes of this one
+        boolean inlineAcrossClasses = config.getIncrementalCacheDir() == null;
+        Map<String, Set<String>> inlinedCalls = new TreeMap<>();
+        Map<String, Set<String>> removedMethods = new TreeMap<>();
+        int inlinedMethods = 0;
+        int inlinedSites = 0;
+
+        for (Map.Entry<String, ProgramMethod> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            ProgramMethod method = entry.getValue();
+            ProgramClass owner = method.getOwnerClass();
+            int size = method.getInstructionCount();
+            int calls = ownClassCalls.getOrDefault(key, 0);
+            boolean inlined = false;
+
+            if (calls > 0 && (size <= SHARED_BODY_LIMIT || (calls == 1 && size <= SINGLE_CALL_BODY_LIMIT))) {
+                inlinedCalls.computeIfAbsent(owner.getName(), k -> new TreeSet<>()).add(key);
+                inlinedSites += calls;
+                inlined = true;
+
+                if (isRemovable(owner, method, key, otherClassCalls, handleReferences, mappingContext)) {
+                    removedMethods.computeIfAbsent(owner.getName(), k -> new TreeSet<>()).add(method.getName() + method.getDescriptor());
+                    owner.removeMethod(method);
+                }
+            }
+
+            Map<String, Integer> callers = otherClassCalls.getOrDefault(key, Collections.emptyMap());
+            if (inlineAcrossClasses && !callers.isEmpty() && !method.isPrivate() && method.isAccessorBody() &&
+                size <= ACCESSOR_BODY_LIMIT && isAccessibleInPackage(program, owner, method)) {
+                for (Map.Entry<String, Integer> caller : callers.entrySet()) {
+                    ProgramClass callerClass = program.getClass(caller.getKey());
+                    if (callerClass.getPackageName().equals(owner.getPackageName()) && callerClass.getVersion() >= owner.getVersion()) {
+                        inlinedCalls.computeIfAbsent(caller.getKey(), k -> new TreeSet<>()).add(key);
+                        inlinedSites += caller.getValue();
+                        inlined = true;
+                    }
+                }
+            }
+
+            if (inlined) {
+                inlinedMethods++;
+            }
+        }
+
+        program.setInlinePlan(new InlinePlan(inlinedCalls, removedMethods));
+
+        int removedCount = removedMethods.values().stream().mapToInt(Set::size).sum();
+        Logger.info("Method inlining completed. Inlining " + inlinedMethods + " methods at " + inlinedSites +
+                   " call sites in " + inlinedCalls.size() + " classes, removed " + removedCount + " methods");
+    }
+
+    private boolean isCandidate(Program program, ProgramClass cls, ProgramMethod method, MappingContext mappingContext)
+    {
+        if (!method.isInlinableBody() || !MethodInliner.isCandidate(cls.getAccess(), method.getAccess(), method.getName()) ||
+            mappingContext.shouldKeepMethod(cls.getName(), method.getName(), method.getDescriptor())) {
+            return false;
+        }
+
+        // A bridge is the only candidate a subclass can override
+        if (method.isBridge() && !method.isPrivate() && !method.isStatic() && !method.isFinal() && !cls.isFinal()) {
+            return !cls.isInterface() && !isOverridden(program, cls.getName(), method);
+        }
+        return true;
+    }
+
+    private boolean isOverridden(Program program, String className, ProgramMethod method)
+    {
+        Deque<String> subclasses = new ArrayDeque<>(program.getSubclasses(className));
+        Set<String> visited = new HashSet<>();
+        while (!subclasses.isEmpty()) {
+            String subclass = subclasses.poll();
+            if (!visited.add(subclass)) {
+                continue;
+            }
+            ProgramClass subclassInfo = program.getClass(subclass);
+            if (subclassInfo != null && subclassInfo.findMethod(method.getName(), method.getDescriptor()) != null) {
+                return true;
+            }
+            subclasses.addAll(program.getSubclasses(subclass));
+        }
+        return false;
+    }
+
+    // Reflection, serialization and keep rules may still look for it by name
+    private boolean isRemovable(ProgramClass owner, ProgramMethod method, String key, Map<String, Map<String, Integer>> otherClassCalls,
+                                Set<String> handleReferences, MappingContext mappingContext)
+    {
+        return method.isPrivate() && !mappingContext.shouldKeepClass(owner.getName()) && method.getAnnotations().isEmpty() &&
+               !SERIALIZATION_METHODS.contains(method.getName()) && !otherClassCalls.containsKey(key) &&
+               !handleReferences.contains(key);
+    }
+
+    // A copy in another class of the package may only touch what that class could touch itself: members declared
+    // right on a class of the package, and types it can see
+    private boolean isAccessibleInPackage(Program program, ProgramClass owner, ProgramMethod method)
+    {
+        String packageName = owner.getPackageName();
+        for (String call : method.getMethodCalls()) {
+            int dotIndex = call.indexOf('.');
+            int parenIndex = call.indexOf('(', dotIndex);
+            ProgramClass target = program.getClass(call.substring(0, dotIndex));
+            ProgramMethod targetMethod = target != null && target.getPackageName().equals(packageName) ?
+                target.findMethod(call.substring(dotIndex + 1, parenIndex), call.substring(parenIndex)) : null;
+            if (targetMethod == null || targetMethod.isPrivate()) {
+                return false;
+            }
+        }
+        for (String access : method.getFieldAccesses()) {
+            int dotIndex = access.indexOf('.');
+            int colonIndex = access.indexOf(':', dotIndex);
+            ProgramClass target = program.getClass(access.substring(0, dotIndex));
+            ProgramField targetField = target != null && target.getPackageName().equals(packageName) ?
+                target.findField(access.substring(dotIndex + 1, colonIndex), access.substring(colonIndex + 1)) : null;
+            if (targetField == null || targetField.isPrivate()) {
+                return false;
+            }
+        }
+        for (String type : method.getTypeReferences()) {
+            if (!isAccessibleType(program, type, packageName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAccessibleType(Program program, String type, String packageName)
+    {
+        if (type.startsWith("[")) {
+            Type elementType = Type.getType(type).getElementType();
+            if (elementType.getSort() != Type.OBJECT) {
+                return true;
+            }
+            type = elementType.getInternalName();
+        }
+
+        ProgramClass programClass = program.getClass(type);
+        if (programClass != null) {
+            return programClass.isPublic() || programClass.getPackageName().equals(packageName);
+        }
+        LibraryClass libraryClass = program.getLibraryClassPool().findClass(type);
+        return libraryClass != null && (libraryClass.getAccess() & Opcodes.ACC_PUBLIC) != 0;
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings()
+    {
+        return EnumSet.of(MappingKind.CLASS, MappingKind.METHOD);
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return PRIORITY;
+    }
+
+    @Override
+    public boolean mutatesProgram()
+    {
+        return true;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Method Inlining";
+    }
+
+    @Override
+    public boolean isEnabled(ObfuscationConfig config)
+    {
+        return config.isInlineSimpleMethods();
+    }
+}
@@ -3,18 +3,26 @@ package net.cvs0.obfuscation.strategies;
 import net.cvs0.classfile.ProgramClass;
 import net.cvs0.classfile.ProgramMethod;
 import net.cvs0.config.ObfuscationConfig;
+import net.cvs0.core.ClassHierarchy;
 import net.cvs0.core.Program;
+import net.cvs0.core.ReferenceCounts;
+import net.cvs0.core.ShardExecutor;
+import net.cvs0.mapping.MappingFile;
 import net.cvs0.obfuscation.*;
 import net.cvs0.utils.Logger;
 
 import java.util.*;
 import java.util.regex.Pattern;
 
-public class MethodRenamingStrategy implements ObfuscationStrategy 
+public class MethodRenamingStrategy implements ShardedStrategy 
 {
     private static final int PRIORITY = 200;
-    private NameGenerator nameGenerator;
     private final Set<String> standardMethods = new HashSet<>();
+    private final Set<String> reservedNames = new HashSet<>();
+    private ReferenceCounts referenceCounts;
+    private ClassHierarchy hierarchy;
+    private final Set<Integer> blockedFamilies = new HashSet<>();
+    private final Map<String, String> preferredNames = new HashMap<>();
 
     public MethodRenamingStrategy() 
     {
@@ -28,15 +36,80 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
             Logger.info("Starting method renaming obfuscation...");
         }
 
-        nameGenerator = NameGenerator.createGenerator(config.getNamingMode());
+        ShardExecutor.execute(this, program, config, mappingContext);
+
+        if (config.isVerbose()) {
+            Logger.info("Method renaming completed. Renamed " + 
+                      mappingContext.getMethodMappingCount() + " methods");
+        }
+    }
+
+    @Override
+    public Partitioning getPartitioning() 
+    {
+        // Overrides only happen along extends/implements, so unrelated hierarchies may reuse each other's names
+        return Partitioning.HIERARCHY;
+    }
+
+    @Override
+    public void prepareShards(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        reservedNames.clear();
         initializeKeepRules(program, config, mappingContext);
+        buildFamilies(program, config, mappingContext);
+        collectPreferredNames(program, program.getAppliedMapping(), mappingContext);
+        reserveExistingMappings(mappingContext);
+        referenceCounts = config.isRankNamesByUsage() ? program.getReferenceCounts() : null;
+    }
+
+    @Override
+    public NameGenerator createNameGenerator(ObfuscationConfig config) 
+    {
+        NameGenerator nameGenerator = NameGenerator.createGenerator(config.getNamingMode(), config.getNamingSeed());
+        nameGenerator.addReservedNames(reservedNames);
+        return nameGenerator;
+    }
+
+    @Override
+    public void obfuscateShard(ProgramShard shard, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        Map<String, List<MethodInfo>> methodGroups = groupMethodsBySignature(shard.getClasses(), config, mappingContext);
+        Map<String, String> existingGroupNames = collectExistingGroupNames(shard.getClasses(), config, mappingContext);
+        renameMethodGroups(orderMethodGroups(methodGroups), existingGroupNames, shard.getNameGenerator(), shard.getMappings(), config);
+    }
 
-        Map<String, List<MethodInfo>> methodGroups = groupMethodsBySignature(program, config, mappingContext);
-        renameMethodGroups(methodGroups, mappingContext, config);
+    private void buildFamilies(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        long startTime = System.currentTimeMillis();
+        hierarchy = ClassHierarchy.build(program, program.getLibraryClassPool());
+
+        // A family is renamed as a whole or not at all, so one member that has to keep its name blocks the rest
+        blockedFamilies.clear();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                int family = hierarchy.getFamily(cls.getName(), method.getName(), method.getDescriptor());
+                if (hierarchy.isLibraryBound(family) || !canRenameMethod(cls, method, config, mappingContext)) {
+                    blockedFamilies.add(family);
+                }
+            }
+        }
+
+        // Methods that keep their names, and those of library supertypes, must not be reused for renamed ones
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                if (blockedFamilies.contains(hierarchy.getFamily(cls.getName(), method.getName(), method.getDescriptor()))) {
+                    reservedNames.add(method.getName());
+                }
+            }
+        }
+        reservedNames.addAll(hierarchy.getLibraryMethodNames());
 
         if (config.isVerbose()) {
-            Logger.info("Method renaming completed. Renamed " + 
-                      mappingContext.getAllMethodMappings().size() + " methods");
+            Logger.info("Method hierarchy: " + hierarchy.getMethodCount() + " methods, " + blockedFamilies.size() + 
+                       " families kept, built in " + (System.currentTimeMillis() - startTime) + "ms");
+            if (!hierarchy.getUnresolvedClasses().isEmpty()) {
+                Logger.info("Unresolved supertypes, methods below them keep their names: " + hierarchy.getUnresolvedClasses());
+            }
         }
     }
 
@@ -48,6 +121,70 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
         ));
     }
 
+    private void reserveExistingMappings(MappingContext mappingContext) 
+    {
+        mappingContext.forEachMethodMapping((owner, name, descriptor, obfuscatedName) -> reservedNames.add(obfuscatedName));
+        reservedNames.addAll(preferredNames.values());
+    }
+
+    // Names an applied mapping gives, for methods of families that get renamed. A name that a kept method or a
+    // library supertype now holds is dropped, and the method draws a new one
+    private void collectPreferredNames(Program program, MappingFile appliedMapping, MappingContext mappingContext) 
+    {
+        preferredNames.clear();
+        for (ProgramClass cls : program.getAllClasses()) {
+            for (ProgramMethod method : cls.getMethods()) {
+                String preferredName = appliedMapping.getObfuscatedMethodName(cls.getName(), method.getName(), method.getDescriptor());
+                if (preferredName != null && !reservedNames.contains(preferredName)) {
+                    preferredNames.put(cls.getName() + "." + method.getName() + method.getDescriptor(), preferredName);
+                }
+            }
+        }
+    }
+
+    private Map<String, String> collectExistingGroupNames(List<ProgramClass> classes, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        // Mappings carried over from an earlier run keep their names, and new members of the same group follow them.
+        // Names are reused across hierarchies, so only mappings from this shard's own hierarchy may be followed
+        Map<String, String> existingGroupNames = new HashMap<>();
+        for (ProgramClass cls : classes) {
+            for (ProgramMethod method : cls.getMethods()) {
+                if (mappingContext.hasMethodMapping(cls.getName(), method.getName(), method.getDescriptor())) {
+                    existingGroupNames.putIfAbsent(createMethodGroupKey(method), 
+                        mappingContext.getObfuscatedMethodName(cls.getName(), method.getName(), method.getDescriptor()));
+                }
+            }
+        }
+        // Then the applied mapping, for the groups nothing has named yet
+        for (ProgramClass cls : classes) {
+            for (ProgramMethod method : cls.getMethods()) {
+                String preferredName = preferredNames.get(cls.getName() + "." + method.getName() + method.getDescriptor());
+                if (preferredName != null && shouldRenameMethod(cls, method, config, mappingContext)) {
+                    existingGroupNames.putIfAbsent(createMethodGroupKey(method), preferredName);
+                }
+            }
+        }
+        return existingGroupNames;
+    }
+
+    private List<Map.Entry<String, List<MethodInfo>>> orderMethodGroups(Map<String, List<MethodInfo>> methodGroups) 
+    {
+        List<Map.Entry<String, List<MethodInfo>>> ordered = new ArrayList<>(methodGroups.entrySet());
+        if (referenceCounts != null) {
+            Map<String, Integer> usage = new HashMap<>();
+            for (Map.Entry<String, List<MethodInfo>> entry : ordered) {
+                int count = 0;
+                for (MethodInfo methodInfo : entry.getValue()) {
+                    count += referenceCounts.getMethodCount(methodInfo.className, methodInfo.method.getName(), methodInfo.method.getDescriptor());
+                }
+                usage.put(entry.getKey(), count);
+            }
+            // Stable sort, so equally used groups keep their declaration order
+            ordered.sort((a, b) -> Integer.compare(usage.get(b.getKey()), usage.get(a.getKey())));
+        }
+        return ordered;
+    }
+
     private void initializeKeepRules(Program program, ObfuscationConfig config, MappingContext mappingContext) 
     {
         for (String keepMethod : config.getKeepMethods()) {
@@ -61,7 +198,7 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
                     String methodName = methodSignature.substring(0, descriptorIndex);
                     String descriptor = methodSignature.substring(descriptorIndex);
                     mappingContext.addKeepMethod(className, methodName, descriptor);
-                    nameGenerator.addReservedName(methodName);
+                    reservedNames.add(methodName);
                 }
             }
         }
@@ -71,7 +208,7 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
                 for (ProgramMethod method : cls.getMethods()) {
                     if (isStandardEntryPoint(method)) {
                         mappingContext.addKeepMethod(cls.getName(), method.getName(), method.getDescriptor());
-                        nameGenerator.addReservedName(method.getName());
+                        reservedNames.add(method.getName());
                     }
                 }
             }
@@ -83,7 +220,7 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
                 if (regex.matcher(cls.getName()).matches()) {
                     for (ProgramMethod method : cls.getMethods()) {
                         mappingContext.addKeepMethod(cls.getName(), method.getName(), method.getDescriptor());
-                        nameGenerator.addReservedName(method.getName());
+                        reservedNames.add(method.getName());
                     }
                 }
             }
@@ -102,17 +239,17 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
                     String obfuscatedName = config.getCustomMappings().get(customMapping);
                     
                     mappingContext.mapMethod(className, methodName, descriptor, obfuscatedName);
-                    nameGenerator.addReservedName(obfuscatedName);
+                    reservedNames.add(obfuscatedName);
                 }
             }
         }
     }
 
-    private Map<String, List<MethodInfo>> groupMethodsBySignature(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    private Map<String, List<MethodInfo>> groupMethodsBySignature(List<ProgramClass> classes, ObfuscationConfig config, MappingContext mappingContext) 
     {
-        Map<String, List<MethodInfo>> methodGroups = new HashMap<>();
+        Map<String, List<MethodInfo>> methodGroups = new LinkedHashMap<>();
 
-        for (ProgramClass cls : program.getAllClasses()) {
+        for (ProgramClass cls : classes) {
             for (ProgramMethod method : cls.getMethods()) {
                 if (shouldRenameMethod(cls, method, config, mappingContext)) {
                     String groupKey = createMethodGroupKey(method);
@@ -127,6 +264,14 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
     }
 
     private boolean shouldRenameMethod(ProgramClass cls, ProgramMethod method, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        if (mappingContext.hasMethodMapping(cls.getName(), method.getName(), method.getDescriptor())) {
+            return false;
+        }
+        return !blockedFamilies.contains(hierarchy.getFamily(cls.getName(), method.getName(), method.getDescriptor()));
+    }
+
+    private boolean canRenameMethod(ProgramClass cls, ProgramMethod method, ObfuscationConfig config, MappingContext mappingContext) 
     {
         String className = cls.getName();
         String methodName = method.getName();
@@ -136,10 +281,6 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
             return false;
         }
 
-        if (mappingContext.hasMethodMapping(className, methodName, descriptor)) {
-            return false;
-        }
-
         if (standardMethods.contains(methodName)) {
             return false;
         }
@@ -156,14 +297,6 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
             return false;
         }
 
-        if (isOverridingLibraryMethod(cls, method)) {
-            return false;
-        }
-
-        if (isInterfaceMethod(cls, method) && hasImplementorsOutsideProgram(cls, method)) {
-            return false;
-        }
-
         if (!config.getIncludePackages().isEmpty()) {
             boolean included = false;
             for (String includePackage : config.getIncludePackages()) {
@@ -210,44 +343,18 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
         return false;
     }
 
-    private boolean isOverridingLibraryMethod(ProgramClass cls, ProgramMethod method) 
-    {
-        if (cls.getSuperName() != null && (
-            cls.getSuperName().startsWith("java/") || 
-            cls.getSuperName().startsWith("javax/") ||
-            cls.getSuperName().startsWith("android/"))) {
-            return true;
-        }
-
-        for (String interfaceName : cls.getInterfaces()) {
-            if (interfaceName.startsWith("java/") || 
-                interfaceName.startsWith("javax/") ||
-                interfaceName.startsWith("android/")) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private boolean isInterfaceMethod(ProgramClass cls, ProgramMethod method) 
-    {
-        return cls.isInterface() && !method.isStatic() && !method.isPrivate();
-    }
-
-    private boolean hasImplementorsOutsideProgram(ProgramClass cls, ProgramMethod method) 
-    {
-        return false;
-    }
-
     private String createMethodGroupKey(ProgramMethod method) 
     {
         return method.getName() + ":" + method.getDescriptor();
     }
 
-    private void renameMethodGroups(Map<String, List<MethodInfo>> methodGroups, MappingContext mappingContext, ObfuscationConfig config) 
+    private void renameMethodGroups(List<Map.Entry<String, List<MethodInfo>>> methodGroups, Map<String, String> existingGroupNames, 
+                                   NameGenerator nameGenerator, MappingBuffer mappings, ObfuscationConfig config) 
     {
-        for (Map.Entry<String, List<MethodInfo>> entry : methodGroups.entrySet()) {
+        // The JVM resolves methods by name and descriptor, so with aggressive overloading each descriptor draws from
+        // its own name space and only groups sharing a descriptor need distinct names
+        Map<String, NameGenerator> descriptorGenerators = new HashMap<>();
+        for (Map.Entry<String, List<MethodInfo>> entry : methodGroups) {
             String groupKey = entry.getKey();
             List<MethodInfo> methods = entry.getValue();
 
@@ -255,11 +362,17 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
                 continue;
             }
 
-            String obfuscatedName = nameGenerator.generateMethodName();
+            String obfuscatedName = existingGroupNames.get(groupKey);
+            if (obfuscatedName == null) {
+                NameGenerator generator = config.isAggressiveOverloading() ?
+                    descriptorGenerators.computeIfAbsent(methods.get(0).method.getDescriptor(), k -> nameGenerator.partition()) :
+                    nameGenerator;
+                obfuscatedName = generator.generateMethodName();
+            }
             
             for (MethodInfo methodInfo : methods) {
-                mappingContext.mapMethod(methodInfo.className, methodInfo.method.getName(), 
-                                       methodInfo.method.getDescriptor(), obfuscatedName);
+                mappings.mapMethod(methodInfo.className, methodInfo.method.getName(), 
+                                   methodInfo.method.getDescriptor(), obfuscatedName);
                 
                 if (config.isVerbose()) {
                     Logger.debug("Mapped method: " + methodInfo.className + "." + 
@@ -287,6 +400,24 @@ public class MethodRenamingStrategy implements ObfuscationStrategy
         return PRIORITY;
     }
 
+    @Override
+    public Set<MappingKind> getProducedMappings() 
+    {
+        return EnumSet.of(MappingKind.METHOD);
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings() 
+    {
+        return EnumSet.of(MappingKind.METHOD);
+    }
+
+    @Override
+    public boolean mutatesProgram() 
+    {
+        return false;
+    }
+
     private static class MethodInfo 
     {
         final String className;
@@ -3,37 +3,68 @@ package net.cvs0.obfuscation.strategies;
 import net.cvs0.classfile.*;
 import net.cvs0.config.ObfuscationConfig;
 import net.cvs0.core.Program;
+import net.cvs0.core.ShardExecutor;
 import net.cvs0.obfuscation.*;
 import net.cvs0.utils.Logger;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class SyntheticMemberStrategy implements ObfuscationStrategy 
+public class SyntheticMemberStrategy implements ShardedStrategy 
 {
     private static final int PRIORITY = 500;
-    private NameGenerator nameGenerator;
-    private final Random random = new Random();
+    private final AtomicInteger processedClasses = new AtomicInteger();
+    private final AtomicInteger addedFields = new AtomicInteger();
+    private final AtomicInteger addedMethods = new AtomicInteger();
 
     @Override
     public void obfuscate(Program program, ObfuscationConfig config, MappingContext mappingContext) throws ObfuscationException 
     {
         Logger.info("Starting synthetic member addition obfuscation...");
 
-        nameGenerator = NameGenerator.createGenerator(config.getNamingMode());
+        ShardExecutor.execute(this, program, config, mappingContext);
 
-        int processedClasses = 0;
-        int addedFields = 0;
-        int addedMethods = 0;
+        Logger.info("Synthetic member addition completed. Processed " + processedClasses.get() + 
+                   " classes, added " + addedFields.get() + " synthetic fields and " + 
+                   addedMethods.get() + " synthetic methods");
+    }
+
+    @Override
+    public Partitioning getPartitioning() 
+    {
+        return Partitioning.PACKAGE;
+    }
 
-        for (ProgramClass cls : program.getAllClasses()) {
+    @Override
+    public void prepareShards(Program program, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        processedClasses.set(0);
+        addedFields.set(0);
+        addedMethods.set(0);
+    }
+
+    @Override
+    public NameGenerator createNameGenerator(ObfuscationConfig config) 
+    {
+        return NameGenerator.createGenerator(config.getNamingMode(), config.getNamingSeed());
+    }
+
+    @Override
+    public void obfuscateShard(ProgramShard shard, ObfuscationConfig config, MappingContext mappingContext) 
+    {
+        NameGenerator nameGenerator = shard.getNameGenerator();
+        // Seeded per package so the added members are reproducible for a given seed, whatever the thread count
+        Random random = new Random(config.getNamingSeed() * 31 + shard.getKey().hashCode());
+
+        for (ProgramClass cls : shard.getClasses()) {
             if (shouldProcessClass(cls, config, mappingContext)) {
-                processedClasses++;
+                processedClasses.incrementAndGet();
                 
-                int fieldsAdded = addSyntheticFields(cls, config);
-                int methodsAdded = addSyntheticMethods(cls, config);
+                int fieldsAdded = addSyntheticFields(cls, nameGenerator, random);
+                int methodsAdded = addSyntheticMethods(cls, nameGenerator, random);
                 
-                addedFields += fieldsAdded;
-                addedMethods += methodsAdded;
+                addedFields.addAndGet(fieldsAdded);
+                addedMethods.addAndGet(methodsAdded);
 
                 if (config.isVerbose() && (fieldsAdded > 0 || methodsAdded > 0)) {
                     Logger.debug("Added " + fieldsAdded + " synthetic fields and " + 
@@ -41,10 +72,6 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
                 }
             }
         }
-
-        Logger.info("Synthetic member addition completed. Processed " + processedClasses + 
-                   " classes, added " + addedFields + " synthetic fields and " + 
-                   addedMethods + " synthetic methods");
     }
 
     private boolean shouldProcessClass(ProgramClass cls, ObfuscationConfig config, MappingContext mappingContext) 
@@ -99,14 +126,14 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return true;
     }
 
-    private int addSyntheticFields(ProgramClass cls, ObfuscationConfig config) 
+    private int addSyntheticFields(ProgramClass cls, NameGenerator nameGenerator, Random random) 
     {
         int fieldsToAdd = random.nextInt(3) + 1;
         int addedFields = 0;
 
         for (int i = 0; i < fieldsToAdd; i++) {
-            String fieldName = generateSyntheticFieldName();
-            String descriptor = generateRandomFieldDescriptor();
+            String fieldName = nameGenerator.generateFieldName();
+            String descriptor = generateRandomFieldDescriptor(random);
             
             if (!hasField(cls, fieldName)) {
                 int access = JavaConstants.ACC_PRIVATE | JavaConstants.ACC_SYNTHETIC;
@@ -117,7 +144,7 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
                     access |= JavaConstants.ACC_FINAL;
                 }
 
-                Object defaultValue = generateDefaultValue(descriptor);
+                Object defaultValue = generateDefaultValue(descriptor, random);
                 ProgramField syntheticField = new ProgramField(access, fieldName, descriptor, null, defaultValue);
                 syntheticField.setOwnerClass(cls);
                 
@@ -129,14 +156,14 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return addedFields;
     }
 
-    private int addSyntheticMethods(ProgramClass cls, ObfuscationConfig config) 
+    private int addSyntheticMethods(ProgramClass cls, NameGenerator nameGenerator, Random random) 
     {
         int methodsToAdd = random.nextInt(2) + 1;
         int addedMethods = 0;
 
         for (int i = 0; i < methodsToAdd; i++) {
-            String methodName = generateSyntheticMethodName();
-            String descriptor = generateRandomMethodDescriptor();
+            String methodName = nameGenerator.generateMethodName();
+            String descriptor = generateRandomMethodDescriptor(random);
             
             if (!hasMethod(cls, methodName, descriptor)) {
                 int access = JavaConstants.ACC_PRIVATE | JavaConstants.ACC_SYNTHETIC;
@@ -158,17 +185,7 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return addedMethods;
     }
 
-    private String generateSyntheticFieldName() 
-    {
-        return nameGenerator.generateFieldName();
-    }
-
-    private String generateSyntheticMethodName() 
-    {
-        return nameGenerator.generateMethodName();
-    }
-
-    private String generateRandomFieldDescriptor() 
+    private String generateRandomFieldDescriptor(Random random) 
     {
         String[] descriptors = {
             "I",           // int
@@ -182,7 +199,7 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return descriptors[random.nextInt(descriptors.length)];
     }
 
-    private String generateRandomMethodDescriptor() 
+    private String generateRandomMethodDescriptor(Random random) 
     {
         String[] returnTypes = {"V", "I", "Z", "Ljava/lang/String;", "Ljava/lang/Object;"};
         String[] paramTypes = {"", "I", "Ljava/lang/String;", "ILjava/lang/String;"};
@@ -193,7 +210,7 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return "(" + params + ")" + returnType;
     }
 
-    private Object generateDefaultValue(String descriptor) 
+    private Object generateDefaultValue(String descriptor, Random random) 
     {
         switch (descriptor) {
             case "I":
@@ -203,13 +220,13 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
             case "Z":
                 return random.nextBoolean();
             case "Ljava/lang/String;":
-                return generateRandomString();
+                return generateRandomString(random);
             default:
                 return null;
         }
     }
 
-    private String generateRandomString() 
+    private String generateRandomString(Random random) 
     {
         String[] strings = {
             "synthetic", "dummy", "placeholder", "temp", "buffer", 
@@ -319,6 +336,24 @@ public class SyntheticMemberStrategy implements ObfuscationStrategy
         return PRIORITY;
     }
 
+    @Override
+    public Set<MappingKind> getProducedMappings() 
+    {
+        return EnumSet.noneOf(MappingKind.class);
+    }
+
+    @Override
+    public Set<MappingKind> getConsumedMappings() 
+    {
+        return EnumSet.of(MappingKind.CLASS);
+    }
+
+    @Override
+    public boolean mutatesProgram() 
+    {
+        return true;
+    }
+
     @Override
     public String getName() 
     {